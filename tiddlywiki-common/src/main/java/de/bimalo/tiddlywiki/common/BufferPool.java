@@ -0,0 +1,232 @@
+package de.bimalo.tiddlywiki.common;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * <p>
+ * A pool of byte arrays reused for reading files. Reading many small files
+ * otherwise allocates several short-lived arrays per file.</p>
+ * <p>
+ * The arrays are grouped in size classes, powers of two from 4 KB up to 1 MB.
+ * Every size class keeps a bounded number of released arrays, so the pool
+ * holds at most a few MB. An array can be acquired and released by different
+ * threads. Larger arrays are allocated and never pooled.</p>
+ * <p>
+ * An array must not be used after it was released.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @since 1.2
+ */
+public final class BufferPool {
+
+    /**
+     * The size of the smallest size class as power of two.
+     */
+    private static final int MIN_SHIFT = 12;
+
+    /**
+     * The size of the largest size class as power of two.
+     */
+    private static final int MAX_SHIFT = 20;
+
+    /**
+     * Maximum number of bytes kept per size class.
+     */
+    private static final int MAX_BYTES_PER_CLASS = 4 << 20;
+
+    /**
+     * Maximum number of arrays kept per size class.
+     */
+    private static final int MAX_BUFFERS_PER_CLASS = 32;
+
+    /**
+     * Default size of the buffer of a buffered stream.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * The shared instance.
+     */
+    private static final BufferPool INSTANCE = new BufferPool();
+
+    /**
+     * The released arrays per size class.
+     */
+    private final List<ArrayBlockingQueue<byte[]>> classes;
+
+    /**
+     * Creates a new <code>BufferPool</code>.
+     */
+    BufferPool() {
+        classes = new ArrayList<ArrayBlockingQueue<byte[]>>(MAX_SHIFT - MIN_SHIFT + 1);
+        for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+            int size = 1 << shift;
+            classes.add(new ArrayBlockingQueue<byte[]>(Math.max(2, Math.min(MAX_BUFFERS_PER_CLASS,
+                    MAX_BYTES_PER_CLASS / size))));
+        }
+    }
+
+    /**
+     * Returns the shared instance.
+     *
+     * @return the shared BufferPool
+     */
+    public static BufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns an array of at least the given size, a released array of the
+     * size class if available.
+     *
+     * @param minSize the minimum size in bytes
+     * @return an array, its content is undefined
+     * @exception IllegalArgumentException if minSize is negative
+     */
+    public byte[] acquire(int minSize) {
+        Assert.isTrue(minSize >= 0);
+        int index = indexOf(minSize);
+        if (index < 0) {
+            return new byte[minSize];
+        }
+        byte[] buffer = classes.get(index).poll();
+        return buffer != null ? buffer : new byte[1 << (MIN_SHIFT + index)];
+    }
+
+    /**
+     * Returns an array to the pool. Arrays not acquired from a pool are
+     * ignored.
+     *
+     * @param buffer the array, can be null
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        int index = indexOf(buffer.length);
+        if (index >= 0 && buffer.length == 1 << (MIN_SHIFT + index)) {
+            classes.get(index).offer(buffer);
+        }
+    }
+
+    /**
+     * Creates a buffered stream using an array of the pool. The array is
+     * released when the stream is closed.
+     *
+     * @param in the underlying stream
+     * @return the buffered stream supporting mark and reset
+     * @exception IllegalArgumentException if in is null
+     */
+    public InputStream newBufferedInputStream(InputStream in) {
+        Assert.notNull(in);
+        return new PooledBufferedInputStream(in, this);
+    }
+
+    /**
+     * Creates a stream reading an array of the pool. The array is released
+     * when the stream is closed.
+     *
+     * @param buffer an array acquired from this pool
+     * @param length number of valid bytes of the array
+     * @return the stream supporting mark and reset
+     * @exception IllegalArgumentException if buffer is null
+     */
+    public InputStream newByteArrayInputStream(byte[] buffer, int length) {
+        Assert.notNull(buffer);
+        return new PooledByteArrayInputStream(buffer, length, this);
+    }
+
+    /**
+     * Returns the index of the size class for a size.
+     *
+     * @return the index or -1 if the size is larger than the largest class
+     */
+    private static int indexOf(int size) {
+        if (size > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        int shift = size <= 1 << MIN_SHIFT ? MIN_SHIFT : 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift - MIN_SHIFT;
+    }
+
+    /**
+     * A BufferedInputStream with an array of the pool.
+     */
+    private static final class PooledBufferedInputStream extends BufferedInputStream {
+
+        /**
+         * The pool of the array.
+         */
+        private final BufferPool pool;
+
+        /**
+         * The array acquired from the pool, null after it was released.
+         */
+        private byte[] pooled;
+
+        /**
+         * Creates a new <code>PooledBufferedInputStream</code>.
+         */
+        PooledBufferedInputStream(InputStream in, BufferPool pool) {
+            super(in, 1);
+            this.pool = pool;
+            this.pooled = pool.acquire(DEFAULT_BUFFER_SIZE);
+            this.buf = pooled;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                synchronized (this) {
+                    if (pooled != null) {
+                        pool.release(pooled);
+                        pooled = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A ByteArrayInputStream reading an array of the pool.
+     */
+    private static final class PooledByteArrayInputStream extends ByteArrayInputStream {
+
+        /**
+         * An empty array replacing the released array.
+         */
+        private static final byte[] EMPTY = new byte[0];
+
+        /**
+         * The pool of the array.
+         */
+        private final BufferPool pool;
+
+        /**
+         * Creates a new <code>PooledByteArrayInputStream</code>.
+         */
+        PooledByteArrayInputStream(byte[] buffer, int length, BufferPool pool) {
+            super(buffer, 0, length);
+            this.pool = pool;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (buf != EMPTY) {
+                pool.release(buf);
+                buf = EMPTY;
+                pos = 0;
+                count = 0;
+                mark = 0;
+            }
+        }
+    }
+}
@@ -1,13 +1,18 @@
 package de.bimalo.tiddlywiki.common;
 
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A factory to create objects of type <code>java.util.Date</code>.
  * <p>
- * It is implemented as singleton!
+ * It is implemented as singleton! The instance is created once without
+ * locking and can be used by several threads at the same time.
  * </p>
  *
  * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
@@ -16,15 +21,25 @@ import java.util.Locale;
  */
 public final class DateFactory {
 
+    /**
+     * The first year of the Gregorian calendar in
+     * <code>java.util.GregorianCalendar</code>, before dates are Julian.
+     */
+    private static final int FIRST_GREGORIAN_YEAR = 1583;
     /**
      * The "singleton" DateFactory instance.
      */
-    private static DateFactory factory = null;
+    private static final AtomicReference<DateFactory> FACTORY = new AtomicReference<DateFactory>();
     /**
      * The Locale used to create Date objects considering language specific
      * formats.
      */
-    private Locale locale = null;
+    private final Locale locale;
+    /**
+     * true if the Locale uses the Gregorian calendar, dates are created with
+     * <code>java.time</code> instead of a Calendar object.
+     */
+    private final boolean gregorian;
 
     /**
      * Constructs a new <code>DateFactory</code> object. When local is null the
@@ -38,6 +53,7 @@ public final class DateFactory {
         } else {
             this.locale = locale;
         }
+        this.gregorian = Calendar.getInstance(this.locale) instanceof GregorianCalendar;
     }
 
     /**
@@ -45,9 +61,11 @@ public final class DateFactory {
      *
      * @return the initialized DateFactory.
      */
-    public static synchronized DateFactory getInstance() {
+    public static DateFactory getInstance() {
+        DateFactory factory = FACTORY.get();
         if (factory == null) {
-            factory = new DateFactory(null);
+            FACTORY.compareAndSet(null, new DateFactory(null));
+            factory = FACTORY.get();
         }
         return factory;
     }
@@ -60,10 +78,12 @@ public final class DateFactory {
      * @exception IllegalArgumentException if DateFactory not yet initialized
      * and locale is null
      */
-    public static synchronized DateFactory getInstance(Locale locale) {
+    public static DateFactory getInstance(Locale locale) {
+        DateFactory factory = FACTORY.get();
         if (factory == null) {
             Assert.notNull(locale);
-            factory = new DateFactory(locale);
+            FACTORY.compareAndSet(null, new DateFactory(locale));
+            factory = FACTORY.get();
         }
         return factory;
     }
@@ -76,10 +96,12 @@ public final class DateFactory {
      * @exception IllegalArgumentException if DateFactory not yet initialized
      * and localizer is null
      */
-    public static synchronized DateFactory getInstance(Localizer localizer) {
+    public static DateFactory getInstance(Localizer localizer) {
+        DateFactory factory = FACTORY.get();
         if (factory == null) {
             Assert.notNull(localizer);
-            factory = new DateFactory((localizer != null ? localizer.getLocale() : null));
+            FACTORY.compareAndSet(null, new DateFactory(localizer.getLocale()));
+            factory = FACTORY.get();
         }
         return factory;
     }
@@ -102,6 +124,9 @@ public final class DateFactory {
      */
     public Date createDate(int day, int month, int year) {
         validateDateValues(day, month, year);
+        if (gregorian && year >= FIRST_GREGORIAN_YEAR) {
+            return toDate(year, month, day, 0, 0, 0);
+        }
 
         Calendar calendar = Calendar.getInstance(locale);
         calendar.set(Calendar.DAY_OF_MONTH, day);
@@ -136,6 +161,9 @@ public final class DateFactory {
     public Date createDate(int day, int month, int year, int hour, int minute, int second) {
         validateDateValues(day, month, year);
         validateTimeValues(hour, minute, second);
+        if (gregorian && year >= FIRST_GREGORIAN_YEAR) {
+            return toDate(year, month, day, hour, minute, second);
+        }
 
         Calendar calendar = Calendar.getInstance(locale);
         calendar.set(Calendar.DAY_OF_MONTH, day);
@@ -149,6 +177,20 @@ public final class DateFactory {
         return calendar.getTime();
     }
 
+    /**
+     * Creates a <code>Date</code> object of the default time zone like a
+     * lenient Calendar does, a day or second beyond the end of the month or
+     * minute moves the date forward. A time repeated at the end of daylight
+     * saving time is standard time like in a Calendar.
+     *
+     * @return the created Date object.
+     */
+    private static Date toDate(int year, int month, int day, int hour, int minute, int second) {
+        LocalDateTime dateTime = LocalDateTime.of(year, month, 1, 0, 0)
+                .plusDays(day - 1L).plusHours(hour).plusMinutes(minute).plusSeconds(second);
+        return new Date(dateTime.atZone(ZoneId.systemDefault()).withLaterOffsetAtOverlap().toInstant().toEpochMilli());
+    }
+
     /**
      * Validates the input parameters day, month, year.
      *
@@ -0,0 +1,72 @@
+package de.bimalo.tiddlywiki.common;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * It provides helper functions to calculate content hashes.
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @since 1.2
+ */
+public abstract class DigestUtilities {
+
+    /**
+     * The algorithm used for content hashes.
+     */
+    private static final String ALGORITHM = "SHA-256";
+
+    /**
+     * Hexadecimal digits.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Private constructor to avoid creating instances of this class.
+     */
+    private DigestUtilities() {
+    }
+
+    /**
+     * Creates a new MessageDigest for content hashes (SHA-256).
+     *
+     * @return a new MessageDigest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform has to support SHA-256.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Calculates the content hash of the given bytes.
+     *
+     * @param data the bytes
+     * @return the content hash as hexadecimal String
+     * @exception IllegalArgumentException if data is null
+     */
+    public static String hash(byte[] data) {
+        Assert.notNull(data);
+        return toHex(newDigest().digest(data));
+    }
+
+    /**
+     * Converts the given bytes into a hexadecimal String.
+     *
+     * @param data the bytes
+     * @return hexadecimal String with lower case letters
+     * @exception IllegalArgumentException if data is null
+     */
+    public static String toHex(byte[] data) {
+        Assert.notNull(data);
+        char[] chars = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(data[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX_DIGITS[data[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
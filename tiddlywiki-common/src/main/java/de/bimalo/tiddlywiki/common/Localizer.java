@@ -1,11 +1,23 @@
 package de.bimalo.tiddlywiki.common;
 
-import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.FormatStyle;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -15,6 +27,7 @@ import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,6 +35,11 @@ import org.slf4j.LoggerFactory;
  * <p>
  * A "manager" providing localization support for numbers, resources and dates.
  * </p>
+ * <p>
+ * Dates are formatted and parsed with immutable <code>DateTimeFormatter</code>
+ * objects, which are created once per Locale and pattern and can be used by
+ * several threads at the same time without locking.
+ * </p>
  *
  * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
  * @since 1.0
@@ -45,6 +63,21 @@ public final class Localizer {
      * The default pattern to format a java.util.Date object.
      */
     private static final String DEFAULT_DATE_PATTERN = "dd.MM.yyyy";
+    /**
+     * The date and time styles tried by <code>parseDateString</code> in this
+     * order.
+     */
+    private static final FormatStyle[][] PARSE_STYLES = {
+        {FormatStyle.SHORT, FormatStyle.SHORT},
+        {FormatStyle.MEDIUM, FormatStyle.MEDIUM},
+        {FormatStyle.LONG, FormatStyle.LONG},
+        {FormatStyle.FULL, FormatStyle.FULL},
+        {FormatStyle.MEDIUM, FormatStyle.LONG}
+    };
+    /**
+     * Maximum number of patterns with a cached formatter.
+     */
+    private static final int MAX_CACHED_PATTERNS = 64;
     /**
      * The configured Locale of this Localizer.
      */
@@ -54,6 +87,11 @@ public final class Localizer {
      * handle multiple ResourceBundles.
      */
     private Map resourceBundleRegistry = Collections.synchronizedMap(new HashMap());
+    /**
+     * The date formatters of the configured Locale, replaced when the Locale
+     * changes.
+     */
+    private volatile DateFormats dateFormats = null;
 
     /**
      * Constructs a new <code>Localizer</code> with the default Locale.
@@ -63,6 +101,7 @@ public final class Localizer {
      */
     public Localizer() {
         locale = DEFAULT_LOCALE;
+        dateFormats = new DateFormats(locale);
         initializeDefaultBundle();
         logger.trace("Localizer with Locale {} initialized.", locale);
     }
@@ -77,6 +116,7 @@ public final class Localizer {
      */
     public Localizer(Locale locale) {
         this.locale = (locale == null ? DEFAULT_LOCALE : locale);
+        dateFormats = new DateFormats(this.locale);
         initializeDefaultBundle();
         logger.trace("Localizer with Locale {} initialized.", locale);
     }
@@ -102,6 +142,7 @@ public final class Localizer {
             return;
         }
         this.locale = locale;
+        dateFormats = new DateFormats(locale);
         Set<String> keys = resourceBundleRegistry.keySet();
         for (String key : keys) {
             ResourceBundle resourceBundle = loadResourceBundle(key, theReferrer);
@@ -230,48 +271,35 @@ public final class Localizer {
      *
      * @param date the date to convert
      * @param pattern defines the pattern to convert the Date object as
-     * described in <code>java.text.SimpleDateFormat</code>.
+     * described in <code>java.time.format.DateTimeFormatter</code>, the usual
+     * letters like "dd.MM.yyyy HH:mm:ss" have the same meaning as in
+     * <code>java.text.SimpleDateFormat</code>.
      * @return the formatted Date object as String.
-     * @see java.text.SimpleDateFormat
-     * @exception IllegalArgumentException if date is null
+     * @see java.time.format.DateTimeFormatter
+     * @exception IllegalArgumentException if date is null or the pattern is
+     * invalid
      */
     public String formatDateObject(Date date, String pattern) {
         Assert.notNull(date);
 
-        String formattedDate = null;
         String applyPattern = (pattern == null || pattern.isEmpty() ? DEFAULT_DATE_PATTERN : pattern);
-
-        DateFormat df = DateFormat.getDateInstance(DateFormat.SHORT, locale);
-        df.setLenient(false);
-
-        if (df instanceof SimpleDateFormat) {
-            SimpleDateFormat sdf = (SimpleDateFormat) df;
-            sdf.applyPattern(applyPattern);
-            formattedDate = sdf.format(date);
-        } else {
-            formattedDate = df.format(date);
-        }
-
-        return formattedDate;
+        DateTimeFormatter formatter = dateFormats.getFormatter(applyPattern);
+        return formatter.format(toZonedDateTime(date));
     }
 
     /**
      * Converts the given Date object into a String. It uses the pattern defined
-     * by <code>java.text.DateFormat.MEDIUM</code>.
+     * by <code>java.time.format.FormatStyle.MEDIUM</code>.
      *
      * @param date the date to convert
      * @return the formatted Date object as string.
-     * @see java.text.DateFormat
+     * @see java.time.format.FormatStyle
      * @exception IllegalArgumentException if date is null
      */
     public String formatDateObject(Date date) {
         Assert.notNull(date);
 
-        DateFormat df = DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
-        df.setLenient(false);
-        String formattedDate = df.format(date);
-
-        return formattedDate;
+        return dateFormats.mediumDate.format(toZonedDateTime(date));
     }
 
     /**
@@ -309,40 +337,29 @@ public final class Localizer {
 
     /**
      * Parses a given String and tries to create a Date object with the
-     * collected data. It tries to parse the String with pre-defined formats in
-     * <code>java.text.DateFormat.</code>. The formats SHORT, MEDIUM, LONG, FULL
-     * are used!. If the String could not be converted into a Date object an
+     * collected data. It tries to parse the String with the localized date and
+     * time styles of <code>java.time.format.FormatStyle</code>. The styles
+     * SHORT, MEDIUM, LONG, FULL are used!. The whole String must match one of
+     * the styles. If the String could not be converted into a Date object an
      * exception raised!
      *
      * @param dateString a String contains date and time information
      * @return a Date object
      * @exception ParseException if the String could not be parsed
-     * @see java.text.DateFormat
+     * @see java.time.format.FormatStyle
      * @exception IllegalArgumentException if dateString is null or length == 0
      */
     public Date parseDateString(String dateString) throws ParseException {
         Assert.notNull(dateString);
 
-        Date date = null;
-        try {
-            date = parseDateStringInternal(dateString, DateFormat.SHORT, DateFormat.SHORT);
-        } catch (ParseException ex1) {
-            try {
-                date = parseDateStringInternal(dateString, DateFormat.MEDIUM, DateFormat.MEDIUM);
-            } catch (ParseException ex2) {
-                try {
-                    date = parseDateStringInternal(dateString, DateFormat.LONG, DateFormat.LONG);
-                } catch (ParseException ex3) {
-                    try {
-                        date = parseDateStringInternal(dateString, DateFormat.FULL, DateFormat.FULL);
-                    } catch (ParseException ex4) {
-                        date = parseDateStringInternal(dateString, DateFormat.MEDIUM, DateFormat.LONG);
-                    }
-                }
+        DateTimeFormatter[] parsers = dateFormats.parsers;
+        for (int i = 0; i < parsers.length; i++) {
+            Date date = parse(parsers[i], dateString);
+            if (date != null) {
+                return date;
             }
         }
-
-        return date;
+        throw new ParseException("Unparseable date: \"" + dateString + "\"", 0);
     }
 
     /**
@@ -364,18 +381,9 @@ public final class Localizer {
     public Date parseDateString(String dateString, String pattern) throws ParseException {
         Assert.notNull(dateString);
 
-        Date date = null;
         String applyPattern = (pattern == null || pattern.isEmpty() ? DEFAULT_DATE_PATTERN : pattern);
-
-        try {
-            DateFormat df = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM, locale);
-            df.setLenient(false);
-            if (df instanceof SimpleDateFormat) {
-                SimpleDateFormat sdf = (SimpleDateFormat) df;
-                sdf.applyPattern(applyPattern);
-                date = sdf.parse(dateString);
-            }
-        } catch (ParseException ex) {
+        Date date = parse(dateFormats.getFormatter(applyPattern), dateString);
+        if (date == null) {
             date = parseDateString(dateString);
         }
         return date;
@@ -414,21 +422,47 @@ public final class Localizer {
     }
 
     /**
-     * Converts a given String (dateString) into a Data object using DateFormat
-     * with the given date and time formatting style.
+     * Converts a given String (dateString) into a Date object using the given
+     * formatter. The String is parsed without resolving first, so a String
+     * not matching the formatter does not raise an exception.
      *
+     * @param formatter the formatter
      * @param dateString the String to convert to Date
-     * @param dateStyle the given date formatting style.
-     * @param timeStyle the given time formatting style.
-     * @return the converted Date object
-     * @exception ParseException if conversion failed
+     * @return the converted Date object or null if the String does not match
+     * the formatter or is not a valid date
      */
-    private Date parseDateStringInternal(String dateString, int dateStyle, int timeStyle)
-            throws ParseException {
-        DateFormat df = DateFormat.getDateTimeInstance(dateStyle, timeStyle, locale);
-        df.setLenient(false);
-        Date date = df.parse(dateString);
-        return date;
+    private static Date parse(DateTimeFormatter formatter, String dateString) {
+        ParsePosition position = new ParsePosition(0);
+        if (formatter.parseUnresolved(dateString, position) == null
+                || position.getIndex() != dateString.length()) {
+            return null;
+        }
+        TemporalAccessor parsed;
+        try {
+            parsed = formatter.parse(dateString);
+        } catch (DateTimeException ex) {
+            // matches the formatter but is not a valid date, like 31.02.2012
+            return null;
+        }
+        LocalDate date = parsed.query(TemporalQueries.localDate());
+        if (date == null) {
+            return null;
+        }
+        LocalTime time = parsed.query(TemporalQueries.localTime());
+        ZoneId zone = parsed.query(TemporalQueries.zone());
+        ZonedDateTime dateTime = ZonedDateTime.of(date, time != null ? time : LocalTime.MIDNIGHT,
+                zone != null ? zone : ZoneId.systemDefault());
+        return new Date(dateTime.toInstant().toEpochMilli());
+    }
+
+    /**
+     * Converts a Date object into a date and time of the default time zone.
+     *
+     * @param date the Date object
+     * @return the date and time
+     */
+    private static ZonedDateTime toZonedDateTime(Date date) {
+        return ZonedDateTime.ofInstant(Instant.ofEpochMilli(date.getTime()), ZoneId.systemDefault());
     }
 
     /**
@@ -498,4 +532,71 @@ public final class Localizer {
         ResourceBundle defaultBundle = loadResourceBundle(DEFAULT_BUNDLE, getClass());
         resourceBundleRegistry.put(DEFAULT_BUNDLE, defaultBundle);
     }
+
+    /**
+     * The date formatters of a Locale. All formatters are immutable and
+     * parse strictly, like a non lenient <code>SimpleDateFormat</code>.
+     */
+    private static final class DateFormats {
+
+        /**
+         * The Locale of the formatters.
+         */
+        private final Locale locale;
+        /**
+         * The formatter for <code>FormatStyle.MEDIUM</code> dates.
+         */
+        private final DateTimeFormatter mediumDate;
+        /**
+         * The formatters used by <code>parseDateString</code> in the order of
+         * <code>PARSE_STYLES</code>.
+         */
+        private final DateTimeFormatter[] parsers;
+        /**
+         * The formatters of the patterns used so far.
+         */
+        private final Map<String, DateTimeFormatter> patterns = new ConcurrentHashMap<String, DateTimeFormatter>();
+
+        /**
+         * Creates the formatters of a Locale.
+         *
+         * @param locale the Locale
+         */
+        DateFormats(Locale locale) {
+            this.locale = locale;
+            this.mediumDate = DateTimeFormatter.ofLocalizedDate(FormatStyle.MEDIUM).withLocale(locale);
+            this.parsers = new DateTimeFormatter[PARSE_STYLES.length];
+            for (int i = 0; i < PARSE_STYLES.length; i++) {
+                parsers[i] = strict(new DateTimeFormatterBuilder().parseCaseInsensitive()
+                        .appendLocalized(PARSE_STYLES[i][0], PARSE_STYLES[i][1]));
+            }
+        }
+
+        /**
+         * Returns the formatter of a pattern, it is created once.
+         *
+         * @param pattern the pattern
+         * @return the formatter
+         * @exception IllegalArgumentException if the pattern is invalid
+         */
+        DateTimeFormatter getFormatter(String pattern) {
+            DateTimeFormatter formatter = patterns.get(pattern);
+            if (formatter == null) {
+                formatter = strict(new DateTimeFormatterBuilder().parseCaseInsensitive().appendPattern(pattern));
+                if (patterns.size() < MAX_CACHED_PATTERNS) {
+                    patterns.put(pattern, formatter);
+                }
+            }
+            return formatter;
+        }
+
+        /**
+         * Completes a formatter resolving strictly. The era defaults to AD, so
+         * a year of era like "yyyy" can be resolved.
+         */
+        private DateTimeFormatter strict(DateTimeFormatterBuilder builder) {
+            return builder.parseDefaulting(ChronoField.ERA, 1).toFormatter(locale)
+                    .withResolverStyle(ResolverStyle.STRICT);
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package de.bimalo.tiddlywiki.common;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A <code>ThreadFactory</code> creating threads with a common name prefix,
+ * like "tw-writer-1", "tw-writer-2". This makes threads of a pool easy to
+ * identify in thread dumps and log files.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @since 1.2
+ */
+public final class NamedThreadFactory implements ThreadFactory {
+
+    /**
+     * The prefix for the thread names.
+     */
+    private final String prefix;
+
+    /**
+     * Create daemon threads or not.
+     */
+    private final boolean daemon;
+
+    /**
+     * Counter for the thread names.
+     */
+    private final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * Creates a new <code>NamedThreadFactory</code>.
+     *
+     * @param prefix the prefix for the thread names
+     * @param daemon true to create daemon threads
+     * @exception IllegalArgumentException if prefix is null or empty
+     */
+    public NamedThreadFactory(String prefix, boolean daemon) {
+        Assert.notNull(prefix);
+        this.prefix = prefix;
+        this.daemon = daemon;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+        thread.setDaemon(daemon);
+        return thread;
+    }
+}
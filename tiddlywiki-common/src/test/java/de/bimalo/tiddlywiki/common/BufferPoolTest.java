@@ -0,0 +1,63 @@
+package de.bimalo.tiddlywiki.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * <p>
+ * A test case for <code>BufferPool</code>.
+ * </p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @since 1.2
+ * @see BufferPool
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void BufferPool_acquire_SizeClasses() {
+        BufferPool pool = new BufferPool();
+        assertEquals(4096, pool.acquire(0).length);
+        assertEquals(4096, pool.acquire(4096).length);
+        assertEquals(8192, pool.acquire(4097).length);
+        assertEquals(1 << 20, pool.acquire(1 << 20).length);
+        assertEquals((1 << 20) + 1, pool.acquire((1 << 20) + 1).length);
+    }
+
+    @Test
+    public void BufferPool_release_ArrayReused() {
+        BufferPool pool = new BufferPool();
+        byte[] buffer = pool.acquire(5000);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(6000));
+        assertNotSame(buffer, pool.acquire(6000));
+        pool.release(new byte[5000]);
+        assertEquals(8192, pool.acquire(5000).length);
+    }
+
+    @Test
+    public void BufferPool_newByteArrayInputStream_ReleasedOnClose() throws Exception {
+        BufferPool pool = new BufferPool();
+        byte[] buffer = pool.acquire(10);
+        System.arraycopy("hello".getBytes(StandardCharsets.US_ASCII), 0, buffer, 0, 5);
+        InputStream is = pool.newByteArrayInputStream(buffer, 5);
+        assertEquals(5, is.available());
+        assertEquals('h', is.read());
+        is.close();
+        is.close();
+        assertEquals(-1, is.read());
+        assertSame(buffer, pool.acquire(10));
+        assertNotSame(buffer, pool.acquire(10));
+
+        InputStream buffered = pool.newBufferedInputStream(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        buffered.mark(2);
+        assertEquals(1, buffered.read());
+        buffered.reset();
+        assertEquals(1, buffered.read());
+        buffered.close();
+        assertEquals(BufferPool.DEFAULT_BUFFER_SIZE, pool.acquire(BufferPool.DEFAULT_BUFFER_SIZE).length);
+    }
+}
@@ -0,0 +1,46 @@
+package de.bimalo.tiddlywiki.common;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * <p>
+ * A test case for <code>DateFactory</code>.
+ * </p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @since 1.2
+ * @see DateFactory
+ */
+public class DateFactoryTest {
+
+    @Test
+    public void DateFactory_createDate_EqualsCalendar() {
+        DateFactory factory = DateFactory.getInstance(Locale.GERMANY);
+        assertSame(factory, DateFactory.getInstance());
+        int[][] values = {
+            {2, 2, 2012, 0, 0, 0},
+            {29, 2, 2012, 23, 59, 59},
+            {31, 2, 2013, 12, 0, 0},
+            {31, 12, 1999, 23, 60, 60},
+            {25, 3, 2012, 2, 30, 0},
+            {28, 10, 2012, 2, 30, 0},
+            {4, 10, 1582, 12, 0, 0}
+        };
+        for (int[] v : values) {
+            assertEquals(calendarDate(v[0], v[1], v[2], v[3], v[4], v[5]),
+                    factory.createDate(v[0], v[1], v[2], v[3], v[4], v[5]));
+        }
+        assertEquals(calendarDate(31, 4, 2012, 0, 0, 0), factory.createDate(31, 4, 2012));
+    }
+
+    private static Date calendarDate(int day, int month, int year, int hour, int minute, int second) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTime();
+    }
+}
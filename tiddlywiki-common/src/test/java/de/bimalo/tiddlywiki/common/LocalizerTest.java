@@ -1,5 +1,8 @@
 package de.bimalo.tiddlywiki.common;
 
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.MissingResourceException;
@@ -281,6 +284,51 @@ public class LocalizerTest extends TestCase {
     assertEquals(expResult, result);
   }
 
+  /**
+   * Test formatDateObject with a pattern, the result equals SimpleDateFormat.
+   */
+  public void testFormatDateObject_Pattern() {
+    System.out.println("testFormatDateObject_Pattern");
+    Date date = DateFactory.getInstance(instance).createDate(2, 2, 2012, 15, 4, 5);
+    assertEquals("02.02.2012 03:04:05", instance.formatDateObject(date, "dd.MM.yyyy hh:mm:ss"));
+    assertEquals("02.02.2012 03:04:05", instance.formatDateObject(date, "dd.MM.yyyy hh:mm:ss"));
+    assertEquals("02.02.2012", instance.formatDateObject(date, null));
+    assertEquals(new SimpleDateFormat("EEEE, d. MMMM yyyy HH:mm", deLocale).format(date),
+        instance.formatDateObject(date, "EEEE, d. MMMM yyyy HH:mm"));
+    assertEquals(DateFormat.getDateInstance(DateFormat.MEDIUM, deLocale).format(date),
+        instance.formatDateObject(date));
+  }
+
+  /**
+   * Test parseDateString with the localized styles, dates formatted by DateFormat can be parsed
+   * again.
+   */
+  public void testParseDateString_Styles() throws Exception {
+    System.out.println("testParseDateString_Styles");
+    Date date = DateFactory.getInstance(instance).createDate(2, 2, 2012, 15, 4, 0);
+    int[] styles = {DateFormat.SHORT, DateFormat.MEDIUM, DateFormat.LONG, DateFormat.FULL};
+    for (int style : styles) {
+      String text = DateFormat.getDateTimeInstance(style, style, deLocale).format(date);
+      assertEquals(text, date, instance.parseDateString(text));
+    }
+  }
+
+  /**
+   * Test parseDateString with Strings which are not valid dates.
+   */
+  public void testParseDateString_Invalid() {
+    System.out.println("testParseDateString_Invalid");
+    String[] texts = {"31.02.2012", "02.02.2012 trailing", "no date"};
+    for (String text : texts) {
+      try {
+        instance.parseDateString(text, "dd.MM.yyyy");
+        fail("A ParseException was expected for " + text);
+      } catch (ParseException ex) {
+        assertEquals(0, ex.getErrorOffset());
+      }
+    }
+  }
+
   /**
    * Test of removeResourceBundle method, of class Localizer.
    */
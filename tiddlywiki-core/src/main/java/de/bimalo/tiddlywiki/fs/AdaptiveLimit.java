@@ -0,0 +1,125 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+
+/**
+ * <p>
+ * Adapts the number of concurrent reads to the observed read latency with
+ * additive increase and multiplicative decrease (AIMD).</p>
+ * <p>
+ * The latency of every read is normalized by its size and averaged over a
+ * window of reads. The lowest average seen so far is the baseline of an
+ * unloaded storage, it slowly follows higher averages, so a storage becoming
+ * slower for hours is not taken as overloaded forever. As long as the average
+ * stays within twice the baseline the limit grows by one per window. A higher
+ * average means the reads queue up at the storage, like on a busy network
+ * share, and the limit is halved.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see ReadAhead
+ */
+final class AdaptiveLimit {
+
+    /**
+     * Minimum number of reads of a window.
+     */
+    private static final int MIN_WINDOW = 4;
+
+    /**
+     * Average latency relative to the baseline halving the limit.
+     */
+    private static final double TOLERANCE = 2.0;
+
+    /**
+     * Part of the distance to a higher average the baseline follows per
+     * window.
+     */
+    private static final double BASELINE_DRIFT = 0.05;
+
+    /**
+     * Number of bytes of a read costing as much as the read itself.
+     */
+    private static final long UNIT_SIZE = 64 * 1024;
+
+    /**
+     * The minimum limit.
+     */
+    private final int minLimit;
+
+    /**
+     * The maximum limit.
+     */
+    private final int maxLimit;
+
+    /**
+     * The current limit.
+     */
+    private int limit;
+
+    /**
+     * The lowest average latency, 0 if not known yet.
+     */
+    private double baseline = 0;
+
+    /**
+     * Sum of the normalized latencies of the current window.
+     */
+    private double windowLatency = 0;
+
+    /**
+     * Number of reads of the current window.
+     */
+    private int windowReads = 0;
+
+    /**
+     * Creates a new <code>AdaptiveLimit</code>.
+     *
+     * @param minLimit the minimum limit, at least 1
+     * @param initialLimit the limit until the first window is complete
+     * @param maxLimit the maximum limit
+     * @throws IllegalArgumentException if the limits are not in order
+     */
+    AdaptiveLimit(final int minLimit, final int initialLimit, final int maxLimit) {
+        Assert.isTrue(minLimit >= 1);
+        Assert.isTrue(minLimit <= maxLimit);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+    }
+
+    /**
+     * Returns the current number of concurrent reads.
+     *
+     * @return the limit
+     */
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Records a completed read and adapts the limit at the end of a window.
+     *
+     * @param nanos the latency of the read in nanoseconds
+     * @param bytes the number of bytes read
+     */
+    synchronized void record(final long nanos, final long bytes) {
+        windowLatency += (double) nanos / (1 + bytes / UNIT_SIZE);
+        windowReads++;
+        if (windowReads < Math.max(MIN_WINDOW, limit)) {
+            return;
+        }
+        double average = windowLatency / windowReads;
+        windowLatency = 0;
+        windowReads = 0;
+        if (baseline == 0 || average < baseline) {
+            baseline = average;
+        } else {
+            baseline += (average - baseline) * BASELINE_DRIFT;
+        }
+        if (average > baseline * TOLERANCE) {
+            limit = Math.max(minLimit, limit / 2);
+        } else if (limit < maxLimit) {
+            limit++;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.NamedThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Generates several TiddlyWikis described by a batch file in one process.</p>
+ * <p>
+ * Every non empty line of the batch file not starting with # describes one
+ * job with the arguments of the command line interface, like
+ * <pre>-rootFolder=/shares/hr -resultFile=/www/hr.html</pre> Values containing
+ * blanks are enclosed in double quotes. The arguments of a line override the
+ * arguments of the command line, which are the defaults of all jobs.</p>
+ * <p>
+ * The jobs share the parsers, the loaded templates and the results of parsed
+ * documents. At most <code>parallelism</code> jobs run at the same time. The
+ * parse, I/O and writer threads and the read-ahead budget of the arguments
+ * are divided between the jobs running at the same time, so the batch stays
+ * within the limits of one generator.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see TiddlyWikiGenerator
+ */
+final class BatchRunner {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchRunner.class);
+
+    /**
+     * Pattern of one argument of a job: -name=value or -name="value".
+     */
+    private static final Pattern ARGUMENT_PATTERN = Pattern.compile("\\s*-(\\w+)=(?:\"([^\"]*)\"|(\\S+))\\s*");
+
+    /**
+     * The batch file.
+     */
+    private final File batchFile;
+
+    /**
+     * The default arguments of all jobs.
+     */
+    private final Map<String, String> defaults;
+
+    /**
+     * Maximum number of jobs running at the same time.
+     */
+    private final int parallelism;
+
+    /**
+     * Shares the loaded templates between the jobs.
+     */
+    private final TemplateCache templateCache = new TemplateCache();
+
+    /**
+     * Shares the results of parsed documents between the jobs.
+     */
+    private final ParseCache parseCache = new ParseCache();
+
+    /**
+     * Creates a new <code>BatchRunner</code>.
+     *
+     * @param batchFile the batch file
+     * @param defaults the default arguments of all jobs
+     * @param parallelism maximum number of jobs running at the same time
+     * @throws IllegalArgumentException if an argument is null or parallelism
+     * is less than 1
+     */
+    BatchRunner(final File batchFile, final Map<String, String> defaults, final int parallelism) {
+        Assert.notNull(batchFile);
+        Assert.notNull(defaults);
+        Assert.isTrue(parallelism > 0);
+        this.batchFile = batchFile;
+        this.defaults = defaults;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Reads the arguments of all jobs from the batch file.
+     *
+     * @return the arguments of the jobs, merged with the defaults
+     * @throws IOException if the batch file could not be read
+     * @throws IllegalArgumentException if a line contains an invalid argument
+     */
+    List<Map<String, String>> readJobs() throws IOException {
+        List<Map<String, String>> jobs = new ArrayList<Map<String, String>>();
+        List<String> lines = Files.readAllLines(batchFile.toPath(), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            Map<String, String> arguments = new HashMap<String, String>(defaults);
+            try {
+                Map<String, String> jobArguments = parseJob(line);
+                if (jobArguments.containsKey("batchFile") || jobArguments.containsKey("serve")) {
+                    throw new IllegalArgumentException("batchFile and serve are not supported within a job.");
+                }
+                arguments.putAll(jobArguments);
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException(batchFile.getName() + " line " + (i + 1) + ": " + ex.getMessage());
+            }
+            jobs.add(arguments);
+        }
+        return jobs;
+    }
+
+    /**
+     * Parses the arguments of one job.
+     *
+     * @param line a line of the batch file
+     * @return the arguments
+     * @throws IllegalArgumentException if the line contains an invalid argument
+     */
+    static Map<String, String> parseJob(String line) {
+        Map<String, String> arguments = new HashMap<String, String>();
+        Matcher matcher = ARGUMENT_PATTERN.matcher(line);
+        int end = 0;
+        while (end < line.length()) {
+            if (!matcher.find(end) || matcher.start() != end) {
+                throw new IllegalArgumentException(line.substring(end).trim()
+                        + " does not follow the argument syntax -argumentName=argumentValue.");
+            }
+            arguments.put(matcher.group(1), matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+            end = matcher.end();
+        }
+        return arguments;
+    }
+
+    /**
+     * Runs all jobs of the batch file and waits until they are finished. A
+     * failed job doesn't stop the other jobs.
+     *
+     * @return number of failed jobs
+     * @throws IOException if the batch file could not be read
+     * @throws InterruptedException if the thread was interrupted
+     * @throws IllegalArgumentException if a line of the batch file does not
+     * follow the argument syntax
+     */
+    int run() throws IOException, InterruptedException {
+        List<Map<String, String>> jobs = readJobs();
+        LOGGER.info("Run {} jobs of {} with parallelism {}...", jobs.size(), batchFile.getName(), parallelism);
+        final int running = Math.max(1, Math.min(parallelism, jobs.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(running, new NamedThreadFactory("tw-batch", true));
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (final Map<String, String> arguments : jobs) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Created by the job, so invalid arguments fail this job only.
+                        TiddlyWikiGenerator generator = new TiddlyWikiGenerator(arguments);
+                        generator.setTemplateCache(templateCache);
+                        generator.setParseCache(parseCache);
+                        generator.shareLimits(running);
+                        generator.run();
+                    }
+                }));
+            }
+            int failed = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException ex) {
+                    failed++;
+                    LOGGER.error("Job {} ({}) failed: {}", i + 1, jobs.get(i).get("rootFolder"),
+                            ex.getCause().getMessage());
+                }
+            }
+            LOGGER.info("Done {} jobs, {} failed. {}.", jobs.size(), failed, parseCache);
+            return failed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
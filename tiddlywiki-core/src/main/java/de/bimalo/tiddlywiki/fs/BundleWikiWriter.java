@@ -0,0 +1,457 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import de.bimalo.tiddlywiki.TiddlyWiki;
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.NamedThreadFactory;
+import de.bimalo.tiddlywiki.common.StreamUtilities;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Writes a TiddlyWiki as a small "shell" HTML file and a set of external
+ * Tiddler bundles. The shell only contains the default Tiddlers and a startup
+ * module that lazily loads the bundles when the TiddlyWiki is opened in a web
+ * browser.</p>
+ * <p>
+ * The bundles are written to the folder <code>&lt;resultFile&gt;.bundles</code>
+ * next to the result file. Every bundle is a JavaScript file adding its
+ * Tiddlers with <code>$tw.wiki.addTiddlers</code>, so it can also be loaded
+ * from the local file system. A bundle contains either all Tiddlers of one
+ * top-level folder or a fixed number of Tiddlers. The shell and all bundles
+ * are written in parallel by separate writer threads.</p>
+ * <p>
+ * The template has to render the variable <code>bundles</code> (a list of
+ * relative URIs), see the macro bundleloader in default-template.html.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see TemplateRenderer
+ */
+final class BundleWikiWriter implements WikiWriter {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BundleWikiWriter.class);
+
+    /**
+     * Suffix of the folder containing the bundles.
+     */
+    static final String BUNDLE_FOLDER_SUFFIX = ".bundles";
+
+    /**
+     * Prefix of a bundle file name.
+     */
+    private static final String BUNDLE_PREFIX = "bundle-";
+
+    /**
+     * Extension of a bundle file name.
+     */
+    private static final String BUNDLE_EXTENSION = ".js";
+
+    /**
+     * Default number of threads writing the bundles, the number of processors
+     * but at most 4.
+     */
+    static final int DEFAULT_WRITER_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Renders the template for the shell.
+     */
+    private final TemplateRenderer renderer;
+
+    /**
+     * The final result file (the shell).
+     */
+    private final File resultFile;
+
+    /**
+     * The path of the root folder, used to find the top-level folder of a
+     * Tiddler.
+     */
+    private final String rootFolderPath;
+
+    /**
+     * The maximum number of Tiddlers per bundle. A value less or equal 0 means
+     * one bundle per top-level folder.
+     */
+    private int bundleSize = 0;
+
+    /**
+     * The number of threads writing the bundles.
+     */
+    private int writerThreads = DEFAULT_WRITER_THREADS;
+
+    /**
+     * Force the shell and the bundles to the storage device before they are
+     * replaced.
+     */
+    private boolean fsync = false;
+
+    /**
+     * The compressions of the precompressed variants of the shell and the
+     * bundles.
+     */
+    private Set<Compression> compressions = EnumSet.noneOf(Compression.class);
+
+    /**
+     * Publishes the events of the generator.
+     */
+    private GeneratorEvents events = new GeneratorEvents();
+
+    /**
+     * Creates a new <code>BundleWikiWriter</code>.
+     *
+     * @param renderer the TemplateRenderer for the shell
+     * @param resultFile the final result file
+     * @param rootFolderPath the path of the root folder
+     * @throws IllegalArgumentException if an argument is null
+     */
+    BundleWikiWriter(final TemplateRenderer renderer, final File resultFile, final String rootFolderPath) {
+        Assert.notNull(renderer);
+        Assert.notNull(resultFile);
+        Assert.notNull(rootFolderPath);
+        this.renderer = renderer;
+        this.resultFile = resultFile;
+        this.rootFolderPath = rootFolderPath;
+    }
+
+    /**
+     * Sets the maximum number of Tiddlers per bundle.
+     *
+     * @param bundleSize the maximum number of Tiddlers. A value less or equal 0
+     * creates one bundle per top-level folder.
+     */
+    void setBundleSize(final int bundleSize) {
+        this.bundleSize = bundleSize;
+    }
+
+    /**
+     * Sets the number of threads writing the bundles.
+     *
+     * @param writerThreads number of threads, at least 1
+     * @throws IllegalArgumentException if writerThreads is less than 1
+     */
+    void setWriterThreads(final int writerThreads) {
+        Assert.isTrue(writerThreads > 0, "writerThreads must be greater than zero.");
+        this.writerThreads = writerThreads;
+    }
+
+    /**
+     * Sets whether the shell and the bundles are forced to the storage device
+     * before they replace the files of a previous run.
+     *
+     * @param fsync true to force the files to the storage device
+     */
+    void setFsync(final boolean fsync) {
+        this.fsync = fsync;
+    }
+
+    /**
+     * Sets the compressions of the precompressed variants written next to the
+     * shell and the bundles.
+     *
+     * @param compressions the compressions, can be empty
+     * @throws IllegalArgumentException if compressions is null
+     */
+    void setCompressions(final Set<Compression> compressions) {
+        Assert.notNull(compressions);
+        this.compressions = compressions;
+    }
+
+    /**
+     * Sets the events published to the statistics of the generator.
+     *
+     * @param events the events of the generator
+     * @throws IllegalArgumentException if events is null
+     */
+    void setEvents(final GeneratorEvents events) {
+        Assert.notNull(events);
+        this.events = events;
+    }
+
+    /**
+     * Returns the folder containing the bundles.
+     *
+     * @return the bundle folder
+     */
+    File getBundleFolder() {
+        return new File(resultFile.getAbsoluteFile().getParentFile(), getBundleFolderName());
+    }
+
+    @Override
+    public void write(final TiddlyWiki wiki) throws IOException {
+        LOGGER.info("Write TiddlyWiki shell to {} and bundles to {}...", resultFile.getPath(), getBundleFolder().getPath());
+        Set<Tiddler> defaults = new HashSet<Tiddler>(wiki.getDefaultTiddler().getTiddlers());
+        final List<Tiddler> shellTiddlers = new ArrayList<Tiddler>();
+        List<List<Tiddler>> shards = createShards(wiki.listTiddlers(), defaults, shellTiddlers);
+
+        File bundleFolder = getBundleFolder();
+        prepareBundleFolder(bundleFolder);
+
+        final List<String> bundleUris = new ArrayList<String>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < shards.size(); i++) {
+            String bundleName = String.format("%s%04d%s", BUNDLE_PREFIX, i + 1, BUNDLE_EXTENSION);
+            bundleUris.add(getBundleFolderName() + "/" + bundleName);
+            tasks.add(new BundleTask(new File(bundleFolder, bundleName), shards.get(i), fsync, compressions,
+                    events));
+        }
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                writeShell(wiki, shellTiddlers, bundleUris);
+                return null;
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(writerThreads, new NamedThreadFactory("tw-writer", true));
+        try {
+            List<Future<Void>> futures = executor.invokeAll(tasks);
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Writing bundles was interrupted.", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        LOGGER.info("TiddlyWiki successfully written to {} with {} bundles.", resultFile.getPath(), shards.size());
+    }
+
+    /**
+     * Distributes the Tiddlers to the shell and the bundles. The order of the
+     * Tiddlers is preserved.
+     *
+     * @param tiddlers all Tiddlers of the TiddlyWiki
+     * @param defaults the default Tiddlers, these are written to the shell
+     * @param shellTiddlers receives the Tiddlers for the shell
+     * @return the bundles
+     */
+    List<List<Tiddler>> createShards(List<Tiddler> tiddlers, Set<Tiddler> defaults, List<Tiddler> shellTiddlers) {
+        Map<String, List<Tiddler>> shards = new LinkedHashMap<String, List<Tiddler>>();
+        int count = 0;
+        for (Tiddler tiddler : tiddlers) {
+            if (defaults.contains(tiddler)) {
+                shellTiddlers.add(tiddler);
+                continue;
+            }
+            String key;
+            if (bundleSize > 0) {
+                key = String.valueOf(count / bundleSize);
+            } else {
+                key = getTopLevelFolder(tiddler);
+            }
+            count++;
+            List<Tiddler> shard = shards.get(key);
+            if (shard == null) {
+                shard = new ArrayList<Tiddler>();
+                shards.put(key, shard);
+            }
+            shard.add(tiddler);
+        }
+        return new ArrayList<List<Tiddler>>(shards.values());
+    }
+
+    /**
+     * Returns the name of the top-level folder below the root folder of the
+     * given Tiddler. Tiddlers directly located in the root folder belong to
+     * the top-level folder "".
+     *
+     * @param tiddler the Tiddler
+     * @return the name of the top-level folder
+     */
+    private String getTopLevelFolder(Tiddler tiddler) {
+        String path = tiddler.getPath();
+        String folder = "";
+        if (path != null && path.startsWith(rootFolderPath)) {
+            String relativePath = path.substring(rootFolderPath.length());
+            if (relativePath.startsWith("/")) {
+                relativePath = relativePath.substring(1);
+            }
+            int indx = relativePath.indexOf('/');
+            if (indx > 0) {
+                folder = relativePath.substring(0, indx);
+            }
+        }
+        return folder;
+    }
+
+    /**
+     * Creates the bundle folder and removes bundles and their precompressed
+     * variants of a previous run.
+     *
+     * @param bundleFolder the bundle folder
+     * @throws IOException if the folder could not be prepared
+     */
+    private void prepareBundleFolder(File bundleFolder) throws IOException {
+        if (!bundleFolder.isDirectory() && !bundleFolder.mkdirs()) {
+            throw new IOException("Folder " + bundleFolder.getPath() + " could not be created.");
+        }
+        File[] oldBundles = bundleFolder.listFiles();
+        if (oldBundles != null) {
+            for (File oldBundle : oldBundles) {
+                if (isBundleFile(oldBundle.getName()) && !oldBundle.delete()) {
+                    LOGGER.warn("Bundle {} of a previous run could not be deleted.", oldBundle.getPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if a file name is the name of a bundle or of a
+     * precompressed variant of a bundle.
+     *
+     * @param name the file name
+     * @return true for a bundle file
+     */
+    static boolean isBundleFile(String name) {
+        if (!name.startsWith(BUNDLE_PREFIX)) {
+            return false;
+        }
+        if (name.endsWith(BUNDLE_EXTENSION)) {
+            return true;
+        }
+        for (Compression compression : Compression.values()) {
+            if (name.endsWith(BUNDLE_EXTENSION + compression.getExtension())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Renders the shell with the template.
+     *
+     * @param wiki the TiddlyWiki
+     * @param shellTiddlers the Tiddlers embedded in the shell
+     * @param bundleUris the relative URIs of all bundles
+     * @throws IOException if operation failed
+     */
+    private void writeShell(TiddlyWiki wiki, List<Tiddler> shellTiddlers, List<String> bundleUris)
+            throws IOException {
+        ResultFileWriter out = null;
+        try {
+            out = new ResultFileWriter(resultFile, fsync, compressions, events);
+            Map<String, Object> model = renderer.createModel(wiki, shellTiddlers);
+            model.put("bundles", bundleUris);
+            renderer.render(model, out);
+            out.commit();
+        } finally {
+            StreamUtilities.closeWriter(out);
+        }
+        LOGGER.debug("Shell written to {}.", resultFile.getPath());
+    }
+
+    /**
+     * Returns the name of the bundle folder, like "index.bundles".
+     *
+     * @return the name of the bundle folder
+     */
+    private String getBundleFolderName() {
+        String name = resultFile.getName();
+        int indx = name.lastIndexOf('.');
+        if (indx > 0) {
+            name = name.substring(0, indx);
+        }
+        return name + BUNDLE_FOLDER_SUFFIX;
+    }
+
+    /**
+     * Writes one bundle.
+     */
+    private static final class BundleTask implements Callable<Void> {
+
+        /**
+         * The bundle file.
+         */
+        private final File bundleFile;
+
+        /**
+         * The Tiddlers of the bundle.
+         */
+        private final List<Tiddler> tiddlers;
+
+        /**
+         * Force the bundle to the storage device.
+         */
+        private final boolean fsync;
+
+        /**
+         * The compressions of the precompressed variants.
+         */
+        private final Set<Compression> compressions;
+
+        /**
+         * Publishes the events of the generator.
+         */
+        private final GeneratorEvents events;
+
+        /**
+         * Creates a new <code>BundleTask</code>.
+         *
+         * @param bundleFile the bundle file
+         * @param tiddlers the Tiddlers of the bundle
+         * @param fsync true to force the bundle to the storage device
+         * @param compressions the compressions of the precompressed variants
+         * @param events the events of the generator
+         */
+        BundleTask(File bundleFile, List<Tiddler> tiddlers, boolean fsync, Set<Compression> compressions,
+                GeneratorEvents events) {
+            this.bundleFile = bundleFile;
+            this.tiddlers = tiddlers;
+            this.fsync = fsync;
+            this.compressions = compressions;
+            this.events = events;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            ResultFileWriter out = null;
+            try {
+                out = new ResultFileWriter(bundleFile, fsync, compressions, events);
+                out.write("$tw.wiki.addTiddlers([\n");
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < tiddlers.size(); i++) {
+                    sb.setLength(0);
+                    TiddlerFields.appendJson(TiddlerFields.toFields(tiddlers.get(i)), sb);
+                    if (i < tiddlers.size() - 1) {
+                        sb.append(',');
+                    }
+                    sb.append('\n');
+                    out.write(sb.toString());
+                }
+                out.write("]);\n");
+                out.commit();
+            } finally {
+                StreamUtilities.closeWriter(out);
+            }
+            LOGGER.debug("Bundle {} with {} Tiddlers written.", bundleFile.getName(), tiddlers.size());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.DigestUtilities;
+import de.bimalo.tiddlywiki.common.StreamUtilities;
+import freemarker.cache.FileTemplateLoader;
+import freemarker.cache.MultiTemplateLoader;
+import freemarker.cache.StringTemplateLoader;
+import freemarker.cache.TemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateExceptionHandler;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.vfs2.FileObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A template split into a small Freemarker template and large static text
+ * segments. Most of a TiddlyWiki template is the static TiddlyWiki core, and
+ * parsing it with Freemarker takes longer than rendering a small wiki. The
+ * static text is therefore cut out and replaced by interpolations of the
+ * variable <code>twcSegments</code>, so Freemarker parses only a few
+ * kilobytes.</p>
+ * <p>
+ * The split template is stored as artifact next to the template file
+ * (<code>&lt;template&gt;.twc</code>). It is keyed by the SHA-256 hash of the
+ * template and the version of the generator, and loaded with a memory-mapped
+ * read by the following runs. A stale or invalid artifact is replaced.</p>
+ * <p>
+ * Only whole lines of text outside FTL tags, interpolations and comments, or
+ * within <code>&lt;#noparse&gt;</code>, are cut out. The interpolation keeps
+ * every line containing it from white-space stripping, so the output is
+ * unchanged. Templates using the square bracket syntax, legacy escaping or
+ * text stripping are not split.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see TemplateRenderer
+ */
+final class CompiledTemplate {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompiledTemplate.class);
+
+    /**
+     * Name of the data model variable containing the static segments.
+     */
+    static final String SEGMENTS_VARIABLE = "twcSegments";
+
+    /**
+     * Extension of the artifact stored next to the template file.
+     */
+    static final String ARTIFACT_EXTENSION = ".twc";
+
+    /**
+     * The first bytes of an artifact.
+     */
+    private static final byte[] MAGIC = {'T', 'W', 'C', '1'};
+
+    /**
+     * Minimum number of characters of a static segment. Shorter text stays in
+     * the template.
+     */
+    private static final int MIN_SEGMENT_LENGTH = 16 * 1024;
+
+    /**
+     * The Freemarker template.
+     */
+    private final Template template;
+
+    /**
+     * The static segments referenced by the template.
+     */
+    private final List<String> segments;
+
+    /**
+     * Creates a new <code>CompiledTemplate</code>.
+     *
+     * @param template the Freemarker template
+     * @param segments the static segments referenced by the template
+     */
+    private CompiledTemplate(final Template template, final List<String> segments) {
+        this.template = template;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * Returns the Freemarker template.
+     *
+     * @return the template
+     */
+    Template getTemplate() {
+        return template;
+    }
+
+    /**
+     * Returns the static segments, the value of the variable
+     * <code>twcSegments</code>.
+     *
+     * @return the static segments
+     */
+    List<String> getSegments() {
+        return segments;
+    }
+
+    /**
+     * Loads a template. The artifact next to the template file is used if it
+     * is valid, otherwise the template is split and the artifact is written.
+     *
+     * @param templateFile the template file
+     * @return the loaded template
+     * @throws IOException if the template could not be loaded
+     * @throws IllegalArgumentException if templateFile is null
+     */
+    static CompiledTemplate load(final FileObject templateFile) throws IOException {
+        Assert.notNull(templateFile);
+        File file = new File(templateFile.getName().getPath());
+        if (!file.isFile()) {
+            return new CompiledTemplate(TemplateRenderer.loadTemplate(templateFile), new ArrayList<String>());
+        }
+        File artifact = new File(file.getParentFile(), file.getName() + ARTIFACT_EXTENSION);
+        byte[] source = Files.readAllBytes(file.toPath());
+        String hash = DigestUtilities.hash(source);
+        String version = getGeneratorVersion();
+
+        String reduced = null;
+        List<String> segments = new ArrayList<String>();
+        if (artifact.isFile()) {
+            reduced = readArtifact(artifact, hash, version, segments);
+        }
+        if (reduced == null) {
+            segments.clear();
+            reduced = split(new String(source, StandardCharsets.UTF_8), segments);
+            if (reduced == null) {
+                LOGGER.info("Template {} can't be split, loaded completely.", file.getName());
+                return new CompiledTemplate(TemplateRenderer.loadTemplate(templateFile), new ArrayList<String>());
+            }
+            writeArtifact(artifact, hash, version, reduced, segments);
+        } else {
+            LOGGER.info("Split template loaded from {}.", artifact.getName());
+        }
+        return new CompiledTemplate(loadReduced(file, reduced), segments);
+    }
+
+    /**
+     * Splits a template into a reduced template and static segments.
+     *
+     * @param source the template
+     * @param segments receives the static segments
+     * @return the reduced template or null if the template can't be split
+     */
+    static String split(String source, List<String> segments) {
+        String start = source.trim();
+        if (start.startsWith("[#") || source.contains("<#escape") || source.contains("strip_text")) {
+            return null;
+        }
+        StringBuilder reduced = new StringBuilder(64 * 1024);
+        int copied = 0;
+        int pos = 0;
+        int textStart = 0;
+        int length = source.length();
+        while (pos < length) {
+            int end;
+            if (source.startsWith("<#--", pos)) {
+                end = indexAfter(source, "-->", pos + 4);
+            } else if (source.startsWith("<#noparse>", pos) || source.startsWith("<#noParse>", pos)) {
+                copied = cutText(source, textStart, pos, false, copied, reduced, segments);
+                int bodyStart = pos + "<#noparse>".length();
+                int bodyEnd = indexOfAny(source, bodyStart, "</#noparse>", "</#noParse>");
+                if (bodyEnd < 0) {
+                    return null;
+                }
+                copied = cutText(source, bodyStart, bodyEnd, true, copied, reduced, segments);
+                end = bodyEnd + "</#noparse>".length();
+                textStart = end;
+                pos = end;
+                continue;
+            } else if (source.startsWith("<#", pos) || source.startsWith("</#", pos)
+                    || source.startsWith("<@", pos) || source.startsWith("</@", pos)) {
+                end = skipTag(source, pos);
+            } else if (source.startsWith("${", pos) || source.startsWith("#{", pos)) {
+                end = skipInterpolation(source, pos + 2);
+            } else {
+                pos++;
+                continue;
+            }
+            if (end < 0) {
+                return null;
+            }
+            copied = cutText(source, textStart, pos, false, copied, reduced, segments);
+            pos = end;
+            textStart = end;
+        }
+        copied = cutText(source, textStart, length, false, copied, reduced, segments);
+        reduced.append(source, copied, length);
+        return reduced.toString();
+    }
+
+    /**
+     * Cuts the whole lines of a static text out of the template if the text
+     * is long enough.
+     *
+     * @return the position up to which the template is copied
+     */
+    private static int cutText(String source, int start, int end, boolean noparse, int copied,
+            StringBuilder reduced, List<String> segments) {
+        if (end - start < MIN_SEGMENT_LENGTH) {
+            return copied;
+        }
+        int first = source.indexOf('\n', start);
+        int last = source.lastIndexOf('\n', end - 1);
+        if (first < 0 || last <= first || last - first < MIN_SEGMENT_LENGTH) {
+            return copied;
+        }
+        int cutStart = first + 1;
+        reduced.append(source, copied, cutStart);
+        if (noparse) {
+            reduced.append("</#noparse>");
+        }
+        reduced.append("<#noautoesc>${.data_model.").append(SEGMENTS_VARIABLE).append('[')
+                .append(segments.size()).append("]}</#noautoesc>");
+        if (noparse) {
+            reduced.append("<#noparse>");
+        }
+        segments.add(source.substring(cutStart, last));
+        return last;
+    }
+
+    /**
+     * Returns the position after the end of an FTL tag. A ">" within a string
+     * or parentheses doesn't end the tag.
+     *
+     * @return the position after the tag or -1 if the tag doesn't end
+     */
+    private static int skipTag(String source, int pos) {
+        int depth = 0;
+        for (int i = pos + 2; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '"' || c == '\'') {
+                i = skipString(source, i);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '(' || c == '[') {
+                depth++;
+            } else if (c == ')' || c == ']') {
+                depth--;
+            } else if (c == '>' && depth <= 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position after the end of an interpolation.
+     *
+     * @return the position after the interpolation or -1 if it doesn't end
+     */
+    private static int skipInterpolation(String source, int pos) {
+        int depth = 0;
+        for (int i = pos; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '"' || c == '\'') {
+                i = skipString(source, i);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                if (depth == 0) {
+                    return i + 1;
+                }
+                depth--;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position of the closing quote of a string literal.
+     *
+     * @return the position of the closing quote or -1 if it doesn't end
+     */
+    private static int skipString(String source, int pos) {
+        char quote = source.charAt(pos);
+        boolean raw = pos > 0 && source.charAt(pos - 1) == 'r';
+        for (int i = pos + 1; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '\\' && !raw) {
+                i++;
+            } else if (c == quote) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position after a text.
+     *
+     * @return the position after the text or -1 if the text isn't found
+     */
+    private static int indexAfter(String source, String text, int from) {
+        int index = source.indexOf(text, from);
+        return index < 0 ? -1 : index + text.length();
+    }
+
+    /**
+     * Returns the first position of one of the texts.
+     *
+     * @return the first position or -1 if no text is found
+     */
+    private static int indexOfAny(String source, int from, String... texts) {
+        int result = -1;
+        for (String text : texts) {
+            int index = source.indexOf(text, from);
+            if (index >= 0 && (result < 0 || index < result)) {
+                result = index;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses the reduced template. Templates included by the reduced template
+     * are loaded from the folder of the template file.
+     *
+     * @return the template
+     * @throws IOException if the template could not be parsed
+     */
+    private static Template loadReduced(File file, String reduced) throws IOException {
+        LOGGER.info("Create configuration for template engine...");
+        StringTemplateLoader stringLoader = new StringTemplateLoader();
+        stringLoader.putTemplate(file.getName(), reduced);
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_26);
+        cfg.setTemplateLoader(new MultiTemplateLoader(new TemplateLoader[]{
+            stringLoader, new FileTemplateLoader(file.getParentFile())}));
+        cfg.setDefaultEncoding("UTF-8");
+        cfg.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+        cfg.setLogTemplateExceptions(false);
+        Template template = cfg.getTemplate(file.getName());
+        LOGGER.info("Done.");
+        return template;
+    }
+
+    /**
+     * Reads an artifact with a memory-mapped read.
+     *
+     * @param artifact the artifact
+     * @param hash the expected hash of the template
+     * @param version the expected version of the generator
+     * @param segments receives the static segments
+     * @return the reduced template or null if the artifact is stale or
+     * invalid
+     */
+    private static String readArtifact(File artifact, String hash, String version, List<String> segments) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(artifact.toPath(), StandardOpenOption.READ);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(MAGIC, magic) || !version.equals(readString(buffer))
+                    || !hash.equals(readString(buffer))) {
+                return null;
+            }
+            String reduced = readString(buffer);
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                segments.add(readString(buffer));
+            }
+            return reduced;
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.warn("Invalid template artifact {}: {}", artifact.getName(), ex.toString());
+            return null;
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    LOGGER.debug("Could not close {}: {}", artifact.getName(), ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes an artifact. The artifact is written to a temporary file and
+     * renamed. A failure is only logged, because the template can be used
+     * anyway.
+     */
+    private static void writeArtifact(File artifact, String hash, String version, String reduced,
+            List<String> segments) {
+        File temp = new File(artifact.getParentFile(), "." + artifact.getName() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = Files.newOutputStream(temp.toPath());
+            DataOutputStream data = new DataOutputStream(out);
+            data.write(MAGIC);
+            writeString(data, version);
+            writeString(data, hash);
+            writeString(data, reduced);
+            data.writeInt(segments.size());
+            for (String segment : segments) {
+                writeString(data, segment);
+            }
+            data.flush();
+            StreamUtilities.closeOutputStream(out);
+            out = null;
+            try {
+                Files.move(temp.toPath(), artifact.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), artifact.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            LOGGER.info("Split template written to {}: {} characters template, {} segments.",
+                    artifact.getName(), reduced.length(), segments.size());
+        } catch (IOException ex) {
+            LOGGER.warn("Could not write template artifact {}: {}", artifact.getName(), ex.getMessage());
+            StreamUtilities.closeOutputStream(out);
+            if (!temp.delete()) {
+                LOGGER.debug("Could not delete {}.", temp.getName());
+            }
+        }
+    }
+
+    /**
+     * Reads a string with its length in bytes.
+     */
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+    }
+
+    /**
+     * Writes a string with its length in bytes.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Returns the version of the generator, part of the key of an artifact.
+     */
+    private static String getGeneratorVersion() {
+        try {
+            return new VersionInfo().getVersionNumberString();
+        } catch (RuntimeException ex) {
+            return "0.0.0.0";
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.NamedThreadFactory;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Writes a precompressed variant of a result file, like
+ * <code>index.html.gz</code>, on its own thread. The
+ * <code>ResultFileWriter</code> hands over every chunk of encoded bytes, so
+ * the result file is compressed in the same pass without reading it
+ * again.</p>
+ * <p>
+ * The chunks are passed through a bounded queue. If the compressor is slower
+ * than the generation, the <code>ResultFileWriter</code> waits instead of
+ * buffering the whole result file in memory. Like the result file, the
+ * variant is written to a temporary file and renamed on commit.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see ResultFileWriter
+ * @see Compression
+ */
+final class CompressedVariantWriter implements Runnable {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompressedVariantWriter.class);
+
+    /**
+     * Creates the compressor threads.
+     */
+    private static final ThreadFactory THREAD_FACTORY = new NamedThreadFactory("tw-compress", true);
+
+    /**
+     * Marks the end of the chunks.
+     */
+    private static final byte[] END = new byte[0];
+
+    /**
+     * Maximum number of chunks waiting for the compressor.
+     */
+    private static final int QUEUE_CAPACITY = 8;
+
+    /**
+     * Size of the buffer between compressor and file.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The final variant file.
+     */
+    private final File variantFile;
+
+    /**
+     * The temporary file receiving the compressed bytes.
+     */
+    private final Path tempFile;
+
+    /**
+     * The compression of this variant.
+     */
+    private final Compression compression;
+
+    /**
+     * Force the variant to the storage device before the rename.
+     */
+    private final boolean fsync;
+
+    /**
+     * Chunks waiting for the compressor.
+     */
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+
+    /**
+     * The compressor thread.
+     */
+    private final Thread thread;
+
+    /**
+     * The failure of the compressor thread, if any.
+     */
+    private volatile IOException failure = null;
+
+    /**
+     * Number of uncompressed bytes.
+     */
+    private long bytesIn = 0;
+
+    /**
+     * Creates a new <code>CompressedVariantWriter</code> and starts the
+     * compressor thread.
+     *
+     * @param resultFile the final result file, the extension of the
+     * compression is appended
+     * @param compression the compression
+     * @param tempSuffix the suffix for the name of the temporary file
+     * @param fsync true to force the variant to the storage device before the
+     * rename
+     */
+    CompressedVariantWriter(File resultFile, Compression compression, String tempSuffix, boolean fsync) {
+        this.compression = compression;
+        this.fsync = fsync;
+        variantFile = new File(resultFile.getPath() + compression.getExtension());
+        tempFile = new File(variantFile.getParentFile(), "." + variantFile.getName() + tempSuffix).toPath();
+        thread = THREAD_FACTORY.newThread(this);
+        thread.start();
+    }
+
+    /**
+     * Hands over a chunk of bytes to the compressor. The chunk must not be
+     * changed afterwards.
+     *
+     * @param chunk the bytes
+     * @throws IOException if the compressor failed or the thread was
+     * interrupted
+     */
+    void write(byte[] chunk) throws IOException {
+        bytesIn += chunk.length;
+        put(chunk);
+    }
+
+    /**
+     * Waits until all chunks are compressed and the temporary file is
+     * complete.
+     *
+     * @throws IOException if the compressor failed
+     */
+    void finish() throws IOException {
+        put(END);
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Compressing " + variantFile.getPath() + " was interrupted.", ex);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Replaces the variant file atomically with the temporary file. Must be
+     * called after {@link #finish()}.
+     *
+     * @throws IOException if operation failed
+     */
+    void commit() throws IOException {
+        long bytesOut = Files.size(tempFile);
+        try {
+            Files.move(tempFile, variantFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tempFile, variantFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        LOGGER.info("{} written: {} bytes compressed to {} bytes.", variantFile.getName(), bytesIn, bytesOut);
+    }
+
+    /**
+     * Stops the compressor and deletes the temporary file. The variant file
+     * is left untouched.
+     */
+    void abort() {
+        thread.interrupt();
+        queue.clear();
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Files.deleteIfExists(tempFile);
+        } catch (IOException ex) {
+            LOGGER.warn("Temporary file {} could not be deleted.", tempFile);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            OutputStream out = compression.createOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile.toFile()), BUFFER_SIZE));
+            try {
+                byte[] chunk = queue.take();
+                while (chunk != END) {
+                    out.write(chunk);
+                    chunk = queue.take();
+                }
+            } finally {
+                out.close();
+            }
+            if (fsync) {
+                FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+                try {
+                    channel.force(true);
+                } finally {
+                    channel.close();
+                }
+            }
+        } catch (InterruptedException ex) {
+            failure = new IOException("Compressing " + variantFile.getPath() + " was interrupted.", ex);
+        } catch (IOException ex) {
+            failure = ex;
+        } catch (RuntimeException ex) {
+            failure = new IOException(ex);
+        }
+        if (failure != null) {
+            // Unblock a producer waiting for free space.
+            queue.clear();
+        }
+    }
+
+    /**
+     * Puts a chunk into the queue. Fails if the compressor thread terminated
+     * unexpectedly.
+     *
+     * @param chunk the chunk
+     * @throws IOException if the compressor failed
+     */
+    private void put(byte[] chunk) throws IOException {
+        try {
+            while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Compressing " + variantFile.getPath() + " was interrupted.", ex);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Throws the failure of the compressor thread, if any.
+     *
+     * @throws IOException the failure
+     */
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Compressing " + variantFile.getPath() + " failed.", failure);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package de.bimalo.tiddlywiki.fs;
+
+import io.airlift.compress.zstd.ZstdOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * The supported compressions for precompressed variants of result files, like
+ * <code>index.html.gz</code>. Web servers like nginx deliver these variants
+ * as static assets without compressing the result file on every request.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see ResultFileWriter
+ */
+enum Compression {
+
+    /**
+     * gzip compression with java.util.zip.
+     */
+    GZIP("gzip", ".gz") {
+        @Override
+        OutputStream createOutputStream(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+    },
+    /**
+     * Zstandard compression with the pure Java implementation of
+     * aircompressor.
+     */
+    ZSTD("zstd", ".zst") {
+        @Override
+        OutputStream createOutputStream(OutputStream out) throws IOException {
+            return new ZstdOutputStream(out);
+        }
+    };
+
+    /**
+     * Size of the internal buffer of a compressor.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The name of the compression used in arguments.
+     */
+    private final String name;
+
+    /**
+     * The extension appended to the name of the result file.
+     */
+    private final String extension;
+
+    /**
+     * Creates a new <code>Compression</code>.
+     *
+     * @param name the name used in arguments
+     * @param extension the extension of the variant
+     */
+    Compression(String name, String extension) {
+        this.name = name;
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the extension appended to the name of the result file, like
+     * ".gz".
+     *
+     * @return the extension
+     */
+    String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Creates a compressing OutputStream. Closing the returned stream closes
+     * the given stream.
+     *
+     * @param out the stream receiving the compressed bytes
+     * @return the compressing stream
+     * @throws IOException if the stream could not be created
+     */
+    abstract OutputStream createOutputStream(OutputStream out) throws IOException;
+
+    /**
+     * Parses a comma separated list of compression names, like "gzip,zstd".
+     *
+     * @param value the list of compression names, can be null or empty
+     * @return the compressions, empty if value is null or empty
+     * @throws IllegalArgumentException if a compression is not supported
+     */
+    static Set<Compression> parse(String value) {
+        Set<Compression> compressions = EnumSet.noneOf(Compression.class);
+        if (value != null) {
+            for (String token : value.split(",")) {
+                String compressionName = token.trim().toLowerCase(Locale.ROOT);
+                if (compressionName.isEmpty()) {
+                    continue;
+                }
+                Compression compression = null;
+                for (Compression candidate : values()) {
+                    if (candidate.name.equals(compressionName)) {
+                        compression = candidate;
+                    }
+                }
+                if (compression == null) {
+                    throw new IllegalArgumentException(token.trim() + " is an unsupported compression.");
+                }
+                compressions.add(compression);
+            }
+        }
+        return compressions;
+    }
+}
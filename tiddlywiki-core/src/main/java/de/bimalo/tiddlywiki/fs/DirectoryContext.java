@@ -0,0 +1,220 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.vfs2.FileName;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * <p>
+ * The context of a folder while walking through the file system. It is
+ * computed once when the folder is entered and shared by the Tiddlers of all
+ * documents within the folder.</p>
+ * <p>
+ * The context holds the path of the folder relative to the root folder, which
+ * is the tag of every document within the folder, the names of the folders
+ * containing the folder, the filter chain and the hierarchy level. A context
+ * is immutable.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FilesystemTreeWalker
+ * @see DocumentVisitor
+ * @see DirectoryVisitor
+ */
+final class DirectoryContext {
+
+    /**
+     * The folder.
+     */
+    private final FileObject folder;
+
+    /**
+     * The path of the root folder, null if there is none.
+     */
+    private final String rootPath;
+
+    /**
+     * The path of the folder relative to the root folder, like "/Java/Tools",
+     * an empty String for the root folder or the absolute path of a folder
+     * outside of the root folder.
+     */
+    private final String path;
+
+    /**
+     * The tags of all documents within the folder.
+     */
+    private final List<String> tags;
+
+    /**
+     * The names of the folders containing the folder starting with the root
+     * of the file system, like "", "Documents" and "Reference".
+     */
+    private final List<String> ancestorNames;
+
+    /**
+     * The filter chain deciding about the children of the folder, null if the
+     * context is not part of a walk.
+     */
+    private final FilterChain chain;
+
+    /**
+     * The hierarchy level of the folder, 0 for the root folder.
+     */
+    private final int level;
+
+    /**
+     * Creates a new <code>DirectoryContext</code>.
+     */
+    private DirectoryContext(FileObject folder, String rootPath, List<String> ancestorNames,
+            FilterChain chain, int level) {
+        this.folder = folder;
+        this.rootPath = rootPath;
+        this.path = relativePath(rootPath, folder.getName().getPath());
+        this.tags = Collections.singletonList(path);
+        this.ancestorNames = ancestorNames;
+        this.chain = chain;
+        this.level = level;
+    }
+
+    /**
+     * Creates the context of the root folder of a walk.
+     *
+     * @param rootFolder the root folder
+     * @param rootChain the filter chain of the root folder, which is entered
+     * @return the context of the root folder
+     * @throws FileSystemException if the ignore file could not be read
+     * @throws IllegalArgumentException if rootFolder or rootChain is null
+     */
+    static DirectoryContext root(final FileObject rootFolder, final FilterChain rootChain)
+            throws FileSystemException {
+        Assert.notNull(rootFolder);
+        Assert.notNull(rootChain);
+        return new DirectoryContext(rootFolder, rootFolder.getName().getPath(),
+                splitAncestorNames(rootFolder), rootChain.enter(rootFolder), 0);
+    }
+
+    /**
+     * Creates the context of a folder outside of a walk, like a folder or the
+     * parent of a document visited on its own.
+     *
+     * @param rootFolder the root folder, null if the path of the folder is
+     * absolute
+     * @param folder the folder
+     * @return the context of the folder without filter chain
+     * @throws IllegalArgumentException if folder is null
+     */
+    static DirectoryContext of(final FileObject rootFolder, final FileObject folder) {
+        Assert.notNull(folder);
+        return new DirectoryContext(folder, rootFolder != null ? rootFolder.getName().getPath() : null,
+                splitAncestorNames(folder), null, 0);
+    }
+
+    /**
+     * Creates the context of a child folder. The filter chain is entered and
+     * the ancestor names are extended by the name of this folder.
+     *
+     * @param child a folder within this folder
+     * @return the context of the child folder
+     * @throws FileSystemException if the ignore file could not be read
+     * @throws IllegalArgumentException if child is null or the context is not
+     * part of a walk
+     */
+    DirectoryContext enter(final FileObject child) throws FileSystemException {
+        Assert.notNull(child);
+        Assert.notNull(chain);
+        List<String> names = new ArrayList<String>(ancestorNames.size() + 1);
+        names.addAll(ancestorNames);
+        names.add(folder.getName().getBaseName());
+        return new DirectoryContext(child, rootPath, Collections.unmodifiableList(names),
+                chain.enter(child), level + 1);
+    }
+
+    /**
+     * Returns the folder.
+     *
+     * @return the folder
+     */
+    FileObject getFolder() {
+        return folder;
+    }
+
+    /**
+     * Returns the path of the folder relative to the root folder.
+     *
+     * @return the relative path, an empty String for the root folder
+     */
+    String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the tags of all documents within the folder.
+     *
+     * @return an unmodifiable list shared by all documents
+     */
+    List<String> getTags() {
+        return tags;
+    }
+
+    /**
+     * Returns the names of the folders containing the folder.
+     *
+     * @return an unmodifiable list starting with the root of the file system
+     */
+    List<String> getAncestorNames() {
+        return ancestorNames;
+    }
+
+    /**
+     * Returns the filter chain deciding about the children of the folder.
+     *
+     * @return the filter chain, null if the context is not part of a walk
+     */
+    FilterChain getChain() {
+        return chain;
+    }
+
+    /**
+     * Returns the hierarchy level of the folder.
+     *
+     * @return the level, 0 for the root folder
+     */
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the path of a folder relative to the root folder.
+     */
+    private static String relativePath(String rootPath, String folderPath) {
+        if (rootPath != null && folderPath.startsWith(rootPath)) {
+            return folderPath.substring(rootPath.length());
+        }
+        return folderPath;
+    }
+
+    /**
+     * Splits the path of the parent of a folder into its names.
+     */
+    private static List<String> splitAncestorNames(FileObject folder) {
+        List<String> names = new ArrayList<String>();
+        FileName parent = folder.getName().getParent();
+        if (parent != null) {
+            String parentPath = parent.getPath();
+            int start = 0;
+            int separator;
+            while ((separator = parentPath.indexOf(FileName.SEPARATOR_CHAR, start)) >= 0) {
+                names.add(parentPath.substring(start, separator));
+                start = separator + 1;
+            }
+            names.add(parentPath.substring(start));
+            while (!names.isEmpty() && names.get(names.size() - 1).isEmpty()) {
+                names.remove(names.size() - 1);
+            }
+        }
+        return Collections.unmodifiableList(names);
+    }
+}
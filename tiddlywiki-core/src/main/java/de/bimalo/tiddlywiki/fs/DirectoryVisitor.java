@@ -1,12 +1,8 @@
 package de.bimalo.tiddlywiki.fs;
 
 import de.bimalo.tiddlywiki.Tiddler;
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 import org.apache.commons.vfs2.FileNotFolderException;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
@@ -20,7 +16,9 @@ import org.slf4j.LoggerFactory;
  * folder/directory represented by a given
  * <code>org.apache.commons.vfs2.FileObject</code>.</p>
  * <p>
- * It creates a <code>Tiddler</code> based on the current directory/folder.</p>
+ * It creates a <code>Tiddler</code> based on the current directory/folder.
+ * The tags of the Tiddler are the names of the folders containing the
+ * directory, taken from its <code>DirectoryContext</code>.</p>
  *
  * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
  * @see Tiddler
@@ -65,8 +63,21 @@ final class DirectoryVisitor implements FileObjectVisitor {
             throw new FileNotFolderException(file);
         }
 
+        return visit(file, DirectoryContext.of(rootFolder, file));
+    }
+
+    /**
+     * Creates a Tiddler for a directory with the context computed when the
+     * directory was entered.
+     *
+     * @param file the directory
+     * @param context the context of the directory
+     * @return the new Tiddler
+     * @throws IOException if operation fails
+     */
+    Tiddler visit(FileObject file, DirectoryContext context) throws IOException {
         LOGGER.debug("Visit file {}.", file.getName().getPath());
-        Tiddler tiddler = createTiddler(file);
+        Tiddler tiddler = createTiddler(file, context);
 
         return tiddler;
     }
@@ -75,17 +86,17 @@ final class DirectoryVisitor implements FileObjectVisitor {
      * Creates a new Tiddler for a directory.
      *
      * @param file the reference to the directory
-     * @param properties the properties of the directory
+     * @param context the context of the directory
      * @return the new Tiddler
      * @throws FileSystemException if operation fails
      * @throws IOException if operation fails
      */
-    private Tiddler createTiddler(FileObject file)
+    private Tiddler createTiddler(FileObject file, DirectoryContext context)
             throws FileSystemException, IOException {
         LOGGER.debug("Create tiddler for directory {}...", file.getName().getPath());
         Tiddler tiddler = new Tiddler();
         tiddler.setTitle(file.getName().getBaseName());
-        tiddler.addTags(filterKeywords(file));
+        tiddler.addTags(context.getAncestorNames());
         tiddler.setPath(file.getName().getPath());
 
         LOGGER.debug("Done create tiddler for directory {}...", file.getName().getPath());
@@ -94,24 +105,4 @@ final class DirectoryVisitor implements FileObjectVisitor {
         return tiddler;
     }
 
-    /**
-     * Filters the keywords of a given document.
-     *
-     * @param file the reference to the file
-     * @return a list with filtered keywords
-     * @throws FileSystemException if operation failed
-     */
-    private List<String> filterKeywords(final FileObject file)
-            throws FileSystemException {
-        List<String> keywords = new ArrayList();
-
-        FileObject parent = file.getParent();
-        if (parent != null) {
-            String absolutePath = parent.getName().getPath();
-            String[] pathNames = absolutePath.split(String.valueOf(File.separatorChar));
-            keywords.addAll(Arrays.asList(pathNames));
-        }
-        return keywords;
-    }
-
 }
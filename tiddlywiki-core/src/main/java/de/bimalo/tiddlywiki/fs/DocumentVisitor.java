@@ -1,16 +1,20 @@
 package de.bimalo.tiddlywiki.fs;
 
 import de.bimalo.tiddlywiki.Tiddler;
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.BufferPool;
 import de.bimalo.tiddlywiki.common.StreamUtilities;
-import de.bimalo.tika.parser.frontmatter.FrontMatterParser;
-import java.io.BufferedInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
@@ -18,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.regex.Pattern;
 import org.apache.commons.vfs2.FileContent;
 import org.apache.commons.vfs2.FileContentInfo;
 import org.apache.commons.vfs2.FileNotFolderException;
@@ -25,12 +30,12 @@ import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileType;
 import org.apache.tika.Tika;
-import org.apache.tika.config.TikaConfig;
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.metadata.Property;
 import org.apache.tika.metadata.TikaCoreProperties;
-import org.apache.tika.parser.Parser;
+import org.apache.tika.mime.MediaType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,6 +64,55 @@ final class DocumentVisitor implements FileObjectVisitor {
      */
     private static final int DEFAULT_MAXSTRINGLENGTH = 2048;
 
+    /**
+     * Number of bytes read to find "default: yes" in a Front Matter block.
+     */
+    private static final int FRONTMATTER_PREFIX_SIZE = 4096;
+
+    /**
+     * Maximum size of a local file read with one positional read into an array
+     * of the buffer pool.
+     */
+    private static final int SMALL_FILE_SIZE = 64 * 1024;
+
+    /**
+     * Default minimum size of a local file passed to the parsers as file
+     * instead of a stream.
+     */
+    static final long DEFAULT_MAP_THRESHOLD = 1L << 20;
+
+    /**
+     * Matches the line of a Front Matter block marking a default Tiddler.
+     */
+    private static final Pattern DEFAULT_PATTERN = Pattern.compile("default\\s*:\\s*[\"']?yes[\"']?",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The parsers used to extract text and meta data.
+     */
+    private ParserRegistry parserRegistry = ParserRegistry.getDefault();
+
+    /**
+     * Keeps the results of parsed documents, null if none.
+     */
+    private ParseCache parseCache = null;
+
+    /**
+     * Reads the content of the next documents ahead, null if none.
+     */
+    private ReadAhead readAhead = null;
+
+    /**
+     * Minimum size of a local file passed to the parsers as file, 0 to pass
+     * every file as stream.
+     */
+    private long mapThreshold = DEFAULT_MAP_THRESHOLD;
+
+    /**
+     * Publishes the events of the generator.
+     */
+    private GeneratorEvents events = new GeneratorEvents();
+
     /**
      * Creates a new DocumentVisitor with default values.
      */
@@ -77,6 +131,59 @@ final class DocumentVisitor implements FileObjectVisitor {
         this.rootFolder = rootFolder;
     }
 
+    /**
+     * Sets the cache keeping the results of parsed documents.
+     *
+     * @param parseCache the cache, null to parse every document
+     */
+    void setParseCache(final ParseCache parseCache) {
+        this.parseCache = parseCache;
+    }
+
+    /**
+     * Sets the stage reading the content of the next documents while the
+     * current document is parsed.
+     *
+     * @param readAhead the stage, null to read every document while parsing
+     */
+    void setReadAhead(final ReadAhead readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Sets the minimum size of a local file passed to the parsers as file.
+     * The FrontMatterParser maps such a file into memory, other parsers like
+     * the PDF parser read the file without copying it to a temporary file.
+     *
+     * @param mapThreshold the minimum size in bytes, 0 to pass every file as
+     * stream
+     */
+    void setMapThreshold(final long mapThreshold) {
+        this.mapThreshold = mapThreshold;
+    }
+
+    /**
+     * Sets the events published to the statistics of the generator.
+     *
+     * @param events the events of the generator
+     * @throws IllegalArgumentException if events is null
+     */
+    void setEvents(final GeneratorEvents events) {
+        Assert.notNull(events);
+        this.events = events;
+    }
+
+    /**
+     * Sets the parsers used to extract text and meta data.
+     *
+     * @param parserRegistry the parsers
+     * @throws IllegalArgumentException if parserRegistry is null
+     */
+    void setParserRegistry(final ParserRegistry parserRegistry) {
+        Assert.notNull(parserRegistry);
+        this.parserRegistry = parserRegistry;
+    }
+
     @Override
     public Object visit(final FileObject file) throws IOException {
         if (file == null) {
@@ -86,14 +193,123 @@ final class DocumentVisitor implements FileObjectVisitor {
             throw new FileNotFolderException(file);
         }
 
+        FileObject parent = file.getParent();
+        return visit(file, parent != null ? DirectoryContext.of(rootFolder, parent) : null);
+    }
+
+    /**
+     * Creates a Tiddler for a file with the context of its folder computed
+     * when the folder was entered.
+     *
+     * @param file a FileObject representing a file
+     * @param context the context of the folder containing the file, null if
+     * there is none
+     * @return the new Tiddler
+     * @throws IOException if operation fails
+     */
+    Tiddler visit(final FileObject file, final DirectoryContext context) throws IOException {
         LOGGER.debug("Visit file {}.", file.getName().getPath());
         Metadata md = new Metadata();
         String text = parseFile(file, md);
 
-        Tiddler tiddler = createTiddler(file, md, text);
+        Tiddler tiddler = createTiddler(file, context, md, text);
         return tiddler;
     }
 
+    /**
+     * Creates a Tiddler linking to a file without parsing its content. Title,
+     * dates and content type are derived from the file name and attributes.
+     * The content of the file read ahead is dropped.
+     *
+     * @param file a FileObject representing a file
+     * @param context the context of the folder containing the file, null if
+     * there is none
+     * @return the new Tiddler
+     * @throws IOException if the attributes could not be read
+     */
+    Tiddler visitLinkOnly(final FileObject file, final DirectoryContext context) throws IOException {
+        LOGGER.debug("Visit file {} without content.", file.getName().getPath());
+        if (readAhead != null) {
+            readAhead.discard(file);
+        }
+        return createTiddler(file, context, new Metadata(), null);
+    }
+
+    /**
+     * Checks whether a document is marked with "default: yes". The result of
+     * the parse cache is used for an unchanged document, otherwise only the
+     * beginning of a text or markdown file is read.
+     *
+     * @param file a FileObject representing a file
+     * @return true if the file is marked as default Tiddler
+     * @throws FileSystemException if the attributes could not be read
+     */
+    boolean isDefault(final FileObject file) throws FileSystemException {
+        if (parseCache != null) {
+            String value = parseCache.peek(getCacheKey(file), file.getContent().getSize(),
+                    file.getContent().getLastModifiedTime(), "default", "");
+            if (value != null) {
+                return "yes".equalsIgnoreCase(value);
+            }
+        }
+        return isMarkedDefault(file);
+    }
+
+    /**
+     * Checks whether a text or markdown file is marked with "default: yes" in
+     * its Front Matter block. Only the beginning of the file is read.
+     *
+     * @param file a FileObject representing a file
+     * @return true if the file is marked as default Tiddler
+     */
+    static boolean isMarkedDefault(final FileObject file) {
+        if (!file.getName().getExtension().matches("md|rst|MD|RST|txt|TXT")) {
+            return false;
+        }
+        InputStream is = null;
+        byte[] buffer = BufferPool.getInstance().acquire(FRONTMATTER_PREFIX_SIZE);
+        try {
+            is = file.getContent().getInputStream();
+            int length = 0;
+            int count;
+            while (length < FRONTMATTER_PREFIX_SIZE
+                    && (count = is.read(buffer, length, FRONTMATTER_PREFIX_SIZE - length)) != -1) {
+                length += count;
+            }
+            String[] lines = new String(buffer, 0, length, StandardCharsets.UTF_8).split("\\r?\\n");
+            if (lines.length == 0 || !lines[0].replace("\uFEFF", "").trim().equals("---")) {
+                return false;
+            }
+            for (int i = 1; i < lines.length; i++) {
+                String line = lines[i].trim();
+                if (line.equals("---") || line.equals("...")) {
+                    break;
+                }
+                if (DEFAULT_PATTERN.matcher(line).matches()) {
+                    return true;
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.debug("Could not read file {}, because of {}.", file.getName().getPath(), ex.getMessage());
+        } finally {
+            StreamUtilities.closeInputStream(is);
+            BufferPool.getInstance().release(buffer);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the key of the result of a file in the parse cache. Parsers of
+     * other groups extract other results, so the key contains the name of the
+     * parser registry.
+     *
+     * @param file a FileObject representing a file
+     * @return the key
+     */
+    private String getCacheKey(final FileObject file) {
+        return parserRegistry.getName() + ':' + file.getName().getPath();
+    }
+
     /**
      * Parses a given file and returns the content of the file and the meta
      * data.
@@ -104,17 +320,35 @@ final class DocumentVisitor implements FileObjectVisitor {
      * @throws FileSystemException if content of the file could not be read
      */
     private String parseFile(final FileObject file, Metadata md) throws FileSystemException {
+        String path = file.getName().getPath();
+        String key = getCacheKey(file);
+        long size = 0;
+        long lastModified = 0;
+        if (parseCache != null) {
+            size = file.getContent().getSize();
+            lastModified = file.getContent().getLastModifiedTime();
+            String text = parseCache.get(key, size, lastModified, md);
+            if (text != null) {
+                LOGGER.debug("Parse result of file {} found in cache.", path);
+                if (readAhead != null) {
+                    readAhead.discard(file);
+                }
+                return text;
+            }
+        }
         String text = null;
-        InputStream is = new BufferedInputStream(file.getContent().getInputStream());
+        long start = System.nanoTime();
+        InputStream is = openContent(file);
         try {
-            Tika ts;
-            if (file.getName().getExtension().matches("md|rst|MD|RST|txt|TXT")) {
-                Parser parser = new FrontMatterParser();
-                ts = new Tika(TikaConfig.getDefaultConfig().getDetector(), parser);
-            } else {
-                ts = new Tika();
-            }
+            md.set(Metadata.RESOURCE_NAME_KEY, file.getName().getBaseName());
+            Tika ts = parserRegistry.getTika(file.getName().getExtension());
+            MediaType type = ts.getDetector().detect(is, md);
+            md.set(Metadata.CONTENT_TYPE, type.toString());
             text = ts.parseToString(is, md);
+            events.documentParsed(path, type.toString(), file.getContent().getSize(), start);
+            if (parseCache != null) {
+                parseCache.put(key, size, lastModified, text, md);
+            }
         } catch (RuntimeException ex) {
             throw ex;
         } catch (IOException | TikaException ex) {
@@ -130,16 +364,77 @@ final class DocumentVisitor implements FileObjectVisitor {
         return text;
     }
 
+    /**
+     * Opens the content of a file. The content read ahead is used if
+     * available. A large local file is passed as file to be mapped into
+     * memory by the parser, a small local file is read with one positional
+     * read, otherwise the file is read through a buffer. All arrays are taken
+     * from the buffer pool and released when the stream is closed.
+     *
+     * @param file a FileObject representing a file
+     * @return a stream supporting mark and reset
+     * @throws FileSystemException if the file could not be opened
+     */
+    private InputStream openContent(final FileObject file) throws FileSystemException {
+        if (readAhead != null) {
+            InputStream is = readAhead.take(file);
+            if (is != null) {
+                return is;
+            }
+        }
+        boolean local = "file".equals(file.getName().getScheme());
+        if (local && mapThreshold > 0 && file.getContent().getSize() >= mapThreshold) {
+            try {
+                return TikaInputStream.get(Paths.get(file.getName().getPath()));
+            } catch (IOException ex) {
+                throw new FileSystemException(ex);
+            }
+        }
+        BufferPool pool = BufferPool.getInstance();
+        if (local && file.getContent().getSize() <= SMALL_FILE_SIZE) {
+            byte[] buffer = pool.acquire((int) file.getContent().getSize() + 1);
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(Paths.get(file.getName().getPath()), StandardOpenOption.READ);
+                ByteBuffer target = ByteBuffer.wrap(buffer);
+                long offset = 0;
+                int count;
+                while (target.hasRemaining() && (count = channel.read(target, offset)) != -1) {
+                    offset += count;
+                }
+                if (target.hasRemaining()) {
+                    return pool.newByteArrayInputStream(buffer, target.position());
+                }
+            } catch (IOException ex) {
+                LOGGER.debug("Could not read file {} at once, because of {}.", file.getName().getPath(),
+                        ex.getMessage());
+            } finally {
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ex) {
+                        LOGGER.debug("Could not close {}: {}", file.getName().getPath(), ex.getMessage());
+                    }
+                }
+            }
+            pool.release(buffer);
+        }
+        return pool.newBufferedInputStream(file.getContent().getInputStream());
+    }
+
     /**
      * Creates a new Tiddler for a file.
      *
      * @param file the reference to the file
-     * @param properties the properties of the file
+     * @param context the context of the folder containing the file, null if
+     * there is none
+     * @param md meta data of the file
+     * @param text the extracted text
      * @return the new Tiddler
      * @throws FileSystemException if operation fails
      * @throws IOException if operation fails
      */
-    private Tiddler createTiddler(FileObject file, Metadata md, String text)
+    private Tiddler createTiddler(FileObject file, DirectoryContext context, Metadata md, String text)
             throws FileSystemException, IOException {
         LOGGER.debug("Create tiddler for file {}...", file.getName().getPath());
 
@@ -149,6 +444,9 @@ final class DocumentVisitor implements FileObjectVisitor {
         tiddler.setModifier(getAuthor(file, md));
         tiddler.setCreateDate(getCreateDate(file, md));
         tiddler.setLastModifyDate(getLastModifyDate(file, md));
+        if (context != null) {
+            tiddler.addTags(context.getTags());
+        }
         tiddler.addTags(filterKeywords(file, md));
         tiddler.setText(text);
         tiddler.setPath(file.getName().getPath());
@@ -168,35 +466,16 @@ final class DocumentVisitor implements FileObjectVisitor {
     }
 
     /**
-     * Filters the keywords of a given document.
+     * Filters the keywords of a given document. The tag of the folder is
+     * added from the DirectoryContext.
      *
      * @param file the reference to the file
      * @param md meta data of the file
      * @return a list with filtered keywords
-     * @throws FileSystemException if operation failed
      */
     private List<String> filterKeywords(final FileObject file, final Metadata md) {
         List<String> keywords = new ArrayList();
 
-        try {
-            FileObject parent = file.getParent();
-            if (parent != null) {
-                String absolutePath = parent.getName().getPath();
-                if (rootFolder != null) {
-                    String rootFolderPath = rootFolder.getName().getPath();
-                    absolutePath = absolutePath.replaceAll(rootFolderPath, "");
-                }
-                /*String[] pathNames = absolutePath.split(String.valueOf(File.separator));
-                keywords.addAll(Arrays.asList(pathNames));
-                 */
-                keywords.add(absolutePath);
-            }
-        } catch (FileSystemException ex) {
-            LOGGER.warn(ex.getMessage());
-            if (LOGGER.isTraceEnabled()) {
-                LOGGER.trace(ex.getMessage(), ex);
-            }
-        }
         keywords.addAll(getKeywordsForAttribute(file, md, TikaCoreProperties.KEYWORDS));
         keywords.addAll(getKeywordsForAttribute(file, md, "keywords"));
 
@@ -283,10 +562,13 @@ final class DocumentVisitor implements FileObjectVisitor {
     private String getContentType(final FileObject file, final Metadata md) {
         String contentType = "text/vnd.tiddlywiki";
         String ext = file.getName().getExtension();
+        MediaType type = MediaType.parse(md.get(Metadata.CONTENT_TYPE));
         if (ext.matches("md|MD|rst|RST")) {
             contentType = "text/x-markdown";
         } else if (ext.matches("txt|TXT")) {
             contentType = "text/vnd.tiddlywiki";
+        } else if (type != null) {
+            contentType = type.getBaseType().toString();
         } else {
             try {
                 FileContent content = file.getContent();
@@ -2,19 +2,32 @@ package de.bimalo.tiddlywiki.fs;
 
 import de.bimalo.tiddlywiki.common.Assert;
 import de.bimalo.tiddlywiki.common.Localizer;
+import de.bimalo.tiddlywiki.common.NamedThreadFactory;
 import de.bimalo.tiddlywiki.Tiddler;
 import de.bimalo.tiddlywiki.TiddlyWiki;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.vfs2.FileNotFolderException;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileType;
-import org.apache.commons.vfs2.PatternFileSelector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,6 +47,16 @@ final class FilesystemTreeWalker {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(FilesystemTreeWalker.class);
 
+    /**
+     * Schedule processing documents in the order of the hierarchy.
+     */
+    static final String SCHEDULE_TREE = "tree";
+
+    /**
+     * Schedule processing default and recently modified documents first.
+     */
+    static final String SCHEDULE_RECENT = "recent";
+
     /**
      * The generated TiddlyWiki.
      */
@@ -62,22 +85,112 @@ final class FilesystemTreeWalker {
     private int maxLevel = -1;
 
     /**
-     * Selects files with this regular expressions matched against base
-     * filename.
+     * Decides which files and folders are walked.
+     */
+    private FilterChain filterChain = null;
+
+    /**
+     * true if symbolic links are followed. Default is true.
+     */
+    private boolean followSymlinks = true;
+
+    /**
+     * true if folders of other file systems are skipped. Default is false.
      */
-    private String includePattern = null;
+    private boolean oneFileSystem = false;
+
+    /**
+     * The order documents are processed, "tree" or "recent". Default is
+     * "tree".
+     */
+    private String schedule = SCHEDULE_TREE;
+
+    /**
+     * Time budget of a walk in milliseconds, negative for no limit.
+     */
+    private long budget = -1;
+
+    /**
+     * Prevents walking a folder twice during a walk.
+     */
+    private TraversalGuard guard = null;
+
+    /**
+     * Journal of the parsed documents to resume an interrupted walk, null if
+     * none.
+     */
+    private WalkJournal journal = null;
+
+    /**
+     * Maximum number of documents read ahead while parsing, 0 to read every
+     * document while parsing.
+     */
+    private int readAheadFiles = 0;
+
+    /**
+     * Maximum number of bytes read ahead while parsing.
+     */
+    private long readAheadBudget = 0;
+
+    /**
+     * Minimum size of a local document mapped into memory by the parser, 0
+     * to disable mapping.
+     */
+    private long mapThreshold = DocumentVisitor.DEFAULT_MAP_THRESHOLD;
+
+    /**
+     * Reports the progress of parsing, null for none.
+     */
+    private ProgressMonitor progressMonitor = null;
+
+    /**
+     * Number of threads parsing documents. Default is 1.
+     */
+    private int parseThreads = 1;
+
+    /**
+     * Maximum number of threads reading documents ahead.
+     */
+    private int ioThreads = ReadAhead.DEFAULT_IO_THREADS;
+
+    /**
+     * Keeps the documents failed to parse, null to abort the walk if a
+     * document could not be parsed.
+     */
+    private ParseQuarantine quarantine = null;
+
+    /**
+     * Minimum parse time in milliseconds putting a document into quarantine,
+     * 0 for failed documents only.
+     */
+    private long quarantineTime = 0;
+
+    /**
+     * true if documents in quarantine are parsed again.
+     */
+    private boolean retryQuarantined = false;
+
+    /**
+     * Publishes the events of the generator.
+     */
+    private GeneratorEvents events = new GeneratorEvents();
 
     /**
      * Visitor implementation for documents. This variable is used as cache. Can
      * be moved into a factory in a future release.
      */
-    private FileObjectVisitor documentVisitor = null;
+    private DocumentVisitor documentVisitor = null;
 
     /**
      * Visitor implementation for directories. Can be moved into a factory in a
      * future release.
      */
-    private FileObjectVisitor directoryVisitor = null;
+    private DirectoryVisitor directoryVisitor = null;
+
+    /**
+     * Listeners notified about added Tiddlers.
+     */
+    private final List<WalkListener> listeners = new ArrayList<WalkListener>();
 
     /**
      * Creates a new <code>FilesystemTreeWalker</code>.
@@ -102,6 +215,7 @@ final class FilesystemTreeWalker {
         this.localizer = new Localizer(Locale.getDefault());
         documentVisitor = new DocumentVisitor(this.rootFolder);
         directoryVisitor = new DirectoryVisitor(this.rootFolder);
+        filterChain = new FilterChain(this.rootFolder);
     }
 
     /**
@@ -121,68 +235,424 @@ final class FilesystemTreeWalker {
      * @param includePattern a new regular expression to select files
      */
     public void setIncludePattern(final String includePattern) {
-        this.includePattern = includePattern;
+        filterChain.setIncludePattern(includePattern);
+    }
+
+    /**
+     * Defines whether symbolic links are followed. Every folder is walked only
+     * once, also if several links point to it.
+     *
+     * @param followSymlinks true to follow symbolic links
+     */
+    void setFollowSymlinks(final boolean followSymlinks) {
+        this.followSymlinks = followSymlinks;
+    }
+
+    /**
+     * Defines whether folders of other file systems than the root folder are
+     * skipped.
+     *
+     * @param oneFileSystem true to stay on the file system of the root folder
+     */
+    void setOneFileSystem(final boolean oneFileSystem) {
+        this.oneFileSystem = oneFileSystem;
+    }
+
+    /**
+     * Sets the order documents are processed.
+     *
+     * @param schedule "tree" for the order of the hierarchy, "recent" for
+     * default and recently modified documents first
+     * @throws IllegalArgumentException if the schedule is unknown
+     */
+    void setSchedule(final String schedule) {
+        Assert.isTrue(SCHEDULE_TREE.equals(schedule) || SCHEDULE_RECENT.equals(schedule));
+        this.schedule = schedule;
+    }
+
+    /**
+     * Sets the time budget of a walk. Documents not started within the budget
+     * get Tiddlers linking to the file without parsed content.
+     *
+     * @param budget the budget in milliseconds, negative for no limit
+     */
+    void setBudget(final long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Sets the chain deciding which files and folders are walked.
+     *
+     * @param filterChain the filter chain created for the root folder
+     * @throws IllegalArgumentException if filterChain is null
+     */
+    void setFilterChain(final FilterChain filterChain) {
+        Assert.notNull(filterChain);
+        this.filterChain = filterChain;
+    }
+
+    /**
+     * Sets the journal recording the Tiddlers of parsed documents. Unchanged
+     * documents recorded by an interrupted walk are not parsed again.
+     *
+     * @param journal the opened journal, null for none
+     */
+    void setJournal(final WalkJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Enables reading the content of the next documents while the current
+     * document is parsed.
+     *
+     * @param files maximum number of documents read ahead, 0 to disable
+     * @param budget maximum number of bytes read ahead
+     */
+    void setReadAhead(final int files, final long budget) {
+        this.readAheadFiles = files;
+        this.readAheadBudget = budget;
+    }
+
+    /**
+     * Sets the number of threads parsing documents. Parsing is bound by the
+     * CPU, so more threads than processors do not help.
+     *
+     * @param parseThreads number of threads, 1 to parse in the walking thread
+     * @throws IllegalArgumentException if parseThreads is less than 1
+     */
+    void setParseThreads(final int parseThreads) {
+        Assert.isTrue(parseThreads > 0, "parseThreads must be greater than zero.");
+        this.parseThreads = parseThreads;
+    }
+
+    /**
+     * Sets the maximum number of threads reading documents ahead. The number
+     * of concurrent reads is adapted to the read latency between 1 and this
+     * maximum.
+     *
+     * @param ioThreads maximum number of threads
+     * @throws IllegalArgumentException if ioThreads is less than 1
+     */
+    void setIoThreads(final int ioThreads) {
+        Assert.isTrue(ioThreads > 0, "ioThreads must be greater than zero.");
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * Sets the minimum size of a local document passed to the parsers as file
+     * to be mapped into memory. Such documents are never read ahead.
+     *
+     * @param mapThreshold the minimum size in bytes, 0 to disable mapping
+     */
+    void setMapThreshold(final long mapThreshold) {
+        this.mapThreshold = mapThreshold;
+        documentVisitor.setMapThreshold(mapThreshold);
+    }
+
+    /**
+     * Sets the monitor reporting the progress of parsing. The monitor is
+     * started when all documents are listed and stopped when all documents are
+     * parsed.
+     *
+     * @param progressMonitor the monitor, null for none
+     */
+    void setProgressMonitor(final ProgressMonitor progressMonitor) {
+        this.progressMonitor = progressMonitor;
+    }
+
+    /**
+     * Sets the quarantine of documents which failed to parse or took too long
+     * to parse. Such documents get Tiddlers linking to the file without parsed
+     * content and are not parsed again as long as they are unchanged.
+     *
+     * @param quarantine the quarantine, null to abort the walk if a document
+     * could not be parsed
+     * @param quarantineTime minimum parse time in milliseconds putting a
+     * document into quarantine, 0 for failed documents only
+     * @param retryQuarantined true to parse documents in quarantine again
+     */
+    void setQuarantine(final ParseQuarantine quarantine, final long quarantineTime,
+            final boolean retryQuarantined) {
+        this.quarantine = quarantine;
+        this.quarantineTime = quarantineTime;
+        this.retryQuarantined = retryQuarantined;
+    }
+
+    /**
+     * Sets the events published to the statistics of the generator.
+     *
+     * @param events the events of the generator
+     * @throws IllegalArgumentException if events is null
+     */
+    void setEvents(final GeneratorEvents events) {
+        Assert.notNull(events);
+        this.events = events;
+        documentVisitor.setEvents(events);
+    }
+
+    /**
+     * Sets the cache keeping the results of parsed documents. A cache shared
+     * by several walks parses unchanged documents only once.
+     *
+     * @param parseCache the cache, null to parse every document
+     */
+    public void setParseCache(final ParseCache parseCache) {
+        documentVisitor.setParseCache(parseCache);
+    }
+
+    /**
+     * Sets the parsers used to extract text and meta data of the files.
+     *
+     * @param parserRegistry the parsers
+     * @throws IllegalArgumentException if parserRegistry is null
+     */
+    void setParserRegistry(final ParserRegistry parserRegistry) {
+        documentVisitor.setParserRegistry(parserRegistry);
+    }
+
+    /**
+     * Adds a listener notified about every Tiddler added to the TiddlyWiki.
+     *
+     * @param listener the listener
+     * @throws IllegalArgumentException if listener is null
+     */
+    public void addWalkListener(final WalkListener listener) {
+        Assert.notNull(listener);
+        listeners.add(listener);
     }
 
     /**
      * Walks through the file system and creates a new TiddlyWiki with Tiddler's
      * for every document and directory. Every call to <code>walkFileTree</code>
      * will create a complete new TiddlyWiki!
+     * <p>
+     * The files are listed first and processed in the order of the schedule
+     * afterwards, the content of the next files is read ahead if enabled.
+     * Files not started within the time budget get Tiddlers linking to the
+     * file without parsed content, as well as documents in quarantine. The
+     * Tiddlers are always added in the order of the file system
+     * hierarchy.</p>
      *
      * @return a new TiddlyWiki
      * @throws IOException if operation failed
      */
     public TiddlyWiki walkFileTree() throws IOException {
         LOGGER.debug("walkFileTree starting with {}...", rootFolder.getName().getPath());
-        rootTiddler = createTiddler(rootFolder);
+        events.phase(GeneratorEvents.PHASE_LISTING);
+        long deadline = budget >= 0 ? System.currentTimeMillis() + budget : Long.MAX_VALUE;
+        guard = new TraversalGuard(rootFolder, followSymlinks, oneFileSystem);
+        DirectoryContext rootContext = DirectoryContext.root(rootFolder, filterChain);
+        rootTiddler = directoryVisitor.visit(rootFolder, rootContext);
         wiki = createTiddlyWiki(rootTiddler);
 
-        walkFileTree(rootFolder, wiki, 0);
+        List<FileObject> files = new ArrayList<FileObject>();
+        Map<FileObject, DirectoryContext> folders = new IdentityHashMap<FileObject, DirectoryContext>();
+        if (maxLevel < 0 || maxLevel > 0) {
+            walkFileTree(rootContext, files, folders);
+        } else {
+            LOGGER.info("maxLevel {} reached.", maxLevel);
+        }
+
+        Map<FileObject, Tiddler> tiddlers = new IdentityHashMap<FileObject, Tiddler>();
+        List<FileObject> parsed = new ArrayList<FileObject>();
+        if (quarantine != null && quarantine.size() > 0) {
+            Set<String> paths = new HashSet<String>();
+            for (FileObject file : files) {
+                paths.add(file.getName().getPath());
+            }
+            quarantine.retain(paths);
+        }
+        int resumed = 0;
+        int skipped = 0;
+        long totalBytes = 0;
+        for (FileObject file : schedule(files, deadline)) {
+            long size = progressMonitor != null ? file.getContent().getSize() : 0;
+            totalBytes += size;
+            Tiddler tiddler = lookupJournal(file);
+            if (tiddler != null) {
+                resumed++;
+            } else if (isQuarantined(file)) {
+                tiddler = documentVisitor.visitLinkOnly(file, folders.get(file));
+                skipped++;
+            } else {
+                parsed.add(file);
+                continue;
+            }
+            tiddlers.put(file, tiddler);
+            if (progressMonitor != null) {
+                progressMonitor.resumed(size, !tiddler.isHidden());
+            }
+        }
+        AtomicInteger linkOnly = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        ReadAhead readAhead = null;
+        if (readAheadFiles > 0 && !parsed.isEmpty()) {
+            readAhead = new ReadAhead(parsed, readAheadFiles, readAheadBudget,
+                    mapThreshold > 0 ? mapThreshold - 1 : Long.MAX_VALUE, ioThreads);
+            documentVisitor.setReadAhead(readAhead);
+        }
+        if (progressMonitor != null) {
+            progressMonitor.start(files.size(), totalBytes);
+        }
+        events.phase(GeneratorEvents.PHASE_PARSING);
+        try {
+            if (parseThreads > 1 && parsed.size() > 1) {
+                processConcurrently(parsed, folders, deadline, tiddlers, linkOnly, failed);
+            } else {
+                for (FileObject file : parsed) {
+                    tiddlers.put(file, processDocument(file, folders.get(file), deadline, linkOnly, failed));
+                }
+            }
+        } finally {
+            if (readAhead != null) {
+                readAhead.close();
+                documentVisitor.setReadAhead(null);
+            }
+            if (progressMonitor != null) {
+                progressMonitor.stop();
+            }
+        }
+        if (resumed > 0) {
+            LOGGER.info("{} of {} documents resumed from the journal.", resumed, files.size());
+        }
+        if (skipped > 0) {
+            LOGGER.info("{} of {} documents in quarantine linked without content.", skipped, files.size());
+        }
+        if (failed.get() > 0) {
+            LOGGER.warn("{} of {} documents could not be parsed and were put into quarantine.", failed,
+                    files.size());
+        }
+        if (linkOnly.get() > 0) {
+            LOGGER.info("Time budget of {} ms exceeded, {} of {} files linked without content.", budget,
+                    linkOnly, files.size());
+        }
+
+        for (FileObject file : files) {
+            Tiddler tiddler = tiddlers.get(file);
+            if (!tiddler.isHidden()) {
+                addTiddler(wiki, tiddler);
+                if (tiddler.isDefault()) {
+                    wiki.addDefaultTiddler(tiddler);
+                }
+            }
+        }
 
         LOGGER.debug("Done walkFileTree.");
         return wiki;
     }
 
     /**
-     * Walks through the hierarchy of the file system and creates the
-     * corresponding Tiddler's.
+     * Walks through the hierarchy of the file system and collects the
+     * documents. The context of a folder is computed once when the folder is
+     * entered and shared by all its documents.
      *
-     * @param parentFolder the parent folder
-     * @param TiddlyWiki the generated TiddlyWiki
-     * @param level the current hierarchy level
+     * @param context the context of the parent folder
+     * @param files receives the documents in the order of the hierarchy
+     * @param folders receives the context of the folder of every document
      * @throws IOException if traversal failed for some reason
      */
-    private void walkFileTree(FileObject parentFolder, TiddlyWiki wiki, int level)
-            throws IOException {
+    private void walkFileTree(DirectoryContext context, List<FileObject> files,
+            Map<FileObject, DirectoryContext> folders) throws IOException {
+        FileObject parentFolder = context.getFolder();
         LOGGER.info("walkFileTree {}...", parentFolder.getName().getPath());
 
-        if (maxLevel < 0 || level < maxLevel) {
-            List<FileObject> children = listAndSortChildrens(parentFolder);
-
-            for (FileObject child : children) {
-                LOGGER.trace("Analyze file {}...", child.getName().getPath());
-                if (!child.isHidden()) {
-                    if (isFile(child)) {
-                        Tiddler tiddler = createTiddler(child);
-                        if (!tiddler.isHidden()) {
-                            wiki.addTiddler(tiddler);
-                            if (tiddler.isDefault()) {
-                                wiki.addDefaultTiddler(tiddler);
-                            }
-                        }
-                    } else if (isDirectory(child)) {
-                        level++;
-                        walkFileTree(child, wiki, level);
-                        level--;
+        List<FileObject> children = listAndSortChildrens(parentFolder, context.getChain());
+        for (FileObject child : children) {
+            LOGGER.trace("Analyze file {}...", child.getName().getPath());
+            if (!child.isHidden()) {
+                if (isFile(child)) {
+                    files.add(child);
+                    folders.put(child, context);
+                } else if (isDirectory(child)) {
+                    if (maxLevel < 0 || context.getLevel() + 1 < maxLevel) {
+                        walkFileTree(context.enter(child), files, folders);
+                    } else {
+                        LOGGER.info("maxLevel {} reached.", maxLevel);
                     }
                 }
             }
-        } else {
-            LOGGER.info("maxLevel {} reached.", maxLevel);
         }
         LOGGER.debug("Done walkFileTree for {}.", parentFolder.getName().getPath());
     }
 
+    /**
+     * Returns the documents in the order they are processed without a time
+     * budget.
+     *
+     * @param files the documents in the order of the hierarchy
+     * @return the documents in the order of processing
+     * @throws FileSystemException if the attributes could not be read
+     * @see #schedule(List, long)
+     */
+    List<FileObject> schedule(List<FileObject> files) throws FileSystemException {
+        return schedule(files, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the documents in the order they are processed. With the schedule
+     * "recent" documents marked as default in their Front Matter block come
+     * first, followed by all other documents from the most to the least
+     * recently modified one.
+     * <p>
+     * The mark of an unchanged document is taken from the journal or the
+     * parse cache, other documents are read. Once the time budget is
+     * exceeded no more documents are read, the remaining documents are
+     * ordered by the time of the last modification only.</p>
+     *
+     * @param files the documents in the order of the hierarchy
+     * @param deadline the time the time budget ends
+     * @return the documents in the order of processing
+     * @throws FileSystemException if the attributes could not be read
+     */
+    List<FileObject> schedule(List<FileObject> files, long deadline) throws FileSystemException {
+        if (!SCHEDULE_RECENT.equals(schedule)) {
+            return files;
+        }
+        final Map<FileObject, Long> priorities = new IdentityHashMap<FileObject, Long>();
+        int unread = 0;
+        for (FileObject file : files) {
+            long lastModified = file.getContent().getLastModifiedTime();
+            Tiddler journaled = lookupJournal(file);
+            boolean marked;
+            if (journaled != null) {
+                marked = journaled.isDefault();
+            } else if (System.currentTimeMillis() < deadline) {
+                marked = documentVisitor.isDefault(file);
+            } else {
+                marked = false;
+                unread++;
+            }
+            priorities.put(file, marked ? Long.MAX_VALUE : lastModified);
+        }
+        if (unread > 0) {
+            LOGGER.info("Time budget exceeded while scheduling, {} documents ordered without reading them.",
+                    unread);
+        }
+        List<FileObject> ordered = new ArrayList<FileObject>(files);
+        Collections.sort(ordered, new Comparator<FileObject>() {
+            @Override
+            public int compare(FileObject o1, FileObject o2) {
+                return priorities.get(o2).compareTo(priorities.get(o1));
+            }
+        });
+        return ordered;
+    }
+
+    /**
+     * Adds the Tiddler to the TiddlyWiki and notifies the listeners.
+     *
+     * @param wiki the generated TiddlyWiki
+     * @param tiddler the Tiddler to add
+     * @throws IOException if a listener failed
+     */
+    private void addTiddler(TiddlyWiki wiki, Tiddler tiddler) throws IOException {
+        wiki.addTiddler(tiddler);
+        int ordinal = wiki.listTiddlers().size() - 1;
+        for (WalkListener listener : listeners) {
+            listener.tiddlerAdded(tiddler, ordinal);
+        }
+    }
+
     /**
      * Checks if the given FileObject is a directory.
      *
@@ -207,53 +677,244 @@ final class FilesystemTreeWalker {
 
     /**
      * Lookup and sorts all documents and directories directly belonging to the
-     * parentFolder.
+     * parentFolder and accepted by the filter chain and the traversal guard.
      *
      * @param parentFolder the parent folder
+     * @param chain the filter chain of the parent folder
      * @throws FileSystemException if operation failed
      */
-    private List<FileObject> listAndSortChildrens(FileObject parentFolder)
+    private List<FileObject> listAndSortChildrens(FileObject parentFolder, FilterChain chain)
             throws FileSystemException {
-        List<FileObject> children = null;
-        if (includePattern != null) {
-            children = Arrays.asList(parentFolder.findFiles(new PatternFileSelector(includePattern)));
-        } else {
-            children = Arrays.asList(parentFolder.getChildren());
+        long start = System.nanoTime();
+        List<FileObject> children = new ArrayList<FileObject>();
+        for (FileObject child : parentFolder.getChildren()) {
+            if (chain.accept(child) && guard.accept(child)) {
+                children.add(child);
+            }
         }
         Collections.sort(children, new FilenameComparator());
+        events.directoryListed(parentFolder.getName().getPath(), children.size(), start);
         return children;
     }
 
     /**
-     * Creates a new <code>Tiddler</code> for the given FileObject.
+     * Creates a new <code>Tiddler</code> for the given document.
      *
-     * @param file the document or directory
+     * @param file the document
+     * @param context the context of the folder containing the document
      * @return the new Tiddler
      * @throws IOException if operation fails
      */
-    private Tiddler createTiddler(final FileObject file) throws IOException {
+    private Tiddler createTiddler(final FileObject file, final DirectoryContext context) throws IOException {
         LOGGER.trace("Create tiddler for file {}...", file.getName().getPath());
-        FileObjectVisitor visitor = getVisitor(file.getType());
-        Tiddler tiddler = (Tiddler) visitor.visit(file);
+        Tiddler tiddler = documentVisitor.visit(file, context);
         LOGGER.trace("Tiddler for file {} created", file.getName().getPath());
         return tiddler;
     }
 
     /**
-     * Returns the FileObjectVisitor for the given FileType.
+     * Processes the documents by the parse threads. The documents are started
+     * in the order of the list, so they are taken in the order they are read
+     * ahead.
+     *
+     * @param parsed the documents to process
+     * @param folders the context of the folder of every document
+     * @param deadline the time the time budget ends
+     * @param tiddlers receives the Tiddler of every document
+     * @param linkOnly counts the documents linked because of the time budget
+     * @param failed counts the documents failed to parse
+     * @throws IOException if a document could not be processed
+     */
+    private void processConcurrently(final List<FileObject> parsed, final Map<FileObject, DirectoryContext> folders,
+            final long deadline, final Map<FileObject, Tiddler> tiddlers, final AtomicInteger linkOnly,
+            final AtomicInteger failed) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parseThreads, parsed.size()),
+                new NamedThreadFactory("tw-parse", true));
+        try {
+            List<Future<Tiddler>> futures = new ArrayList<Future<Tiddler>>(parsed.size());
+            for (final FileObject file : parsed) {
+                futures.add(executor.submit(new Callable<Tiddler>() {
+                    @Override
+                    public Tiddler call() throws IOException {
+                        return processDocument(file, folders.get(file), deadline, linkOnly, failed);
+                    }
+                }));
+            }
+            for (int i = 0; i < parsed.size(); i++) {
+                tiddlers.put(parsed.get(i), getResult(futures.get(i)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the Tiddler of a document processed by a parse thread.
+     *
+     * @param future the result of the parse thread
+     * @return the Tiddler
+     * @throws IOException if the document could not be processed or waiting
+     * was interrupted
+     */
+    private static Tiddler getResult(final Future<Tiddler> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Parsing was interrupted.");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Creates the Tiddler of a document. The document is parsed if the time
+     * budget is not exceeded, otherwise it is linked without content. Called
+     * by several parse threads at the same time.
      *
-     * @param type the FileType
-     * @return FileObjectVisitor for the given FileType
+     * @param file the document
+     * @param context the context of the folder containing the document
+     * @param deadline the time the time budget ends
+     * @param linkOnly counts the documents linked because of the time budget
+     * @param failed counts the documents failed to parse
+     * @return the Tiddler
+     * @throws IOException if operation fails
      */
-    private FileObjectVisitor getVisitor(FileType type) {
-        FileObjectVisitor visitor = null;
+    private Tiddler processDocument(final FileObject file, final DirectoryContext context, final long deadline,
+            final AtomicInteger linkOnly, final AtomicInteger failed) throws IOException {
+        String path = progressMonitor != null ? file.getName().getPath() : null;
+        if (path != null) {
+            progressMonitor.started(path);
+        }
+        Tiddler tiddler;
+        if (System.currentTimeMillis() < deadline) {
+            tiddler = parseTiddler(file, context);
+            if (tiddler != null) {
+                appendJournal(file, tiddler);
+            } else {
+                tiddler = documentVisitor.visitLinkOnly(file, context);
+                failed.incrementAndGet();
+            }
+        } else {
+            tiddler = documentVisitor.visitLinkOnly(file, context);
+            linkOnly.incrementAndGet();
+        }
+        if (path != null) {
+            progressMonitor.finished(path, file.getContent().getSize(), !tiddler.isHidden());
+        }
+        return tiddler;
+    }
 
-        if (type.equals(FileType.FILE)) {
-            visitor = documentVisitor;
+    /**
+     * Parses a document and creates its Tiddler. If a quarantine is set, a
+     * document which could not be parsed is put into quarantine, as well as a
+     * document taking longer than the quarantine time, and a document parsed
+     * again is released.
+     *
+     * @param file the document
+     * @param context the context of the folder containing the document
+     * @return the new Tiddler or null if the document could not be parsed
+     * @throws IOException if operation fails and there is no quarantine
+     */
+    private Tiddler parseTiddler(final FileObject file, final DirectoryContext context) throws IOException {
+        if (quarantine == null) {
+            return createTiddler(file, context);
+        }
+        String path = file.getName().getPath();
+        long start = System.nanoTime();
+        Tiddler tiddler;
+        try {
+            tiddler = createTiddler(file, context);
+        } catch (IOException | RuntimeException ex) {
+            String reason = describe(ex);
+            LOGGER.warn("Could not parse file {}, put into quarantine: {}", path, reason);
+            quarantine.add(path, file.getContent().getSize(), file.getContent().getLastModifiedTime(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), reason);
+            return null;
+        }
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (quarantineTime > 0 && duration >= quarantineTime) {
+            LOGGER.warn("Parsing file {} took {} ms, put into quarantine.", path, duration);
+            quarantine.add(path, file.getContent().getSize(), file.getContent().getLastModifiedTime(), duration,
+                    "Parsing took " + duration + " ms.");
         } else {
-            visitor = directoryVisitor;
+            quarantine.remove(path);
+        }
+        return tiddler;
+    }
+
+    /**
+     * Returns true if an unchanged document is in quarantine and is not
+     * retried.
+     *
+     * @param file the document
+     * @return true if the document is linked without parsing
+     * @throws FileSystemException if the attributes could not be read
+     */
+    private boolean isQuarantined(final FileObject file) throws FileSystemException {
+        if (quarantine == null || retryQuarantined) {
+            return false;
+        }
+        ParseQuarantine.Entry entry = quarantine.lookup(file.getName().getPath(), file.getContent().getSize(),
+                file.getContent().getLastModifiedTime());
+        if (entry == null) {
+            return false;
+        }
+        LOGGER.debug("File {} in quarantine: {}", file.getName().getPath(), entry.getReason());
+        return true;
+    }
+
+    /**
+     * Describes a parse failure by its innermost cause.
+     *
+     * @param ex the failure
+     * @return the name of the exception and its message
+     */
+    private static String describe(final Throwable ex) {
+        Throwable cause = ex;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        String message = cause.getMessage();
+        return message != null ? cause.getClass().getSimpleName() + ": " + message
+                : cause.getClass().getSimpleName();
+    }
+
+    /**
+     * Returns the Tiddler of an unchanged document recorded in the journal.
+     *
+     * @param file the document
+     * @return the Tiddler or null if there is no journal or no record
+     * @throws FileSystemException if the attributes could not be read
+     */
+    private Tiddler lookupJournal(final FileObject file) throws FileSystemException {
+        if (journal == null) {
+            return null;
+        }
+        return journal.lookup(file.getName().getPath(), file.getContent().getSize(),
+                file.getContent().getLastModifiedTime());
+    }
+
+    /**
+     * Records the Tiddler of a parsed document in the journal.
+     *
+     * @param file the document
+     * @param tiddler the Tiddler of the document
+     * @throws IOException if the record could not be written
+     */
+    private void appendJournal(final FileObject file, final Tiddler tiddler) throws IOException {
+        if (journal != null) {
+            journal.append(file.getName().getPath(), file.getContent().getSize(),
+                    file.getContent().getLastModifiedTime(), tiddler);
         }
-        return visitor;
     }
 
     /**
@@ -262,11 +923,12 @@ final class FilesystemTreeWalker {
      *
      * @param rootTiddler the first (root) Tiddler for the TiddlyWiki
      * @return a new TiddlyWiki, it always creates a new one
+     * @throws IOException if a listener failed
      */
-    private TiddlyWiki createTiddlyWiki(Tiddler rootTiddler) {
+    private TiddlyWiki createTiddlyWiki(Tiddler rootTiddler) throws IOException {
         TiddlyWiki tmpwiki = createTiddlyWiki(rootTiddler.getTitle(),
                 localizer.formatDateObject(new Date(), "dd.MM.yyyy hh:mm:ss"));
-        tmpwiki.addTiddler(rootTiddler);
+        addTiddler(tmpwiki, rootTiddler);
         tmpwiki.addDefaultTiddler(rootTiddler);
         return tmpwiki;
     }
@@ -0,0 +1,321 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.StreamUtilities;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.apache.commons.vfs2.FileContent;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Decides which files and folders of a folder are walked. The chain is
+ * evaluated on the listed children of a folder, only names, the size and the
+ * time of the last modification are used and no file is opened. An excluded
+ * folder is not listed at all.</p>
+ * <p>
+ * The chain is evaluated as follows:</p>
+ * <ol>
+ * <li>The exclude rules and the rules of the ignore files of the folder and its
+ * parents (like .twignore with the syntax of .gitignore) are checked in this
+ * order, the last matching rule decides whether a file or folder is
+ * excluded.</li>
+ * <li>A file must match at least one include rule and the include pattern if
+ * they are defined. Folders are always walked.</li>
+ * <li>A file must not be larger than the maximum size and not be older than
+ * the maximum age.</li>
+ * </ol>
+ * <p>
+ * A chain is never changed while walking, <code>enter</code> returns a new
+ * chain for a sub folder.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FilterRule
+ * @see FilesystemTreeWalker
+ */
+final class FilterChain {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(FilterChain.class);
+
+    /**
+     * Default name of the ignore files.
+     */
+    static final String DEFAULT_IGNORE_FILE = ".twignore";
+
+    /**
+     * The path of the root folder.
+     */
+    private final String rootPath;
+
+    /**
+     * Regular expression matched against the absolute path of files, null if
+     * none.
+     */
+    private Pattern includePattern = null;
+
+    /**
+     * Include rules, a file must match one of them if there are any.
+     */
+    private final List<FilterRule> includes = new ArrayList<FilterRule>();
+
+    /**
+     * Exclude rules of the arguments and of the ignore files, in the order of
+     * evaluation.
+     */
+    private final List<FilterRule> excludes;
+
+    /**
+     * Names of the ignore files read in every folder.
+     */
+    private List<String> ignoreFileNames = Collections.singletonList(DEFAULT_IGNORE_FILE);
+
+    /**
+     * Maximum size of a file in bytes, negative for no limit.
+     */
+    private long maxSize = -1;
+
+    /**
+     * Maximum age of a file in milliseconds, negative for no limit.
+     */
+    private long maxAge = -1;
+
+    /**
+     * Creates a new <code>FilterChain</code> accepting all files and folders
+     * except the ones excluded by ignore files.
+     *
+     * @param rootFolder the root folder of the walk
+     * @throws IllegalArgumentException if rootFolder is null
+     */
+    FilterChain(final FileObject rootFolder) {
+        Assert.notNull(rootFolder);
+        this.rootPath = rootFolder.getName().getPath();
+        this.excludes = new ArrayList<FilterRule>();
+    }
+
+    /**
+     * Creates a new <code>FilterChain</code> for a sub folder.
+     *
+     * @param parent the chain of the parent folder
+     * @param excludes the exclude rules of the sub folder
+     */
+    private FilterChain(FilterChain parent, List<FilterRule> excludes) {
+        this.rootPath = parent.rootPath;
+        this.includePattern = parent.includePattern;
+        this.includes.addAll(parent.includes);
+        this.excludes = excludes;
+        this.ignoreFileNames = parent.ignoreFileNames;
+        this.maxSize = parent.maxSize;
+        this.maxAge = parent.maxAge;
+    }
+
+    /**
+     * Sets a regular expression matched against the absolute path of files.
+     *
+     * @param includePattern the regular expression, null for all files
+     * @throws IllegalArgumentException if includePattern is invalid
+     */
+    void setIncludePattern(final String includePattern) {
+        try {
+            this.includePattern = includePattern != null ? Pattern.compile(includePattern) : null;
+        } catch (PatternSyntaxException ex) {
+            throw new IllegalArgumentException(includePattern + " is an invalid regular expression.");
+        }
+    }
+
+    /**
+     * Adds include rules relative to the root folder.
+     *
+     * @param patterns comma separated list of patterns, like "*.md,*.pdf",
+     * can be null
+     * @throws IllegalArgumentException if a pattern is invalid
+     */
+    void addIncludes(final String patterns) {
+        addRules(patterns, false, includes);
+    }
+
+    /**
+     * Adds exclude rules relative to the root folder.
+     *
+     * @param patterns comma separated list of patterns, like
+     * "*.tmp,archive/", can be null
+     * @throws IllegalArgumentException if a pattern is invalid
+     */
+    void addExcludes(final String patterns) {
+        addRules(patterns, true, excludes);
+    }
+
+    /**
+     * Sets the names of the ignore files read in every folder.
+     *
+     * @param names comma separated list of names, empty to read no ignore
+     * files, null for .twignore
+     */
+    void setIgnoreFileNames(final String names) {
+        if (names == null) {
+            ignoreFileNames = Collections.singletonList(DEFAULT_IGNORE_FILE);
+        } else {
+            List<String> list = new ArrayList<String>();
+            for (String name : names.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    list.add(name.trim());
+                }
+            }
+            ignoreFileNames = list;
+        }
+    }
+
+    /**
+     * Sets the maximum size of a file.
+     *
+     * @param maxSize maximum size in bytes, negative for no limit
+     */
+    void setMaxSize(final long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Sets the maximum age of a file.
+     *
+     * @param maxAgeDays maximum age in days since the last modification,
+     * negative for no limit
+     */
+    void setMaxAge(final int maxAgeDays) {
+        maxAge = maxAgeDays < 0 ? -1 : maxAgeDays * 24L * 3600 * 1000;
+    }
+
+    /**
+     * Returns the chain for a folder, extended by the rules of its ignore
+     * files.
+     *
+     * @param folder a folder accepted by this chain or the root folder
+     * @return this chain if the folder has no ignore files, otherwise a new
+     * chain
+     * @throws FileSystemException if an ignore file could not be read
+     */
+    FilterChain enter(final FileObject folder) throws FileSystemException {
+        List<FilterRule> folderRules = null;
+        for (String name : ignoreFileNames) {
+            FileObject ignoreFile = folder.getChild(name);
+            if (ignoreFile != null && ignoreFile.getType() == FileType.FILE) {
+                if (folderRules == null) {
+                    folderRules = new ArrayList<FilterRule>(excludes);
+                }
+                readIgnoreFile(ignoreFile, folder.getName().getPath(), folderRules);
+            }
+        }
+        return folderRules != null ? new FilterChain(this, folderRules) : this;
+    }
+
+    /**
+     * Checks whether a child of the folder of this chain is walked.
+     *
+     * @param file a file or folder
+     * @return true if the file or folder is walked
+     * @throws FileSystemException if the attributes could not be read
+     */
+    boolean accept(final FileObject file) throws FileSystemException {
+        String path = file.getName().getPath();
+        String name = file.getName().getBaseName();
+        boolean folder = file.getType() == FileType.FOLDER;
+        for (int i = excludes.size() - 1; i >= 0; i--) {
+            FilterRule rule = excludes.get(i);
+            if (rule.matches(path, name, folder)) {
+                if (rule.isExclude()) {
+                    LOGGER.debug("{} excluded.", path);
+                    return false;
+                }
+                break;
+            }
+        }
+        if (folder) {
+            return true;
+        }
+        if (includePattern != null && !includePattern.matcher(path).matches()) {
+            return false;
+        }
+        if (!includes.isEmpty() && !matchesAny(includes, path, name)) {
+            return false;
+        }
+        if (maxSize >= 0 || maxAge >= 0) {
+            FileContent content = file.getContent();
+            if (maxSize >= 0 && content.getSize() > maxSize) {
+                LOGGER.debug("{} excluded, larger than {} bytes.", path, maxSize);
+                return false;
+            }
+            if (maxAge >= 0 && System.currentTimeMillis() - content.getLastModifiedTime() > maxAge) {
+                LOGGER.debug("{} excluded, too old.", path);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether one of the rules matches a file.
+     */
+    private static boolean matchesAny(List<FilterRule> rules, String path, String name) {
+        for (FilterRule rule : rules) {
+            if (rule.matches(path, name, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a comma separated list of patterns relative to the root folder.
+     */
+    private void addRules(String patterns, boolean exclude, List<FilterRule> rules) {
+        if (patterns == null) {
+            return;
+        }
+        for (String pattern : patterns.split(",")) {
+            FilterRule rule = FilterRule.parse(pattern, rootPath, exclude);
+            if (rule != null) {
+                rules.add(rule);
+            }
+        }
+    }
+
+    /**
+     * Reads the rules of an ignore file.
+     */
+    private static void readIgnoreFile(FileObject ignoreFile, String basePath, List<FilterRule> rules)
+            throws FileSystemException {
+        LOGGER.debug("Read ignore file {}.", ignoreFile.getName().getPath());
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(ignoreFile.getContent().getInputStream(),
+                    StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                FilterRule rule = FilterRule.parse(line, basePath, true);
+                if (rule != null) {
+                    rules.add(rule);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            throw new FileSystemException(ignoreFile.getName().getPath() + ": " + ex.getMessage(), ex);
+        } catch (FileSystemException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw new FileSystemException(ex);
+        } finally {
+            StreamUtilities.closeReader(reader);
+        }
+    }
+}
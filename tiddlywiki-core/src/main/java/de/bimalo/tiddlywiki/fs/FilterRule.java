@@ -0,0 +1,188 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * <p>
+ * A rule of a <code>FilterChain</code> matching files and folders by their
+ * path relative to a base folder.</p>
+ * <p>
+ * The patterns follow the syntax of .gitignore files: * and ? match within a
+ * name, ** matches across folders, a pattern ending with / matches folders
+ * only, a pattern containing a / is anchored at the base folder, other
+ * patterns match the name at any depth. A leading ! negates the rule.
+ * Patterns starting with <code>regex:</code> are regular expressions matched
+ * against the relative path.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FilterChain
+ */
+final class FilterRule {
+
+    /**
+     * Prefix of patterns containing a regular expression.
+     */
+    static final String REGEX_PREFIX = "regex:";
+
+    /**
+     * The path of the base folder, like "/Documents".
+     */
+    private final String basePath;
+
+    /**
+     * Matches the relative path or the name.
+     */
+    private final Pattern pattern;
+
+    /**
+     * true if the pattern is matched against the name only.
+     */
+    private final boolean nameOnly;
+
+    /**
+     * true if the rule matches folders only.
+     */
+    private final boolean folderOnly;
+
+    /**
+     * true if matching files and folders are excluded, false if they are
+     * included.
+     */
+    private final boolean exclude;
+
+    /**
+     * Creates a new <code>FilterRule</code>.
+     */
+    private FilterRule(String basePath, Pattern pattern, boolean nameOnly, boolean folderOnly, boolean exclude) {
+        this.basePath = basePath;
+        this.pattern = pattern;
+        this.nameOnly = nameOnly;
+        this.folderOnly = folderOnly;
+        this.exclude = exclude;
+    }
+
+    /**
+     * Parses a line of an ignore file or a pattern of an argument.
+     *
+     * @param line the line, like "*.tmp", "!keep.tmp", "build/" or
+     * "regex:.*\.bak"
+     * @param basePath the path of the folder the pattern is relative to
+     * @param exclude true if the rule excludes matching files, a leading !
+     * reverses it
+     * @return the rule or null if the line is empty or a comment
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    static FilterRule parse(String line, String basePath, boolean exclude) {
+        Assert.notNull(line);
+        Assert.notNull(basePath);
+        String value = line.trim();
+        if (value.isEmpty() || value.startsWith("#")) {
+            return null;
+        }
+        if (value.startsWith("!")) {
+            exclude = !exclude;
+            value = value.substring(1);
+        } else if (value.startsWith("\\")) {
+            value = value.substring(1);
+        }
+        if (value.startsWith(REGEX_PREFIX)) {
+            try {
+                return new FilterRule(basePath, Pattern.compile(value.substring(REGEX_PREFIX.length())),
+                        false, false, exclude);
+            } catch (PatternSyntaxException ex) {
+                throw new IllegalArgumentException(line + " is an invalid regular expression.");
+            }
+        }
+        boolean folderOnly = value.endsWith("/");
+        if (folderOnly) {
+            value = value.substring(0, value.length() - 1);
+        }
+        boolean nameOnly = value.indexOf('/') < 0;
+        if (value.startsWith("/")) {
+            value = value.substring(1);
+        }
+        if (value.isEmpty()) {
+            return null;
+        }
+        return new FilterRule(basePath, Pattern.compile(toRegex(value)), nameOnly, folderOnly, exclude);
+    }
+
+    /**
+     * Checks whether the rule matches a file or folder.
+     *
+     * @param path the absolute path of the file or folder
+     * @param name the name of the file or folder
+     * @param folder true if path denotes a folder
+     * @return true if the rule matches
+     */
+    boolean matches(String path, String name, boolean folder) {
+        if (folderOnly && !folder) {
+            return false;
+        }
+        if (!path.startsWith(basePath) || path.length() <= basePath.length()) {
+            return false;
+        }
+        int start = basePath.length();
+        if (path.charAt(start) == '/') {
+            start++;
+        } else if (!basePath.endsWith("/")) {
+            return false;
+        }
+        return pattern.matcher(nameOnly ? name : path.substring(start)).matches();
+    }
+
+    /**
+     * Returns true if matching files and folders are excluded.
+     *
+     * @return true for an exclude rule, false for an include rule
+     */
+    boolean isExclude() {
+        return exclude;
+    }
+
+    /**
+     * Translates a glob pattern into a regular expression.
+     */
+    private static String toRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (glob.startsWith("**/", i)) {
+                    sb.append("(?:.*/)?");
+                    i += 3;
+                    continue;
+                } else if (glob.startsWith("**", i)) {
+                    sb.append(".*");
+                    i += 2;
+                    continue;
+                }
+                sb.append("[^/]*");
+            } else if (c == '?') {
+                sb.append("[^/]");
+            } else if (c == '[') {
+                int end = glob.indexOf(']', i + 2);
+                if (end < 0) {
+                    sb.append("\\[");
+                } else {
+                    String set = glob.substring(i + 1, end);
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+                    sb.append('[').append(set.replace("\\", "\\\\")).append(']');
+                    i = end;
+                }
+            } else if (c == '\\' && i + 1 < glob.length()) {
+                i++;
+                sb.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+            } else {
+                sb.append(Pattern.quote(String.valueOf(c)));
+            }
+            i++;
+        }
+        return sb.toString();
+    }
+}
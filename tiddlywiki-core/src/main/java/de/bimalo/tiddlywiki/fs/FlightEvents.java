@@ -0,0 +1,197 @@
+package de.bimalo.tiddlywiki.fs;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * <p>
+ * Publishes the events of the generator to the JDK Flight Recorder. The events
+ * are found in the category "TiddlyWiki" of a recording, like
+ * <code>jfr print --events de.bimalo.tiddlywiki.DocumentParsed run.jfr</code>.
+ * </p>
+ * <p>
+ * This class requires the package <code>jdk.jfr</code>. It is compiled for
+ * Java 11 by the profile flight-recorder and only loaded by name from
+ * <code>GeneratorEvents</code> if the JVM provides it.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see GeneratorEvents
+ */
+final class FlightEvents implements GeneratorEventSink {
+
+    /**
+     * The folder of a document was listed.
+     */
+    @Name("de.bimalo.tiddlywiki.DirectoryListed")
+    @Label("Directory Listed")
+    @Category("TiddlyWiki")
+    @StackTrace(false)
+    static final class DirectoryListed extends Event {
+
+        /**
+         * The path of the folder.
+         */
+        @Label("Path")
+        String path;
+
+        /**
+         * The number of accepted children.
+         */
+        @Label("Entries")
+        int entries;
+
+        /**
+         * The duration of the listing.
+         */
+        @Label("Listing Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long listingTime;
+    }
+
+    /**
+     * A document was parsed.
+     */
+    @Name("de.bimalo.tiddlywiki.DocumentParsed")
+    @Label("Document Parsed")
+    @Category("TiddlyWiki")
+    @StackTrace(false)
+    static final class DocumentParsed extends Event {
+
+        /**
+         * The path of the document.
+         */
+        @Label("Path")
+        String path;
+
+        /**
+         * The detected media type.
+         */
+        @Label("Media Type")
+        String mediaType;
+
+        /**
+         * The size of the document.
+         */
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        /**
+         * The duration of reading and parsing.
+         */
+        @Label("Parse Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long parseTime;
+    }
+
+    /**
+     * A template was rendered.
+     */
+    @Name("de.bimalo.tiddlywiki.TemplateRendered")
+    @Label("Template Rendered")
+    @Category("TiddlyWiki")
+    @StackTrace(false)
+    static final class TemplateRendered extends Event {
+
+        /**
+         * The name of the template.
+         */
+        @Label("Template")
+        String template;
+
+        /**
+         * The number of Tiddlers rendered.
+         */
+        @Label("Tiddlers")
+        int tiddlers;
+
+        /**
+         * The duration of rendering including writing the output.
+         */
+        @Label("Render Time")
+        @Description("Includes writing the output")
+        @Timespan(Timespan.NANOSECONDS)
+        long renderTime;
+    }
+
+    /**
+     * An output file was written.
+     */
+    @Name("de.bimalo.tiddlywiki.OutputWritten")
+    @Label("Output Written")
+    @Category("TiddlyWiki")
+    @StackTrace(false)
+    static final class OutputWritten extends Event {
+
+        /**
+         * The path of the file.
+         */
+        @Label("Path")
+        String path;
+
+        /**
+         * The number of bytes written.
+         */
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        /**
+         * The duration of writing.
+         */
+        @Label("Write Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long writeTime;
+    }
+
+    @Override
+    public void directoryListed(String path, int entries, long duration) {
+        DirectoryListed event = new DirectoryListed();
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.entries = entries;
+            event.listingTime = duration;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void documentParsed(String path, String mediaType, long bytes, long duration) {
+        DocumentParsed event = new DocumentParsed();
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.mediaType = mediaType;
+            event.bytes = bytes;
+            event.parseTime = duration;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void templateRendered(String template, int tiddlers, long duration) {
+        TemplateRendered event = new TemplateRendered();
+        if (event.shouldCommit()) {
+            event.template = template;
+            event.tiddlers = tiddlers;
+            event.renderTime = duration;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void outputWritten(String path, long bytes, long duration) {
+        OutputWritten event = new OutputWritten();
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.bytes = bytes;
+            event.writeTime = duration;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package de.bimalo.tiddlywiki.fs;
+
+/**
+ * <p>
+ * Receives the events of the generator, like the listing of a folder or the
+ * parsing of a document. The events are published by
+ * <code>GeneratorEvents</code> to the JMX statistics and, if available, to the
+ * JDK Flight Recorder.</p>
+ * <p>
+ * A sink is called by several threads and must be thread safe.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see GeneratorEvents
+ */
+interface GeneratorEventSink {
+
+    /**
+     * Called after the children of a folder were listed.
+     *
+     * @param path the path of the folder
+     * @param entries the number of accepted children
+     * @param duration the duration in nanoseconds
+     */
+    void directoryListed(String path, int entries, long duration);
+
+    /**
+     * Called after a document was parsed.
+     *
+     * @param path the path of the document
+     * @param mediaType the detected media type
+     * @param bytes the size of the document
+     * @param duration the duration in nanoseconds
+     */
+    void documentParsed(String path, String mediaType, long bytes, long duration);
+
+    /**
+     * Called after a template was rendered.
+     *
+     * @param template the name of the template
+     * @param tiddlers the number of Tiddlers rendered
+     * @param duration the duration in nanoseconds
+     */
+    void templateRendered(String template, int tiddlers, long duration);
+
+    /**
+     * Called after an output file was written.
+     *
+     * @param path the path of the file
+     * @param bytes the number of bytes written
+     * @param duration the duration in nanoseconds
+     */
+    void outputWritten(String path, long bytes, long duration);
+}
@@ -0,0 +1,209 @@
+package de.bimalo.tiddlywiki.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Publishes the events of a generator to its JMX statistics and to the JDK
+ * Flight Recorder. A run can be analysed with standard JDK tools like
+ * JConsole, <code>jcmd JFR.start</code> or JDK Mission Control.</p>
+ * <p>
+ * Every generator publishes through its own instance, which is handed to the
+ * walker, the renderer and the writers of the generator.</p>
+ * <p>
+ * The Flight Recorder events are compiled for Java 11 and loaded by name if
+ * the JVM provides the package <code>jdk.jfr</code> and runs Java 11 or later,
+ * otherwise only the statistics are counted.
+ * Events not enabled in a recording cost a few nanoseconds.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see GeneratorStatistics
+ * @see GeneratorEventSink
+ */
+final class GeneratorEvents {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(GeneratorEvents.class);
+
+    /**
+     * Phase of a generator not running.
+     */
+    static final String PHASE_IDLE = "idle";
+
+    /**
+     * Phase listing the folders.
+     */
+    static final String PHASE_LISTING = "listing";
+
+    /**
+     * Phase parsing the documents.
+     */
+    static final String PHASE_PARSING = "parsing";
+
+    /**
+     * Phase building the search index.
+     */
+    static final String PHASE_INDEXING = "indexing";
+
+    /**
+     * Phase writing the TiddlyWiki.
+     */
+    static final String PHASE_WRITING = "writing";
+
+    /**
+     * Name of the class publishing the Flight Recorder events.
+     */
+    private static final String FLIGHT_EVENTS_CLASS = "de.bimalo.tiddlywiki.fs.FlightEvents";
+
+    /**
+     * The Flight Recorder events, null if not available.
+     */
+    private static final GeneratorEventSink FLIGHT_EVENTS = loadFlightEvents();
+
+    /**
+     * The statistics of the generator.
+     */
+    private final GeneratorStatistics statistics;
+
+    /**
+     * Creates new events with statistics not registered as MBean.
+     */
+    GeneratorEvents() {
+        this(new GeneratorStatistics());
+    }
+
+    /**
+     * Creates new events.
+     *
+     * @param statistics the statistics of the generator
+     */
+    private GeneratorEvents(final GeneratorStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Creates new events with statistics registered as MBean.
+     *
+     * @param name the name of the generator, like the path of the result file
+     * @return the events
+     * @see #unregister()
+     */
+    static GeneratorEvents register(final String name) {
+        return new GeneratorEvents(GeneratorStatistics.register(name));
+    }
+
+    /**
+     * Removes the MBean of the statistics.
+     */
+    void unregister() {
+        statistics.unregister();
+    }
+
+    /**
+     * Returns the statistics of the generator.
+     *
+     * @return the statistics
+     */
+    GeneratorStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Returns true if the Flight Recorder events are published.
+     *
+     * @return true if the JVM provides the Flight Recorder
+     */
+    static boolean isFlightRecorderAvailable() {
+        return FLIGHT_EVENTS != null;
+    }
+
+    /**
+     * Changes the current phase.
+     *
+     * @param phase the phase, like PHASE_PARSING
+     */
+    void phase(final String phase) {
+        statistics.setPhase(phase);
+    }
+
+    /**
+     * Publishes the listing of a folder.
+     *
+     * @param path the path of the folder
+     * @param entries the number of accepted children
+     * @param start the start time from <code>System.nanoTime()</code>
+     */
+    void directoryListed(final String path, final int entries, final long start) {
+        long duration = System.nanoTime() - start;
+        statistics.directoryListed(path, entries, duration);
+        if (FLIGHT_EVENTS != null) {
+            FLIGHT_EVENTS.directoryListed(path, entries, duration);
+        }
+    }
+
+    /**
+     * Publishes the parsing of a document.
+     *
+     * @param path the path of the document
+     * @param mediaType the detected media type
+     * @param bytes the size of the document
+     * @param start the start time from <code>System.nanoTime()</code>
+     */
+    void documentParsed(final String path, final String mediaType, final long bytes, final long start) {
+        long duration = System.nanoTime() - start;
+        statistics.documentParsed(path, mediaType, bytes, duration);
+        if (FLIGHT_EVENTS != null) {
+            FLIGHT_EVENTS.documentParsed(path, mediaType, bytes, duration);
+        }
+    }
+
+    /**
+     * Publishes the rendering of a template.
+     *
+     * @param template the name of the template
+     * @param tiddlers the number of Tiddlers rendered
+     * @param start the start time from <code>System.nanoTime()</code>
+     */
+    void templateRendered(final String template, final int tiddlers, final long start) {
+        long duration = System.nanoTime() - start;
+        statistics.templateRendered(template, tiddlers, duration);
+        if (FLIGHT_EVENTS != null) {
+            FLIGHT_EVENTS.templateRendered(template, tiddlers, duration);
+        }
+    }
+
+    /**
+     * Publishes the writing of an output file.
+     *
+     * @param path the path of the file
+     * @param bytes the number of bytes written
+     * @param start the start time from <code>System.nanoTime()</code>
+     */
+    void outputWritten(final String path, final long bytes, final long start) {
+        long duration = System.nanoTime() - start;
+        statistics.outputWritten(path, bytes, duration);
+        if (FLIGHT_EVENTS != null) {
+            FLIGHT_EVENTS.outputWritten(path, bytes, duration);
+        }
+    }
+
+    /**
+     * Loads the Flight Recorder events if the JVM provides the Flight
+     * Recorder.
+     *
+     * @return the events or null
+     */
+    private static GeneratorEventSink loadFlightEvents() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return Class.forName(FLIGHT_EVENTS_CLASS).asSubclass(GeneratorEventSink.class)
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException | LinkageError ex) {
+            LOGGER.debug("Flight Recorder events not available: {}", ex.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.NamedThreadFactory;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Counts the events of a generator and exposes the counters and the current
+ * phase as MBean. Every generator has its own statistics, so generators
+ * running in parallel, like the jobs of a batch file, don't overwrite each
+ * other's values. The counters are updated without locks.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see GeneratorEvents
+ * @see GeneratorStatisticsMBean
+ */
+final class GeneratorStatistics implements GeneratorStatisticsMBean, GeneratorEventSink {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(GeneratorStatistics.class);
+
+    /**
+     * The domain and type of the names the MBeans are registered with.
+     */
+    static final String OBJECT_NAME = "de.bimalo.tiddlywiki:type=Generator";
+
+    /**
+     * The name the MBean is registered with, null if not registered.
+     */
+    private ObjectName registeredName;
+
+    /**
+     * True if the MBean must not be registered anymore.
+     */
+    private boolean unregistered;
+
+    /**
+     * The current phase.
+     */
+    private volatile String phase = GeneratorEvents.PHASE_IDLE;
+
+    /**
+     * Number of walks currently running.
+     */
+    private final AtomicInteger activeWalks = new AtomicInteger();
+
+    /**
+     * Number of listed folders.
+     */
+    private final LongAdder directoriesListed = new LongAdder();
+
+    /**
+     * Number of parsed documents.
+     */
+    private final LongAdder documentsParsed = new LongAdder();
+
+    /**
+     * Number of bytes of the parsed documents.
+     */
+    private final LongAdder bytesParsed = new LongAdder();
+
+    /**
+     * Time spent parsing documents in nanoseconds.
+     */
+    private final LongAdder parseTime = new LongAdder();
+
+    /**
+     * Number of rendered templates.
+     */
+    private final LongAdder templatesRendered = new LongAdder();
+
+    /**
+     * Number of written output files.
+     */
+    private final LongAdder outputsWritten = new LongAdder();
+
+    /**
+     * Number of bytes of the written output files.
+     */
+    private final LongAdder bytesWritten = new LongAdder();
+
+    /**
+     * Returns the name of the MBean of a generator.
+     *
+     * @param name the name of the generator, like the path of the result file
+     * @return the name of the MBean, like
+     * <code>de.bimalo.tiddlywiki:type=Generator,name="/docs/index.html"</code>
+     * @throws MalformedObjectNameException if the name is invalid
+     */
+    static ObjectName createObjectName(final String name) throws MalformedObjectNameException {
+        return new ObjectName(OBJECT_NAME + ",name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * Creates new statistics and registers them at the platform MBean server.
+     * Starting the platform MBean server takes several hundred milliseconds,
+     * so the statistics are registered by a background thread. The statistics
+     * are used even if the registration fails.
+     *
+     * @param name the name of the generator, like the path of the result file
+     * @return the statistics
+     * @see #unregister()
+     */
+    static GeneratorStatistics register(final String name) {
+        final GeneratorStatistics statistics = new GeneratorStatistics();
+        new NamedThreadFactory("tw-jmx", true).newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    statistics.register(ManagementFactory.getPlatformMBeanServer(), createObjectName(name));
+                } catch (JMException | SecurityException ex) {
+                    LOGGER.debug("MBean of {} not registered: {}", name, ex.getMessage());
+                }
+            }
+        }).start();
+        return statistics;
+    }
+
+    /**
+     * Registers the MBean unless the statistics were unregistered before.
+     *
+     * @param server the MBean server
+     * @param objectName the name of the MBean
+     * @throws JMException if the registration failed
+     */
+    private synchronized void register(final MBeanServer server, final ObjectName objectName) throws JMException {
+        if (!unregistered) {
+            server.registerMBean(this, objectName);
+            registeredName = objectName;
+        }
+    }
+
+    /**
+     * Removes the MBean from the platform MBean server. The counters can be
+     * used afterwards, but are not visible anymore.
+     */
+    synchronized void unregister() {
+        unregistered = true;
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException | SecurityException ex) {
+                LOGGER.debug("MBean {} not unregistered: {}", registeredName, ex.getMessage());
+            }
+            registeredName = null;
+        }
+    }
+
+    /**
+     * Sets the current phase.
+     *
+     * @param phase the phase
+     */
+    void setPhase(final String phase) {
+        this.phase = phase;
+    }
+
+    /**
+     * Counts a started walk.
+     */
+    void walkStarted() {
+        activeWalks.incrementAndGet();
+    }
+
+    /**
+     * Counts a finished walk.
+     */
+    void walkFinished() {
+        activeWalks.decrementAndGet();
+    }
+
+    @Override
+    public String getPhase() {
+        return phase;
+    }
+
+    @Override
+    public int getActiveWalks() {
+        return activeWalks.get();
+    }
+
+    @Override
+    public long getDirectoriesListed() {
+        return directoriesListed.sum();
+    }
+
+    @Override
+    public long getDocumentsParsed() {
+        return documentsParsed.sum();
+    }
+
+    @Override
+    public long getBytesParsed() {
+        return bytesParsed.sum();
+    }
+
+    @Override
+    public long getParseTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(parseTime.sum());
+    }
+
+    @Override
+    public long getTemplatesRendered() {
+        return templatesRendered.sum();
+    }
+
+    @Override
+    public long getOutputsWritten() {
+        return outputsWritten.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public void directoryListed(String path, int entries, long duration) {
+        directoriesListed.increment();
+    }
+
+    @Override
+    public void documentParsed(String path, String mediaType, long bytes, long duration) {
+        documentsParsed.increment();
+        bytesParsed.add(bytes);
+        parseTime.add(duration);
+    }
+
+    @Override
+    public void templateRendered(String template, int tiddlers, long duration) {
+        templatesRendered.increment();
+    }
+
+    @Override
+    public void outputWritten(String path, long bytes, long duration) {
+        outputsWritten.increment();
+        bytesWritten.add(bytes);
+    }
+}
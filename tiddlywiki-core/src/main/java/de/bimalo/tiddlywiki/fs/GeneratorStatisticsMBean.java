@@ -0,0 +1,77 @@
+package de.bimalo.tiddlywiki.fs;
+
+/**
+ * <p>
+ * The management interface of the statistics of a generator. It is
+ * registered as <code>de.bimalo.tiddlywiki:type=Generator,name="..."</code>
+ * with the path of the result file while the generator runs and can be
+ * watched with standard JMX tools like JConsole or VisualVM.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see GeneratorStatistics
+ */
+public interface GeneratorStatisticsMBean {
+
+    /**
+     * Returns the current phase, like "listing", "parsing" or "writing".
+     *
+     * @return the phase
+     */
+    String getPhase();
+
+    /**
+     * Returns the number of walks currently running.
+     *
+     * @return number of walks
+     */
+    int getActiveWalks();
+
+    /**
+     * Returns the number of listed folders.
+     *
+     * @return number of folders
+     */
+    long getDirectoriesListed();
+
+    /**
+     * Returns the number of parsed documents.
+     *
+     * @return number of documents
+     */
+    long getDocumentsParsed();
+
+    /**
+     * Returns the number of bytes of the parsed documents.
+     *
+     * @return number of bytes
+     */
+    long getBytesParsed();
+
+    /**
+     * Returns the time spent parsing documents in milliseconds.
+     *
+     * @return parse time, summed over all threads
+     */
+    long getParseTimeMillis();
+
+    /**
+     * Returns the number of rendered templates.
+     *
+     * @return number of rendered templates
+     */
+    long getTemplatesRendered();
+
+    /**
+     * Returns the number of written output files.
+     *
+     * @return number of files
+     */
+    long getOutputsWritten();
+
+    /**
+     * Returns the number of bytes of the written output files.
+     *
+     * @return number of bytes
+     */
+    long getBytesWritten();
+}
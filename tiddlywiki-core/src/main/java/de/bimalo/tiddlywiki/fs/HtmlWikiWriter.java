@@ -0,0 +1,113 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.TiddlyWiki;
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.StreamUtilities;
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Writes a TiddlyWiki as one single HTML file. All Tiddlers are rendered into
+ * the template. This is the default output mode.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see TemplateRenderer
+ */
+final class HtmlWikiWriter implements WikiWriter {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(HtmlWikiWriter.class);
+
+    /**
+     * Renders the template.
+     */
+    private final TemplateRenderer renderer;
+
+    /**
+     * The final result file.
+     */
+    private final File resultFile;
+
+    /**
+     * Force the result file to the storage device before it is replaced.
+     */
+    private boolean fsync = false;
+
+    /**
+     * The compressions of the precompressed variants of the result file.
+     */
+    private Set<Compression> compressions = EnumSet.noneOf(Compression.class);
+
+    /**
+     * Publishes the events of the generator.
+     */
+    private GeneratorEvents events = new GeneratorEvents();
+
+    /**
+     * Creates a new <code>HtmlWikiWriter</code>.
+     *
+     * @param renderer the TemplateRenderer
+     * @param resultFile the final result file
+     * @throws IllegalArgumentException if an argument is null
+     */
+    HtmlWikiWriter(final TemplateRenderer renderer, final File resultFile) {
+        Assert.notNull(renderer);
+        Assert.notNull(resultFile);
+        this.renderer = renderer;
+        this.resultFile = resultFile;
+    }
+
+    /**
+     * Sets whether the result file is forced to the storage device before it
+     * replaces the previous result file.
+     *
+     * @param fsync true to force the result file to the storage device
+     */
+    void setFsync(final boolean fsync) {
+        this.fsync = fsync;
+    }
+
+    /**
+     * Sets the compressions of the precompressed variants written next to the
+     * result file.
+     *
+     * @param compressions the compressions, can be empty
+     * @throws IllegalArgumentException if compressions is null
+     */
+    void setCompressions(final Set<Compression> compressions) {
+        Assert.notNull(compressions);
+        this.compressions = compressions;
+    }
+
+    /**
+     * Sets the events published to the statistics of the generator.
+     *
+     * @param events the events of the generator
+     * @throws IllegalArgumentException if events is null
+     */
+    void setEvents(final GeneratorEvents events) {
+        Assert.notNull(events);
+        this.events = events;
+    }
+
+    @Override
+    public void write(TiddlyWiki wiki) throws IOException {
+        LOGGER.info("Write TiddlyWiki to file {}...", resultFile.getPath());
+        ResultFileWriter out = null;
+        try {
+            out = new ResultFileWriter(resultFile, fsync, compressions, events);
+            renderer.render(renderer.createModel(wiki, wiki.listTiddlers()), out);
+            out.commit();
+        } finally {
+            StreamUtilities.closeWriter(out);
+        }
+        LOGGER.info("TiddlyWiki successfully written to {}.", resultFile.getPath());
+    }
+}
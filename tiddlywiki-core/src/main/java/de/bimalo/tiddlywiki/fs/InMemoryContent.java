@@ -0,0 +1,96 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Keeps content in memory as a list of fixed size chunks. In contrast to a
+ * ByteArrayOutputStream the content is never copied when it grows, so a
+ * result of some hundred megabytes does not need twice the memory.</p>
+ * <p>
+ * The content is written once and can be read afterwards by multiple threads
+ * at the same time.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see WikiServer
+ */
+final class InMemoryContent extends OutputStream {
+
+    /**
+     * Size of one chunk.
+     */
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * The chunks, all but the last one are full.
+     */
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+
+    /**
+     * Number of bytes.
+     */
+    private long length = 0;
+
+    @Override
+    public void write(int b) throws IOException {
+        int offset = (int) (length % CHUNK_SIZE);
+        if (offset == 0) {
+            chunks.add(new byte[CHUNK_SIZE]);
+        }
+        chunks.get(chunks.size() - 1)[offset] = (byte) b;
+        length++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int pos = off;
+        int remaining = len;
+        while (remaining > 0) {
+            int offset = (int) (length % CHUNK_SIZE);
+            if (offset == 0) {
+                chunks.add(new byte[CHUNK_SIZE]);
+            }
+            int count = Math.min(remaining, CHUNK_SIZE - offset);
+            System.arraycopy(b, pos, chunks.get(chunks.size() - 1), offset, count);
+            pos += count;
+            remaining -= count;
+            length += count;
+        }
+    }
+
+    /**
+     * Returns the number of bytes.
+     *
+     * @return number of bytes
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * Writes a range of the content.
+     *
+     * @param out the OutputStream
+     * @param offset the position of the first byte
+     * @param count number of bytes
+     * @throws IOException if operation failed
+     * @throws IllegalArgumentException if the range is not within the content
+     */
+    void writeTo(OutputStream out, long offset, long count) throws IOException {
+        Assert.isTrue(offset >= 0 && count >= 0 && offset + count <= length, "Invalid range.");
+        long pos = offset;
+        long remaining = count;
+        while (remaining > 0) {
+            byte[] chunk = chunks.get((int) (pos / CHUNK_SIZE));
+            int chunkOffset = (int) (pos % CHUNK_SIZE);
+            int len = (int) Math.min(remaining, CHUNK_SIZE - chunkOffset);
+            out.write(chunk, chunkOffset, len);
+            pos += len;
+            remaining -= len;
+        }
+    }
+}
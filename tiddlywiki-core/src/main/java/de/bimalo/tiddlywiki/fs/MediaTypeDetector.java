@@ -0,0 +1,264 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.BufferPool;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.mime.MimeTypes;
+
+/**
+ * <p>
+ * Detects the media type of a document once. The detector reads a bounded
+ * prefix of the stream and remembers the result of the wrapped detector for
+ * the file extension and the first bytes of the prefix, so the many PDFs or
+ * images of a folder are sniffed by the Tika detectors only once.</p>
+ * <p>
+ * The first bytes only decide a media type without sub types. Containers,
+ * like ZIP or OLE based office documents, and markup, like XML and HTML,
+ * share their first bytes with many sub types told apart by the content, so
+ * they are detected completely for every document.</p>
+ * <p>
+ * A media type already contained in the meta data is trusted without reading
+ * the stream. The type detected before parsing selects the parser this way
+ * and becomes the content type of the Tiddler.</p>
+ * <p>
+ * The detector can be used by multiple threads.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see ParserRegistry
+ */
+final class MediaTypeDetector implements Detector {
+
+    /**
+     * Maximum number of bytes read to detect the media type.
+     */
+    static final int HEADER_SIZE = 8192;
+
+    /**
+     * Number of bytes of the prefix used as signature.
+     */
+    private static final int SIGNATURE_SIZE = 8;
+
+    /**
+     * Maximum number of remembered results.
+     */
+    private static final int MAX_ENTRIES = 1024;
+
+    /**
+     * The first bytes of containers detected by their entries: ZIP, empty
+     * ZIP and OLE.
+     */
+    private static final byte[][] CONTAINER_SIGNATURES = {
+        {'P', 'K', 3, 4},
+        {'P', 'K', 5, 6},
+        {(byte) 0xd0, (byte) 0xcf, 0x11, (byte) 0xe0, (byte) 0xa1, (byte) 0xb1, 0x1a, (byte) 0xe1}
+    };
+
+    /**
+     * The media types with sub types, their results are never remembered.
+     */
+    private static final Set<MediaType> SUPERTYPES = createSupertypes();
+
+    /**
+     * Detects the media types not remembered yet.
+     */
+    private final Detector detector;
+
+    /**
+     * The remembered media types by extension and signature.
+     */
+    private final Map<String, MediaType> mediaTypes = new LinkedHashMap<String, MediaType>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MediaType> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Number of media types found.
+     */
+    private long hits = 0;
+
+    /**
+     * Number of media types detected by the wrapped detector.
+     */
+    private long misses = 0;
+
+    /**
+     * Creates a new <code>MediaTypeDetector</code>.
+     *
+     * @param detector detects the media types not remembered yet
+     * @throws IllegalArgumentException if detector is null
+     */
+    MediaTypeDetector(final Detector detector) {
+        Assert.notNull(detector);
+        this.detector = detector;
+    }
+
+    /**
+     * Detects the media type of a stream. The stream must support mark and
+     * reset and is reset to its start afterwards.
+     *
+     * @param input the stream, null to detect by the resource name only
+     * @param metadata the meta data with the resource name and optionally the
+     * content type
+     * @return the media type
+     * @throws IOException if the stream could not be read
+     */
+    @Override
+    public MediaType detect(final InputStream input, final Metadata metadata) throws IOException {
+        String hint = metadata.get(Metadata.CONTENT_TYPE);
+        if (hint != null) {
+            MediaType type = MediaType.parse(hint);
+            if (type != null) {
+                return type;
+            }
+        }
+        if (input == null) {
+            return detector.detect(null, metadata);
+        }
+
+        BufferPool pool = BufferPool.getInstance();
+        byte[] header = pool.acquire(HEADER_SIZE);
+        try {
+            return detect(input, metadata, header);
+        } finally {
+            pool.release(header);
+        }
+    }
+
+    /**
+     * Detects the media type with the first bytes of the stream read into a
+     * given array.
+     */
+    private MediaType detect(InputStream input, Metadata metadata, byte[] header) throws IOException {
+        int length = 0;
+        input.mark(HEADER_SIZE);
+        try {
+            int count;
+            while (length < HEADER_SIZE && (count = input.read(header, length, HEADER_SIZE - length)) != -1) {
+                length += count;
+            }
+        } finally {
+            input.reset();
+        }
+
+        if (isContainerOrMarkup(header, length)) {
+            synchronized (mediaTypes) {
+                misses++;
+            }
+            return detector.detect(new ByteArrayInputStream(header, 0, length), metadata);
+        }
+        String key = signature(metadata.get(Metadata.RESOURCE_NAME_KEY), header, length);
+        synchronized (mediaTypes) {
+            MediaType type = mediaTypes.get(key);
+            if (type != null) {
+                hits++;
+                return type;
+            }
+            misses++;
+        }
+        MediaType type = detector.detect(new ByteArrayInputStream(header, 0, length), metadata);
+        if (!SUPERTYPES.contains(type)) {
+            synchronized (mediaTypes) {
+                mediaTypes.put(key, type);
+            }
+        }
+        return type;
+    }
+
+    /**
+     * Returns true if the first bytes are the signature of a container or
+     * start markup after an optional byte order mark and white space.
+     */
+    private static boolean isContainerOrMarkup(byte[] header, int length) {
+        for (byte[] signature : CONTAINER_SIGNATURES) {
+            if (startsWith(header, length, signature)) {
+                return true;
+            }
+        }
+        int i = 0;
+        if (startsWith(header, length, new byte[]{(byte) 0xef, (byte) 0xbb, (byte) 0xbf})) {
+            i = 3;
+        } else if (startsWith(header, length, new byte[]{(byte) 0xfe, (byte) 0xff})
+                || startsWith(header, length, new byte[]{(byte) 0xff, (byte) 0xfe})) {
+            // UTF-16 markup is detected completely as well.
+            return true;
+        }
+        while (i < length && (header[i] == ' ' || header[i] == '\t' || header[i] == '\r' || header[i] == '\n')) {
+            i++;
+        }
+        return i < length && header[i] == '<';
+    }
+
+    /**
+     * Returns true if the first bytes start with a signature.
+     */
+    private static boolean startsWith(byte[] header, int length, byte[] signature) {
+        if (signature.length > length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (header[i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects the media types with sub types of the default registry.
+     */
+    private static Set<MediaType> createSupertypes() {
+        MediaTypeRegistry registry = MimeTypes.getDefaultMimeTypes().getMediaTypeRegistry();
+        Set<MediaType> supertypes = new HashSet<MediaType>();
+        for (MediaType type : registry.getTypes()) {
+            MediaType supertype = registry.getSupertype(type);
+            while (supertype != null && supertypes.add(supertype)) {
+                supertype = registry.getSupertype(supertype);
+            }
+        }
+        supertypes.add(MediaType.OCTET_STREAM);
+        supertypes.add(MediaType.TEXT_PLAIN);
+        return supertypes;
+    }
+
+    /**
+     * Returns the key of a result, the lower case extension and the first
+     * bytes as hex string.
+     */
+    private static String signature(String resourceName, byte[] header, int length) {
+        String extension = "";
+        if (resourceName != null) {
+            int dot = resourceName.lastIndexOf('.');
+            if (dot >= 0) {
+                extension = resourceName.substring(dot + 1).toLowerCase(Locale.ROOT);
+            }
+        }
+        StringBuilder sb = new StringBuilder(extension).append(':');
+        for (int i = 0; i < Math.min(length, SIGNATURE_SIZE); i++) {
+            sb.append(Character.forDigit((header[i] >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(header[i] & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mediaTypes) {
+            return "MediaTypeDetector: " + mediaTypes.size() + " signatures, " + hits + " hits, " + misses + " misses";
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * <p>
+ * Keeps the results of parsed documents, the extracted text and the meta
+ * data. A result is found again if the path, the size and the time of the last
+ * modification of the file are unchanged, so the jobs of a batch sharing
+ * folders and the rebuilds of a served TiddlyWiki parse a document only
+ * once.</p>
+ * <p>
+ * The cache is limited by the number of characters of all results, the least
+ * recently used results are removed first. The cache can be used by multiple
+ * threads.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see DocumentVisitor
+ */
+final class ParseCache {
+
+    /**
+     * Default maximum number of characters of all results.
+     */
+    static final long DEFAULT_MAX_CHARACTERS = 64L * 1024 * 1024;
+
+    /**
+     * The maximum number of characters of all results.
+     */
+    private final long maxCharacters;
+
+    /**
+     * The results in access order.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+
+    /**
+     * The number of characters of all results.
+     */
+    private long characters = 0;
+
+    /**
+     * Number of results found.
+     */
+    private long hits = 0;
+
+    /**
+     * Number of results not found.
+     */
+    private long misses = 0;
+
+    /**
+     * Creates a new <code>ParseCache</code> with the default limit.
+     */
+    ParseCache() {
+        this(DEFAULT_MAX_CHARACTERS);
+    }
+
+    /**
+     * Creates a new <code>ParseCache</code>.
+     *
+     * @param maxCharacters the maximum number of characters of all results
+     * @throws IllegalArgumentException if maxCharacters is less than 0
+     */
+    ParseCache(final long maxCharacters) {
+        Assert.isTrue(maxCharacters >= 0);
+        this.maxCharacters = maxCharacters;
+    }
+
+    /**
+     * Looks up the result of a file and copies the meta data.
+     *
+     * @param path the path of the file
+     * @param size the size of the file
+     * @param lastModified the time of the last modification of the file
+     * @param md receives the meta data of the result
+     * @return the extracted text or null if the result is unknown
+     */
+    synchronized String get(String path, long size, long lastModified, Metadata md) {
+        Entry entry = entries.get(path);
+        if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+            misses++;
+            return null;
+        }
+        hits++;
+        copy(entry.metadata, md);
+        return entry.text;
+    }
+
+    /**
+     * Returns a meta data value of the result of a file without counting a
+     * hit or a miss, like for planning the walk.
+     *
+     * @param path the path of the file
+     * @param size the size of the file
+     * @param lastModified the time of the last modification of the file
+     * @param name the name of the meta data value
+     * @param defaultValue returned if the value is missing in a known result
+     * @return the value, defaultValue if missing or null if the result is
+     * unknown
+     */
+    synchronized String peek(String path, long size, long lastModified, String name, String defaultValue) {
+        Entry entry = entries.get(path);
+        if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+            return null;
+        }
+        String value = entry.metadata.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Adds the result of a file. Results larger than the limit are ignored.
+     *
+     * @param path the path of the file
+     * @param size the size of the file
+     * @param lastModified the time of the last modification of the file
+     * @param text the extracted text, can be null
+     * @param md the meta data
+     */
+    synchronized void put(String path, long size, long lastModified, String text, Metadata md) {
+        Metadata metadata = new Metadata();
+        copy(md, metadata);
+        Entry entry = new Entry(size, lastModified, text, metadata);
+        if (entry.characters > maxCharacters) {
+            return;
+        }
+        Entry previous = entries.put(path, entry);
+        if (previous != null) {
+            characters -= previous.characters;
+        }
+        characters += entry.characters;
+        Iterator<Entry> it = entries.values().iterator();
+        while (characters > maxCharacters && it.hasNext()) {
+            characters -= it.next().characters;
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns the number of cached results.
+     *
+     * @return number of results
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ParseCache: " + entries.size() + " results, " + characters + " characters, "
+                + hits + " hits, " + misses + " misses";
+    }
+
+    /**
+     * Copies all meta data.
+     */
+    private static void copy(Metadata from, Metadata to) {
+        for (String name : from.names()) {
+            for (String value : from.getValues(name)) {
+                to.add(name, value);
+            }
+        }
+    }
+
+    /**
+     * A cached result.
+     */
+    private static final class Entry {
+
+        /**
+         * The size of the file.
+         */
+        private final long size;
+
+        /**
+         * The time of the last modification of the file.
+         */
+        private final long lastModified;
+
+        /**
+         * The extracted text.
+         */
+        private final String text;
+
+        /**
+         * The meta data, never changed.
+         */
+        private final Metadata metadata;
+
+        /**
+         * Number of characters of text and meta data.
+         */
+        private final long characters;
+
+        /**
+         * Creates a new <code>Entry</code>.
+         */
+        Entry(long size, long lastModified, String text, Metadata metadata) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.text = text;
+            this.metadata = metadata;
+            long count = text != null ? text.length() : 0;
+            for (String name : metadata.names()) {
+                for (String value : metadata.getValues(name)) {
+                    count += name.length() + value.length();
+                }
+            }
+            this.characters = count;
+        }
+    }
+}
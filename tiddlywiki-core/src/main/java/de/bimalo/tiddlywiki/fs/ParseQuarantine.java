@@ -0,0 +1,276 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.StreamUtilities;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Keeps the documents which failed to parse or took too long to parse in a
+ * quarantine file, so later walks link these documents without parsing them
+ * again.</p>
+ * <p>
+ * Every entry contains the path, the size and the time of the last
+ * modification of the document together with the parse time and the reason.
+ * A document is only skipped as long as its size and time of the last
+ * modification are unchanged, a changed document is parsed again. The
+ * quarantine file is a properties file with the path as key, it is replaced
+ * atomically whenever an entry is added or removed and deleted if the
+ * quarantine is empty.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FilesystemTreeWalker
+ */
+final class ParseQuarantine {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParseQuarantine.class);
+
+    /**
+     * Separates the values of an entry in the quarantine file.
+     */
+    private static final char SEPARATOR = '|';
+
+    /**
+     * The quarantine file.
+     */
+    private final File file;
+
+    /**
+     * The entries by path.
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Creates a new <code>ParseQuarantine</code>.
+     *
+     * @param file the quarantine file
+     * @throws IllegalArgumentException if file is null
+     */
+    ParseQuarantine(final File file) {
+        Assert.notNull(file);
+        this.file = file;
+    }
+
+    /**
+     * Loads the entries of an existing quarantine file. Invalid entries are
+     * ignored.
+     *
+     * @return number of loaded entries
+     * @throws IOException if the quarantine file could not be read
+     */
+    synchronized int open() throws IOException {
+        entries.clear();
+        if (!file.isFile()) {
+            return 0;
+        }
+        Properties properties = new Properties();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            properties.load(is);
+        } finally {
+            StreamUtilities.closeInputStream(is);
+        }
+        for (String path : properties.stringPropertyNames()) {
+            Entry entry = Entry.parse(properties.getProperty(path));
+            if (entry != null) {
+                entries.put(path, entry);
+            } else {
+                LOGGER.debug("Invalid quarantine entry of {} ignored.", path);
+            }
+        }
+        return entries.size();
+    }
+
+    /**
+     * Returns the entry of an unchanged document.
+     *
+     * @param path the path of the document
+     * @param size the size of the document
+     * @param lastModified the time of the last modification of the document
+     * @return the entry or null if the document is not in quarantine or was
+     * changed since
+     */
+    synchronized Entry lookup(final String path, final long size, final long lastModified) {
+        Entry entry = entries.get(path);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Puts a document into quarantine.
+     *
+     * @param path the path of the document
+     * @param size the size of the document
+     * @param lastModified the time of the last modification of the document
+     * @param duration the parse time in milliseconds
+     * @param reason the reason, like the message of the failure
+     * @throws IOException if the quarantine file could not be written
+     */
+    synchronized void add(final String path, final long size, final long lastModified, final long duration,
+            final String reason) throws IOException {
+        entries.put(path, new Entry(size, lastModified, duration, reason));
+        store();
+    }
+
+    /**
+     * Releases a document from quarantine.
+     *
+     * @param path the path of the document
+     * @throws IOException if the quarantine file could not be written
+     */
+    synchronized void remove(final String path) throws IOException {
+        if (entries.remove(path) != null) {
+            store();
+        }
+    }
+
+    /**
+     * Releases all documents from quarantine which are not listed anymore,
+     * like deleted documents.
+     *
+     * @param paths the paths of all listed documents
+     * @throws IOException if the quarantine file could not be written
+     */
+    synchronized void retain(final Set<String> paths) throws IOException {
+        if (entries.keySet().retainAll(paths)) {
+            store();
+        }
+    }
+
+    /**
+     * Returns the number of documents in quarantine.
+     *
+     * @return number of documents
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Replaces the quarantine file with the current entries or deletes it if
+     * there are none.
+     *
+     * @throws IOException if the quarantine file could not be written
+     */
+    private void store() throws IOException {
+        if (entries.isEmpty()) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            properties.store(out, "Documents not parsed: size|lastModified|parse time in ms|reason");
+        } finally {
+            StreamUtilities.closeOutputStream(out, true);
+        }
+        try {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * A document in quarantine.
+     */
+    static final class Entry {
+
+        /**
+         * The size of the document.
+         */
+        private final long size;
+
+        /**
+         * The time of the last modification of the document.
+         */
+        private final long lastModified;
+
+        /**
+         * The parse time in milliseconds.
+         */
+        private final long duration;
+
+        /**
+         * The reason.
+         */
+        private final String reason;
+
+        /**
+         * Creates a new <code>Entry</code>.
+         */
+        private Entry(long size, long lastModified, long duration, String reason) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.duration = duration;
+            this.reason = reason != null ? reason : "";
+        }
+
+        /**
+         * Parses an entry of the quarantine file.
+         *
+         * @param value the value of the entry
+         * @return the entry or null if the value is invalid
+         */
+        private static Entry parse(String value) {
+            String[] values = value.split("\\" + SEPARATOR, 4);
+            if (values.length < 4) {
+                return null;
+            }
+            try {
+                return new Entry(Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2]),
+                        values[3]);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        /**
+         * Returns the parse time.
+         *
+         * @return the parse time in milliseconds
+         */
+        long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Returns the reason.
+         *
+         * @return the reason, like the message of the failure
+         */
+        String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(size) + SEPARATOR + lastModified + SEPARATOR + duration + SEPARATOR + reason;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tika.parser.frontmatter.FrontMatterParser;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.tika.Tika;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.CompositeDetector;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.language.translate.EmptyTranslator;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MimeTypes;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Holds the Tika facades used to parse documents. Creating a Tika facade loads
+ * the configuration and looks up all parsers and detectors of the classpath,
+ * which is much more expensive than parsing a small file. The facades are
+ * created once and shared by all walks of the process, also by the jobs of a
+ * batch running at the same time.</p>
+ * <p>
+ * Text and markdown files are parsed by the FrontMatterParser only. The Tika
+ * configuration with all parsers is loaded lazily with the first other
+ * document, so a folder of text files never loads the parser modules for
+ * office documents, images or archives. The facades are created with an
+ * empty translator, because the short constructors of Tika load the default
+ * configuration to look up the translator.</p>
+ * <p>
+ * A registry can be restricted to groups of parsers, like "pdf,office". Only
+ * the parsers and container detectors of these groups are instantiated, other
+ * documents are detected by their magic bytes and file name and linked without
+ * extracted text.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see DocumentVisitor
+ */
+final class ParserRegistry {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParserRegistry.class);
+
+    /**
+     * Name of the registry with all parsers of the classpath.
+     */
+    static final String ALL = "all";
+
+    /**
+     * The parser classes of a group name.
+     */
+    private static final Map<String, String[]> PARSER_GROUPS = new LinkedHashMap<String, String[]>();
+
+    /**
+     * The container detector classes required by a group name.
+     */
+    private static final Map<String, String[]> DETECTOR_GROUPS = new HashMap<String, String[]>();
+
+    static {
+        PARSER_GROUPS.put("markdown", new String[0]);
+        PARSER_GROUPS.put("text", new String[]{"org.apache.tika.parser.txt.TXTParser"});
+        PARSER_GROUPS.put("pdf", new String[]{"org.apache.tika.parser.pdf.PDFParser"});
+        PARSER_GROUPS.put("office", new String[]{
+            "org.apache.tika.parser.microsoft.OfficeParser",
+            "org.apache.tika.parser.microsoft.OldExcelParser",
+            "org.apache.tika.parser.microsoft.ooxml.OOXMLParser",
+            "org.apache.tika.parser.odf.OpenDocumentParser",
+            "org.apache.tika.parser.rtf.RTFParser"});
+        PARSER_GROUPS.put("html", new String[]{"org.apache.tika.parser.html.HtmlParser"});
+        PARSER_GROUPS.put("xml", new String[]{"org.apache.tika.parser.xml.DcXMLParser"});
+        PARSER_GROUPS.put("epub", new String[]{"org.apache.tika.parser.epub.EpubParser"});
+        PARSER_GROUPS.put("mail", new String[]{
+            "org.apache.tika.parser.mail.RFC822Parser",
+            "org.apache.tika.parser.mbox.MboxParser"});
+        PARSER_GROUPS.put("image", new String[]{
+            "org.apache.tika.parser.image.ImageParser",
+            "org.apache.tika.parser.jpeg.JpegParser",
+            "org.apache.tika.parser.image.TiffParser",
+            "org.apache.tika.parser.image.PSDParser",
+            "org.apache.tika.parser.image.WebPParser"});
+        PARSER_GROUPS.put("audio", new String[]{
+            "org.apache.tika.parser.audio.AudioParser",
+            "org.apache.tika.parser.audio.MidiParser",
+            "org.apache.tika.parser.mp3.Mp3Parser",
+            "org.apache.tika.parser.mp4.MP4Parser"});
+        DETECTOR_GROUPS.put("office", new String[]{
+            "org.apache.tika.parser.microsoft.POIFSContainerDetector",
+            "org.apache.tika.parser.pkg.ZipContainerDetector"});
+        DETECTOR_GROUPS.put("epub", new String[]{"org.apache.tika.parser.pkg.ZipContainerDetector"});
+    }
+
+    /**
+     * The registries of the process by name. Created lazily.
+     */
+    private static final Map<String, ParserRegistry> REGISTRIES = new HashMap<String, ParserRegistry>();
+
+    /**
+     * The normalized name of the registry, "all" or a sorted list of groups.
+     */
+    private final String name;
+
+    /**
+     * The enabled groups, empty for all parsers.
+     */
+    private final Set<String> groups;
+
+    /**
+     * Parses all other documents. Created lazily.
+     */
+    private Tika defaultTika = null;
+
+    /**
+     * Parses text files with an optional FrontMatter block.
+     */
+    private final Tika frontMatterTika;
+
+    /**
+     * Creates a new <code>ParserRegistry</code>.
+     *
+     * @param name the normalized name
+     * @param groups the enabled groups, empty for all parsers
+     */
+    private ParserRegistry(String name, Set<String> groups) {
+        this.name = name;
+        this.groups = groups;
+        frontMatterTika = new Tika(new Detector() {
+            @Override
+            public MediaType detect(InputStream input, Metadata metadata) {
+                return MediaType.TEXT_PLAIN;
+            }
+        }, new FrontMatterParser(), new EmptyTranslator());
+    }
+
+    /**
+     * Returns the registry with all parsers shared by the process.
+     *
+     * @return the shared registry
+     */
+    static ParserRegistry getDefault() {
+        return getInstance(null);
+    }
+
+    /**
+     * Returns the registry shared by the process for a list of parser groups.
+     *
+     * @param parsers comma separated list of group names, like "pdf,office",
+     * null, empty or "all" for all parsers of the classpath
+     * @return the shared registry
+     * @throws IllegalArgumentException if a group name is unknown
+     */
+    static synchronized ParserRegistry getInstance(String parsers) {
+        Set<String> groups = new TreeSet<String>();
+        if (parsers != null) {
+            for (String token : parsers.split(",")) {
+                String groupName = token.trim().toLowerCase(Locale.ROOT);
+                if (groupName.isEmpty()) {
+                    continue;
+                }
+                if (ALL.equals(groupName)) {
+                    groups.clear();
+                    break;
+                }
+                if (!PARSER_GROUPS.containsKey(groupName)) {
+                    throw new IllegalArgumentException(token.trim() + " is an unknown parser, supported: "
+                            + ALL + ", " + String.join(", ", PARSER_GROUPS.keySet()) + ".");
+                }
+                groups.add(groupName);
+            }
+        }
+        String name = groups.isEmpty() ? ALL : String.join(",", groups);
+        ParserRegistry registry = REGISTRIES.get(name);
+        if (registry == null) {
+            registry = new ParserRegistry(name, groups);
+            REGISTRIES.put(name, registry);
+        }
+        return registry;
+    }
+
+    /**
+     * Returns the normalized name, "all" or a sorted list of group names.
+     *
+     * @return the name
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the Tika facade for a file extension. The detector of the facade
+     * remembers the media types of similar files and trusts the content type
+     * of the meta data, so a type detected before parsing is not detected
+     * again by the parser.
+     *
+     * @param extension the file extension without dot
+     * @return the Tika facade, can be used by multiple threads
+     */
+    Tika getTika(final String extension) {
+        return extension.matches("md|rst|MD|RST|txt|TXT") ? frontMatterTika : getDefaultTika();
+    }
+
+    /**
+     * Returns the Tika facade for all other documents and loads it if
+     * necessary.
+     *
+     * @return the Tika facade
+     */
+    private synchronized Tika getDefaultTika() {
+        if (defaultTika == null) {
+            LOGGER.info("Load Tika parsers {}...", name);
+            if (groups.isEmpty()) {
+                TikaConfig config = TikaConfig.getDefaultConfig();
+                Detector detector = new MediaTypeDetector(config.getDetector());
+                AutoDetectParser parser = new AutoDetectParser(config);
+                parser.setDetector(detector);
+                defaultTika = new Tika(detector, parser, new EmptyTranslator());
+            } else {
+                defaultTika = createTika();
+            }
+            LOGGER.info("Done.");
+        }
+        return defaultTika;
+    }
+
+    /**
+     * Creates a Tika facade with the parsers and detectors of the enabled
+     * groups only.
+     *
+     * @return the Tika facade
+     */
+    private Tika createTika() {
+        Set<String> detectorClasses = new TreeSet<String>();
+        List<Parser> parsers = new ArrayList<Parser>();
+        for (String group : groups) {
+            for (String className : PARSER_GROUPS.get(group)) {
+                parsers.add(newInstance(className, Parser.class));
+            }
+            if (DETECTOR_GROUPS.containsKey(group)) {
+                detectorClasses.addAll(Arrays.asList(DETECTOR_GROUPS.get(group)));
+            }
+        }
+        MimeTypes mimeTypes = MimeTypes.getDefaultMimeTypes();
+        List<Detector> detectors = new ArrayList<Detector>();
+        for (String className : detectorClasses) {
+            detectors.add(newInstance(className, Detector.class));
+        }
+        detectors.add(mimeTypes);
+        Detector detector = new MediaTypeDetector(new CompositeDetector(mimeTypes.getMediaTypeRegistry(), detectors));
+        Parser parser = new AutoDetectParser(detector, parsers.toArray(new Parser[parsers.size()]));
+        return new Tika(detector, parser, new EmptyTranslator());
+    }
+
+    /**
+     * Instantiates a parser or detector by its class name.
+     *
+     * @param className the name of the class
+     * @param type the expected type
+     * @return the new instance
+     * @throws IllegalStateException if the class is not available or its
+     * constructor failed
+     */
+    private static <T> T newInstance(String className, Class<T> type) {
+        try {
+            return Class.forName(className).asSubclass(type).getDeclaredConstructor().newInstance();
+        } catch (InvocationTargetException ex) {
+            Throwable cause = ex.getCause();
+            throw new IllegalStateException(className + " could not be created: " + cause.getMessage(), cause);
+        } catch (ReflectiveOperationException | ClassCastException | LinkageError ex) {
+            throw new IllegalStateException(className + " could not be loaded: " + ex.getMessage(), ex);
+        }
+    }
+}
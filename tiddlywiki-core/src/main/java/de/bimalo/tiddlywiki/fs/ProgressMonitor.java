@@ -0,0 +1,367 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.NamedThreadFactory;
+import de.bimalo.tiddlywiki.common.StreamUtilities;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Reports the progress of a walk. The <code>FilesystemTreeWalker</code> lists
+ * all documents before parsing them, so the number and size of the documents
+ * to parse are known exactly when parsing starts. While parsing the walker
+ * counts the processed documents, bytes and Tiddlers and the monitor reports
+ * the throughput, the estimated remaining time and the documents currently
+ * parsed at a fixed interval.</p>
+ * <p>
+ * A report is written to the console and the log. A status file is replaced
+ * atomically with every report, so other processes always read a complete
+ * status. The counters are updated without locks and can be shared by several
+ * threads.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FilesystemTreeWalker
+ */
+final class ProgressMonitor {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProgressMonitor.class);
+
+    /**
+     * Maximum number of documents in flight listed in a report.
+     */
+    private static final int MAX_LISTED_IN_FLIGHT = 3;
+
+    /**
+     * Interval between two reports in milliseconds, 0 for a final report
+     * only.
+     */
+    private final long interval;
+
+    /**
+     * Receives the reports, null for the log only.
+     */
+    private final PrintStream console;
+
+    /**
+     * The status file replaced with every report, null for none.
+     */
+    private final File statusFile;
+
+    /**
+     * Number of processed documents including resumed documents.
+     */
+    private final LongAdder files = new LongAdder();
+
+    /**
+     * Number of bytes of the processed documents including resumed documents.
+     */
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * Number of bytes of the resumed documents, which are not part of the
+     * throughput.
+     */
+    private final LongAdder resumedBytes = new LongAdder();
+
+    /**
+     * Number of resumed documents.
+     */
+    private final LongAdder resumedFiles = new LongAdder();
+
+    /**
+     * Number of Tiddlers created for the processed documents.
+     */
+    private final LongAdder tiddlers = new LongAdder();
+
+    /**
+     * Paths of the documents currently parsed.
+     */
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Number of documents to process.
+     */
+    private volatile long totalFiles = 0;
+
+    /**
+     * Number of bytes of the documents to process.
+     */
+    private volatile long totalBytes = 0;
+
+    /**
+     * Time the monitor was started in nanoseconds.
+     */
+    private volatile long startTime = 0;
+
+    /**
+     * Runs the periodic reports, null if not started or no interval.
+     */
+    private ScheduledExecutorService executor = null;
+
+    /**
+     * Creates a new <code>ProgressMonitor</code>.
+     *
+     * @param interval interval between two reports in milliseconds, 0 for a
+     * final report only
+     * @param console receives the reports, null for the log only
+     * @param statusFile the status file, null for none
+     */
+    ProgressMonitor(final long interval, final PrintStream console, final File statusFile) {
+        this.interval = Math.max(0, interval);
+        this.console = console;
+        this.statusFile = statusFile;
+    }
+
+    /**
+     * Starts the periodic reports.
+     *
+     * @param totalFiles number of documents to process
+     * @param totalBytes number of bytes of the documents to process
+     */
+    synchronized void start(final long totalFiles, final long totalBytes) {
+        this.totalFiles = totalFiles;
+        this.totalBytes = totalBytes;
+        this.startTime = System.nanoTime();
+        if (interval > 0 && executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("tw-progress", true));
+            executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    report("Progress");
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Counts a document resumed from the journal as processed.
+     *
+     * @param size the size of the document
+     * @param tiddler true if the Tiddler of the document is added
+     */
+    void resumed(final long size, final boolean tiddler) {
+        files.increment();
+        bytes.add(size);
+        resumedFiles.increment();
+        resumedBytes.add(size);
+        if (tiddler) {
+            tiddlers.increment();
+        }
+    }
+
+    /**
+     * Called before a document is parsed.
+     *
+     * @param path the path of the document
+     */
+    void started(final String path) {
+        inFlight.add(path);
+    }
+
+    /**
+     * Called after a document was parsed.
+     *
+     * @param path the path of the document
+     * @param size the size of the document
+     * @param tiddler true if the Tiddler of the document is added
+     */
+    void finished(final String path, final long size, final boolean tiddler) {
+        inFlight.remove(path);
+        files.increment();
+        bytes.add(size);
+        if (tiddler) {
+            tiddlers.increment();
+        }
+    }
+
+    /**
+     * Stops the periodic reports and writes the final report.
+     */
+    void stop() {
+        ScheduledExecutorService reporter;
+        synchronized (this) {
+            reporter = executor;
+            executor = null;
+        }
+        if (reporter != null) {
+            reporter.shutdown();
+            try {
+                reporter.awaitTermination(interval, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        report("Parsed");
+    }
+
+    /**
+     * Writes a report to the console, the log and the status file.
+     *
+     * @param prefix the first word of the report
+     */
+    private synchronized void report(final String prefix) {
+        String line = prefix + " " + format();
+        LOGGER.info(line);
+        if (console != null) {
+            console.println(line);
+        }
+        if (statusFile != null) {
+            try {
+                writeStatus();
+            } catch (IOException ex) {
+                LOGGER.warn("Status file {} not written: {}", statusFile, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Formats the current progress, like "120/400 files (30.0%), 12.5/50.0
+     * MB, 40.0 files/s, 4.2 MB/s, ETA 0:00:09, 118 tiddlers, in flight:
+     * /docs/a.pdf".
+     *
+     * @return the progress
+     */
+    String format() {
+        long doneFiles = files.sum();
+        long doneBytes = bytes.sum();
+        long total = totalFiles;
+        double seconds = elapsedSeconds();
+        StringBuilder sb = new StringBuilder();
+        sb.append(doneFiles).append('/').append(total).append(" files (")
+                .append(String.format(Locale.ROOT, "%.1f", total > 0 ? 100.0 * doneFiles / total : 100.0))
+                .append("%), ")
+                .append(String.format(Locale.ROOT, "%.1f/%.1f MB, %.1f files/s, %.1f MB/s, ETA ",
+                        toMegabytes(doneBytes), toMegabytes(totalBytes), filesPerSecond(seconds),
+                        toMegabytes(bytesPerSecond(seconds))));
+        long eta = etaSeconds(seconds);
+        if (eta < 0) {
+            sb.append('?');
+        } else {
+            sb.append(String.format(Locale.ROOT, "%d:%02d:%02d", eta / 3600, eta / 60 % 60, eta % 60));
+        }
+        sb.append(", ").append(tiddlers.sum()).append(" tiddlers");
+        if (!inFlight.isEmpty()) {
+            sb.append(", in flight:");
+            Iterator<String> it = inFlight.iterator();
+            for (int i = 0; i < MAX_LISTED_IN_FLIGHT && it.hasNext(); i++) {
+                sb.append(' ').append(it.next());
+            }
+            if (it.hasNext()) {
+                sb.append(" ...");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replaces the status file with the current progress in the format of a
+     * properties file.
+     *
+     * @throws IOException if the status file could not be written
+     */
+    void writeStatus() throws IOException {
+        double seconds = elapsedSeconds();
+        Properties status = new Properties();
+        status.setProperty("files", Long.toString(files.sum()));
+        status.setProperty("totalFiles", Long.toString(totalFiles));
+        status.setProperty("bytes", Long.toString(bytes.sum()));
+        status.setProperty("totalBytes", Long.toString(totalBytes));
+        status.setProperty("resumedFiles", Long.toString(resumedFiles.sum()));
+        status.setProperty("tiddlers", Long.toString(tiddlers.sum()));
+        status.setProperty("elapsedSeconds", Long.toString((long) seconds));
+        status.setProperty("filesPerSecond", String.format(Locale.ROOT, "%.1f", filesPerSecond(seconds)));
+        status.setProperty("bytesPerSecond", Long.toString((long) bytesPerSecond(seconds)));
+        status.setProperty("etaSeconds", Long.toString(etaSeconds(seconds)));
+        StringBuilder paths = new StringBuilder();
+        for (String path : inFlight) {
+            if (paths.length() > 0) {
+                paths.append('\n');
+            }
+            paths.append(path);
+        }
+        status.setProperty("inFlight", paths.toString());
+
+        File tempFile = new File(statusFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            status.store(out, "TiddlyWiki progress");
+        } finally {
+            StreamUtilities.closeOutputStream(out, true);
+        }
+        try {
+            Files.move(tempFile.toPath(), statusFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tempFile.toPath(), statusFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Returns the seconds since the monitor was started.
+     */
+    private double elapsedSeconds() {
+        return startTime != 0 ? (System.nanoTime() - startTime) / 1e9 : 0;
+    }
+
+    /**
+     * Returns the parsed documents per second, resumed documents are not
+     * counted.
+     */
+    private double filesPerSecond(double seconds) {
+        return seconds > 0 ? (files.sum() - resumedFiles.sum()) / seconds : 0;
+    }
+
+    /**
+     * Returns the parsed bytes per second, resumed documents are not counted.
+     */
+    private double bytesPerSecond(double seconds) {
+        return seconds > 0 ? (bytes.sum() - resumedBytes.sum()) / seconds : 0;
+    }
+
+    /**
+     * Estimates the remaining seconds from the bytes per second or the
+     * documents per second if the documents are empty.
+     *
+     * @return the remaining seconds, -1 if not known yet
+     */
+    private long etaSeconds(double seconds) {
+        long remainingFiles = totalFiles - files.sum();
+        if (remainingFiles <= 0) {
+            return 0;
+        }
+        long remainingBytes = totalBytes - bytes.sum();
+        double bytesRate = bytesPerSecond(seconds);
+        if (remainingBytes > 0 && bytesRate > 0) {
+            return (long) Math.ceil(remainingBytes / bytesRate);
+        }
+        double filesRate = filesPerSecond(seconds);
+        return filesRate > 0 ? (long) Math.ceil(remainingFiles / filesRate) : -1;
+    }
+
+    /**
+     * Converts bytes to megabytes.
+     */
+    private static double toMegabytes(double bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
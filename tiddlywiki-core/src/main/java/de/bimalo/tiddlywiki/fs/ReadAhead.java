@@ -0,0 +1,461 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.BufferPool;
+import de.bimalo.tiddlywiki.common.NamedThreadFactory;
+import de.bimalo.tiddlywiki.common.StreamUtilities;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Reads the content of the next documents into memory while the current
+ * document is parsed, so reading and parsing overlap.</p>
+ * <p>
+ * The documents are read in the order they are parsed by a pool of I/O
+ * threads into arrays of the <code>BufferPool</code>. At most a number of
+ * documents and a number of bytes are kept in memory, documents larger than
+ * the byte budget are never read ahead. A document which could not be read
+ * ahead is read by the parser as before.</p>
+ * <p>
+ * The number of concurrent reads is adapted to the read latency by an
+ * <code>AdaptiveLimit</code>, so a local disk is read by a few threads while
+ * a network share with a high latency is read by more threads, as long as the
+ * latency does not grow with them.</p>
+ * <p>
+ * The documents may be taken by several parsing threads in any order. A
+ * document taken or dropped before it was read ahead is not read ahead
+ * anymore.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see DocumentVisitor
+ * @see FilesystemTreeWalker
+ */
+final class ReadAhead {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadAhead.class);
+
+    /**
+     * Number of concurrent reads until the read latency is known.
+     */
+    static final int INITIAL_IO_THREADS = 2;
+
+    /**
+     * Default maximum number of threads reading documents.
+     */
+    static final int DEFAULT_IO_THREADS = 8;
+
+    /**
+     * Seconds an I/O thread above the current limit is kept idle.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    /**
+     * State of a document waiting to be read.
+     */
+    private static final int QUEUED = 0;
+
+    /**
+     * State of a document being read.
+     */
+    private static final int RUNNING = 1;
+
+    /**
+     * State of a document read completely.
+     */
+    private static final int DONE = 2;
+
+    /**
+     * State of a document dropped before it was read completely.
+     */
+    private static final int DROPPED = 3;
+
+    /**
+     * The documents in the order they are parsed.
+     */
+    private final List<FileObject> files;
+
+    /**
+     * Maximum number of documents read ahead.
+     */
+    private final int window;
+
+    /**
+     * Maximum number of bytes read ahead.
+     */
+    private final long budget;
+
+    /**
+     * Maximum size of a document read ahead.
+     */
+    private final long maxFileSize;
+
+    /**
+     * The position of every document in the order they are parsed.
+     */
+    private final Map<FileObject, Integer> positions = new IdentityHashMap<FileObject, Integer>();
+
+    /**
+     * The threads reading documents, as many as the current limit of
+     * concurrent reads.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Adapts the number of concurrent reads.
+     */
+    private final AdaptiveLimit ioLimit;
+
+    /**
+     * The documents read ahead and not yet taken.
+     */
+    private final Map<FileObject, Prefetch> pending = new IdentityHashMap<FileObject, Prefetch>();
+
+    /**
+     * The documents taken or dropped before they were read ahead.
+     */
+    private final Set<FileObject> skipped = Collections.newSetFromMap(new IdentityHashMap<FileObject, Boolean>());
+
+    /**
+     * Index of the next document to read ahead.
+     */
+    private int next = 0;
+
+    /**
+     * Number of bytes of the documents read ahead and not yet taken.
+     */
+    private long reservedBytes = 0;
+
+    /**
+     * Number of documents taken from memory.
+     */
+    private int hits = 0;
+
+    /**
+     * true if closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a new <code>ReadAhead</code> with the default maximum number of
+     * I/O threads and starts reading the first documents.
+     *
+     * @param files the documents in the order they are parsed
+     * @param window maximum number of documents read ahead
+     * @param budget maximum number of bytes read ahead
+     * @param maxFileSize maximum size of a document read ahead, like the size
+     * of documents mapped into memory by the parser
+     * @throws IllegalArgumentException if files is null or window is less than
+     * 1
+     */
+    ReadAhead(final List<FileObject> files, final int window, final long budget, final long maxFileSize) {
+        this(files, window, budget, maxFileSize, DEFAULT_IO_THREADS);
+    }
+
+    /**
+     * Creates a new <code>ReadAhead</code> and starts reading the first
+     * documents.
+     *
+     * @param files the documents in the order they are parsed
+     * @param window maximum number of documents read ahead
+     * @param budget maximum number of bytes read ahead
+     * @param maxFileSize maximum size of a document read ahead, like the size
+     * of documents mapped into memory by the parser
+     * @param ioThreads maximum number of threads reading documents
+     * @throws IllegalArgumentException if files is null, window or ioThreads
+     * is less than 1
+     */
+    ReadAhead(final List<FileObject> files, final int window, final long budget, final long maxFileSize,
+            final int ioThreads) {
+        Assert.notNull(files);
+        Assert.isTrue(window > 0);
+        Assert.isTrue(ioThreads > 0);
+        this.files = files;
+        this.window = window;
+        this.budget = budget;
+        this.maxFileSize = maxFileSize;
+        for (int i = 0; i < files.size(); i++) {
+            positions.put(files.get(i), i);
+        }
+        this.ioLimit = new AdaptiveLimit(1, INITIAL_IO_THREADS, Math.min(ioThreads, window));
+        int threads = ioLimit.getLimit();
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("tw-readahead", true));
+        fill();
+    }
+
+    /**
+     * Returns the content of a document read ahead and starts reading the next
+     * documents.
+     *
+     * @param file the document
+     * @return a stream reading the content, which must be closed to release
+     * the array, or null if the document was not read ahead
+     */
+    InputStream take(final FileObject file) {
+        Prefetch prefetch;
+        synchronized (this) {
+            prefetch = pending.remove(file);
+            if (prefetch == null) {
+                skip(file);
+            }
+        }
+        if (prefetch == null) {
+            return null;
+        }
+        try {
+            InputStream data = prefetch.future.get();
+            if (data != null) {
+                synchronized (this) {
+                    hits++;
+                }
+            }
+            return data;
+        } catch (ExecutionException ex) {
+            LOGGER.debug("Could not read file {} ahead, because of {}.", file.getName().getPath(),
+                    ex.getCause().toString());
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            release(prefetch);
+        }
+    }
+
+    /**
+     * Drops the content of a document not parsed, like a document found in
+     * the parse cache.
+     *
+     * @param file the document
+     */
+    void discard(final FileObject file) {
+        Prefetch prefetch;
+        synchronized (this) {
+            prefetch = pending.remove(file);
+            if (prefetch == null) {
+                skip(file);
+            }
+        }
+        if (prefetch != null) {
+            drop(prefetch);
+            release(prefetch);
+        }
+    }
+
+    /**
+     * Stops reading documents and drops all documents read ahead.
+     */
+    synchronized void close() {
+        if (!closed) {
+            closed = true;
+            executor.shutdownNow();
+            for (Prefetch prefetch : pending.values()) {
+                drop(prefetch);
+            }
+            pending.clear();
+            skipped.clear();
+            LOGGER.debug("{} of {} documents read ahead, {} concurrent reads.", hits, files.size(),
+                    ioLimit.getLimit());
+        }
+    }
+
+    /**
+     * Releases the bytes of a taken or dropped document and continues reading
+     * ahead.
+     */
+    private void release(Prefetch prefetch) {
+        synchronized (this) {
+            reservedBytes -= prefetch.size;
+        }
+        fill();
+    }
+
+    /**
+     * Remembers a document taken or dropped before it was read ahead, so it
+     * is not read ahead afterwards. The caller must hold the lock.
+     */
+    private void skip(FileObject file) {
+        Integer position = positions.get(file);
+        if (position != null && position >= next) {
+            skipped.add(file);
+        }
+    }
+
+    /**
+     * Records the latency of a completed read and adapts the number of I/O
+     * threads to the limit of concurrent reads.
+     *
+     * @param nanos the latency in nanoseconds, negative if the read failed
+     * @param size the size of the document
+     */
+    private void completed(long nanos, long size) {
+        if (nanos >= 0) {
+            ioLimit.record(nanos, size);
+        }
+        synchronized (this) {
+            int limit = ioLimit.getLimit();
+            if (!closed && limit != executor.getCorePoolSize()) {
+                if (limit > executor.getMaximumPoolSize()) {
+                    executor.setMaximumPoolSize(limit);
+                    executor.setCorePoolSize(limit);
+                } else {
+                    executor.setCorePoolSize(limit);
+                    executor.setMaximumPoolSize(limit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops a document read ahead. A document still waiting is not read, the
+     * content of a document being read is closed by its read, the content of
+     * a document read completely is closed here to release its array.
+     */
+    private static void drop(Prefetch prefetch) {
+        if (prefetch.state.compareAndSet(QUEUED, DROPPED) || prefetch.state.compareAndSet(RUNNING, DROPPED)) {
+            return;
+        }
+        try {
+            StreamUtilities.closeInputStream(prefetch.future.get());
+        } catch (ExecutionException ex) {
+            LOGGER.trace("Document not read ahead: {}", ex.getCause().toString());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues the next documents within the window and the budget. They are
+     * read by as many threads as the limit of concurrent reads allows.
+     */
+    private synchronized void fill() {
+        while (!closed && next < files.size() && pending.size() < window) {
+            final FileObject file = files.get(next);
+            if (skipped.remove(file)) {
+                next++;
+                continue;
+            }
+            final long size;
+            try {
+                size = file.getContent().getSize();
+            } catch (FileSystemException ex) {
+                next++;
+                continue;
+            }
+            if (size > budget || size > maxFileSize || size > Integer.MAX_VALUE - 8) {
+                next++;
+                continue;
+            }
+            if (reservedBytes + size > budget) {
+                break;
+            }
+            final AtomicInteger state = new AtomicInteger(QUEUED);
+            Future<InputStream> future = executor.submit(new Callable<InputStream>() {
+                @Override
+                public InputStream call() throws IOException {
+                    if (!state.compareAndSet(QUEUED, RUNNING)) {
+                        return null;
+                    }
+                    long start = System.nanoTime();
+                    InputStream data;
+                    try {
+                        data = read(file, (int) size);
+                    } catch (IOException | RuntimeException ex) {
+                        completed(-1, size);
+                        throw ex;
+                    }
+                    completed(System.nanoTime() - start, size);
+                    if (!state.compareAndSet(RUNNING, DONE)) {
+                        // Dropped while reading, nobody takes the content.
+                        StreamUtilities.closeInputStream(data);
+                        return null;
+                    }
+                    return data;
+                }
+            });
+            pending.put(file, new Prefetch(size, future, state));
+            reservedBytes += size;
+            next++;
+        }
+    }
+
+    /**
+     * Reads the content of a document into an array of the pool.
+     *
+     * @return a stream reading the content or null if the document grew since
+     * it was listed
+     */
+    private static InputStream read(FileObject file, int size) throws IOException {
+        BufferPool pool = BufferPool.getInstance();
+        byte[] data = pool.acquire(size);
+        InputStream is = null;
+        try {
+            is = file.getContent().getInputStream();
+            int length = 0;
+            int count;
+            while (length < size && (count = is.read(data, length, size - length)) != -1) {
+                length += count;
+            }
+            if (length == size && is.read() != -1) {
+                pool.release(data);
+                return null;
+            }
+            return pool.newByteArrayInputStream(data, length);
+        } catch (IOException | RuntimeException ex) {
+            pool.release(data);
+            throw ex;
+        } finally {
+            StreamUtilities.closeInputStream(is);
+        }
+    }
+
+    /**
+     * A document read ahead.
+     */
+    private static final class Prefetch {
+
+        /**
+         * The number of reserved bytes.
+         */
+        private final long size;
+
+        /**
+         * The content, null if the document grew.
+         */
+        private final Future<InputStream> future;
+
+        /**
+         * The state of the read, like QUEUED or DROPPED.
+         */
+        private final AtomicInteger state;
+
+        /**
+         * Creates a new <code>Prefetch</code>.
+         */
+        Prefetch(long size, Future<InputStream> future, AtomicInteger state) {
+            this.size = size;
+            this.future = future;
+            this.state = state;
+        }
+    }
+}
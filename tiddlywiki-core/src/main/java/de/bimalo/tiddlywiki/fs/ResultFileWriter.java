@@ -0,0 +1,430 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A <code>Writer</code> for result files. The characters are encoded as UTF-8
+ * into a large direct ByteBuffer, which is written with a FileChannel to a
+ * temporary file in the folder of the result file.</p>
+ * <p>
+ * Only {@link #commit()} replaces the result file with the temporary file by
+ * an atomic rename, so readers never see a half-written result file. Closing
+ * the writer without commit deletes the temporary file and leaves the result
+ * file untouched. Optionally the content is forced to the storage device
+ * before the rename.</p>
+ * <p>
+ * Optionally precompressed variants of the result file (see
+ * {@link Compression}) are written in the same pass. Every chunk of encoded
+ * bytes is handed over to a compressor running on its own thread.</p>
+ * <p>
+ * The writer is not thread-safe.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ */
+final class ResultFileWriter extends Writer {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultFileWriter.class);
+
+    /**
+     * Size of the direct ByteBuffer for the encoded bytes.
+     */
+    static final int BYTE_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Size of the buffer for characters not yet encoded.
+     */
+    private static final int CHAR_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Number of bytes of a megabyte.
+     */
+    private static final double MEGABYTE = 1024d * 1024d;
+
+    /**
+     * The final result file.
+     */
+    private final File resultFile;
+
+    /**
+     * The temporary file receiving the content.
+     */
+    private final Path tempFile;
+
+    /**
+     * Force the content to the storage device before the rename.
+     */
+    private final boolean fsync;
+
+    /**
+     * The channel of the temporary file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Encodes the characters to UTF-8.
+     */
+    private final CharsetEncoder encoder;
+
+    /**
+     * Characters not yet encoded.
+     */
+    private final CharBuffer charBuffer;
+
+    /**
+     * Encoded bytes not yet written to the channel.
+     */
+    private final ByteBuffer byteBuffer;
+
+    /**
+     * Writers of the precompressed variants.
+     */
+    private final List<CompressedVariantWriter> variants = new ArrayList<CompressedVariantWriter>();
+
+    /**
+     * Compressions without a variant, existing variants of these compressions
+     * are stale.
+     */
+    private final Set<Compression> staleCompressions;
+
+    /**
+     * Time when the writer was created, in nanoseconds.
+     */
+    private final long startTime;
+
+    /**
+     * Publishes the events of the generator.
+     */
+    private final GeneratorEvents events;
+
+    /**
+     * Number of bytes written to the channel.
+     */
+    private long bytesWritten = 0;
+
+    /**
+     * Time needed from creation until commit, in nanoseconds.
+     */
+    private long elapsedTime = 0;
+
+    /**
+     * Time spent writing to the channel, forcing and renaming, in
+     * nanoseconds.
+     */
+    private long ioTime = 0;
+
+    /**
+     * The writer is committed.
+     */
+    private boolean committed = false;
+
+    /**
+     * The writer is closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a new <code>ResultFileWriter</code> and the temporary file.
+     *
+     * @param resultFile the final result file
+     * @param fsync true to force the content to the storage device before the
+     * rename
+     * @throws IOException if the temporary file could not be created
+     * @throws IllegalArgumentException if resultFile is null
+     */
+    ResultFileWriter(final File resultFile, final boolean fsync) throws IOException {
+        this(resultFile, fsync, EnumSet.noneOf(Compression.class));
+    }
+
+    /**
+     * Creates a new <code>ResultFileWriter</code> writing precompressed
+     * variants of the result file in the same pass.
+     *
+     * @param resultFile the final result file
+     * @param fsync true to force the content to the storage device before the
+     * rename
+     * @param compressions the compressions of the variants, can be empty
+     * @throws IOException if the temporary file could not be created
+     * @throws IllegalArgumentException if an argument is null
+     */
+    ResultFileWriter(final File resultFile, final boolean fsync, final Set<Compression> compressions)
+            throws IOException {
+        this(resultFile, fsync, compressions, new GeneratorEvents());
+    }
+
+    /**
+     * Creates a new <code>ResultFileWriter</code> writing precompressed
+     * variants of the result file in the same pass and publishing the written
+     * file to the events of a generator.
+     *
+     * @param resultFile the final result file
+     * @param fsync true to force the content to the storage device before the
+     * rename
+     * @param compressions the compressions of the variants, can be empty
+     * @param events the events of the generator
+     * @throws IOException if the temporary file could not be created
+     * @throws IllegalArgumentException if an argument is null
+     */
+    ResultFileWriter(final File resultFile, final boolean fsync, final Set<Compression> compressions,
+            final GeneratorEvents events) throws IOException {
+        Assert.notNull(resultFile);
+        Assert.notNull(compressions);
+        Assert.notNull(events);
+        this.resultFile = resultFile.getAbsoluteFile();
+        this.fsync = fsync;
+        this.events = events;
+        File folder = this.resultFile.getParentFile();
+        if (folder != null && !folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Folder " + folder.getPath() + " could not be created.");
+        }
+        String tempSuffix = "." + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE) + ".tmp";
+        tempFile = new File(folder, "." + this.resultFile.getName() + tempSuffix).toPath();
+        channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        for (Compression compression : compressions) {
+            variants.add(new CompressedVariantWriter(this.resultFile, compression, tempSuffix, fsync));
+        }
+        staleCompressions = EnumSet.allOf(Compression.class);
+        staleCompressions.removeAll(compressions);
+        encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        charBuffer = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+        byteBuffer = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+        startTime = System.nanoTime();
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        int pos = off;
+        int end = off + len;
+        while (pos < end) {
+            int count = Math.min(charBuffer.remaining(), end - pos);
+            charBuffer.put(cbuf, pos, count);
+            pos += count;
+            if (!charBuffer.hasRemaining()) {
+                encode(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        int pos = off;
+        int end = off + len;
+        while (pos < end) {
+            int count = Math.min(charBuffer.remaining(), end - pos);
+            int arrayPos = charBuffer.arrayOffset() + charBuffer.position();
+            str.getChars(pos, pos + count, charBuffer.array(), arrayPos);
+            charBuffer.position(charBuffer.position() + count);
+            pos += count;
+            if (!charBuffer.hasRemaining()) {
+                encode(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureOpen();
+        charBuffer.put((char) c);
+        if (!charBuffer.hasRemaining()) {
+            encode(false);
+        }
+    }
+
+    /**
+     * Writes all buffered characters to the temporary file. The result file
+     * is not changed.
+     *
+     * @throws IOException if operation failed
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        encode(false);
+        drain();
+    }
+
+    /**
+     * Writes all buffered characters, optionally forces them to the storage
+     * device and replaces the result file atomically with the temporary file.
+     * The precompressed variants are completed and replaced before the result
+     * file.
+     *
+     * @throws IOException if operation failed
+     */
+    void commit() throws IOException {
+        ensureOpen();
+        encode(true);
+        while (encoder.flush(byteBuffer).isOverflow()) {
+            drain();
+        }
+        drain();
+        long ioStart = System.nanoTime();
+        if (fsync) {
+            channel.force(true);
+        }
+        channel.close();
+        closed = true;
+        ioTime += System.nanoTime() - ioStart;
+        for (CompressedVariantWriter variant : variants) {
+            variant.finish();
+        }
+        for (CompressedVariantWriter variant : variants) {
+            variant.commit();
+        }
+        ioStart = System.nanoTime();
+        try {
+            Files.move(tempFile, resultFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            LOGGER.debug("Atomic move not supported, replace {} non-atomically.", resultFile.getPath());
+            Files.move(tempFile, resultFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        ioTime += System.nanoTime() - ioStart;
+        committed = true;
+        for (Compression compression : staleCompressions) {
+            if (Files.deleteIfExists(new File(resultFile.getPath() + compression.getExtension()).toPath())) {
+                LOGGER.info("Stale variant {}{} deleted.", resultFile.getName(), compression.getExtension());
+            }
+        }
+        elapsedTime = System.nanoTime() - startTime;
+        events.outputWritten(resultFile.getPath(), bytesWritten, startTime);
+        LOGGER.info("{} written: {}", resultFile.getName(), getThroughputReport());
+    }
+
+    /**
+     * Closes the writer. If the writer is not committed the temporary files
+     * are deleted and the result file and its variants are left untouched.
+     *
+     * @throws IOException if operation failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (committed) {
+            return;
+        }
+        for (CompressedVariantWriter variant : variants) {
+            variant.abort();
+        }
+        if (closed) {
+            Files.deleteIfExists(tempFile);
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(tempFile);
+            LOGGER.debug("Writing {} aborted, temporary file deleted.", resultFile.getPath());
+        }
+    }
+
+    /**
+     * Returns the number of bytes written.
+     *
+     * @return number of bytes
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns a human-readable report about the write throughput, like "2.61
+     * MB in 350 ms, I/O 12 ms (217.50 MB/s)". The total time includes
+     * rendering, the throughput is based on the I/O time only.
+     *
+     * @return the throughput report
+     */
+    String getThroughputReport() {
+        long nanos = committed ? elapsedTime : System.nanoTime() - startTime;
+        double megabytes = bytesWritten / MEGABYTE;
+        double seconds = Math.max(ioTime, 1) / 1000000000d;
+        return String.format(Locale.ROOT, "%.2f MB in %d ms, I/O %d ms (%.2f MB/s)", megabytes,
+                nanos / 1000000, ioTime / 1000000, megabytes / seconds);
+    }
+
+    /**
+     * Encodes the buffered characters into the ByteBuffer and writes full
+     * ByteBuffers to the channel. Characters of an incomplete surrogate pair
+     * stay in the CharBuffer until the next call.
+     *
+     * @param endOfInput true if no more characters follow
+     * @throws IOException if operation failed
+     */
+    private void encode(boolean endOfInput) throws IOException {
+        charBuffer.flip();
+        while (true) {
+            CoderResult result = encoder.encode(charBuffer, byteBuffer, endOfInput);
+            if (result.isOverflow()) {
+                drain();
+            } else if (result.isUnderflow()) {
+                break;
+            } else {
+                result.throwException();
+            }
+        }
+        charBuffer.compact();
+    }
+
+    /**
+     * Writes the ByteBuffer to the channel and hands it over to the
+     * compressors.
+     *
+     * @throws IOException if operation failed
+     */
+    private void drain() throws IOException {
+        byteBuffer.flip();
+        if (!variants.isEmpty() && byteBuffer.hasRemaining()) {
+            byte[] chunk = new byte[byteBuffer.remaining()];
+            byteBuffer.duplicate().get(chunk);
+            for (CompressedVariantWriter variant : variants) {
+                variant.write(chunk);
+            }
+        }
+        long ioStart = System.nanoTime();
+        while (byteBuffer.hasRemaining()) {
+            bytesWritten += channel.write(byteBuffer);
+        }
+        byteBuffer.clear();
+        ioTime += System.nanoTime() - ioStart;
+    }
+
+    /**
+     * Checks if the writer is still open.
+     *
+     * @throws IOException if the writer is closed
+     */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer for " + resultFile.getPath() + " is closed.");
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.StreamUtilities;
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A search index built by the <code>SearchIndexBuilder</code> together with
+ * the Tiddlers of the search plugin answering queries in the web browser.</p>
+ * <p>
+ * The index is embedded as data Tiddler
+ * <code>$:/plugins/bimalo/search/index</code> with base64 encoded content.
+ * Used as directive in a template (<code>&lt;@searchIndex/&gt;</code>) it
+ * streams the base64 encoded index into the output without loading it into
+ * memory.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see SearchIndexBuilder
+ */
+final class SearchIndex implements TemplateDirectiveModel {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchIndex.class);
+
+    /**
+     * Title of the data Tiddler containing the index.
+     */
+    static final String INDEX_TITLE = "$:/plugins/bimalo/search/index";
+
+    /**
+     * Content type of the data Tiddler containing the index.
+     */
+    static final String INDEX_TYPE = "application/octet-stream";
+
+    /**
+     * Resource containing the JavaScript module of the search plugin.
+     */
+    private static final String PLUGIN_RESOURCE = "search-plugin.js";
+
+    /**
+     * Number of bytes encoded at once, a multiple of 3 to avoid padding
+     * within the base64 text.
+     */
+    private static final int CHUNK_SIZE = 3 * 16 * 1024;
+
+    /**
+     * The file containing the index.
+     */
+    private final File indexFile;
+
+    /**
+     * Number of terms of the index.
+     */
+    private final int termCount;
+
+    /**
+     * Creates a new <code>SearchIndex</code>.
+     *
+     * @param indexFile the file containing the index
+     * @param termCount number of terms of the index
+     * @throws IllegalArgumentException if indexFile is null
+     */
+    SearchIndex(final File indexFile, final int termCount) {
+        Assert.notNull(indexFile);
+        this.indexFile = indexFile;
+        this.termCount = termCount;
+    }
+
+    /**
+     * Returns the file containing the index.
+     *
+     * @return the index file
+     */
+    File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Deletes the file containing the index once the index was written into
+     * the result. The index can't be written afterwards.
+     */
+    void delete() {
+        if (indexFile.exists() && !indexFile.delete()) {
+            LOGGER.warn("Temporary file {} could not be deleted.", indexFile.getPath());
+        }
+    }
+
+    /**
+     * Returns the number of terms of the index.
+     *
+     * @return number of terms
+     */
+    int getTermCount() {
+        return termCount;
+    }
+
+    /**
+     * Writes the index base64 encoded.
+     *
+     * @param out the Writer
+     * @throws IOException if operation failed
+     */
+    void writeBase64(Writer out) throws IOException {
+        Base64.Encoder encoder = Base64.getEncoder();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(indexFile);
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int count = readFully(in, chunk);
+            while (count > 0) {
+                byte[] data = count == chunk.length ? chunk : Arrays.copyOf(chunk, count);
+                out.write(encoder.encodeToString(data));
+                count = readFully(in, chunk);
+            }
+        } finally {
+            StreamUtilities.closeInputStream(in);
+        }
+    }
+
+    /**
+     * Returns the index base64 encoded.
+     *
+     * @return the base64 encoded index
+     * @throws IOException if operation failed
+     */
+    String toBase64() throws IOException {
+        StringWriter out = new StringWriter();
+        writeBase64(out);
+        return out.toString();
+    }
+
+    /**
+     * Returns the fields of the Tiddlers of the search plugin, without the
+     * data Tiddler of the index. Every map contains the field "text".
+     *
+     * @return the fields of the plugin Tiddlers
+     * @throws IOException if the plugin could not be loaded
+     */
+    List<Map<String, String>> getPluginTiddlers() throws IOException {
+        List<Map<String, String>> tiddlers = new ArrayList<Map<String, String>>();
+
+        Map<String, String> module = new LinkedHashMap<String, String>();
+        module.put("title", "$:/plugins/bimalo/search/search.js");
+        module.put("type", "application/javascript");
+        module.put("module-type", "filteroperator");
+        module.put("text", loadPlugin());
+        tiddlers.add(module);
+
+        Map<String, String> results = new LinkedHashMap<String, String>();
+        results.put("title", "$:/plugins/bimalo/search/SearchResults");
+        results.put("tags", "$:/tags/SearchResults");
+        results.put("caption", "Index");
+        results.put("type", "text/vnd.tiddlywiki");
+        results.put("text", "<$list filter=\"[bimalosearch{$:/temp/search}limit[250]]\" "
+                + "template=\"$:/core/ui/ListItemTemplate\" emptyMessage=\"No matches\"/>");
+        tiddlers.add(results);
+        return tiddlers;
+    }
+
+    // The raw Map is declared by TemplateDirectiveModel, a typed Map does not override it.
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body)
+            throws TemplateException, IOException {
+        writeBase64(env.getOut());
+    }
+
+    /**
+     * Loads the JavaScript module of the search plugin from the classpath.
+     *
+     * @return the JavaScript module
+     * @throws IOException if the resource could not be read
+     */
+    private static String loadPlugin() throws IOException {
+        InputStream in = null;
+        try {
+            in = SearchIndex.class.getResourceAsStream(PLUGIN_RESOURCE);
+            if (in == null) {
+                throw new IOException(PLUGIN_RESOURCE + " doesn't exist in the classpath.");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            StreamUtilities.closeInputStream(in);
+        }
+    }
+
+    /**
+     * Reads until the buffer is full or the stream ended.
+     *
+     * @return number of bytes read, 0 at the end of the stream
+     */
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        int count = 0;
+        while (total < buffer.length && count >= 0) {
+            count = in.read(buffer, total, buffer.length - total);
+            if (count > 0) {
+                total += count;
+            }
+        }
+        return total;
+    }
+}
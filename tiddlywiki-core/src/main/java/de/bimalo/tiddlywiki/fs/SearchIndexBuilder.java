@@ -0,0 +1,535 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.StreamUtilities;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Builds an inverted full text index (term to Tiddler ordinals) while the
+ * <code>FilesystemTreeWalker</code> walks through the file system.</p>
+ * <p>
+ * The construction is streaming and bounded in memory: the postings are
+ * collected in memory until a limit is reached, then sorted by term and
+ * spilled as run to a temporary file. {@link #build(List)} merges all runs
+ * into the final index.</p>
+ * <p>
+ * Format of the index (all numbers are unsigned LEB128 varints, strings are
+ * UTF-8 prefixed with their length in bytes):</p>
+ * <pre>
+ * "TWSI" version(1 byte)
+ * titleCount title*                         titles by ordinal
+ * (sharedPrefix suffix postingCount postingBytes posting*)*
+ * </pre>
+ * <p>
+ * The terms are sorted and front coded: <code>sharedPrefix</code> is the
+ * number of chars shared with the previous term. The postings are the
+ * ascending ordinals, every value encoded as delta to its predecessor.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see SearchIndex
+ */
+final class SearchIndexBuilder implements WalkListener {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchIndexBuilder.class);
+
+    /**
+     * Magic bytes at the beginning of an index.
+     */
+    static final byte[] MAGIC = {'T', 'W', 'S', 'I'};
+
+    /**
+     * Version of the index format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Minimum length of a term.
+     */
+    static final int MIN_TERM_LENGTH = 2;
+
+    /**
+     * Maximum length of a term, longer words are ignored.
+     */
+    static final int MAX_TERM_LENGTH = 64;
+
+    /**
+     * Default maximum number of postings kept in memory before a run is
+     * spilled to disk.
+     */
+    private static final int DEFAULT_MAX_BUFFERED_POSTINGS = 1000000;
+
+    /**
+     * Folder for the temporary files.
+     */
+    private final File workFolder;
+
+    /**
+     * Postings of the current run.
+     */
+    private final Map<String, IntList> buffer = new HashMap<String, IntList>();
+
+    /**
+     * Spilled runs.
+     */
+    private final List<File> runs = new ArrayList<File>();
+
+    /**
+     * Maximum number of postings kept in memory.
+     */
+    private int maxBufferedPostings = DEFAULT_MAX_BUFFERED_POSTINGS;
+
+    /**
+     * Number of postings in the current run.
+     */
+    private int bufferedPostings = 0;
+
+    /**
+     * Ordinal of the last indexed Tiddler.
+     */
+    private int lastOrdinal = -1;
+
+    /**
+     * Creates a new <code>SearchIndexBuilder</code> using the default folder
+     * for temporary files.
+     */
+    SearchIndexBuilder() {
+        this(new File(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Creates a new <code>SearchIndexBuilder</code>.
+     *
+     * @param workFolder the folder for temporary files
+     * @throws IllegalArgumentException if workFolder is null
+     */
+    SearchIndexBuilder(final File workFolder) {
+        Assert.notNull(workFolder);
+        this.workFolder = workFolder;
+    }
+
+    /**
+     * Sets the maximum number of postings kept in memory before they are
+     * spilled to disk.
+     *
+     * @param maxBufferedPostings maximum number of postings, at least 1
+     * @throws IllegalArgumentException if maxBufferedPostings is less than 1
+     */
+    void setMaxBufferedPostings(final int maxBufferedPostings) {
+        Assert.isTrue(maxBufferedPostings > 0, "maxBufferedPostings must be greater than zero.");
+        this.maxBufferedPostings = maxBufferedPostings;
+    }
+
+    @Override
+    public void tiddlerAdded(Tiddler tiddler, int ordinal) throws IOException {
+        Assert.isTrue(ordinal > lastOrdinal, "Tiddlers must be added in ascending order.");
+        lastOrdinal = ordinal;
+        Set<String> terms = new LinkedHashSet<String>();
+        tokenize(tiddler.getTitle(), terms);
+        tokenize(tiddler.getText(), terms);
+        for (String term : terms) {
+            IntList postings = buffer.get(term);
+            if (postings == null) {
+                postings = new IntList();
+                buffer.put(term, postings);
+            }
+            postings.add(ordinal);
+        }
+        bufferedPostings += terms.size();
+        if (bufferedPostings >= maxBufferedPostings) {
+            spill();
+        }
+    }
+
+    /**
+     * Merges all runs into the final index. The temporary runs are deleted.
+     *
+     * @param titles the titles of all Tiddlers by ordinal
+     * @return the search index
+     * @throws IOException if operation failed
+     */
+    SearchIndex build(List<String> titles) throws IOException {
+        Assert.notNull(titles);
+        if (!buffer.isEmpty()) {
+            spill();
+        }
+        File indexFile = File.createTempFile("tw-search", ".idx", workFolder);
+        indexFile.deleteOnExit();
+        int termCount = 0;
+        OutputStream out = null;
+        List<RunReader> readers = new ArrayList<RunReader>();
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(indexFile), 64 * 1024);
+            out.write(MAGIC);
+            out.write(VERSION);
+            writeVarint(out, titles.size());
+            for (String title : titles) {
+                writeString(out, title);
+            }
+
+            PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader reader = new RunReader(runs.get(i), i);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            String previous = "";
+            IntList postings = new IntList();
+            ByteArrayOutputStream postingBytes = new ByteArrayOutputStream();
+            while (!queue.isEmpty()) {
+                String term = queue.peek().term;
+                postings.clear();
+                // Runs contain ascending ordinals, so the run order keeps the postings sorted.
+                while (!queue.isEmpty() && queue.peek().term.equals(term)) {
+                    RunReader reader = queue.poll();
+                    postings.addAll(reader.postings);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+                writeTerm(out, previous, term, postings, postingBytes);
+                previous = term;
+                termCount++;
+            }
+            out.flush();
+        } finally {
+            StreamUtilities.closeOutputStream(out);
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+            for (File run : runs) {
+                if (!run.delete()) {
+                    LOGGER.warn("Temporary file {} could not be deleted.", run.getPath());
+                }
+            }
+            runs.clear();
+        }
+        LOGGER.info("Search index with {} terms for {} Tiddlers built, {} bytes.", termCount, titles.size(),
+                indexFile.length());
+        return new SearchIndex(indexFile, termCount);
+    }
+
+    /**
+     * Splits a text into lower case terms. A term consists of letters and
+     * digits, shorter or longer terms are ignored.
+     *
+     * @param text the text, can be null
+     * @param terms receives the terms
+     */
+    static void tokenize(String text, Set<String> terms) {
+        if (text == null) {
+            return;
+        }
+        int start = -1;
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            boolean letterOrDigit = false;
+            int codePoint = 0;
+            if (i < length) {
+                codePoint = text.codePointAt(i);
+                letterOrDigit = Character.isLetterOrDigit(codePoint);
+            }
+            if (letterOrDigit) {
+                if (start < 0) {
+                    start = i;
+                }
+                if (Character.isSupplementaryCodePoint(codePoint)) {
+                    i++;
+                }
+            } else if (start >= 0) {
+                int termLength = i - start;
+                if (termLength >= MIN_TERM_LENGTH && termLength <= MAX_TERM_LENGTH) {
+                    terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * Writes the postings of the current buffer sorted by term as run to a
+     * temporary file.
+     *
+     * @throws IOException if the run could not be written
+     */
+    private void spill() throws IOException {
+        String[] terms = buffer.keySet().toArray(new String[buffer.size()]);
+        Arrays.sort(terms);
+        File run = File.createTempFile("tw-search", ".run", workFolder);
+        run.deleteOnExit();
+        runs.add(run);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 64 * 1024));
+            out.writeInt(terms.length);
+            for (String term : terms) {
+                IntList postings = buffer.get(term);
+                out.writeUTF(term);
+                writeVarint(out, postings.size());
+                int previous = 0;
+                for (int i = 0; i < postings.size(); i++) {
+                    writeVarint(out, postings.get(i) - previous);
+                    previous = postings.get(i);
+                }
+            }
+            out.flush();
+        } finally {
+            StreamUtilities.closeOutputStream(out);
+        }
+        LOGGER.debug("Search index run {} with {} terms and {} postings spilled.", runs.size(), terms.length,
+                bufferedPostings);
+        buffer.clear();
+        bufferedPostings = 0;
+    }
+
+    /**
+     * Writes one front coded term with its postings.
+     */
+    private static void writeTerm(OutputStream out, String previous, String term, IntList postings,
+            ByteArrayOutputStream postingBytes) throws IOException {
+        int shared = 0;
+        int max = Math.min(previous.length(), term.length());
+        while (shared < max && previous.charAt(shared) == term.charAt(shared)) {
+            shared++;
+        }
+        // Never split a surrogate pair, the suffix has to be valid UTF-8.
+        if (shared > 0 && Character.isHighSurrogate(term.charAt(shared - 1))) {
+            shared--;
+        }
+        writeVarint(out, shared);
+        writeString(out, term.substring(shared));
+
+        postingBytes.reset();
+        int last = 0;
+        for (int i = 0; i < postings.size(); i++) {
+            writeVarint(postingBytes, postings.get(i) - last);
+            last = postings.get(i);
+        }
+        writeVarint(out, postings.size());
+        writeVarint(out, postingBytes.size());
+        postingBytes.writeTo(out);
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint.
+     *
+     * @param out the OutputStream
+     * @param value the value, not negative
+     * @throws IOException if operation failed
+     */
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        int v = value;
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     *
+     * @param in the InputStream
+     * @return the value
+     * @throws IOException if operation failed or the stream ended
+     */
+    static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Writes a string as UTF-8 prefixed with its length in bytes.
+     */
+    private static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads the terms of one spilled run in sorted order.
+     */
+    private static final class RunReader implements Comparable<RunReader> {
+
+        /**
+         * The stream of the run.
+         */
+        private final DataInputStream in;
+
+        /**
+         * Position of the run, used to keep the postings in ascending order.
+         */
+        private final int runIndex;
+
+        /**
+         * Number of terms not yet read.
+         */
+        private int remaining;
+
+        /**
+         * The current term.
+         */
+        private String term = null;
+
+        /**
+         * The postings of the current term.
+         */
+        private final IntList postings = new IntList();
+
+        /**
+         * Creates a new <code>RunReader</code>.
+         *
+         * @param run the run file
+         * @param runIndex position of the run
+         * @throws IOException if the run could not be opened
+         */
+        RunReader(File run, int runIndex) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 64 * 1024));
+            this.runIndex = runIndex;
+            this.remaining = in.readInt();
+        }
+
+        /**
+         * Reads the next term with its postings.
+         *
+         * @return false if the run has no more terms
+         * @throws IOException if operation failed
+         */
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            term = in.readUTF();
+            int count = readVarint(in);
+            postings.clear();
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                value += readVarint(in);
+                postings.add(value);
+            }
+            return true;
+        }
+
+        /**
+         * Closes the run.
+         */
+        void close() {
+            StreamUtilities.closeInputStream(in);
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            int result = term.compareTo(other.term);
+            if (result == 0) {
+                result = Integer.compare(runIndex, other.runIndex);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A growable list of primitive int values.
+     */
+    private static final class IntList {
+
+        /**
+         * The values.
+         */
+        private int[] values = new int[4];
+
+        /**
+         * Number of values.
+         */
+        private int size = 0;
+
+        /**
+         * Appends a value.
+         *
+         * @param value the value
+         */
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * Appends all values of another list.
+         *
+         * @param other the other list
+         */
+        void addAll(IntList other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        /**
+         * Returns the value at the given position.
+         *
+         * @param index the position
+         * @return the value
+         */
+        int get(int index) {
+            return values[index];
+        }
+
+        /**
+         * Returns the number of values.
+         *
+         * @return number of values
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Removes all values.
+         */
+        void clear() {
+            size = 0;
+        }
+    }
+}
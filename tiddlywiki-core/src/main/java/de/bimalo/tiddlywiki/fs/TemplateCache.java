@@ -0,0 +1,64 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.vfs2.FileObject;
+
+/**
+ * <p>
+ * Shares loaded templates between the renderers of several TiddlyWikis, like
+ * the jobs of a batch. A template is parsed once per template file and can be
+ * used afterwards by multiple threads.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see TemplateRenderer
+ */
+final class TemplateCache {
+
+    /**
+     * The loaded templates by the URI of the template file.
+     */
+    private final Map<String, CompiledTemplate> templates = new HashMap<String, CompiledTemplate>();
+
+    /**
+     * Returns the template of a template file and loads it if necessary.
+     *
+     * @param templateFile the template file
+     * @return the template
+     * @throws IOException if the template could not be loaded
+     * @throws IllegalArgumentException if templateFile is null
+     */
+    synchronized CompiledTemplate getTemplate(FileObject templateFile) throws IOException {
+        Assert.notNull(templateFile);
+        String key = templateFile.getName().getURI();
+        CompiledTemplate template = templates.get(key);
+        if (template == null) {
+            template = CompiledTemplate.load(templateFile);
+            templates.put(key, template);
+        }
+        return template;
+    }
+
+    /**
+     * Drops the template of a template file, so the next call to getTemplate
+     * loads the changed template file again.
+     *
+     * @param templateFile the template file
+     * @throws IllegalArgumentException if templateFile is null
+     */
+    synchronized void remove(FileObject templateFile) {
+        Assert.notNull(templateFile);
+        templates.remove(templateFile.getName().getURI());
+    }
+
+    /**
+     * Returns the number of loaded templates.
+     *
+     * @return number of templates
+     */
+    synchronized int size() {
+        return templates.size();
+    }
+}
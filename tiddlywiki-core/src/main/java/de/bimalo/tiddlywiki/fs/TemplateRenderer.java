@@ -0,0 +1,207 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import de.bimalo.tiddlywiki.TiddlyWiki;
+import de.bimalo.tiddlywiki.common.Assert;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateExceptionHandler;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.vfs2.FileObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Renders a TiddlyWiki with a Freemarker template.</p>
+ * <p>
+ * The template is loaded once with the first call to <code>render</code> and
+ * can be used afterwards by multiple threads.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see TiddlyWikiGenerator
+ */
+final class TemplateRenderer {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(TemplateRenderer.class);
+
+    /**
+     * The template file used to build the TiddlyWiki.
+     */
+    private final FileObject templateFile;
+
+    /**
+     * The loaded template. Loaded lazily.
+     */
+    private CompiledTemplate template = null;
+
+    /**
+     * Shares loaded templates with other renderers, null if none.
+     */
+    private final TemplateCache templateCache;
+
+    /**
+     * The search index embedded into the TiddlyWiki, null if none.
+     */
+    private SearchIndex searchIndex = null;
+
+    /**
+     * The fields of the Tiddlers of the search plugin.
+     */
+    private List<Map<String, String>> searchPluginTiddlers = null;
+
+    /**
+     * Publishes the events of the generator.
+     */
+    private GeneratorEvents events = new GeneratorEvents();
+
+    /**
+     * Creates a new <code>TemplateRenderer</code>.
+     *
+     * @param templateFile the template file used to build the TiddlyWiki
+     * @throws IllegalArgumentException if templateFile is null
+     */
+    TemplateRenderer(final FileObject templateFile) {
+        this(templateFile, null);
+    }
+
+    /**
+     * Creates a new <code>TemplateRenderer</code> sharing the loaded template
+     * with other renderers.
+     *
+     * @param templateFile the template file used to build the TiddlyWiki
+     * @param templateCache shares loaded templates, null to load the template
+     * for this renderer only
+     * @throws IllegalArgumentException if templateFile is null
+     */
+    TemplateRenderer(final FileObject templateFile, final TemplateCache templateCache) {
+        Assert.notNull(templateFile);
+        this.templateFile = templateFile;
+        this.templateCache = templateCache;
+    }
+
+    /**
+     * Sets the search index embedded into the TiddlyWiki. The template renders
+     * it with the variables <code>searchIndex</code> (a directive writing the
+     * base64 encoded index) and <code>searchPluginTiddlers</code>, see the
+     * macro searchindex in default-template.html.
+     *
+     * @param searchIndex the search index, null to embed no search index
+     * @throws IOException if the search plugin could not be loaded
+     */
+    void setSearchIndex(final SearchIndex searchIndex) throws IOException {
+        this.searchIndex = searchIndex;
+        this.searchPluginTiddlers = searchIndex != null ? searchIndex.getPluginTiddlers() : null;
+    }
+
+    /**
+     * Sets the events published to the statistics of the generator.
+     *
+     * @param events the events of the generator
+     * @throws IllegalArgumentException if events is null
+     */
+    void setEvents(final GeneratorEvents events) {
+        Assert.notNull(events);
+        this.events = events;
+    }
+
+    /**
+     * Creates the data model for the template.
+     *
+     * @param wiki the TiddlyWiki
+     * @param tiddlers the Tiddlers to render into the template
+     * @return the data model
+     */
+    Map<String, Object> createModel(TiddlyWiki wiki, List<Tiddler> tiddlers) {
+        Map<String, Object> root = new HashMap<String, Object>();
+        root.put("title", wiki.getTitle());
+        root.put("subTitle", wiki.getSubTitle());
+        root.put("defaultTiddlers", wiki.getDefaultTiddler().getTiddlers());
+        root.put("rootTiddlers", tiddlers);
+        if (searchIndex != null) {
+            root.put("searchIndex", searchIndex);
+            root.put("searchPluginTiddlers", searchPluginTiddlers);
+        }
+        return root;
+    }
+
+    /**
+     * Renders the template with the given data model.
+     *
+     * @param model the data model
+     * @param out the Writer to write the result to
+     * @throws IOException if the template could not be loaded or processed
+     */
+    void render(Map<String, Object> model, Writer out) throws IOException {
+        long start = System.nanoTime();
+        CompiledTemplate compiled = getTemplate();
+        Map<String, Object> root = model;
+        if (!compiled.getSegments().isEmpty()) {
+            root = new HashMap<String, Object>(model);
+            root.put(CompiledTemplate.SEGMENTS_VARIABLE, compiled.getSegments());
+        }
+        try {
+            compiled.getTemplate().process(root, out);
+        } catch (TemplateException ex) {
+            throw new IOException(ex);
+        }
+        Object tiddlers = model.get("rootTiddlers");
+        events.templateRendered(templateFile.getName().getBaseName(),
+                tiddlers instanceof Collection ? ((Collection<?>) tiddlers).size() : 0, start);
+    }
+
+    /**
+     * Returns the template and loads it if necessary.
+     *
+     * @return the template
+     * @throws IOException if the template could not be loaded
+     */
+    synchronized CompiledTemplate getTemplate() throws IOException {
+        if (template == null) {
+            template = templateCache != null ? templateCache.getTemplate(templateFile)
+                    : CompiledTemplate.load(templateFile);
+        }
+        return template;
+    }
+
+    /**
+     * Drops the loaded template, so the next rendering loads the changed
+     * template file again.
+     */
+    synchronized void reload() {
+        template = null;
+        if (templateCache != null) {
+            templateCache.remove(templateFile);
+        }
+    }
+
+    /**
+     * Loads a template with a new configuration of the template engine
+     * without splitting it.
+     *
+     * @param templateFile the template file
+     * @return the template
+     * @throws IOException if the template could not be loaded
+     */
+    static Template loadTemplate(FileObject templateFile) throws IOException {
+        LOGGER.info("Create configuration for template engine...");
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_26);
+        cfg.setDirectoryForTemplateLoading(new File(templateFile.getName().getParent().getPath()));
+        cfg.setDefaultEncoding("UTF-8");
+        cfg.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+        cfg.setLogTemplateExceptions(false);
+        Template template = cfg.getTemplate(templateFile.getName().getBaseName());
+        LOGGER.info("Done.");
+        return template;
+    }
+}
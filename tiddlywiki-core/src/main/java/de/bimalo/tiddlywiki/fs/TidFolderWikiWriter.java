@@ -0,0 +1,470 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import de.bimalo.tiddlywiki.TiddlyWiki;
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.DigestUtilities;
+import de.bimalo.tiddlywiki.common.StreamUtilities;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Writes a TiddlyWiki as folder compatible with TiddlyWiki on Node.js. Every
+ * Tiddler is written as one <code>.tid</code> file into the sub folder
+ * <code>tiddlers</code>.</p>
+ * <p>
+ * The writer works incrementally: the content hash of every written file is
+ * stored in a manifest file. On the next run only files with a changed
+ * content hash are rewritten and files of Tiddlers that no longer exist are
+ * deleted. Files not created by this writer are never touched.</p>
+ * <p>
+ * Tiddlers with the same file name get a suffix derived from their source
+ * path, and the plain name goes to the Tiddler with the first source path.
+ * So the file names do not depend on the order the Tiddlers were found and
+ * stay the same from run to run.</p>
+ * <p>
+ * Every file is written to a temporary file in the TiddlyWiki folder first and
+ * then renamed atomically, so TiddlyWiki on Node.js never loads a half-written
+ * Tiddler file and the manifest always matches complete files.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see TiddlerFields
+ */
+final class TidFolderWikiWriter implements WikiWriter {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(TidFolderWikiWriter.class);
+
+    /**
+     * Name of the manifest file containing the content hashes of the last
+     * run.
+     */
+    static final String MANIFEST_FILENAME = "tiddlywiki-generator.manifest";
+
+    /**
+     * Name of the sub folder containing the Tiddler files.
+     */
+    static final String TIDDLERS_FOLDER = "tiddlers";
+
+    /**
+     * Name of the TiddlyWiki configuration file.
+     */
+    private static final String INFO_FILENAME = "tiddlywiki.info";
+
+    /**
+     * Content of the TiddlyWiki configuration file, if it does not exist.
+     */
+    private static final String DEFAULT_INFO = "{\n"
+            + "    \"description\": \"Generated by bimalo TiddlyWiki Generator\",\n"
+            + "    \"plugins\": [\n        \"tiddlywiki/markdown\"\n    ],\n"
+            + "    \"themes\": [\n        \"tiddlywiki/vanilla\",\n        \"tiddlywiki/snowwhite\"\n    ]\n"
+            + "}\n";
+
+    /**
+     * Maximum length of a file name without extension.
+     */
+    private static final int MAX_FILENAME_LENGTH = 200;
+
+    /**
+     * Extension of a Tiddler file.
+     */
+    private static final String TID_EXTENSION = ".tid";
+
+    /**
+     * Suffix of the temporary files.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Number of hexadecimal digits of the source path hash appended to
+     * duplicate file names.
+     */
+    private static final int SUFFIX_LENGTH = 8;
+
+    /**
+     * Orders Tiddlers by their source, so duplicate file names are resolved
+     * independent of the order the Tiddlers were found.
+     */
+    private static final Comparator<Tiddler> SOURCE_ORDER = new Comparator<Tiddler>() {
+        @Override
+        public int compare(Tiddler t1, Tiddler t2) {
+            return getSource(t1).compareTo(getSource(t2));
+        }
+    };
+
+    /**
+     * The folder containing the TiddlyWiki.
+     */
+    private final File wikiFolder;
+
+    /**
+     * The search index written as Tiddler, null if none.
+     */
+    private SearchIndex searchIndex = null;
+
+    /**
+     * Number of files written by the last call to write.
+     */
+    private int writtenCount = 0;
+
+    /**
+     * Number of unchanged files of the last call to write.
+     */
+    private int unchangedCount = 0;
+
+    /**
+     * Number of deleted files of the last call to write.
+     */
+    private int deletedCount = 0;
+
+    /**
+     * Publishes the events of the generator.
+     */
+    private GeneratorEvents events = new GeneratorEvents();
+
+    /**
+     * Creates a new <code>TidFolderWikiWriter</code>.
+     *
+     * @param wikiFolder the folder containing the TiddlyWiki
+     * @throws IllegalArgumentException if wikiFolder is null
+     */
+    TidFolderWikiWriter(final File wikiFolder) {
+        Assert.notNull(wikiFolder);
+        this.wikiFolder = wikiFolder;
+    }
+
+    /**
+     * Sets the search index written as data Tiddler together with the search
+     * plugin.
+     *
+     * @param searchIndex the search index, null to write no search index
+     */
+    void setSearchIndex(final SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    /**
+     * Sets the events published to the statistics of the generator.
+     *
+     * @param events the events of the generator
+     * @throws IllegalArgumentException if events is null
+     */
+    void setEvents(final GeneratorEvents events) {
+        Assert.notNull(events);
+        this.events = events;
+    }
+
+    @Override
+    public void write(TiddlyWiki wiki) throws IOException {
+        LOGGER.info("Write TiddlyWiki to folder {}...", wikiFolder.getPath());
+        writtenCount = 0;
+        unchangedCount = 0;
+        deletedCount = 0;
+
+        File tiddlersFolder = new File(wikiFolder, TIDDLERS_FOLDER);
+        if (!tiddlersFolder.isDirectory() && !tiddlersFolder.mkdirs()) {
+            throw new IOException("Folder " + tiddlersFolder.getPath() + " could not be created.");
+        }
+        File infoFile = new File(wikiFolder, INFO_FILENAME);
+        if (!infoFile.exists()) {
+            replaceFile(infoFile, DEFAULT_INFO.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Properties oldManifest = loadManifest();
+        Properties newManifest = new Properties();
+        Set<String> usedNames = new HashSet<String>();
+
+        writeSystemTiddler(tiddlersFolder, "$:/SiteTitle", wiki.getTitle(), oldManifest, newManifest, usedNames);
+        writeSystemTiddler(tiddlersFolder, "$:/SiteSubtitle", wiki.getSubTitle(), oldManifest, newManifest, usedNames);
+        StringBuilder defaults = new StringBuilder();
+        for (Tiddler tiddler : wiki.getDefaultTiddler().getTiddlers()) {
+            defaults.append("[[").append(TiddlerFields.getTitle(tiddler)).append("]]\n");
+        }
+        writeSystemTiddler(tiddlersFolder, "$:/DefaultTiddlers", defaults.toString(), oldManifest, newManifest, usedNames);
+
+        List<Tiddler> tiddlers = new ArrayList<Tiddler>(wiki.listTiddlers());
+        Collections.sort(tiddlers, SOURCE_ORDER);
+        for (Tiddler tiddler : tiddlers) {
+            Map<String, String> fields = TiddlerFields.toFields(tiddler);
+            String filename = createFilename(fields.get("title"), getSource(tiddler), usedNames);
+            writeIfChanged(new File(tiddlersFolder, filename), toTid(fields), oldManifest, newManifest);
+        }
+
+        if (searchIndex != null) {
+            Map<String, String> fields = new LinkedHashMap<String, String>();
+            fields.put("title", SearchIndex.INDEX_TITLE);
+            fields.put("type", SearchIndex.INDEX_TYPE);
+            fields.put("text", searchIndex.toBase64());
+            String filename = createFilename(SearchIndex.INDEX_TITLE, SearchIndex.INDEX_TITLE, usedNames);
+            writeIfChanged(new File(tiddlersFolder, filename), toTid(fields), oldManifest, newManifest);
+            for (Map<String, String> pluginFields : searchIndex.getPluginTiddlers()) {
+                filename = createFilename(pluginFields.get("title"), pluginFields.get("title"), usedNames);
+                writeIfChanged(new File(tiddlersFolder, filename), toTid(pluginFields), oldManifest, newManifest);
+            }
+        }
+
+        for (String oldFilename : oldManifest.stringPropertyNames()) {
+            if (!newManifest.containsKey(oldFilename)) {
+                File staleFile = resolveStaleFile(tiddlersFolder, oldFilename);
+                if (staleFile == null) {
+                    LOGGER.warn("Manifest entry {} is not a file in {}, ignored.", oldFilename,
+                            tiddlersFolder.getPath());
+                } else if (staleFile.delete()) {
+                    deletedCount++;
+                } else if (staleFile.exists()) {
+                    LOGGER.warn("Stale file {} could not be deleted.", staleFile.getPath());
+                }
+            }
+        }
+        storeManifest(newManifest);
+        LOGGER.info("TiddlyWiki successfully written to {}: {} files written, {} unchanged, {} deleted.",
+                wikiFolder.getPath(), writtenCount, unchangedCount, deletedCount);
+    }
+
+    /**
+     * Returns the number of files written by the last call to write.
+     *
+     * @return number of written files
+     */
+    int getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * Returns the number of unchanged files of the last call to write.
+     *
+     * @return number of unchanged files
+     */
+    int getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    /**
+     * Returns the number of deleted files of the last call to write.
+     *
+     * @return number of deleted files
+     */
+    int getDeletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * Writes a system Tiddler, like $:/SiteTitle.
+     */
+    private void writeSystemTiddler(File tiddlersFolder, String title, String text, Properties oldManifest,
+            Properties newManifest, Set<String> usedNames) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("title: ").append(title).append("\n\n");
+        if (text != null) {
+            sb.append(text);
+        }
+        String filename = createFilename(title, title, usedNames);
+        writeIfChanged(new File(tiddlersFolder, filename), sb.toString(), oldManifest, newManifest);
+    }
+
+    /**
+     * Writes the content to the file if its content hash differs from the
+     * hash stored in the manifest of the last run.
+     *
+     * @param file the Tiddler file
+     * @param content the content of the Tiddler file
+     * @param oldManifest the manifest of the last run
+     * @param newManifest the manifest of this run
+     * @throws IOException if the file could not be written
+     */
+    private void writeIfChanged(File file, String content, Properties oldManifest, Properties newManifest)
+            throws IOException {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        String hash = DigestUtilities.hash(data);
+        newManifest.setProperty(file.getName(), hash);
+        if (hash.equals(oldManifest.getProperty(file.getName())) && file.exists()) {
+            unchangedCount++;
+        } else {
+            long start = System.nanoTime();
+            replaceFile(file, data);
+            events.outputWritten(file.getPath(), data.length, start);
+            writtenCount++;
+        }
+    }
+
+    /**
+     * Serializes the fields into the .tid format.
+     *
+     * @param fields the fields of the Tiddler, the text must be the last entry
+     * @return content of the .tid file
+     */
+    static String toTid(Map<String, String> fields) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : fields.entrySet()) {
+            if (!"text".equals(entry.getKey())) {
+                sb.append(entry.getKey()).append(": ");
+                sb.append(entry.getValue().replace('\r', ' ').replace('\n', ' '));
+                sb.append('\n');
+            }
+        }
+        sb.append('\n');
+        String text = fields.get("text");
+        if (text != null) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the source of a Tiddler, its path or its unique title if it was
+     * not created from a file.
+     *
+     * @param tiddler the Tiddler
+     * @return the source of the Tiddler
+     */
+    private static String getSource(Tiddler tiddler) {
+        return tiddler.getPath() != null ? tiddler.getPath() : tiddler.getUniqueTitle();
+    }
+
+    /**
+     * Creates a unique file name for a Tiddler title following the naming
+     * rules of TiddlyWiki on Node.js. If the name is already used, a hash of
+     * the source is appended, so the name does not depend on the order of the
+     * Tiddlers.
+     *
+     * @param title the title of the Tiddler
+     * @param source the source of the Tiddler, like its path
+     * @param usedNames the file names already used in this run
+     * @return a unique file name
+     */
+    static String createFilename(String title, String source, Set<String> usedNames) {
+        String name = title.replaceAll("^\\$:/", "\\$__");
+        name = name.replaceAll("[<>:\"/\\\\|?*\\x00-\\x1f]", "_");
+        name = name.replaceAll("^[\\s.]+|[\\s.]+$", "");
+        if (name.isEmpty()) {
+            name = "_";
+        }
+        if (name.length() > MAX_FILENAME_LENGTH) {
+            name = name.substring(0, MAX_FILENAME_LENGTH);
+        }
+        String filename = name + TID_EXTENSION;
+        // Compare case insensitive for file systems ignoring the case.
+        if (usedNames.contains(filename.toLowerCase(Locale.ROOT))) {
+            name = name + "_" + DigestUtilities.hash(source.getBytes(StandardCharsets.UTF_8))
+                    .substring(0, SUFFIX_LENGTH);
+            filename = name + TID_EXTENSION;
+            int count = 1;
+            while (usedNames.contains(filename.toLowerCase(Locale.ROOT))) {
+                filename = name + "_" + count + TID_EXTENSION;
+                count++;
+            }
+        }
+        usedNames.add(filename.toLowerCase(Locale.ROOT));
+        return filename;
+    }
+
+    /**
+     * Resolves a file name of the manifest of the last run. The manifest could
+     * have been edited, so names leaving the folder, like
+     * <code>../x.tid</code>, are rejected.
+     *
+     * @param tiddlersFolder the folder containing the Tiddler files
+     * @param filename the file name of the manifest
+     * @return the file or null if the name does not resolve to a file inside
+     * the folder
+     */
+    private static File resolveStaleFile(File tiddlersFolder, String filename) {
+        Path folder = tiddlersFolder.toPath().toAbsolutePath().normalize();
+        Path file;
+        try {
+            file = folder.resolve(filename).normalize();
+        } catch (InvalidPathException ex) {
+            return null;
+        }
+        if (!file.startsWith(folder) || file.equals(folder)) {
+            return null;
+        }
+        return file.toFile();
+    }
+
+    /**
+     * Loads the manifest of the last run.
+     *
+     * @return the manifest, empty if it does not exist
+     * @throws IOException if the manifest could not be read
+     */
+    private Properties loadManifest() throws IOException {
+        Properties manifest = new Properties();
+        File manifestFile = new File(wikiFolder, MANIFEST_FILENAME);
+        if (manifestFile.exists()) {
+            InputStream is = null;
+            try {
+                is = new FileInputStream(manifestFile);
+                manifest.load(is);
+            } finally {
+                StreamUtilities.closeInputStream(is);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Stores the manifest of this run. The manifest is replaced atomically.
+     *
+     * @param manifest the manifest
+     * @throws IOException if the manifest could not be written
+     */
+    private void storeManifest(Properties manifest) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.store(out, "Content hashes of the generated Tiddler files");
+        replaceFile(new File(wikiFolder, MANIFEST_FILENAME), out.toByteArray());
+    }
+
+    /**
+     * Replaces the file by writing the data to a temporary file in the
+     * TiddlyWiki folder and renaming it atomically. If the file system does
+     * not support atomic renames, the file is replaced non-atomically. The
+     * temporary file is deleted if the operation fails.
+     *
+     * @param file the file to replace
+     * @param data the new content of the file
+     * @throws IOException if the file could not be written
+     */
+    private void replaceFile(File file, byte[] data) throws IOException {
+        Path tempFile = new File(wikiFolder, "." + file.getName() + TEMP_SUFFIX).toPath();
+        boolean moved = false;
+        try {
+            Files.write(tempFile, data);
+            try {
+                Files.move(tempFile, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                LOGGER.debug("Atomic move not supported, replace {} non-atomically.", file.getPath());
+                Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Maps a <code>Tiddler</code> to the fields expected by TiddlyWiki, like
+ * title, tags, created and modified. The mapping follows the rules of the
+ * default template: documents like PDFs or images are only linked by the
+ * field _canonical_uri, all other Tiddlers embed their text.</p>
+ * <p>
+ * Used by all output modes that do not render a Freemarker template.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see Tiddler
+ */
+final class TiddlerFields {
+
+    /**
+     * Content types that are only linked and never embedded.
+     */
+    private static final String[] EXTERNAL_CONTENT_TYPES = new String[]{
+        "pdf", "jpg", "jpeg", "png", "gif"
+    };
+
+    /**
+     * TiddlyWiki date format, always in UTC.
+     */
+    private static final DateTimeFormatter DATE_FORMATTER
+            = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS").withZone(ZoneOffset.UTC);
+
+    /**
+     * Private constructor for this utility class.
+     */
+    private TiddlerFields() {
+    }
+
+    /**
+     * Checks if the given Tiddler is only linked to its document.
+     *
+     * @param tiddler the Tiddler to check
+     * @return true if the document is referenced by _canonical_uri
+     */
+    static boolean isExternal(Tiddler tiddler) {
+        String contentType = tiddler.getContentType();
+        boolean external = false;
+        if (contentType != null) {
+            for (String type : EXTERNAL_CONTENT_TYPES) {
+                if (contentType.contains(type)) {
+                    external = true;
+                    break;
+                }
+            }
+        }
+        return external;
+    }
+
+    /**
+     * Returns the title used for the Tiddler inside TiddlyWiki.
+     *
+     * @param tiddler the Tiddler
+     * @return the title
+     */
+    static String getTitle(Tiddler tiddler) {
+        return isExternal(tiddler) ? tiddler.getTitle() : tiddler.getUniqueTitle();
+    }
+
+    /**
+     * Formats a date as TiddlyWiki date string.
+     *
+     * @param date the date
+     * @return the formatted date, like 20171220134501123
+     */
+    static String formatDate(Date date) {
+        return DATE_FORMATTER.format(date.toInstant());
+    }
+
+    /**
+     * Formats a list of tags as TiddlyWiki tag list, like "[[tag 1]] [[tag2]]".
+     *
+     * @param tags the tags
+     * @return the formatted tag list
+     */
+    static String formatTags(List<String> tags) {
+        StringBuilder sb = new StringBuilder();
+        for (String tag : tags) {
+            if (tag == null || tag.isEmpty()) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append("[[").append(tag).append("]]");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates the TiddlyWiki fields for a Tiddler. The field "text" is always
+     * the last entry.
+     *
+     * @param tiddler the Tiddler
+     * @return an ordered Map with field names and values
+     */
+    static Map<String, String> toFields(Tiddler tiddler) {
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        boolean external = isExternal(tiddler);
+        fields.put("title", getTitle(tiddler));
+        fields.put("created", formatDate(tiddler.getCreateDate()));
+        fields.put("modified", formatDate(tiddler.getLastModifyDate()));
+        String tags = formatTags(tiddler.getTags());
+        if (!tags.isEmpty()) {
+            fields.put("tags", tags);
+        }
+        if (tiddler.getCreator() != null) {
+            fields.put("creator", tiddler.getCreator());
+        }
+        if (tiddler.getModifier() != null) {
+            fields.put("modifier", tiddler.getModifier());
+        }
+        if (tiddler.getContentType() != null) {
+            fields.put("type", tiddler.getContentType());
+        }
+        if (external) {
+            fields.put("_canonical_uri", tiddler.getPath());
+        } else if (tiddler.getText() != null) {
+            fields.put("text", tiddler.getText());
+        }
+        return fields;
+    }
+
+    /**
+     * Appends the fields as JSON object to the given StringBuilder.
+     *
+     * @param fields the fields
+     * @param sb the StringBuilder to append to
+     * @return the given StringBuilder
+     */
+    static StringBuilder appendJson(Map<String, String> fields, StringBuilder sb) {
+        sb.append('{');
+        boolean first = true;
+        for (Map.Entry<String, String> entry : fields.entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            appendJsonString(entry.getKey(), sb);
+            sb.append(':');
+            appendJsonString(entry.getValue(), sb);
+        }
+        sb.append('}');
+        return sb;
+    }
+
+    /**
+     * Appends a String as quoted JSON string. The result is also a valid
+     * JavaScript string literal.
+     *
+     * @param value the String
+     * @param sb the StringBuilder to append to
+     * @return the given StringBuilder
+     */
+    static StringBuilder appendJsonString(String value, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+        return sb;
+    }
+}
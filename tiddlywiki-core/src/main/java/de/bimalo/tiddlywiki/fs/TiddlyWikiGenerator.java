@@ -3,27 +3,36 @@ package de.bimalo.tiddlywiki.fs;
 import de.bimalo.tiddlywiki.Tiddler;
 import de.bimalo.tiddlywiki.common.Assert;
 import de.bimalo.tiddlywiki.common.CommandLineParser;
+import de.bimalo.tiddlywiki.common.DigestUtilities;
+import de.bimalo.tiddlywiki.common.NamedThreadFactory;
 import de.bimalo.tiddlywiki.common.TimeRecorder;
 import de.bimalo.tiddlywiki.TiddlyWiki;
-import de.bimalo.tiddlywiki.common.StreamUtilities;
 import de.bimalo.tiddlywiki.common.StringUtils;
-import freemarker.template.Configuration;
-import freemarker.template.Template;
-import freemarker.template.TemplateExceptionHandler;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
-import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemManager;
+import org.apache.commons.vfs2.FileType;
 import org.apache.commons.vfs2.VFS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -73,6 +82,145 @@ public final class TiddlyWikiGenerator {
      * Name of the argument for the include pattern.
      */
     private static final String INCLUDEPATTERN_ARGUMENT = "includePattern";
+    /**
+     * Name of the argument for the output mode.
+     */
+    private static final String OUTPUTMODE_ARGUMENT = "outputMode";
+    /**
+     * Name of the argument for the number of Tiddlers per bundle.
+     */
+    private static final String BUNDLESIZE_ARGUMENT = "bundleSize";
+    /**
+     * Name of the argument for the number of writer threads.
+     */
+    private static final String WRITERTHREADS_ARGUMENT = "writerThreads";
+    /**
+     * Name of the argument to force result files to the storage device.
+     */
+    private static final String FSYNC_ARGUMENT = "fsync";
+    /**
+     * Name of the argument for the precompressed variants.
+     */
+    private static final String COMPRESS_ARGUMENT = "compress";
+    /**
+     * Name of the argument to embed a search index.
+     */
+    private static final String SEARCHINDEX_ARGUMENT = "searchIndex";
+    /**
+     * Name of the argument for the port serving the TiddlyWiki.
+     */
+    private static final String SERVE_ARGUMENT = "serve";
+    /**
+     * Name of the argument for the address serving the TiddlyWiki.
+     */
+    private static final String SERVEADDRESS_ARGUMENT = "serveAddress";
+    /**
+     * Name of the argument for the seconds between two checks for changes.
+     */
+    private static final String REFRESHINTERVAL_ARGUMENT = "refreshInterval";
+    /**
+     * Name of the argument for the batch file describing several jobs.
+     */
+    private static final String BATCHFILE_ARGUMENT = "batchFile";
+    /**
+     * Name of the argument for the number of jobs running at the same time.
+     */
+    private static final String PARALLELISM_ARGUMENT = "parallelism";
+    /**
+     * Name of the argument for the include rules.
+     */
+    private static final String INCLUDE_ARGUMENT = "include";
+    /**
+     * Name of the argument for the exclude rules.
+     */
+    private static final String EXCLUDE_ARGUMENT = "exclude";
+    /**
+     * Name of the argument for the names of the ignore files.
+     */
+    private static final String IGNOREFILES_ARGUMENT = "ignoreFiles";
+    /**
+     * Name of the argument for the maximum size of a file.
+     */
+    private static final String MAXFILESIZE_ARGUMENT = "maxFileSize";
+    /**
+     * Name of the argument for the maximum age of a file.
+     */
+    private static final String MAXFILEAGE_ARGUMENT = "maxFileAge";
+    /**
+     * Name of the argument for following symbolic links.
+     */
+    private static final String FOLLOWSYMLINKS_ARGUMENT = "followSymlinks";
+    /**
+     * Name of the argument for staying on the file system of the root folder.
+     */
+    private static final String ONEFILESYSTEM_ARGUMENT = "oneFileSystem";
+    /**
+     * Name of the argument for the order documents are processed.
+     */
+    private static final String SCHEDULE_ARGUMENT = "schedule";
+    /**
+     * Name of the argument for the time budget of a walk.
+     */
+    private static final String TIMEBUDGET_ARGUMENT = "timeBudget";
+    /**
+     * Name of the argument for the enabled parsers.
+     */
+    private static final String PARSERS_ARGUMENT = "parsers";
+    /**
+     * Name of the argument to resume an interrupted walk.
+     */
+    private static final String RESUME_ARGUMENT = "resume";
+    /**
+     * Name of the argument for the number of documents read ahead.
+     */
+    private static final String READAHEAD_ARGUMENT = "readAhead";
+    /**
+     * Name of the argument for the number of bytes read ahead.
+     */
+    private static final String READAHEADBUDGET_ARGUMENT = "readAheadBudget";
+    /**
+     * Name of the argument for the minimum size of files mapped into memory.
+     */
+    private static final String MAPTHRESHOLD_ARGUMENT = "mapThreshold";
+    /**
+     * Name of the argument for the interval of progress reports.
+     */
+    private static final String PROGRESS_ARGUMENT = "progress";
+    /**
+     * Name of the argument for the file receiving the progress.
+     */
+    private static final String STATUSFILE_ARGUMENT = "statusFile";
+    /**
+     * Name of the argument to parse documents in quarantine again.
+     */
+    private static final String RETRYQUARANTINED_ARGUMENT = "retryQuarantined";
+    /**
+     * Name of the argument for the parse time putting a document into
+     * quarantine.
+     */
+    private static final String QUARANTINETIME_ARGUMENT = "quarantineTime";
+    /**
+     * Name of the argument for the number of threads parsing documents.
+     */
+    private static final String PARSETHREADS_ARGUMENT = "parseThreads";
+    /**
+     * Name of the argument for the maximum number of threads reading
+     * documents ahead.
+     */
+    private static final String IOTHREADS_ARGUMENT = "ioThreads";
+
+    /**
+     * Output mode writing one single HTML file.
+     */
+    private static final String OUTPUTMODE_HTML = "html";
+    /**
+     * Output mode writing a shell HTML file and lazily loaded Tiddler bundles.
+     */
+    private static final String OUTPUTMODE_BUNDLES = "bundles";
+    /**
+     * Output mode writing a TiddlyWiki folder with one .tid file per Tiddler.
+     */
+    private static final String OUTPUTMODE_TID = "tid";
 
     /**
      * The folder from which this program was called.
@@ -102,6 +250,184 @@ public final class TiddlyWikiGenerator {
      */
     private String includePattern = null;
 
+    /**
+     * The output mode, see OUTPUTMODE_* constants. Default is html.
+     */
+    private String outputMode = OUTPUTMODE_HTML;
+
+    /**
+     * The maximum number of Tiddlers per bundle. A value less or equal 0 means
+     * one bundle per top-level folder.
+     */
+    private int bundleSize = 0;
+
+    /**
+     * The number of threads writing the output. A value less or equal 0 means
+     * the default of the output mode.
+     */
+    private int writerThreads = 0;
+
+    /**
+     * Force result files to the storage device before they are replaced.
+     * Default is false.
+     */
+    private boolean fsync = false;
+
+    /**
+     * The compressions of the precompressed variants written next to the
+     * result files. Default is none.
+     */
+    private Set<Compression> compressions = EnumSet.noneOf(Compression.class);
+
+    /**
+     * Embed a search index into the TiddlyWiki. Default is false.
+     */
+    private boolean searchIndex = false;
+
+    /**
+     * The port serving the TiddlyWiki from memory. A negative value means the
+     * TiddlyWiki is written to the result file. Default is -1.
+     */
+    private int servePort = -1;
+
+    /**
+     * The address serving the TiddlyWiki. Default is the loopback address, so
+     * only the local machine can access the content of the documents.
+     */
+    private InetAddress serveAddress = InetAddress.getLoopbackAddress();
+
+    /**
+     * Seconds between two checks of the root folder for changes while
+     * serving. A value less or equal 0 disables the checks. Default is 10.
+     */
+    private int refreshInterval = 10;
+
+    /**
+     * The batch file describing several jobs, null to generate one
+     * TiddlyWiki.
+     */
+    private File batchFile = null;
+
+    /**
+     * The arguments of the command line, the defaults of all jobs of the batch
+     * file.
+     */
+    private Map<String, String> batchDefaults = null;
+
+    /**
+     * Maximum number of jobs of the batch file running at the same time.
+     * Default is half the number of processors, at least 1.
+     */
+    private int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    /**
+     * Decides which files and folders are walked.
+     */
+    private FilterChain filterChain = null;
+
+    /**
+     * true if symbolic links are followed. Default is true.
+     */
+    private boolean followSymlinks = true;
+
+    /**
+     * true if folders of other file systems are skipped. Default is false.
+     */
+    private boolean oneFileSystem = false;
+
+    /**
+     * The order documents are processed. Default is "tree".
+     */
+    private String schedule = FilesystemTreeWalker.SCHEDULE_TREE;
+
+    /**
+     * Time budget of a walk in seconds, negative for no limit. Default is no
+     * limit.
+     */
+    private int timeBudget = -1;
+
+    /**
+     * The parsers used to extract text and meta data.
+     */
+    private ParserRegistry parserRegistry = null;
+
+    /**
+     * Records the parsed documents in a journal next to the result file and
+     * resumes an interrupted walk. Default is false.
+     */
+    private boolean resume = false;
+
+    /**
+     * Maximum number of documents read ahead while parsing, 0 disables
+     * reading ahead. Default is 8.
+     */
+    private int readAhead = 8;
+
+    /**
+     * Maximum number of bytes read ahead while parsing. Default is 32 MB.
+     */
+    private long readAheadBudget = 32L << 20;
+
+    /**
+     * Minimum size of a local file mapped into memory while parsing, 0
+     * disables mapping. Default is 1 MB.
+     */
+    private long mapThreshold = DocumentVisitor.DEFAULT_MAP_THRESHOLD;
+
+    /**
+     * Seconds between two progress reports while parsing, 0 disables the
+     * reports. Default is 0.
+     */
+    private int progress = 0;
+
+    /**
+     * The file replaced with the progress at every report, null for none.
+     */
+    private File statusFile = null;
+
+    /**
+     * true if documents in quarantine are parsed again. Default is false.
+     */
+    private boolean retryQuarantined = false;
+
+    /**
+     * Seconds of parsing putting a document into quarantine, 0 for failed
+     * documents only. Default is 0.
+     */
+    private int quarantineTime = 0;
+
+    /**
+     * The number of threads parsing documents. Default is the number of
+     * processors, at most 4.
+     */
+    private int parseThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The maximum number of threads reading documents ahead. Default is 8.
+     */
+    private int ioThreads = ReadAhead.DEFAULT_IO_THREADS;
+
+    /**
+     * Keeps the documents failed to parse, opened with the first walk.
+     */
+    private ParseQuarantine quarantine = null;
+
+    /**
+     * Shares loaded templates with other generators, null if none.
+     */
+    private TemplateCache templateCache = null;
+
+    /**
+     * Keeps the results of parsed documents, null to parse every document.
+     */
+    private ParseCache parseCache = null;
+
+    /**
+     * Publishes the events of this generator, registered as MBean while the
+     * generator runs.
+     */
+    private GeneratorEvents events = new GeneratorEvents();
+
     /**
      * Creates a new <code>TiddlyWikiGenerator</code> with arguments provided as
      * <code>java.util.Map</code>.
@@ -117,9 +443,17 @@ public final class TiddlyWikiGenerator {
 
             initWorkingFolder();
 
+            if (initBatchArguments(arguments)) {
+                return;
+            }
+
             initRootFolderArgument(arguments);
 
-            initTemplateFileArgument(arguments);
+            initOutputArguments(arguments);
+
+            if (!OUTPUTMODE_TID.equals(outputMode)) {
+                initTemplateFileArgument(arguments);
+            }
 
             initResultFileArgument(arguments);
 
@@ -127,6 +461,22 @@ public final class TiddlyWikiGenerator {
 
             initIncludePatternArgument(arguments);
 
+            initFilterArguments(arguments);
+
+            initParsersArgument(arguments);
+
+            initScheduleArguments(arguments);
+
+            initResumeArgument(arguments);
+
+            initReadAheadArguments(arguments);
+
+            initProgressArguments(arguments);
+
+            initQuarantineArguments(arguments);
+
+            initThreadsArguments(arguments);
+
         } catch (IllegalArgumentException ex) {
             throw ex;
         } catch (FileSystemException ex) {
@@ -141,36 +491,23 @@ public final class TiddlyWikiGenerator {
      */
     public void run() {
         try {
-            LOGGER.info("Start analyzing from {}...", rootFolder.getName().getPath());
-            FilesystemTreeWalker traverser = new FilesystemTreeWalker(rootFolder);
-            traverser.setMaxLevel(maxLevel);
-            traverser.setIncludePattern(includePattern);
-            TiddlyWiki tw = traverser.walkFileTree();
-            LOGGER.info("Done.");
-
-            LOGGER.info("Create configuration for template engine...");
-            Configuration cfg = new Configuration(Configuration.VERSION_2_3_26);
-            cfg.setDirectoryForTemplateLoading(new File(templateFile.getName().getParent().getPath()));
-            cfg.setDefaultEncoding("UTF-8");
-            cfg.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
-            cfg.setLogTemplateExceptions(false);
-            Template temp = cfg.getTemplate(templateFile.getName().getBaseName());
-            LOGGER.info("Done.");
-
-            LOGGER.info("Write TiddlyWiki to file {}...", resultFile.getName().getPath());
-            Writer out = null;
+            if (batchFile != null) {
+                int failed = new BatchRunner(batchFile, batchDefaults, parallelism).run();
+                if (failed > 0) {
+                    throw new RuntimeException(failed + " jobs of " + batchFile.getName() + " failed.");
+                }
+                return;
+            }
+            events = GeneratorEvents.register(resultFile.getName().getPath());
             try {
-                out = new OutputStreamWriter(new FileOutputStream(resultFile.getName().getPath()), "UTF-8");
-                Map root = new HashMap();
-                root.put("title", tw.getTitle());
-                root.put("subTitle", tw.getSubTitle());
-                root.put("defaultTiddlers", tw.getDefaultTiddler().getTiddlers());
-                root.put("rootTiddlers", tw.listTiddlers());
-                temp.process(root, out);
+                if (servePort >= 0) {
+                    serve();
+                } else {
+                    generate();
+                }
             } finally {
-                StreamUtilities.closeWriter(out);
+                events.unregister();
             }
-            LOGGER.info("TiddlyWiki successfully written to {}.", resultFile.getName().getPath());
         } catch (RuntimeException ex) {
             throw ex;
         } catch (Exception ex) {
@@ -179,6 +516,416 @@ public final class TiddlyWikiGenerator {
         }
     }
 
+    /**
+     * Generates the TiddlyWiki once.
+     *
+     * @throws IOException if operation failed
+     */
+    private void generate() throws IOException {
+        WalkJournal journal = resume ? openJournal() : null;
+        SearchIndex index = null;
+        try {
+            SearchIndexBuilder indexBuilder = searchIndex ? new SearchIndexBuilder() : null;
+            TiddlyWiki tw = walkFileTree(indexBuilder, journal);
+            index = buildSearchIndex(tw, indexBuilder);
+            WikiWriter writer = createWikiWriter(index);
+            events.phase(GeneratorEvents.PHASE_WRITING);
+            writer.write(tw);
+            if (journal != null) {
+                journal.delete();
+            }
+        } finally {
+            events.phase(GeneratorEvents.PHASE_IDLE);
+            if (index != null) {
+                index.delete();
+            }
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * Opens the journal next to the result file recording the parsed
+     * documents. The journal of an interrupted walk is loaded to resume the
+     * walk.
+     *
+     * @return the opened journal or null if the result file is not a local
+     * file
+     * @throws IOException if the journal could not be opened
+     */
+    private WalkJournal openJournal() throws IOException {
+        if (!"file".equals(resultFile.getName().getScheme())) {
+            LOGGER.warn("resume ignored, {} is not a local file.", resultFile.getName().getURI());
+            return null;
+        }
+        File file = new File(resultFile.getName().getPath() + ".journal");
+        WalkJournal journal = new WalkJournal(file,
+                rootFolder.getName().getPath() + "|" + parserRegistry.getName());
+        int records = journal.open();
+        if (records > 0) {
+            LOGGER.info("Resume walk with {} documents of journal {}.", records, file);
+        }
+        return journal;
+    }
+
+    /**
+     * Opens the quarantine next to the result file keeping the documents
+     * failed to parse. The quarantine is opened once and used by all walks.
+     *
+     * @return the opened quarantine or null if the result file is not a local
+     * file
+     * @throws IOException if the quarantine could not be opened
+     */
+    private synchronized ParseQuarantine openQuarantine() throws IOException {
+        if (quarantine == null && "file".equals(resultFile.getName().getScheme())) {
+            File file = new File(resultFile.getName().getPath() + ".quarantine");
+            ParseQuarantine opened = new ParseQuarantine(file);
+            int entries = opened.open();
+            if (entries > 0) {
+                LOGGER.info("{} documents in quarantine {}{}.", entries, file,
+                        retryQuarantined ? " are parsed again" : "");
+            }
+            quarantine = opened;
+        }
+        return quarantine;
+    }
+
+    /**
+     * Walks the root folder and builds the TiddlyWiki.
+     *
+     * @param indexBuilder collects the search index, can be null
+     * @return the TiddlyWiki
+     * @throws IOException if operation failed
+     */
+    private TiddlyWiki walkFileTree(SearchIndexBuilder indexBuilder) throws IOException {
+        return walkFileTree(indexBuilder, null);
+    }
+
+    /**
+     * Walks the root folder and builds the TiddlyWiki.
+     *
+     * @param indexBuilder collects the search index, can be null
+     * @param journal records the parsed documents, can be null
+     * @return the TiddlyWiki
+     * @throws IOException if operation failed
+     */
+    private TiddlyWiki walkFileTree(SearchIndexBuilder indexBuilder, WalkJournal journal) throws IOException {
+        LOGGER.info("Start analyzing from {}...", rootFolder.getName().getPath());
+        FilesystemTreeWalker traverser = new FilesystemTreeWalker(rootFolder);
+        traverser.setMaxLevel(maxLevel);
+        traverser.setFilterChain(filterChain);
+        traverser.setFollowSymlinks(followSymlinks);
+        traverser.setOneFileSystem(oneFileSystem);
+        traverser.setSchedule(schedule);
+        traverser.setBudget(timeBudget >= 0 ? timeBudget * 1000L : -1);
+        traverser.setParseCache(parseCache);
+        traverser.setParserRegistry(parserRegistry);
+        traverser.setJournal(journal);
+        traverser.setReadAhead(readAhead, readAheadBudget);
+        traverser.setMapThreshold(mapThreshold);
+        traverser.setParseThreads(parseThreads);
+        traverser.setIoThreads(ioThreads);
+        traverser.setQuarantine(openQuarantine(), quarantineTime * 1000L, retryQuarantined);
+        traverser.setEvents(events);
+        if (progress > 0 || statusFile != null) {
+            traverser.setProgressMonitor(new ProgressMonitor(progress * 1000L, progress > 0 ? System.out : null,
+                    statusFile));
+        }
+        if (indexBuilder != null) {
+            traverser.addWalkListener(indexBuilder);
+        }
+        events.getStatistics().walkStarted();
+        try {
+            TiddlyWiki tw = traverser.walkFileTree();
+            LOGGER.info("Done.");
+            return tw;
+        } finally {
+            events.getStatistics().walkFinished();
+        }
+    }
+
+    /**
+     * Builds the search index of a TiddlyWiki.
+     *
+     * @param tw the TiddlyWiki
+     * @param indexBuilder the builder used during the walk, can be null
+     * @return the search index or null if indexBuilder is null
+     * @throws IOException if operation failed
+     */
+    private SearchIndex buildSearchIndex(TiddlyWiki tw, SearchIndexBuilder indexBuilder) throws IOException {
+        SearchIndex index = null;
+        if (indexBuilder != null) {
+            events.phase(GeneratorEvents.PHASE_INDEXING);
+            List<String> titles = new ArrayList<String>();
+            for (Tiddler tiddler : tw.listTiddlers()) {
+                titles.add(TiddlerFields.getTitle(tiddler));
+            }
+            index = indexBuilder.build(titles);
+        }
+        return index;
+    }
+
+    /**
+     * Keeps the TiddlyWiki in memory and serves it over HTTP until the
+     * program is terminated. The root folder is checked for changes every
+     * refreshInterval seconds and the TiddlyWiki is rebuilt on a change.
+     *
+     * @throws IOException if the server could not be started
+     * @throws InterruptedException if the thread was interrupted
+     */
+    private void serve() throws IOException, InterruptedException {
+        Set<Compression> served = EnumSet.of(Compression.GZIP);
+        served.addAll(compressions);
+        if (parseCache == null) {
+            parseCache = new ParseCache();
+        }
+        TemplateRenderer renderer = new TemplateRenderer(templateFile, templateCache);
+        renderer.setEvents(events);
+        final WikiServer server = new WikiServer(serveAddress, servePort, renderer, served);
+        final Refresher refresher = new Refresher(renderer, server);
+        refresher.rebuild(fingerprint());
+        server.start();
+
+        final ScheduledExecutorService scheduler
+                = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("tw-refresh", true));
+        if (refreshInterval > 0) {
+            scheduler.scheduleWithFixedDelay(refresher, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+        }
+        final CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.shutdownNow();
+                server.stop();
+                stopped.countDown();
+            }
+        }, "tw-shutdown"));
+        stopped.await();
+    }
+
+    /**
+     * Computes a fingerprint of the root folder and the template file from the
+     * paths, sizes and modification times of all walked files. The content of
+     * the files is not read.
+     *
+     * @return the fingerprint
+     * @throws IOException if the folder could not be read
+     */
+    private String fingerprint() throws IOException {
+        MessageDigest digest = DigestUtilities.newDigest();
+        fingerprint(rootFolder, filterChain, new TraversalGuard(rootFolder, followSymlinks, oneFileSystem),
+                digest, 0);
+        digest.update(String.valueOf(templateModified()).getBytes(StandardCharsets.UTF_8));
+        return DigestUtilities.toHex(digest.digest());
+    }
+
+    /**
+     * Returns the time of the last modification of the template file.
+     *
+     * @return the time of the last modification, 0 for a template of the
+     * classpath
+     */
+    private long templateModified() {
+        try {
+            templateFile.refresh();
+            return templateFile.getContent().getLastModifiedTime();
+        } catch (FileSystemException ex) {
+            // Templates of the classpath don't change.
+            return 0;
+        }
+    }
+
+    /**
+     * Adds the files of a folder to a fingerprint. The folders are selected
+     * like in the walk.
+     *
+     * @param folder the folder
+     * @param parentChain the filter chain of the parent folder
+     * @param guard prevents visiting a folder twice
+     * @param digest receives the paths, sizes and modification times
+     * @param level the current hierarchy level
+     * @throws FileSystemException if the folder could not be read
+     */
+    private void fingerprint(FileObject folder, FilterChain parentChain, TraversalGuard guard,
+            MessageDigest digest, int level) throws FileSystemException {
+        folder.refresh();
+        FilterChain chain = parentChain.enter(folder);
+        FileObject[] children = folder.getChildren();
+        for (FileObject child : children) {
+            StringBuilder sb = new StringBuilder(child.getName().getPath());
+            if (child.getType() == FileType.FILE) {
+                sb.append('|').append(child.getContent().getSize());
+                sb.append('|').append(child.getContent().getLastModifiedTime());
+            }
+            sb.append('\n');
+            digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+            if (child.getType() == FileType.FOLDER && (maxLevel < 0 || level + 1 < maxLevel)
+                    && chain.accept(child) && guard.accept(child)) {
+                fingerprint(child, chain, guard, digest, level + 1);
+            }
+        }
+    }
+
+    /**
+     * Sets the cache sharing loaded templates with other generators.
+     *
+     * @param templateCache the cache, null to load the template for this
+     * generator only
+     */
+    void setTemplateCache(final TemplateCache templateCache) {
+        this.templateCache = templateCache;
+    }
+
+    /**
+     * Divides the threads and the read-ahead budget by the number of jobs
+     * running at the same time, so the jobs of a batch file together stay
+     * within the limits of one generator. Every job keeps at least one thread
+     * of each kind.
+     *
+     * @param jobs the number of jobs running at the same time
+     * @throws IllegalArgumentException if jobs is less than 1
+     */
+    void shareLimits(final int jobs) {
+        Assert.isTrue(jobs > 0, "jobs must be greater than zero.");
+        parseThreads = Math.max(1, parseThreads / jobs);
+        ioThreads = Math.max(1, ioThreads / jobs);
+        if (readAhead > 0) {
+            readAhead = Math.max(1, readAhead / jobs);
+        }
+        readAheadBudget = readAheadBudget / jobs;
+        int writers = writerThreads > 0 ? writerThreads : BundleWikiWriter.DEFAULT_WRITER_THREADS;
+        writerThreads = Math.max(1, writers / jobs);
+    }
+
+    /**
+     * Sets the cache keeping the results of parsed documents.
+     *
+     * @param parseCache the cache, null to parse every document
+     */
+    void setParseCache(final ParseCache parseCache) {
+        this.parseCache = parseCache;
+    }
+
+    /**
+     * Creates the WikiWriter for the configured output mode.
+     *
+     * @param index the search index to embed, can be null
+     * @return the WikiWriter
+     * @throws IOException if the search plugin could not be loaded
+     */
+    private WikiWriter createWikiWriter(SearchIndex index) throws IOException {
+        File result = new File(resultFile.getName().getPath());
+        WikiWriter writer;
+        if (OUTPUTMODE_TID.equals(outputMode)) {
+            TidFolderWikiWriter tidWriter = new TidFolderWikiWriter(result);
+            tidWriter.setSearchIndex(index);
+            tidWriter.setEvents(events);
+            writer = tidWriter;
+        } else if (OUTPUTMODE_BUNDLES.equals(outputMode)) {
+            TemplateRenderer renderer = new TemplateRenderer(templateFile, templateCache);
+            renderer.setSearchIndex(index);
+            renderer.setEvents(events);
+            BundleWikiWriter bundleWriter = new BundleWikiWriter(renderer, result, rootFolder.getName().getPath());
+            bundleWriter.setEvents(events);
+            bundleWriter.setBundleSize(bundleSize);
+            bundleWriter.setFsync(fsync);
+            bundleWriter.setCompressions(compressions);
+            if (writerThreads > 0) {
+                bundleWriter.setWriterThreads(writerThreads);
+            }
+            writer = bundleWriter;
+        } else {
+            TemplateRenderer renderer = new TemplateRenderer(templateFile, templateCache);
+            renderer.setSearchIndex(index);
+            renderer.setEvents(events);
+            HtmlWikiWriter htmlWriter = new HtmlWikiWriter(renderer, result);
+            htmlWriter.setEvents(events);
+            htmlWriter.setFsync(fsync);
+            htmlWriter.setCompressions(compressions);
+            writer = htmlWriter;
+        }
+        return writer;
+    }
+
+    /**
+     * Rebuilds the served TiddlyWiki if the root folder changed.
+     */
+    private final class Refresher implements Runnable {
+
+        /**
+         * Renders the TiddlyWiki.
+         */
+        private final TemplateRenderer renderer;
+
+        /**
+         * Serves the TiddlyWiki.
+         */
+        private final WikiServer server;
+
+        /**
+         * The fingerprint of the root folder of the last build.
+         */
+        private String lastFingerprint = null;
+
+        /**
+         * The time of the last modification of the template file of the last
+         * build.
+         */
+        private long lastTemplateModified = -1;
+
+        /**
+         * Creates a new <code>Refresher</code>.
+         */
+        Refresher(TemplateRenderer renderer, WikiServer server) {
+            this.renderer = renderer;
+            this.server = server;
+        }
+
+        @Override
+        public void run() {
+            try {
+                String current = fingerprint();
+                if (!current.equals(lastFingerprint)) {
+                    LOGGER.info("Changes detected in {}.", rootFolder.getName().getPath());
+                    rebuild(current);
+                }
+            } catch (Exception ex) {
+                LOGGER.error("Rebuild failed, still serving the previous TiddlyWiki: " + ex.getMessage(), ex);
+            }
+        }
+
+        /**
+         * Walks the root folder and publishes the TiddlyWiki.
+         *
+         * @param fingerprint the fingerprint of the root folder before the walk
+         * @throws IOException if operation failed
+         */
+        void rebuild(String fingerprint) throws IOException {
+            long templateModified = templateModified();
+            if (lastTemplateModified >= 0 && templateModified != lastTemplateModified) {
+                LOGGER.info("Template {} changed, reloading.", templateFile.getName().getBaseName());
+                renderer.reload();
+            }
+            SearchIndexBuilder indexBuilder = searchIndex ? new SearchIndexBuilder() : null;
+            TiddlyWiki tw = walkFileTree(indexBuilder);
+            SearchIndex index = buildSearchIndex(tw, indexBuilder);
+            try {
+                renderer.setSearchIndex(index);
+                // The snapshot is rendered into memory, the index file is not read afterwards.
+                server.update(tw);
+            } finally {
+                renderer.setSearchIndex(null);
+                if (index != null) {
+                    index.delete();
+                }
+            }
+            events.phase(GeneratorEvents.PHASE_IDLE);
+            lastFingerprint = fingerprint;
+            lastTemplateModified = templateModified;
+        }
+    }
+
     /**
      * Prints a help message about how to use the class.
      *
@@ -195,9 +942,40 @@ public final class TiddlyWikiGenerator {
         sb.append(newline);
         sb.append("rootFolder = The absolute or relative path to the folder containing the content. Default: Use the current folder.").append(newline);
         sb.append("templateFile = The absolute or relative path to a template file. Default: Lookup for file default-template.html in the current folder or classpath.").append(newline);
-        sb.append("resultFile = The absolute or relative path to the result file. Default: Write the file index.html to the current folder.").append(newline);
+        sb.append("resultFile = The absolute or relative path to the result file or folder (outputMode tid). Default: Write the file index.html or the folder wiki to the current folder.").append(newline);
         sb.append("maxLevel = Defines the maximum level walking trough the file system hierarchy. Default: Lookup the complete hierarchy of folders.").append(newline);
         sb.append("includePattern = Defines a regular expression to select files. Default: Select all files and folders.").append(newline);
+        sb.append("include = Comma separated list of glob patterns selecting files, like *.md,docs/**/*.pdf. Default: Select all files.").append(newline);
+        sb.append("exclude = Comma separated list of glob patterns excluding files and folders (with trailing /), like *.tmp,archive/. Default: None.").append(newline);
+        sb.append("ignoreFiles = Comma separated list of file names with exclude patterns in .gitignore syntax read in every folder. Default: .twignore.").append(newline);
+        sb.append("maxFileSize = Maximum size of a file in bytes, K, M or G, like 20M. Default: No limit.").append(newline);
+        sb.append("maxFileAge = Maximum number of days since the last modification of a file. Default: No limit.").append(newline);
+        sb.append("followSymlinks = true follows symbolic links, every folder is walked only once. Default: true.").append(newline);
+        sb.append("oneFileSystem = true skips folders on other file systems than the rootFolder. Default: false.").append(newline);
+        sb.append("schedule = tree processes the documents in the order of the folders, recent processes documents marked with default: yes and recently modified documents first. Default: tree.").append(newline);
+        sb.append("timeBudget = Seconds available for walking the rootFolder, documents not started within the budget are linked without content. Default: No limit.").append(newline);
+        sb.append("outputMode = html writes one single HTML file, bundles writes a small HTML file and lazily loaded Tiddler bundles, tid writes a TiddlyWiki folder with one .tid file per Tiddler. Default: html.").append(newline);
+        sb.append("bundleSize = Number of Tiddlers per bundle for outputMode bundles. Default: One bundle per top-level folder.").append(newline);
+        sb.append("writerThreads = Number of threads writing the output. Default: Number of processors, at most 4.").append(newline);
+        sb.append("fsync = true forces the result files to the storage device before they replace the previous files. Default: false.").append(newline);
+        sb.append("compress = Comma separated list of precompressed variants written next to the result files, supported: gzip, zstd. Default: None.").append(newline);
+        sb.append("serve = Port serving the TiddlyWiki from memory over HTTP instead of writing the result file, requires outputMode html. Default: Write the result file.").append(newline);
+        sb.append("serveAddress = Host name or IP address serving the TiddlyWiki, like 0.0.0.0 for all network interfaces. Default: The loopback address.").append(newline);
+        sb.append("refreshInterval = Seconds between two checks of the rootFolder for changes while serving, 0 disables the checks. Default: 10.").append(newline);
+        sb.append("batchFile = The absolute or relative path to a file describing one job per line with the arguments above, like -rootFolder=<value> -resultFile=<value>. The arguments of the command line are the defaults of all jobs. Default: Generate one TiddlyWiki.").append(newline);
+        sb.append("parallelism = Maximum number of jobs of the batchFile running at the same time. The threads and the readAheadBudget are divided between them. Default: Half the number of processors.").append(newline);
+        sb.append("parsers = Comma separated list of enabled parsers, supported: all, markdown, text, pdf, office, html, xml, epub, mail, image, audio. Default: all.").append(newline);
+        sb.append("readAhead = Number of documents read by background threads while the current document is parsed, 0 disables reading ahead. Default: 8.").append(newline);
+        sb.append("readAheadBudget = Maximum number of bytes read ahead, K, M or G, like 64M. Larger documents are read while parsing. Default: 32M.").append(newline);
+        sb.append("mapThreshold = Minimum size of a local file mapped into memory instead of being read through a stream, K, M or G, like 4M. 0 disables mapping. Default: 1M.").append(newline);
+        sb.append("progress = Seconds between two reports of the parsed files, bytes, throughput, estimated remaining time and files in flight on the console, 0 disables the reports. Default: 0.").append(newline);
+        sb.append("statusFile = The absolute or relative path to a properties file replaced with the progress at every report and when parsing finished. Default: None.").append(newline);
+        sb.append("retryQuarantined = true parses the documents again which failed to parse or took too long to parse in a previous run, they are kept in the quarantine file next to the resultFile and linked without content otherwise. Default: false.").append(newline);
+        sb.append("quarantineTime = Seconds of parsing putting a document into quarantine for the next runs, 0 puts only documents failed to parse into quarantine. Default: 0.").append(newline);
+        sb.append("parseThreads = Number of threads parsing documents. Default: Number of processors, at most 4.").append(newline);
+        sb.append("ioThreads = Maximum number of threads reading documents ahead, the number of concurrent reads is adapted to the read latency. Default: 8.").append(newline);
+        sb.append("resume = true records the parsed documents in a journal next to the resultFile and continues an interrupted run from the journal, the journal is deleted after the resultFile was written. Default: false.").append(newline);
+        sb.append("searchIndex = true embeds a full text search index and a search plugin into the TiddlyWiki. Default: false.").append(newline);
         sb.append(newline);
         sb.append("Example: ").append(newline);
         sb.append("tw -rootFolder=<value> -templateFile=<value> -resultFile=<value> ").append(newline);
@@ -227,6 +1005,10 @@ public final class TiddlyWikiGenerator {
     private void initWorkingFolder() throws FileSystemException {
         String workingFolderName = System.getProperty("working.dir");
         LOGGER.trace("workingFolderName= {}.", workingFolderName);
+        if (workingFolderName == null || workingFolderName.isEmpty()) {
+            workingFolder = null;
+            return;
+        }
         workingFolder = resolveFile(workingFolderName);
         if (!workingFolder.exists()) {
             workingFolder = null;
@@ -242,7 +1024,7 @@ public final class TiddlyWikiGenerator {
     private void initResultFileArgument(Map<String, String> arguments) throws FileSystemException {
         String resultFileName = arguments.get(RESULTFILE_ARGUMENT);
         if (resultFileName == null || resultFileName.isEmpty()) {
-            resultFileName = "index.html";
+            resultFileName = OUTPUTMODE_TID.equals(outputMode) ? "wiki" : "index.html";
         }
         LOGGER.trace("resultFile= {}.", resultFileName);
         resultFile = resolveFile(resultFileName);
@@ -275,6 +1057,39 @@ public final class TiddlyWikiGenerator {
         }
     }
 
+    /**
+     * Lookup and prepare the arguments "batchFile" and "parallelism".
+     *
+     * @param arguments a Map containing all arguments
+     * @return true if a batch file is used
+     * @throws FileSystemException if operation failed
+     * @throws IllegalArgumentException if the batch file does not exist or
+     * parallelism is invalid
+     */
+    private boolean initBatchArguments(Map<String, String> arguments) throws FileSystemException {
+        String batchFileName = arguments.get(BATCHFILE_ARGUMENT);
+        LOGGER.trace("batchFile= {}.", batchFileName);
+        if (batchFileName == null || batchFileName.isEmpty()) {
+            return false;
+        }
+        FileObject batch = resolveFile(batchFileName);
+        if (!batch.exists()) {
+            throw new IllegalArgumentException(batchFileName + " doesn't exist.");
+        }
+        if (arguments.containsKey(SERVE_ARGUMENT)) {
+            throw new IllegalArgumentException("serve is not supported with batchFile.");
+        }
+        parallelism = parseIntArgument(arguments, PARALLELISM_ARGUMENT, parallelism);
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(parallelism + " is an invalid value for " + PARALLELISM_ARGUMENT + ".");
+        }
+        batchFile = new File(batch.getName().getPath());
+        batchDefaults = new HashMap<String, String>(arguments);
+        batchDefaults.remove(BATCHFILE_ARGUMENT);
+        batchDefaults.remove(PARALLELISM_ARGUMENT);
+        return true;
+    }
+
     /**
      * Lookup and prepare argument "rootFolder".
      *
@@ -325,6 +1140,268 @@ public final class TiddlyWikiGenerator {
 
     }
 
+    /**
+     * Lookup and test the arguments "include", "exclude", "ignoreFiles",
+     * "maxFileSize", "maxFileAge", "followSymlinks" and "oneFileSystem" and
+     * creates the filter chain.
+     *
+     * @param arguments a Map containing all arguments
+     * @throws IllegalArgumentException if a pattern or number is invalid
+     */
+    private void initFilterArguments(Map<String, String> arguments) {
+        filterChain = new FilterChain(rootFolder);
+        filterChain.setIncludePattern(includePattern);
+        String includeValue = arguments.get(INCLUDE_ARGUMENT);
+        LOGGER.trace("include= {}.", includeValue);
+        filterChain.addIncludes(includeValue);
+        String excludeValue = arguments.get(EXCLUDE_ARGUMENT);
+        LOGGER.trace("exclude= {}.", excludeValue);
+        filterChain.addExcludes(excludeValue);
+        String ignoreFilesValue = arguments.get(IGNOREFILES_ARGUMENT);
+        LOGGER.trace("ignoreFiles= {}.", ignoreFilesValue);
+        filterChain.setIgnoreFileNames(ignoreFilesValue);
+        filterChain.setMaxSize(parseSizeArgument(arguments, MAXFILESIZE_ARGUMENT));
+        filterChain.setMaxAge(parseIntArgument(arguments, MAXFILEAGE_ARGUMENT, -1));
+        String followSymlinksValue = arguments.get(FOLLOWSYMLINKS_ARGUMENT);
+        LOGGER.trace("followSymlinks= {}.", followSymlinksValue);
+        if (followSymlinksValue != null && !followSymlinksValue.isEmpty()) {
+            followSymlinks = Boolean.parseBoolean(followSymlinksValue.trim());
+        }
+        String oneFileSystemValue = arguments.get(ONEFILESYSTEM_ARGUMENT);
+        LOGGER.trace("oneFileSystem= {}.", oneFileSystemValue);
+        if (oneFileSystemValue != null && !oneFileSystemValue.isEmpty()) {
+            oneFileSystem = Boolean.parseBoolean(oneFileSystemValue.trim());
+        }
+    }
+
+    /**
+     * Parses an optional argument as size in bytes with an optional unit K, M
+     * or G, like "20M".
+     *
+     * @param arguments a Map containing all arguments
+     * @param name the name of the argument
+     * @return the size in bytes or -1 if the argument is not provided
+     * @throws IllegalArgumentException if the value is not a size
+     */
+    private long parseSizeArgument(Map<String, String> arguments, String name) {
+        String value = arguments.get(name);
+        LOGGER.trace("{}= {}.", name, value);
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        String number = value.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+        int index = "KMG".indexOf(number.charAt(number.length() - 1));
+        if (index >= 0) {
+            unit = 1L << (10 * (index + 1));
+            number = number.substring(0, number.length() - 1);
+        }
+        try {
+            return Long.parseLong(number.trim()) * unit;
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(value + " is an invalid value for " + name + ".");
+        }
+    }
+
+    /**
+     * Lookup and test the arguments "schedule" and "timeBudget".
+     *
+     * @param arguments a Map containing all arguments
+     * @throws IllegalArgumentException if the schedule is unknown or the
+     * budget is not a number
+     */
+    private void initScheduleArguments(Map<String, String> arguments) {
+        String scheduleValue = arguments.get(SCHEDULE_ARGUMENT);
+        LOGGER.trace("schedule= {}.", scheduleValue);
+        if (scheduleValue != null && !scheduleValue.isEmpty()) {
+            if (!FilesystemTreeWalker.SCHEDULE_TREE.equals(scheduleValue)
+                    && !FilesystemTreeWalker.SCHEDULE_RECENT.equals(scheduleValue)) {
+                throw new IllegalArgumentException(scheduleValue + " is an unknown schedule.");
+            }
+            schedule = scheduleValue;
+        }
+        timeBudget = parseIntArgument(arguments, TIMEBUDGET_ARGUMENT, timeBudget);
+    }
+
+    /**
+     * Lookup and test the argument "resume".
+     *
+     * @param arguments a Map containing all arguments
+     */
+    private void initResumeArgument(Map<String, String> arguments) {
+        String resumeValue = arguments.get(RESUME_ARGUMENT);
+        LOGGER.trace("resume= {}.", resumeValue);
+        if (resumeValue != null && !resumeValue.isEmpty()) {
+            resume = Boolean.parseBoolean(resumeValue.trim());
+        }
+    }
+
+    /**
+     * Lookup and test the arguments "readAhead", "readAheadBudget" and
+     * "mapThreshold".
+     *
+     * @param arguments a Map containing all arguments
+     * @throws IllegalArgumentException if a value is not a number
+     */
+    private void initReadAheadArguments(Map<String, String> arguments) {
+        readAhead = parseIntArgument(arguments, READAHEAD_ARGUMENT, readAhead);
+        long budget = parseSizeArgument(arguments, READAHEADBUDGET_ARGUMENT);
+        if (budget >= 0) {
+            readAheadBudget = budget;
+        }
+        long threshold = parseSizeArgument(arguments, MAPTHRESHOLD_ARGUMENT);
+        if (threshold >= 0) {
+            mapThreshold = threshold;
+        }
+    }
+
+    /**
+     * Lookup and test the arguments "progress" and "statusFile".
+     *
+     * @param arguments a Map containing all arguments
+     * @throws IllegalArgumentException if progress is not a number or the
+     * status file is not a local file
+     * @throws FileSystemException if the status file could not be resolved
+     */
+    private void initProgressArguments(Map<String, String> arguments) throws FileSystemException {
+        progress = parseIntArgument(arguments, PROGRESS_ARGUMENT, progress);
+        if (progress < 0) {
+            throw new IllegalArgumentException(progress + " is an invalid value for " + PROGRESS_ARGUMENT + ".");
+        }
+        String statusFileName = arguments.get(STATUSFILE_ARGUMENT);
+        LOGGER.trace("statusFile= {}.", statusFileName);
+        if (statusFileName != null && !statusFileName.isEmpty()) {
+            FileObject status = resolveFile(statusFileName);
+            if (!"file".equals(status.getName().getScheme())) {
+                throw new IllegalArgumentException(statusFileName + " is not a local file.");
+            }
+            statusFile = new File(status.getName().getPath());
+        }
+    }
+
+    /**
+     * Lookup and test the arguments "retryQuarantined" and "quarantineTime".
+     *
+     * @param arguments a Map containing all arguments
+     * @throws IllegalArgumentException if quarantineTime is not a number
+     */
+    private void initQuarantineArguments(Map<String, String> arguments) {
+        String retryValue = arguments.get(RETRYQUARANTINED_ARGUMENT);
+        LOGGER.trace("retryQuarantined= {}.", retryValue);
+        if (retryValue != null && !retryValue.isEmpty()) {
+            retryQuarantined = Boolean.parseBoolean(retryValue.trim());
+        }
+        quarantineTime = parseIntArgument(arguments, QUARANTINETIME_ARGUMENT, quarantineTime);
+        if (quarantineTime < 0) {
+            throw new IllegalArgumentException(quarantineTime + " is an invalid value for "
+                    + QUARANTINETIME_ARGUMENT + ".");
+        }
+    }
+
+    /**
+     * Lookup and test the arguments "parseThreads" and "ioThreads".
+     *
+     * @param arguments a Map containing all arguments
+     * @throws IllegalArgumentException if a value is invalid
+     */
+    private void initThreadsArguments(Map<String, String> arguments) {
+        parseThreads = parseIntArgument(arguments, PARSETHREADS_ARGUMENT, parseThreads);
+        if (parseThreads < 1) {
+            throw new IllegalArgumentException(parseThreads + " is an invalid value for "
+                    + PARSETHREADS_ARGUMENT + ".");
+        }
+        ioThreads = parseIntArgument(arguments, IOTHREADS_ARGUMENT, ioThreads);
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException(ioThreads + " is an invalid value for " + IOTHREADS_ARGUMENT + ".");
+        }
+    }
+
+    /**
+     * Lookup and test the argument "parsers".
+     *
+     * @param arguments a Map containing all arguments
+     * @throws IllegalArgumentException if a parser is unknown
+     */
+    private void initParsersArgument(Map<String, String> arguments) {
+        String parsersValue = arguments.get(PARSERS_ARGUMENT);
+        LOGGER.trace("parsers= {}.", parsersValue);
+        parserRegistry = ParserRegistry.getInstance(parsersValue);
+    }
+
+    /**
+     * Lookup and test the arguments "outputMode", "bundleSize",
+     * "writerThreads", "fsync", "compress", "searchIndex", "serve",
+     * "serveAddress" and "refreshInterval".
+     *
+     * @param arguments a Map containing all arguments
+     * @throws IllegalArgumentException if the outputMode is unknown, a number
+     * is invalid, a compression is not supported or the serveAddress is
+     * unknown
+     */
+    private void initOutputArguments(Map<String, String> arguments) {
+        String outputModeValue = arguments.get(OUTPUTMODE_ARGUMENT);
+        LOGGER.trace("outputMode= {}.", outputModeValue);
+        if (outputModeValue != null && !outputModeValue.isEmpty()) {
+            if (!OUTPUTMODE_HTML.equals(outputModeValue) && !OUTPUTMODE_BUNDLES.equals(outputModeValue)
+                    && !OUTPUTMODE_TID.equals(outputModeValue)) {
+                throw new IllegalArgumentException(outputModeValue + " is an unknown outputMode.");
+            }
+            outputMode = outputModeValue;
+        }
+        bundleSize = parseIntArgument(arguments, BUNDLESIZE_ARGUMENT, bundleSize);
+        writerThreads = parseIntArgument(arguments, WRITERTHREADS_ARGUMENT, writerThreads);
+        String fsyncValue = arguments.get(FSYNC_ARGUMENT);
+        LOGGER.trace("fsync= {}.", fsyncValue);
+        if (fsyncValue != null && !fsyncValue.isEmpty()) {
+            fsync = Boolean.parseBoolean(fsyncValue.trim());
+        }
+        String compressValue = arguments.get(COMPRESS_ARGUMENT);
+        LOGGER.trace("compress= {}.", compressValue);
+        compressions = Compression.parse(compressValue);
+        String searchIndexValue = arguments.get(SEARCHINDEX_ARGUMENT);
+        LOGGER.trace("searchIndex= {}.", searchIndexValue);
+        if (searchIndexValue != null && !searchIndexValue.isEmpty()) {
+            searchIndex = Boolean.parseBoolean(searchIndexValue.trim());
+        }
+        servePort = parseIntArgument(arguments, SERVE_ARGUMENT, servePort);
+        String serveAddressValue = arguments.get(SERVEADDRESS_ARGUMENT);
+        LOGGER.trace("serveAddress= {}.", serveAddressValue);
+        if (serveAddressValue != null && !serveAddressValue.isEmpty()) {
+            try {
+                serveAddress = InetAddress.getByName(serveAddressValue.trim());
+            } catch (UnknownHostException ex) {
+                throw new IllegalArgumentException(serveAddressValue + " is an unknown " + SERVEADDRESS_ARGUMENT + ".");
+            }
+        }
+        refreshInterval = parseIntArgument(arguments, REFRESHINTERVAL_ARGUMENT, refreshInterval);
+        if (servePort >= 0 && !OUTPUTMODE_HTML.equals(outputMode)) {
+            throw new IllegalArgumentException("serve requires outputMode " + OUTPUTMODE_HTML + ".");
+        }
+    }
+
+    /**
+     * Parses an optional argument as integer value.
+     *
+     * @param arguments a Map containing all arguments
+     * @param name the name of the argument
+     * @param defaultValue returned if the argument is not provided
+     * @return the value of the argument
+     * @throws IllegalArgumentException if the value is not a number
+     */
+    private int parseIntArgument(Map<String, String> arguments, String name, int defaultValue) {
+        String value = arguments.get(name);
+        LOGGER.trace("{}= {}.", name, value);
+        int result = defaultValue;
+        if (value != null && !value.isEmpty()) {
+            try {
+                result = Integer.parseInt(value.trim());
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(value + " is an invalid value for " + name + ".");
+            }
+        }
+        return result;
+    }
+
     /**
      * Resolves a FileObject with a given path.
      *
@@ -0,0 +1,151 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.common.Assert;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.commons.vfs2.FileObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Keeps a walk linear in the size of the real file tree. The guard checks
+ * every listed child of a folder before it is walked:</p>
+ * <ul>
+ * <li>Symbolic links are followed only if enabled, broken links are
+ * skipped.</li>
+ * <li>A folder is walked only once, identified by its file key (device and
+ * inode) or its real path, so symbolic link cycles and several links to the
+ * same folder never repeat a subtree.</li>
+ * <li>Folders on another file system than the root folder are skipped if
+ * enabled.</li>
+ * <li>Special files like named pipes, sockets and devices are always skipped,
+ * reading them could block forever.</li>
+ * </ul>
+ * <p>
+ * Only files of the local file system are checked, other files are always
+ * accepted.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FilesystemTreeWalker
+ */
+final class TraversalGuard {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(TraversalGuard.class);
+
+    /**
+     * true if symbolic links are followed.
+     */
+    private final boolean followSymlinks;
+
+    /**
+     * true if folders of other file systems are skipped.
+     */
+    private final boolean oneFileSystem;
+
+    /**
+     * The file store of the root folder, null if not local or not checked.
+     */
+    private FileStore rootStore = null;
+
+    /**
+     * The keys of all visited folders.
+     */
+    private final Set<Object> visited = new HashSet<Object>();
+
+    /**
+     * Creates a new <code>TraversalGuard</code> and marks the root folder as
+     * visited.
+     *
+     * @param rootFolder the root folder of the walk
+     * @param followSymlinks true to follow symbolic links
+     * @param oneFileSystem true to skip folders of other file systems
+     * @throws IOException if the attributes of the root folder could not be
+     * read
+     * @throws IllegalArgumentException if rootFolder is null
+     */
+    TraversalGuard(final FileObject rootFolder, final boolean followSymlinks, final boolean oneFileSystem)
+            throws IOException {
+        Assert.notNull(rootFolder);
+        this.followSymlinks = followSymlinks;
+        this.oneFileSystem = oneFileSystem;
+        Path root = toPath(rootFolder);
+        if (root != null) {
+            BasicFileAttributes attributes = Files.readAttributes(root, BasicFileAttributes.class);
+            visited.add(key(root, attributes));
+            if (oneFileSystem) {
+                rootStore = Files.getFileStore(root);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a child of a folder is walked.
+     *
+     * @param file the file or folder
+     * @return true if the file or folder is walked
+     */
+    boolean accept(final FileObject file) {
+        Path path = toPath(file);
+        if (path == null) {
+            return true;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+            if (attributes.isSymbolicLink()) {
+                if (!followSymlinks) {
+                    LOGGER.debug("{} skipped, symbolic link.", path);
+                    return false;
+                }
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            }
+            if (attributes.isOther()) {
+                LOGGER.info("{} skipped, special file.", path);
+                return false;
+            }
+            if (attributes.isDirectory()) {
+                if (rootStore != null && !rootStore.equals(Files.getFileStore(path))) {
+                    LOGGER.info("{} skipped, other file system.", path);
+                    return false;
+                }
+                if (!visited.add(key(path, attributes))) {
+                    LOGGER.info("{} skipped, folder already walked.", path);
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException ex) {
+            LOGGER.warn("{} skipped, because of {}.", path, ex.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Returns the key identifying a folder, the file key or the real path.
+     */
+    private static Object key(Path path, BasicFileAttributes attributes) throws IOException {
+        Object fileKey = attributes.fileKey();
+        return fileKey != null ? fileKey : path.toRealPath().toString();
+    }
+
+    /**
+     * Returns the path of a local file, null for files of other file systems.
+     */
+    private static Path toPath(FileObject file) {
+        if (!"file".equals(file.getName().getScheme())) {
+            return null;
+        }
+        return Paths.get(file.getName().getPath());
+    }
+}
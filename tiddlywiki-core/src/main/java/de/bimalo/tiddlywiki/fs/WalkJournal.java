@@ -0,0 +1,409 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.StreamUtilities;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Records the Tiddlers of parsed documents in a journal file while walking, so
+ * a walk interrupted by a crash can be resumed without parsing the documents
+ * again.</p>
+ * <p>
+ * Every record contains the path, the size and the time of the last
+ * modification of the document together with the Tiddler. The records are
+ * appended and written to the storage device at every checkpoint, after a
+ * number of records or some seconds. Each record carries its length and a
+ * checksum, a record torn by a crash ends the journal when it is loaded
+ * again.</p>
+ * <p>
+ * The journal header contains a signature of the walk, like the root folder
+ * and the enabled parsers. A journal of another walk is discarded.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FilesystemTreeWalker
+ */
+final class WalkJournal {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WalkJournal.class);
+
+    /**
+     * Identifies a journal file and its format.
+     */
+    private static final String MAGIC = "TWJ1";
+
+    /**
+     * Number of records between two checkpoints.
+     */
+    static final int CHECKPOINT_RECORDS = 100;
+
+    /**
+     * Maximum time between two checkpoints in milliseconds.
+     */
+    static final long CHECKPOINT_INTERVAL = 10000;
+
+    /**
+     * Marks a Tiddler as default Tiddler.
+     */
+    private static final int FLAG_DEFAULT = 1;
+
+    /**
+     * Marks a Tiddler as hidden.
+     */
+    private static final int FLAG_HIDDEN = 2;
+
+    /**
+     * The journal file.
+     */
+    private final File file;
+
+    /**
+     * The signature of the walk.
+     */
+    private final String signature;
+
+    /**
+     * The loaded records by path.
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * The file stream appending records, null if not opened.
+     */
+    private FileOutputStream fileOut = null;
+
+    /**
+     * Buffers the appended records, null if not opened.
+     */
+    private DataOutputStream out = null;
+
+    /**
+     * Number of records appended since the last checkpoint.
+     */
+    private int pendingRecords = 0;
+
+    /**
+     * Time of the last checkpoint.
+     */
+    private long lastCheckpoint = 0;
+
+    /**
+     * Creates a new <code>WalkJournal</code>.
+     *
+     * @param file the journal file
+     * @param signature the signature of the walk, like the root folder and the
+     * enabled parsers
+     * @throws IllegalArgumentException if an argument is null
+     */
+    WalkJournal(final File file, final String signature) {
+        Assert.notNull(file);
+        Assert.notNull(signature);
+        this.file = file;
+        this.signature = signature;
+    }
+
+    /**
+     * Loads the records of an existing journal of the same walk and opens the
+     * journal to append new records. A journal of another walk is replaced.
+     *
+     * @return number of loaded records
+     * @throws IOException if the journal could not be opened
+     */
+    synchronized int open() throws IOException {
+        long validLength = file.isFile() ? load() : -1;
+        if (validLength < 0) {
+            entries.clear();
+        } else if (validLength < file.length()) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(validLength);
+            } finally {
+                raf.close();
+            }
+        }
+        fileOut = new FileOutputStream(file, validLength >= 0);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        if (validLength < 0) {
+            out.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+            writeString(out, signature);
+            checkpoint();
+        }
+        lastCheckpoint = System.currentTimeMillis();
+        return entries.size();
+    }
+
+    /**
+     * Looks up the Tiddler of an unchanged document.
+     *
+     * @param path the path of the document
+     * @param size the size of the document
+     * @param lastModified the time of the last modification of the document
+     * @return the Tiddler or null if the document is unknown or changed
+     */
+    synchronized Tiddler lookup(String path, long size, long lastModified) {
+        Entry entry = entries.get(path);
+        if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+            return null;
+        }
+        return entry.tiddler;
+    }
+
+    /**
+     * Appends the Tiddler of a parsed document and writes a checkpoint if
+     * necessary.
+     *
+     * @param path the path of the document
+     * @param size the size of the document
+     * @param lastModified the time of the last modification of the document
+     * @param tiddler the Tiddler of the document
+     * @throws IOException if the record could not be written
+     * @throws IllegalStateException if the journal is not opened
+     */
+    synchronized void append(String path, long size, long lastModified, Tiddler tiddler) throws IOException {
+        Assert.isTrue(out != null, "The journal is not opened.");
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        DataOutputStream record = new DataOutputStream(buffer);
+        writeString(record, path);
+        record.writeLong(size);
+        record.writeLong(lastModified);
+        writeTiddler(record, tiddler);
+        record.flush();
+        byte[] bytes = buffer.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        out.writeInt(bytes.length);
+        out.writeInt((int) crc.getValue());
+        out.write(bytes);
+        entries.put(path, new Entry(size, lastModified, tiddler));
+        pendingRecords++;
+        if (pendingRecords >= CHECKPOINT_RECORDS
+                || System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Writes all appended records to the storage device.
+     *
+     * @throws IOException if the records could not be written
+     */
+    synchronized void checkpoint() throws IOException {
+        if (out != null) {
+            out.flush();
+            fileOut.getFD().sync();
+            LOGGER.debug("Checkpoint with {} new records written to {}.", pendingRecords, file);
+            pendingRecords = 0;
+            lastCheckpoint = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Writes the last checkpoint and closes the journal, the file is kept to
+     * resume the walk.
+     */
+    synchronized void close() {
+        if (out != null) {
+            try {
+                checkpoint();
+            } catch (IOException ex) {
+                LOGGER.warn("Could not write checkpoint to {}: {}", file, ex.getMessage());
+            }
+            StreamUtilities.closeOutputStream(out);
+            out = null;
+            fileOut = null;
+        }
+    }
+
+    /**
+     * Closes and deletes the journal after the walk and the output were
+     * completed.
+     */
+    synchronized void delete() {
+        close();
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("Could not delete journal {}.", file);
+        }
+    }
+
+    /**
+     * Reads all complete records of the journal file.
+     *
+     * @return the length of the journal up to the last complete record or -1
+     * if the journal belongs to another walk
+     */
+    private long load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long validLength = -1;
+        try {
+            byte[] magic = new byte[MAGIC.length()];
+            in.readFully(magic);
+            String journalSignature = readString(in);
+            if (!Arrays.equals(magic, MAGIC.getBytes(StandardCharsets.US_ASCII))
+                    || !signature.equals(journalSignature)) {
+                LOGGER.info("Journal {} belongs to another walk and is replaced.", file);
+                return -1;
+            }
+            validLength = magic.length + 4 + journalSignature.getBytes(StandardCharsets.UTF_8).length;
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+                int checksum = in.readInt();
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if ((int) crc.getValue() != checksum) {
+                    LOGGER.warn("Journal {} ends with a damaged record.", file);
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                String path = readString(record);
+                long size = record.readLong();
+                long lastModified = record.readLong();
+                entries.put(path, new Entry(size, lastModified, readTiddler(record)));
+                validLength += 8 + length;
+            }
+            return validLength;
+        } catch (EOFException | NegativeArraySizeException ex) {
+            LOGGER.warn("Journal {} ends with an incomplete record.", file);
+            return validLength;
+        } finally {
+            StreamUtilities.closeInputStream(in);
+        }
+    }
+
+    /**
+     * Writes the attributes of a Tiddler.
+     */
+    private static void writeTiddler(DataOutputStream out, Tiddler tiddler) throws IOException {
+        writeString(out, tiddler.getTitle());
+        writeString(out, tiddler.getCreator());
+        writeString(out, tiddler.getModifier());
+        out.writeLong(tiddler.getCreateDate() != null ? tiddler.getCreateDate().getTime() : Long.MIN_VALUE);
+        out.writeLong(tiddler.getLastModifyDate() != null ? tiddler.getLastModifyDate().getTime() : Long.MIN_VALUE);
+        writeString(out, tiddler.getText());
+        writeString(out, tiddler.getPath());
+        writeString(out, tiddler.getContentType());
+        out.writeByte((tiddler.isDefault() ? FLAG_DEFAULT : 0) | (tiddler.isHidden() ? FLAG_HIDDEN : 0));
+        List<String> tags = tiddler.getTags();
+        out.writeInt(tags.size());
+        for (String tag : tags) {
+            writeString(out, tag);
+        }
+    }
+
+    /**
+     * Reads the attributes of a Tiddler.
+     */
+    private static Tiddler readTiddler(DataInputStream in) throws IOException {
+        Tiddler tiddler = new Tiddler(readString(in));
+        tiddler.setCreator(readString(in));
+        tiddler.setModifier(readString(in));
+        long createDate = in.readLong();
+        tiddler.setCreateDate(createDate != Long.MIN_VALUE ? new Date(createDate) : null);
+        long lastModifyDate = in.readLong();
+        tiddler.setLastModifyDate(lastModifyDate != Long.MIN_VALUE ? new Date(lastModifyDate) : null);
+        tiddler.setText(readString(in));
+        tiddler.setPath(readString(in));
+        tiddler.setContentType(readString(in));
+        int flags = in.readByte();
+        if ((flags & FLAG_DEFAULT) != 0) {
+            tiddler.defineDefault();
+        }
+        if ((flags & FLAG_HIDDEN) != 0) {
+            tiddler.hideTiddler();
+        }
+        int count = in.readInt();
+        List<String> tags = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            tags.add(readString(in));
+        }
+        tiddler.addTags(tags);
+        return tiddler;
+    }
+
+    /**
+     * Writes a string as length and UTF-8 bytes, null as length -1.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a string written by writeString.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A loaded record.
+     */
+    private static final class Entry {
+
+        /**
+         * The size of the document.
+         */
+        private final long size;
+
+        /**
+         * The time of the last modification of the document.
+         */
+        private final long lastModified;
+
+        /**
+         * The Tiddler of the document.
+         */
+        private final Tiddler tiddler;
+
+        /**
+         * Creates a new <code>Entry</code>.
+         */
+        Entry(long size, long lastModified, Tiddler tiddler) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.tiddler = tiddler;
+        }
+    }
+}
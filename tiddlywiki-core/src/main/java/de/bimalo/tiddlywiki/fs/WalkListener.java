@@ -0,0 +1,26 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import java.io.IOException;
+
+/**
+ * <p>
+ * Receives notifications while the <code>FilesystemTreeWalker</code> walks
+ * through the file system. This allows to process the Tiddlers in a streaming
+ * way without iterating the whole TiddlyWiki again afterwards.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FilesystemTreeWalker
+ */
+interface WalkListener {
+
+    /**
+     * Called after a Tiddler was added to the TiddlyWiki.
+     *
+     * @param tiddler the added Tiddler
+     * @param ordinal the position of the Tiddler in the list of all Tiddlers of
+     * the TiddlyWiki, starting with 0
+     * @throws IOException if the listener failed, this aborts the walk
+     */
+    void tiddlerAdded(Tiddler tiddler, int ordinal) throws IOException;
+}
@@ -0,0 +1,536 @@
+package de.bimalo.tiddlywiki.fs;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import de.bimalo.tiddlywiki.TiddlyWiki;
+import de.bimalo.tiddlywiki.common.Assert;
+import de.bimalo.tiddlywiki.common.DigestUtilities;
+import de.bimalo.tiddlywiki.common.NamedThreadFactory;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Serves a TiddlyWiki from memory with the HTTP server of the JDK. The
+ * TiddlyWiki is rendered once per {@link #update(TiddlyWiki)} into memory,
+ * precompressed variants are created in the same pass.</p>
+ * <p>
+ * Every representation has a strong ETag derived from the SHA-256 hash of its
+ * content. The server answers conditional requests
+ * (<code>If-None-Match</code>) with 304 and single byte ranges
+ * (<code>Range</code>, <code>If-Range</code>) of the uncompressed
+ * representation with 206. Requests are served from an immutable snapshot, so
+ * an update never blocks or disturbs running requests.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see InMemoryContent
+ */
+final class WikiServer {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WikiServer.class);
+
+    /**
+     * Pattern of a single byte range, like "bytes=0-499", "bytes=500-" or
+     * "bytes=-500".
+     */
+    private static final Pattern RANGE_PATTERN = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+    /**
+     * Formats dates for HTTP headers.
+     */
+    private static final DateTimeFormatter HTTP_DATE_FORMATTER
+            = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    /**
+     * Number of threads handling requests.
+     */
+    private static final int HANDLER_THREADS = 4;
+
+    /**
+     * Renders the TiddlyWiki.
+     */
+    private final TemplateRenderer renderer;
+
+    /**
+     * The compressions of the precompressed variants.
+     */
+    private final Set<Compression> compressions;
+
+    /**
+     * The HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Threads handling the requests.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The current snapshot, null until the first update.
+     */
+    private volatile Snapshot snapshot = null;
+
+    /**
+     * Creates a new <code>WikiServer</code> bound to the given port of the
+     * loopback address. The server is not started.
+     *
+     * @param port the port, 0 for any free port
+     * @param renderer renders the TiddlyWiki
+     * @param compressions the compressions of the precompressed variants
+     * @throws IOException if the port could not be bound
+     * @throws IllegalArgumentException if an argument is null
+     */
+    WikiServer(final int port, final TemplateRenderer renderer, final Set<Compression> compressions)
+            throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, renderer, compressions);
+    }
+
+    /**
+     * Creates a new <code>WikiServer</code> bound to the given address and
+     * port. The server is not started.
+     *
+     * @param address the address, like the loopback address to serve the
+     * local machine only
+     * @param port the port, 0 for any free port
+     * @param renderer renders the TiddlyWiki
+     * @param compressions the compressions of the precompressed variants
+     * @throws IOException if the port could not be bound
+     * @throws IllegalArgumentException if an argument is null
+     */
+    WikiServer(final InetAddress address, final int port, final TemplateRenderer renderer,
+            final Set<Compression> compressions) throws IOException {
+        Assert.notNull(address);
+        Assert.notNull(renderer);
+        Assert.notNull(compressions);
+        this.renderer = renderer;
+        this.compressions = compressions.isEmpty()
+                ? EnumSet.noneOf(Compression.class) : EnumSet.copyOf(compressions);
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/", new WikiHandler());
+        executor = Executors.newFixedThreadPool(HANDLER_THREADS, new NamedThreadFactory("tw-http", true));
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts the server.
+     */
+    void start() {
+        server.start();
+        LOGGER.info("Serving TiddlyWiki on {} port {}.", getAddress().getHostAddress(), getPort());
+    }
+
+    /**
+     * Stops the server.
+     */
+    void stop() {
+        server.stop(1);
+        executor.shutdownNow();
+        LOGGER.info("Server stopped.");
+    }
+
+    /**
+     * Returns the port the server is bound to.
+     *
+     * @return the port
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the address the server is bound to.
+     *
+     * @return the address
+     */
+    InetAddress getAddress() {
+        return server.getAddress().getAddress();
+    }
+
+    /**
+     * Returns the strong ETag of the uncompressed representation.
+     *
+     * @return the ETag or null before the first update
+     */
+    String getETag() {
+        Snapshot current = snapshot;
+        return current != null ? current.identity.etag : null;
+    }
+
+    /**
+     * Renders the TiddlyWiki into memory and publishes it. Running requests
+     * still use the previous snapshot.
+     *
+     * @param wiki the TiddlyWiki
+     * @return true if the content changed
+     * @throws IOException if the TiddlyWiki could not be rendered
+     */
+    boolean update(TiddlyWiki wiki) throws IOException {
+        long start = System.currentTimeMillis();
+        MessageDigest digest = DigestUtilities.newDigest();
+        InMemoryContent identity = new InMemoryContent();
+        Map<Compression, InMemoryContent> variantContents = new EnumMap<Compression, InMemoryContent>(Compression.class);
+        List<OutputStream> targets = new ArrayList<OutputStream>();
+        targets.add(new DigestOutputStream(identity, digest));
+        List<OutputStream> compressors = new ArrayList<OutputStream>();
+        for (Compression compression : compressions) {
+            InMemoryContent content = new InMemoryContent();
+            variantContents.put(compression, content);
+            OutputStream compressor = compression.createOutputStream(content);
+            compressors.add(compressor);
+            targets.add(compressor);
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(new TeeOutputStream(targets), StandardCharsets.UTF_8),
+                64 * 1024);
+        renderer.render(renderer.createModel(wiki, wiki.listTiddlers()), out);
+        out.flush();
+        for (OutputStream compressor : compressors) {
+            compressor.close();
+        }
+
+        String hash = DigestUtilities.toHex(digest.digest());
+        Snapshot previous = snapshot;
+        if (previous != null && previous.hash.equals(hash)) {
+            LOGGER.info("TiddlyWiki unchanged, ETag {} kept.", previous.identity.etag);
+            return false;
+        }
+        Map<Compression, Representation> variants = new EnumMap<Compression, Representation>(Compression.class);
+        for (Map.Entry<Compression, InMemoryContent> entry : variantContents.entrySet()) {
+            Compression compression = entry.getKey();
+            variants.put(compression, new Representation(entry.getValue(),
+                    "\"" + hash + compression.getExtension().replace('.', '-') + "\""));
+        }
+        snapshot = new Snapshot(hash, new Representation(identity, "\"" + hash + "\""), variants,
+                System.currentTimeMillis());
+        LOGGER.info("TiddlyWiki rendered into memory in {} ms: {} bytes, ETag {}.",
+                System.currentTimeMillis() - start, identity.length(), snapshot.identity.etag);
+        return true;
+    }
+
+    /**
+     * Selects the representation for a request. Compressed variants are
+     * only used without Range header.
+     *
+     * @param current the current snapshot
+     * @param acceptEncoding the Accept-Encoding header, can be null
+     * @param ranged true if the request contains a Range header
+     * @return the compression of the selected variant, null for the
+     * uncompressed representation
+     */
+    static Compression selectEncoding(Snapshot current, String acceptEncoding, boolean ranged) {
+        Compression selected = null;
+        if (!ranged && acceptEncoding != null) {
+            String accepted = acceptEncoding.toLowerCase(Locale.ROOT);
+            if (current.variants.containsKey(Compression.ZSTD) && accepts(accepted, "zstd")) {
+                selected = Compression.ZSTD;
+            } else if (current.variants.containsKey(Compression.GZIP) && accepts(accepted, "gzip")) {
+                selected = Compression.GZIP;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Checks if an Accept-Encoding header accepts the given coding. A coding
+     * with a quality of 0 or a malformed quality is not accepted.
+     */
+    private static boolean accepts(String acceptEncoding, String coding) {
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            if (parts[0].trim().equals(coding)) {
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim().replace(" ", "");
+                    if (param.startsWith("q=") && !(parseQuality(param.substring(2)) > 0d)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the quality of a coding.
+     *
+     * @return the quality or 0 if the value is not a number
+     */
+    private static double parseQuality(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException ex) {
+            return 0d;
+        }
+    }
+
+    /**
+     * Parses a position of a byte range.
+     *
+     * @return the position or Long.MAX_VALUE if it is too large for a long
+     */
+    private static long parseBytePosition(String digits) {
+        try {
+            return Long.parseLong(digits);
+        } catch (NumberFormatException ex) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Checks if an If-None-Match or If-Range header matches the ETag.
+     */
+    private static boolean matches(String header, String etag) {
+        for (String token : header.split(",")) {
+            String candidate = token.trim();
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Formats a date for HTTP headers.
+     */
+    private static String formatHttpDate(long time) {
+        return HTTP_DATE_FORMATTER.format(Instant.ofEpochMilli(time));
+    }
+
+    /**
+     * Handles all requests.
+     */
+    private final class WikiHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                handleRequest(exchange);
+            } catch (IOException ex) {
+                LOGGER.debug("Request {} failed: {}", exchange.getRequestURI(), ex.getMessage());
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Answers one request.
+         */
+        private void handleRequest(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            Headers requestHeaders = exchange.getRequestHeaders();
+            Headers responseHeaders = exchange.getResponseHeaders();
+            boolean head = "HEAD".equals(method);
+            if (!"/".equals(path) && !"/index.html".equals(path)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (!head && !"GET".equals(method)) {
+                responseHeaders.set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Snapshot current = snapshot;
+            if (current == null) {
+                responseHeaders.set("Retry-After", "5");
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            String rangeHeader = requestHeaders.getFirst("Range");
+            String ifRange = requestHeaders.getFirst("If-Range");
+            if (rangeHeader != null && ifRange != null && !matches(ifRange, current.identity.etag)) {
+                rangeHeader = null;
+            }
+            Compression encoding = selectEncoding(current, requestHeaders.getFirst("Accept-Encoding"),
+                    rangeHeader != null);
+            Representation representation = encoding != null ? current.variants.get(encoding) : current.identity;
+
+            responseHeaders.set("Content-Type", "text/html; charset=UTF-8");
+            responseHeaders.set("ETag", representation.etag);
+            responseHeaders.set("Last-Modified", formatHttpDate(current.created));
+            responseHeaders.set("Cache-Control", "no-cache");
+            responseHeaders.set("Vary", "Accept-Encoding");
+            responseHeaders.set("Accept-Ranges", "bytes");
+            if (encoding != null) {
+                responseHeaders.set("Content-Encoding", encoding == Compression.GZIP ? "gzip" : "zstd");
+            }
+
+            String ifNoneMatch = requestHeaders.getFirst("If-None-Match");
+            if (ifNoneMatch != null && matches(ifNoneMatch, representation.etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            long length = representation.content.length();
+            long offset = 0;
+            long count = length;
+            int status = 200;
+            if (rangeHeader != null) {
+                Matcher matcher = RANGE_PATTERN.matcher(rangeHeader.trim());
+                if (matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+                    long first;
+                    long last;
+                    if (matcher.group(1).isEmpty()) {
+                        long suffix = parseBytePosition(matcher.group(2));
+                        first = Math.max(0, length - suffix);
+                        last = length - 1;
+                    } else {
+                        first = parseBytePosition(matcher.group(1));
+                        last = matcher.group(2).isEmpty() ? length - 1
+                                : Math.min(parseBytePosition(matcher.group(2)), length - 1);
+                    }
+                    if (first >= length || last < first) {
+                        responseHeaders.set("Content-Range", "bytes */" + length);
+                        exchange.sendResponseHeaders(416, -1);
+                        return;
+                    }
+                    offset = first;
+                    count = last - first + 1;
+                    status = 206;
+                    responseHeaders.set("Content-Range", "bytes " + first + "-" + last + "/" + length);
+                }
+                // Multiple or malformed ranges are ignored, the complete content is sent.
+            }
+
+            if (head) {
+                responseHeaders.set("Content-Length", String.valueOf(count));
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, count == 0 ? -1 : count);
+            OutputStream body = exchange.getResponseBody();
+            representation.content.writeTo(body, offset, count);
+            body.flush();
+        }
+    }
+
+    /**
+     * An immutable rendered TiddlyWiki with all its representations.
+     */
+    static final class Snapshot {
+
+        /**
+         * SHA-256 hash of the uncompressed content.
+         */
+        private final String hash;
+
+        /**
+         * The uncompressed representation.
+         */
+        private final Representation identity;
+
+        /**
+         * The precompressed representations.
+         */
+        private final Map<Compression, Representation> variants;
+
+        /**
+         * Time when the snapshot was created.
+         */
+        private final long created;
+
+        /**
+         * Creates a new <code>Snapshot</code>.
+         */
+        Snapshot(String hash, Representation identity, Map<Compression, Representation> variants, long created) {
+            this.hash = hash;
+            this.identity = identity;
+            this.variants = variants;
+            this.created = created;
+        }
+    }
+
+    /**
+     * The content of one representation with its strong ETag.
+     */
+    static final class Representation {
+
+        /**
+         * The content.
+         */
+        private final InMemoryContent content;
+
+        /**
+         * The strong ETag, including the quotes.
+         */
+        private final String etag;
+
+        /**
+         * Creates a new <code>Representation</code>.
+         */
+        Representation(InMemoryContent content, String etag) {
+            this.content = content;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * Writes all bytes to several OutputStreams.
+     */
+    private static final class TeeOutputStream extends OutputStream {
+
+        /**
+         * The target streams.
+         */
+        private final List<OutputStream> targets;
+
+        /**
+         * Creates a new <code>TeeOutputStream</code>.
+         */
+        TeeOutputStream(List<OutputStream> targets) {
+            this.targets = targets;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            for (OutputStream target : targets) {
+                target.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (OutputStream target : targets) {
+                target.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            for (OutputStream target : targets) {
+                target.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.TiddlyWiki;
+import java.io.IOException;
+
+/**
+ * <p>
+ * Writes a generated <code>TiddlyWiki</code> to its final destination. Every
+ * output mode of the <code>TiddlyWikiGenerator</code> is represented by one
+ * implementation of this interface.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see TiddlyWikiGenerator
+ */
+interface WikiWriter {
+
+    /**
+     * Writes the given TiddlyWiki.
+     *
+     * @param wiki the TiddlyWiki to write
+     * @throws IOException if the TiddlyWiki could not be written
+     */
+    void write(TiddlyWiki wiki) throws IOException;
+}
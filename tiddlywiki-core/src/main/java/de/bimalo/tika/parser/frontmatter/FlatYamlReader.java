@@ -0,0 +1,401 @@
+package de.bimalo.tika.parser.frontmatter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Reads a Front Matter block written in a flat subset of YAML without
+ * yamlbeans. Front Matter blocks are usually small maps like title, tags,
+ * default and hide, so building a <code>YamlReader</code> for every document
+ * costs more than the block itself.</p>
+ * <p>
+ * The subset consists of one block starting with "---" and ending with "---"
+ * or "...", with keys at the beginning of a line and values, which are plain,
+ * single or double quoted scalars, flow lists like <code>[a, b]</code> or block
+ * lists with one item per line. Empty lines and comments are skipped. The
+ * result equals the map returned by yamlbeans: all values are Strings, an
+ * empty value is null and a later key replaces an earlier one.</p>
+ * <p>
+ * Anything else, like multi-line scalars, escape sequences, nested
+ * collections, anchors, tags, tabs or several blocks, is not read. In this
+ * case <code>read</code> returns null and the block has to be read by
+ * yamlbeans.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FrontMatterParser
+ */
+final class FlatYamlReader {
+
+    /**
+     * The Front Matter block.
+     */
+    private final String block;
+
+    /**
+     * The properties read so far.
+     */
+    private final Map<String, Object> properties = new HashMap<String, Object>();
+
+    /**
+     * The key of the last line if it had an empty value, null otherwise.
+     */
+    private String pendingKey = null;
+
+    /**
+     * The block list of the pending key, null if there is none.
+     */
+    private List<Object> blockList = null;
+
+    /**
+     * The indentation of the items of the block list.
+     */
+    private int blockListIndent = -1;
+
+    /**
+     * The last scalar read.
+     */
+    private String scalar = null;
+
+    /**
+     * Creates a new <code>FlatYamlReader</code>.
+     *
+     * @param block the Front Matter block including its delimiter lines
+     */
+    private FlatYamlReader(String block) {
+        this.block = block;
+    }
+
+    /**
+     * Reads the properties of a Front Matter block.
+     *
+     * @param block the Front Matter block including its delimiter lines
+     * @return the properties or null if the block is not written in the
+     * supported subset of YAML or has no properties
+     */
+    static Map<String, Object> read(String block) {
+        return new FlatYamlReader(block).read();
+    }
+
+    /**
+     * Reads the block line by line.
+     *
+     * @return the properties or null
+     */
+    private Map<String, Object> read() {
+        int length = block.length();
+        int start = 0;
+        boolean first = true;
+        boolean ended = false;
+        while (start < length) {
+            int eol = block.indexOf('\n', start);
+            int next = eol < 0 ? length : eol + 1;
+            int end = eol < 0 ? length : eol;
+            if (end > start && block.charAt(end - 1) == '\r') {
+                end--;
+            }
+            if (ended) {
+                return null;
+            }
+            if (first) {
+                if (!isDelimiter(start, end, '-')) {
+                    return null;
+                }
+                first = false;
+            } else if (isDelimiter(start, end, '-') || isDelimiter(start, end, '.')) {
+                ended = true;
+            } else if (!readLine(start, end)) {
+                return null;
+            }
+            start = next;
+        }
+        return ended && !properties.isEmpty() ? properties : null;
+    }
+
+    /**
+     * Reads a line between the delimiter lines.
+     *
+     * @return false if the line is not supported
+     */
+    private boolean readLine(int start, int end) {
+        int indent = skipSpaces(start, end);
+        if (indent == end || block.charAt(indent) == '#') {
+            return true;
+        }
+        if (block.charAt(indent) == '-' && (indent + 1 == end || block.charAt(indent + 1) == ' ')) {
+            return readListItem(indent - start, skipSpaces(indent + 1, end), end);
+        }
+        if (indent != start) {
+            return false;
+        }
+        pendingKey = null;
+        blockList = null;
+        return readEntry(start, end);
+    }
+
+    /**
+     * Reads a line with a key and a value.
+     *
+     * @return false if the line is not supported
+     */
+    private boolean readEntry(int start, int end) {
+        int colon = start;
+        while (colon < end && isKeyChar(block.charAt(colon), colon == start)) {
+            colon++;
+        }
+        if (colon == start || colon == end || block.charAt(colon) != ':'
+                || (colon + 1 < end && block.charAt(colon + 1) != ' ')) {
+            return false;
+        }
+        String key = block.substring(start, colon);
+        int from = skipSpaces(colon + 1, end);
+        if (from == end) {
+            properties.put(key, null);
+            pendingKey = key;
+            return true;
+        }
+        if (block.charAt(from) == '[') {
+            List<Object> values = new ArrayList<Object>();
+            if (!readFlowList(from + 1, end, values)) {
+                return false;
+            }
+            properties.put(key, values);
+            return true;
+        }
+        if (!readScalar(from, end)) {
+            return false;
+        }
+        properties.put(key, scalar);
+        return true;
+    }
+
+    /**
+     * Reads an item of a block list.
+     *
+     * @param indent the indentation of the item
+     * @return false if the line is not supported
+     */
+    private boolean readListItem(int indent, int from, int end) {
+        if (blockList == null) {
+            if (pendingKey == null) {
+                return false;
+            }
+            blockList = new ArrayList<Object>();
+            blockListIndent = indent;
+            properties.put(pendingKey, blockList);
+        } else if (indent != blockListIndent) {
+            return false;
+        }
+        if (from == end) {
+            blockList.add(null);
+            return true;
+        }
+        if (!readScalar(from, end)) {
+            return false;
+        }
+        blockList.add(scalar);
+        return true;
+    }
+
+    /**
+     * Reads a flow list up to the closing bracket, which must be on the same
+     * line.
+     *
+     * @param from the first character after the opening bracket
+     * @param values receives the items
+     * @return false if the list is not supported
+     */
+    private boolean readFlowList(int from, int end, List<Object> values) {
+        int pos = skipSpaces(from, end);
+        if (pos < end && block.charAt(pos) == ']') {
+            return isLineEnd(pos + 1, end);
+        }
+        while (pos < end) {
+            char c = block.charAt(pos);
+            int itemEnd;
+            if (c == '\'' || c == '"') {
+                itemEnd = readQuoted(pos, end);
+            } else {
+                itemEnd = readFlowPlain(pos, end);
+            }
+            if (itemEnd < 0) {
+                return false;
+            }
+            values.add(scalar);
+            pos = skipSpaces(itemEnd, end);
+            if (pos == end) {
+                return false;
+            }
+            if (block.charAt(pos) == ']') {
+                return isLineEnd(pos + 1, end);
+            }
+            if (block.charAt(pos) != ',') {
+                return false;
+            }
+            pos = skipSpaces(pos + 1, end);
+        }
+        return false;
+    }
+
+    /**
+     * Reads a scalar value filling the rest of the line.
+     *
+     * @return false if the scalar is not supported
+     */
+    private boolean readScalar(int from, int end) {
+        char c = block.charAt(from);
+        if (c == '\'' || c == '"') {
+            int quoteEnd = readQuoted(from, end);
+            return quoteEnd >= 0 && isLineEnd(quoteEnd, end);
+        }
+        if (isIndicator(c)) {
+            return false;
+        }
+        int valueEnd = from;
+        int pos = from;
+        while (pos < end) {
+            c = block.charAt(pos);
+            if (c == '#' && block.charAt(pos - 1) == ' ') {
+                break;
+            }
+            if (c == ':' && (pos + 1 == end || block.charAt(pos + 1) == ' ')) {
+                return false;
+            }
+            if (!isPrintable(c)) {
+                return false;
+            }
+            pos++;
+            if (c != ' ') {
+                valueEnd = pos;
+            }
+        }
+        scalar = block.substring(from, valueEnd);
+        return true;
+    }
+
+    /**
+     * Reads a plain item of a flow list.
+     *
+     * @return the index after the item or -1 if the item is not supported
+     */
+    private int readFlowPlain(int from, int end) {
+        if (isIndicator(block.charAt(from))) {
+            return -1;
+        }
+        int valueEnd = from;
+        int pos = from;
+        while (pos < end) {
+            char c = block.charAt(pos);
+            if (c == ',' || c == ']') {
+                break;
+            }
+            if (c == '[' || c == '{' || c == '}' || c == '#' || !isPrintable(c)) {
+                return -1;
+            }
+            if (c == ':' && (pos + 1 == end || block.charAt(pos + 1) == ' ')) {
+                return -1;
+            }
+            pos++;
+            if (c != ' ') {
+                valueEnd = pos;
+            }
+        }
+        scalar = block.substring(from, valueEnd);
+        return pos;
+    }
+
+    /**
+     * Reads a single or double quoted scalar on one line. Double quoted
+     * scalars with escape sequences are not supported.
+     *
+     * @return the index after the closing quote or -1 if the scalar is not
+     * supported
+     */
+    private int readQuoted(int from, int end) {
+        char quote = block.charAt(from);
+        StringBuilder escaped = null;
+        int segment = from + 1;
+        int pos = from + 1;
+        while (pos < end) {
+            char c = block.charAt(pos);
+            if (c == quote) {
+                if (quote == '\'' && pos + 1 < end && block.charAt(pos + 1) == '\'') {
+                    if (escaped == null) {
+                        escaped = new StringBuilder();
+                    }
+                    escaped.append(block, segment, pos + 1);
+                    pos += 2;
+                    segment = pos;
+                    continue;
+                }
+                if (escaped == null) {
+                    scalar = block.substring(from + 1, pos);
+                } else {
+                    scalar = escaped.append(block, segment, pos).toString();
+                }
+                return pos + 1;
+            }
+            if (c == '\\' && quote == '"' || !isPrintable(c)) {
+                return -1;
+            }
+            pos++;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if the line is a delimiter line of three characters
+     * followed by spaces only.
+     */
+    private boolean isDelimiter(int start, int end, char c) {
+        return end - start >= 3 && block.charAt(start) == c && block.charAt(start + 1) == c
+                && block.charAt(start + 2) == c && skipSpaces(start + 3, end) == end;
+    }
+
+    /**
+     * Returns true if the rest of a line is empty or a comment.
+     */
+    private boolean isLineEnd(int from, int end) {
+        int pos = skipSpaces(from, end);
+        return pos == end || (pos > from && block.charAt(pos) == '#');
+    }
+
+    /**
+     * Returns the index of the first character which is not a space.
+     */
+    private int skipSpaces(int from, int end) {
+        int pos = from;
+        while (pos < end && block.charAt(pos) == ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Returns true if the character may be part of a supported key.
+     */
+    private static boolean isKeyChar(char c, boolean first) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_'
+                || (!first && (c == '-' || c == '.'));
+    }
+
+    /**
+     * Returns true if the character has a special meaning at the beginning of
+     * a scalar.
+     */
+    private static boolean isIndicator(char c) {
+        return "-?:,[]{}#&*!|>'\"%@`".indexOf(c) >= 0;
+    }
+
+    /**
+     * Returns true if the character is supported within a scalar. Control
+     * characters, tabs and characters outside of the Basic Multilingual Plane
+     * are not.
+     */
+    private static boolean isPrintable(char c) {
+        return c >= ' ' && c != '\u007F' && (c < '\u0080' || c > '\u009F') && !Character.isSurrogate(c)
+                && c != '\uFEFF' && c < '\uFFFE';
+    }
+}
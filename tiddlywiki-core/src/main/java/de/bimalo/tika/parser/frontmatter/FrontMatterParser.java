@@ -5,31 +5,48 @@ import org.apache.tika.detect.AutoDetectReader;
 import org.apache.tika.detect.EncodingDetector;
 import org.apache.tika.exception.TikaException;
 import org.apache.tika.io.CloseShieldInputStream;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.mime.MediaType;
 import org.apache.tika.parser.AbstractEncodingDetectorParser;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.sax.XHTMLContentHandler;
+import org.apache.tika.utils.CharsetUtils;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 /**
  * <p>
  * This parser tries to detect and read a "Front Matter Block" in a text file.
  * The Front Matter Block must be written in YAML notation. A Front Matter Block
  * starts with "---" and also ends with "---". </p>
+ * <p>
+ * A stream backed by a local file, like <code>TikaInputStream.get(Path)</code>,
+ * is not read through the stream. The file is mapped into memory and decoded
+ * directly from the mapped buffer, which avoids copying large files through
+ * the Java heap.</p>
+ * <p>
+ * Front Matter blocks written in a flat subset of YAML are read by
+ * <code>FlatYamlReader</code>, all other blocks by yamlbeans.</p>
  *
  * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
  */
@@ -53,20 +70,9 @@ public class FrontMatterParser extends AbstractEncodingDetectorParser {
                     Arrays.asList(MEDIA_TYPE, MediaType.TEXT_PLAIN)));
 
     /**
-     * Regular expression indicating the start of a Front Matter block.
-     */
-    private static final Pattern FRONTMATTERBLOCK_REGEX_BEGIN
-            = Pattern.compile("^-{3}(\\s.*)?");
-    /**
-     * Regular expression indicating the end of a Front Matter block.
-     */
-    private static final Pattern FRONTMATTERBLOCK_REGEX_END
-            = Pattern.compile("^(-{3}|\\.{3})(\\s.*)?");
-
-    /**
-     * Platform dependent line separator.
+     * Number of characters decoded at once.
      */
-    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static final int CHUNK_SIZE = 8192;
 
     @Override
     public Set<MediaType> getSupportedTypes(ParseContext context) {
@@ -92,6 +98,12 @@ public class FrontMatterParser extends AbstractEncodingDetectorParser {
     @Override
     public void parse(InputStream stream, ContentHandler handler, Metadata metadata, ParseContext context) throws IOException, SAXException, TikaException {
 
+        TikaInputStream tis = TikaInputStream.cast(stream);
+        if (tis != null && tis.hasFile()) {
+            parseMapped(tis.getPath(), handler, metadata, context);
+            return;
+        }
+
         AutoDetectReader reader
                 = new AutoDetectReader(new CloseShieldInputStream(stream), metadata, getEncodingDetector(context));
 
@@ -99,27 +111,113 @@ public class FrontMatterParser extends AbstractEncodingDetectorParser {
         xhtml.startDocument();
         xhtml.startElement("p");
 
-        boolean inFrontMatterBlock = false;
-        StringBuilder frontMatterBlock = new StringBuilder();
-        String line = null;
+        FrontMatterScanner scanner = new FrontMatterScanner(xhtml);
+        char[] chunk = new char[CHUNK_SIZE];
+        int count;
+        while ((count = reader.read(chunk)) != -1) {
+            scanner.scan(chunk, 0, count);
+        }
+        scanner.finish();
+
+        endDocument(xhtml, scanner, reader.getCharset(), metadata);
+    }
+
+    /**
+     * Parses a local file mapped into memory. The encoding is detected like
+     * <code>AutoDetectReader</code> does and a byte order mark is skipped.
+     *
+     * @param path the path of the file
+     * @param handler receives the body text
+     * @param metadata receives the properties of the Front Matter block
+     * @param context the parse context
+     * @throws IOException if the file could not be mapped
+     * @throws SAXException if the content handler failed
+     * @throws TikaException if the encoding could not be detected
+     */
+    private void parseMapped(Path path, ContentHandler handler, Metadata metadata, ParseContext context)
+            throws IOException, SAXException, TikaException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), Integer.MAX_VALUE));
+            Charset charset = detectCharset(new ByteBufferInputStream(bytes.duplicate()), metadata,
+                    getEncodingDetector(context));
+
+            XHTMLContentHandler xhtml = new XHTMLContentHandler(handler, metadata);
+            xhtml.startDocument();
+            xhtml.startElement("p");
 
-        while ((line = reader.readLine()) != null) {
-            if (inFrontMatterBlock) {
-                if (FRONTMATTERBLOCK_REGEX_END.matcher(line).matches()) {
-                    inFrontMatterBlock = false;
+            FrontMatterScanner scanner = new FrontMatterScanner(xhtml);
+            CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+            boolean first = true;
+            boolean flushing = false;
+            while (true) {
+                CoderResult result = flushing ? decoder.flush(chars) : decoder.decode(bytes, chars, true);
+                int start = 0;
+                if (first && chars.position() > 0) {
+                    first = false;
+                    if (chars.get(0) == '\uFEFF') {
+                        start = 1;
+                    }
+                }
+                scanner.scan(chars.array(), start, chars.position() - start);
+                chars.clear();
+                if (result.isError()) {
+                    result.throwException();
+                } else if (result.isUnderflow()) {
+                    if (flushing) {
+                        break;
+                    }
+                    flushing = true;
+                }
+            }
+            scanner.finish();
+
+            endDocument(xhtml, scanner, charset, metadata);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Detects the encoding of a text like <code>AutoDetectReader</code>.
+     *
+     * @param input the beginning of the text supporting mark and reset
+     * @param metadata the metadata, may contain a charset hint
+     * @param detector the encoding detector
+     * @return the encoding
+     * @throws IOException if the text could not be read
+     * @throws TikaException if the encoding could not be detected
+     */
+    private static Charset detectCharset(InputStream input, Metadata metadata, EncodingDetector detector)
+            throws IOException, TikaException {
+        Charset charset = detector.detect(input, metadata);
+        if (charset != null) {
+            return charset;
+        }
+        MediaType type = MediaType.parse(metadata.get(Metadata.CONTENT_TYPE));
+        if (type != null) {
+            String name = type.getParameters().get("charset");
+            if (name != null) {
+                try {
+                    return CharsetUtils.forName(name);
+                } catch (IllegalArgumentException ex) {
+                    // fall through, like AutoDetectReader
                 }
-                frontMatterBlock.append(line);
-                frontMatterBlock.append(LINE_SEPARATOR);
-            } else if (FRONTMATTERBLOCK_REGEX_BEGIN.matcher(line).matches()) {
-                inFrontMatterBlock = true;
-                frontMatterBlock.append(line);
-                frontMatterBlock.append(LINE_SEPARATOR);
-            } else {
-                xhtml.characters(line);
-                xhtml.characters(LINE_SEPARATOR);
             }
         }
+        throw new TikaException("Failed to detect the character encoding of a document");
+    }
 
+    /**
+     * Ends the document and adds the content type, the encoding and the
+     * properties of the Front Matter block to the metadata.
+     */
+    private static void endDocument(XHTMLContentHandler xhtml, FrontMatterScanner scanner, Charset charset,
+            Metadata metadata) throws IOException, SAXException {
         xhtml.endElement("p");
         xhtml.endDocument();
 
@@ -132,27 +230,95 @@ public class FrontMatterParser extends AbstractEncodingDetectorParser {
             }
         }
 
-        Charset charset = reader.getCharset();
         MediaType type = new MediaType(mediaType, charset);
         metadata.set(Metadata.CONTENT_TYPE, type.toString());
         metadata.set(Metadata.CONTENT_ENCODING, charset.name());
 
+        String frontMatterBlock = scanner.getFrontMatterBlock();
         if (frontMatterBlock.length() > 0) {
-            YamlReader yamlReader = new YamlReader(frontMatterBlock.toString());
-            Map frontMatterProperties = (Map) yamlReader.read();
-            for (Iterator iter = frontMatterProperties.entrySet().iterator(); iter.hasNext();) {
-                Map.Entry entry = (Map.Entry) iter.next();
-                String key = String.valueOf(entry.getKey());
-                Object valueObj = entry.getValue();
-                if (valueObj instanceof List) {
-                    List values = (List) valueObj;
-                    for (int i = 0; i < values.size(); i++) {
-                        metadata.add(key, String.valueOf(values.get(i)));
-                    }
-                } else {
-                    metadata.add(key, String.valueOf(valueObj));
+            Map<?, ?> frontMatterProperties = FlatYamlReader.read(frontMatterBlock);
+            if (frontMatterProperties == null) {
+                YamlReader yamlReader = new YamlReader(frontMatterBlock);
+                frontMatterProperties = (Map<?, ?>) yamlReader.read();
+            }
+            addProperties(frontMatterProperties, metadata);
+        }
+    }
+
+    /**
+     * Adds the properties of a Front Matter block to the metadata. Every item
+     * of a list is added as a value of the key.
+     *
+     * @param frontMatterProperties the properties read from the block
+     * @param metadata receives the properties
+     */
+    static void addProperties(Map<?, ?> frontMatterProperties, Metadata metadata) {
+        for (Map.Entry<?, ?> entry : frontMatterProperties.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            Object valueObj = entry.getValue();
+            if (valueObj instanceof List) {
+                for (Object value : (List<?>) valueObj) {
+                    metadata.add(key, String.valueOf(value));
                 }
+            } else {
+                metadata.add(key, String.valueOf(valueObj));
+            }
+        }
+    }
+
+    /**
+     * Reads a ByteBuffer without copying it, supports mark and reset.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        /**
+         * The buffer read.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Creates a new <code>ByteBufferInputStream</code>.
+         */
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
             }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
         }
     }
 }
@@ -0,0 +1,183 @@
+package de.bimalo.tika.parser.frontmatter;
+
+import org.apache.tika.sax.XHTMLContentHandler;
+import org.xml.sax.SAXException;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Splits decoded text into lines and separates the lines of Front Matter
+ * blocks from the body text. The text is passed in chunks of characters, like
+ * read from a Reader or decoded from a mapped file. Lines of the body text are
+ * written to the content handler directly from the chunk, only lines starting
+ * a Front Matter block or lines within a block are copied.</p>
+ * <p>
+ * Lines end with "\n", "\r" or "\r\n" like the lines of
+ * <code>BufferedReader.readLine</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FrontMatterParser
+ */
+final class FrontMatterScanner {
+
+    /**
+     * Regular expression indicating the start of a Front Matter block.
+     */
+    private static final Pattern FRONTMATTERBLOCK_REGEX_BEGIN
+            = Pattern.compile("^-{3}(\\s.*)?");
+    /**
+     * Regular expression indicating the end of a Front Matter block.
+     */
+    private static final Pattern FRONTMATTERBLOCK_REGEX_END
+            = Pattern.compile("^(-{3}|\\.{3})(\\s.*)?");
+
+    /**
+     * Platform dependent line separator.
+     */
+    private static final char[] LINE_SEPARATOR = System.getProperty("line.separator").toCharArray();
+
+    /**
+     * Receives the body text.
+     */
+    private final XHTMLContentHandler xhtml;
+
+    /**
+     * Collects the lines of the Front Matter blocks.
+     */
+    private final StringBuilder frontMatterBlock = new StringBuilder();
+
+    /**
+     * true if the current line is within a Front Matter block.
+     */
+    private boolean inFrontMatterBlock = false;
+
+    /**
+     * The beginning of a line continued in the next chunk.
+     */
+    private char[] partial = new char[256];
+
+    /**
+     * Number of characters of the partial line.
+     */
+    private int partialLength = 0;
+
+    /**
+     * true if a line ended with "\r" and a following "\n" is skipped.
+     */
+    private boolean skipLF = false;
+
+    /**
+     * Creates a new <code>FrontMatterScanner</code>.
+     *
+     * @param xhtml receives the body text
+     */
+    FrontMatterScanner(XHTMLContentHandler xhtml) {
+        this.xhtml = xhtml;
+    }
+
+    /**
+     * Scans a chunk of characters.
+     *
+     * @param chars the characters
+     * @param offset the first character of the chunk
+     * @param length the number of characters of the chunk
+     * @throws SAXException if the content handler failed
+     */
+    void scan(char[] chars, int offset, int length) throws SAXException {
+        int end = offset + length;
+        int lineStart = offset;
+        for (int i = lineStart; i < end; i++) {
+            char c = chars[i];
+            if (skipLF) {
+                skipLF = false;
+                if (c == '\n') {
+                    lineStart = i + 1;
+                    continue;
+                }
+            }
+            if (c == '\n' || c == '\r') {
+                if (partialLength > 0) {
+                    appendPartial(chars, lineStart, i - lineStart);
+                    line(partial, 0, partialLength);
+                    partialLength = 0;
+                } else {
+                    line(chars, lineStart, i - lineStart);
+                }
+                skipLF = c == '\r';
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < end) {
+            appendPartial(chars, lineStart, end - lineStart);
+        }
+    }
+
+    /**
+     * Ends the text, a last line without line separator is scanned.
+     *
+     * @throws SAXException if the content handler failed
+     */
+    void finish() throws SAXException {
+        if (partialLength > 0) {
+            line(partial, 0, partialLength);
+            partialLength = 0;
+        }
+    }
+
+    /**
+     * Returns the lines of all Front Matter blocks.
+     *
+     * @return the Front Matter blocks, empty if there is none
+     */
+    String getFrontMatterBlock() {
+        return frontMatterBlock.toString();
+    }
+
+    /**
+     * Processes a complete line.
+     */
+    private void line(char[] chars, int offset, int length) throws SAXException {
+        if (inFrontMatterBlock) {
+            if (matches(FRONTMATTERBLOCK_REGEX_END, chars, offset, length)) {
+                inFrontMatterBlock = false;
+            }
+            frontMatterBlock.append(chars, offset, length);
+            frontMatterBlock.append(LINE_SEPARATOR);
+        } else if (matches(FRONTMATTERBLOCK_REGEX_BEGIN, chars, offset, length)) {
+            inFrontMatterBlock = true;
+            frontMatterBlock.append(chars, offset, length);
+            frontMatterBlock.append(LINE_SEPARATOR);
+        } else {
+            xhtml.characters(chars, offset, length);
+            xhtml.characters(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+        }
+    }
+
+    /**
+     * Matches a line against a delimiter pattern, only lines starting with
+     * "---" or "..." are converted to a String.
+     */
+    private static boolean matches(Pattern pattern, char[] chars, int offset, int length) {
+        if (length < 3) {
+            return false;
+        }
+        char c = chars[offset];
+        if ((c != '-' && c != '.') || chars[offset + 1] != c || chars[offset + 2] != c) {
+            return false;
+        }
+        return pattern.matcher(new String(chars, offset, length)).matches();
+    }
+
+    /**
+     * Appends characters to the partial line.
+     */
+    private void appendPartial(char[] chars, int offset, int length) {
+        if (partialLength + length > partial.length) {
+            partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + length));
+        }
+        System.arraycopy(chars, offset, partial, partialLength, length);
+        partialLength += length;
+    }
+}
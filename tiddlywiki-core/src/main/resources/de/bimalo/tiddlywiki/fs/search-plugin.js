@@ -0,0 +1,133 @@
+/*\
+title: $:/plugins/bimalo/search/search.js
+type: application/javascript
+module-type: filteroperator
+
+Answers queries with the search index built by the bimalo TiddlyWiki
+Generator. Usage: [bimalosearch[some words]]
+
+Every word of the query is treated as prefix, a Tiddler matches if it
+contains all words. The titles are returned in the order of the wiki.
+
+\*/
+(function(){
+"use strict";
+
+var INDEX_TITLE = "$:/plugins/bimalo/search/index",
+	MIN_TERM_LENGTH = 2,
+	cache = null;
+
+function readVarint(state) {
+	var result = 0, shift = 0, b;
+	do {
+		b = state.bytes[state.pos++];
+		result += (b & 0x7f) * Math.pow(2,shift);
+		shift += 7;
+	} while(b & 0x80);
+	return result;
+}
+
+function readString(state,decoder) {
+	var length = readVarint(state),
+		result = decoder.decode(state.bytes.subarray(state.pos,state.pos + length));
+	state.pos += length;
+	return result;
+}
+
+function loadIndex(wiki) {
+	var tiddler = wiki.getTiddler(INDEX_TITLE);
+	if(!tiddler || !tiddler.fields.text) {
+		return null;
+	}
+	var text = tiddler.fields.text;
+	if(cache && cache.text === text) {
+		return cache;
+	}
+	var binary = atob(text.replace(/\s+/g,"")),
+		bytes = new Uint8Array(binary.length),
+		i;
+	for(i = 0; i < binary.length; i++) {
+		bytes[i] = binary.charCodeAt(i);
+	}
+	if(String.fromCharCode(bytes[0],bytes[1],bytes[2],bytes[3]) !== "TWSI" || bytes[4] !== 1) {
+		return null;
+	}
+	var decoder = new TextDecoder("utf-8"),
+		state = {bytes: bytes, pos: 5},
+		titles = new Array(readVarint(state)),
+		terms = [],
+		offsets = [],
+		counts = [],
+		previous = "";
+	for(i = 0; i < titles.length; i++) {
+		titles[i] = readString(state,decoder);
+	}
+	while(state.pos < bytes.length) {
+		var shared = readVarint(state),
+			term = previous.substring(0,shared) + readString(state,decoder),
+			count = readVarint(state),
+			length = readVarint(state);
+		terms.push(term);
+		counts.push(count);
+		offsets.push(state.pos);
+		state.pos += length;
+		previous = term;
+	}
+	cache = {text: text, bytes: bytes, titles: titles, terms: terms, offsets: offsets, counts: counts};
+	return cache;
+}
+
+function findPrefix(index,prefix) {
+	var low = 0, high = index.terms.length, matches = {}, i, j;
+	while(low < high) {
+		var middle = (low + high) >>> 1;
+		if(index.terms[middle] < prefix) {
+			low = middle + 1;
+		} else {
+			high = middle;
+		}
+	}
+	for(i = low; i < index.terms.length && index.terms[i].substring(0,prefix.length) === prefix; i++) {
+		var state = {bytes: index.bytes, pos: index.offsets[i]}, ordinal = 0;
+		for(j = 0; j < index.counts[i]; j++) {
+			ordinal += readVarint(state);
+			matches[ordinal] = true;
+		}
+	}
+	return matches;
+}
+
+exports.bimalosearch = function(source,operator,options) {
+	var index = loadIndex(options.wiki),
+		words = (operator.operand || "").toLowerCase().match(/[\p{L}\p{Nd}]+/gu) || [],
+		selected = null,
+		results = [];
+	if(!index) {
+		return results;
+	}
+	$tw.utils.each(words,function(word) {
+		if(word.length < MIN_TERM_LENGTH) {
+			return;
+		}
+		var matches = findPrefix(index,word);
+		if(selected === null) {
+			selected = matches;
+		} else {
+			var next = {};
+			$tw.utils.each(Object.keys(selected),function(ordinal) {
+				if(matches[ordinal]) {
+					next[ordinal] = true;
+				}
+			});
+			selected = next;
+		}
+	});
+	if(selected !== null) {
+		$tw.utils.each(Object.keys(selected).map(Number).sort(function(a,b) {return a - b;}),function(ordinal) {
+			results.push(index.titles[ordinal]);
+		});
+	}
+	return results;
+};
+
+})();
@@ -0,0 +1,45 @@
+package de.bimalo.tiddlywiki.fs;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>AdaptiveLimit</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see AdaptiveLimit
+ */
+public class AdaptiveLimitTest {
+
+    @Test
+    public void AdaptiveLimit_record_GrowsWhileLatencyStable() {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 2, 5);
+        assertEquals(2, limit.getLimit());
+        for (int i = 0; i < 100; i++) {
+            limit.record(1000000, 1024);
+        }
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void AdaptiveLimit_record_HalvedOnLatencySpike() {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 8, 8);
+        for (int i = 0; i < 8; i++) {
+            limit.record(1000000, 1024);
+        }
+        assertEquals(8, limit.getLimit());
+        for (int i = 0; i < 8; i++) {
+            limit.record(5000000, 1024);
+        }
+        assertEquals(4, limit.getLimit());
+        for (int i = 0; i < 12; i++) {
+            limit.record(50000000, 1024);
+        }
+        assertEquals(1, limit.getLimit());
+        for (int i = 0; i < 8; i++) {
+            limit.record(100000000, 1024);
+        }
+        assertEquals(1, limit.getLimit());
+    }
+}
@@ -0,0 +1,79 @@
+package de.bimalo.tiddlywiki.fs;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static de.bimalo.tiddlywiki.fs.FileFixture.write;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>BatchRunner</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see BatchRunner
+ */
+public class BatchRunnerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void BatchRunner_parseJob_QuotedValues() {
+        Map<String, String> arguments = BatchRunner.parseJob("-rootFolder=\"/my docs\"  -resultFile=/www/a.html");
+        assertEquals(2, arguments.size());
+        assertEquals("/my docs", arguments.get("rootFolder"));
+        assertEquals("/www/a.html", arguments.get("resultFile"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void BatchRunner_parseJob_InvalidSyntax() {
+        BatchRunner.parseJob("-rootFolder=/docs resultFile=/www/a.html");
+    }
+
+    @Test
+    public void BatchRunner_readJobs_DefaultsOverridden() throws Exception {
+        File batchFile = folder.newFile("jobs.txt");
+        write(batchFile, "# departments\n\n-rootFolder=/hr -maxLevel=2\n-rootFolder=/it\n");
+        BatchRunner runner = new BatchRunner(batchFile, Collections.singletonMap("maxLevel", "5"), 1);
+
+        List<Map<String, String>> jobs = runner.readJobs();
+        assertEquals(2, jobs.size());
+        assertEquals("/hr", jobs.get(0).get("rootFolder"));
+        assertEquals("2", jobs.get(0).get("maxLevel"));
+        assertEquals("5", jobs.get(1).get("maxLevel"));
+    }
+
+    @Test
+    public void BatchRunner_run_AllJobs() throws Exception {
+        File template = folder.newFile("template.html");
+        write(template, "<html>${title}<#list rootTiddlers as t>[${t.title}]</#list></html>");
+        File docs = folder.newFolder("docs");
+        write(new File(docs, "a.txt"), "first");
+        write(new File(docs, "b.txt"), "second");
+        File batchFile = folder.newFile("jobs.txt");
+        write(batchFile, "-resultFile=" + new File(folder.getRoot(), "one.html").getAbsolutePath() + "\n"
+                + "-rootFolder=" + new File(folder.getRoot(), "missing").getAbsolutePath() + "\n"
+                + "-resultFile=" + new File(folder.getRoot(), "two.html").getAbsolutePath() + " -includePattern=.*a\\.txt\n");
+
+        Map<String, String> defaults = new HashMap<String, String>();
+        defaults.put("rootFolder", docs.getAbsolutePath());
+        defaults.put("templateFile", template.getAbsolutePath());
+        BatchRunner runner = new BatchRunner(batchFile, defaults, 2);
+        assertEquals(1, runner.run());
+
+        String one = new String(Files.readAllBytes(new File(folder.getRoot(), "one.html").toPath()),
+                StandardCharsets.UTF_8);
+        String two = new String(Files.readAllBytes(new File(folder.getRoot(), "two.html").toPath()),
+                StandardCharsets.UTF_8);
+        assertTrue(one.contains("[a.txt]") && one.contains("[b.txt]"));
+        assertTrue(two.contains("[a.txt]") && !two.contains("[b.txt]"));
+    }
+}
@@ -0,0 +1,115 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import de.bimalo.tiddlywiki.TiddlyWiki;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>BundleWikiWriter</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see BundleWikiWriter
+ */
+public class BundleWikiWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TemplateRenderer renderer;
+
+    private TiddlyWiki wiki;
+
+    @Before
+    public void setUp() throws Exception {
+        File template = folder.newFile("template.html");
+        Files.write(template.toPath(), ("<html>${title}<#list rootTiddlers as t>[${t.title}]</#list>"
+                + "<#if bundles??><#list bundles as b>{${b}}</#list></#if></html>").getBytes(StandardCharsets.UTF_8));
+        FileObject templateFile = VFS.getManager().resolveFile(template.getAbsolutePath());
+        renderer = new TemplateRenderer(templateFile);
+
+        wiki = new TiddlyWiki();
+        wiki.setTitle("Wiki");
+        Tiddler root = createTiddler("root", "/docs");
+        wiki.addTiddler(root);
+        wiki.addDefaultTiddler(root);
+        wiki.addTiddler(createTiddler("a1", "/docs/A/a1.txt"));
+        wiki.addTiddler(createTiddler("a2", "/docs/A/sub/a2.txt"));
+        wiki.addTiddler(createTiddler("b1", "/docs/B/b1.txt"));
+        wiki.addTiddler(createTiddler("r1", "/docs/r1.txt"));
+    }
+
+    @Test
+    public void BundleWikiWriter_createShards_PerTopLevelFolder() {
+        BundleWikiWriter writer = new BundleWikiWriter(renderer, new File(folder.getRoot(), "index.html"), "/docs");
+        List<Tiddler> shell = new ArrayList<Tiddler>();
+        List<List<Tiddler>> shards = writer.createShards(wiki.listTiddlers(),
+                new HashSet<Tiddler>(wiki.getDefaultTiddler().getTiddlers()), shell);
+        assertEquals(1, shell.size());
+        assertEquals(3, shards.size());
+        assertEquals(2, shards.get(0).size());
+        assertEquals("b1", shards.get(1).get(0).getTitle());
+        assertEquals("r1", shards.get(2).get(0).getTitle());
+    }
+
+    @Test
+    public void BundleWikiWriter_createShards_BundleSize() {
+        BundleWikiWriter writer = new BundleWikiWriter(renderer, new File(folder.getRoot(), "index.html"), "/docs");
+        writer.setBundleSize(3);
+        List<Tiddler> shell = new ArrayList<Tiddler>();
+        List<List<Tiddler>> shards = writer.createShards(wiki.listTiddlers(),
+                new HashSet<Tiddler>(wiki.getDefaultTiddler().getTiddlers()), shell);
+        assertEquals(2, shards.size());
+        assertEquals(3, shards.get(0).size());
+        assertEquals(1, shards.get(1).size());
+    }
+
+    @Test
+    public void BundleWikiWriter_isBundleFile_BundlesAndVariantsOnly() {
+        assertTrue(BundleWikiWriter.isBundleFile("bundle-1.js"));
+        assertTrue(BundleWikiWriter.isBundleFile("bundle-1.js.gz"));
+        assertTrue(BundleWikiWriter.isBundleFile("bundle-1.js.zst"));
+        assertFalse(BundleWikiWriter.isBundleFile("bundle-1.json"));
+        assertFalse(BundleWikiWriter.isBundleFile("bundle-1.jsx.bak"));
+        assertFalse(BundleWikiWriter.isBundleFile("other.js"));
+    }
+
+    @Test
+    public void BundleWikiWriter_write_ShellAndBundles() throws Exception {
+        File resultFile = new File(folder.getRoot(), "index.html");
+        BundleWikiWriter writer = new BundleWikiWriter(renderer, resultFile, "/docs");
+        writer.setWriterThreads(2);
+        writer.write(wiki);
+
+        String shell = new String(Files.readAllBytes(resultFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(shell.contains("[root]"));
+        assertFalse(shell.contains("[a1]"));
+        assertTrue(shell.contains("{index.bundles/bundle-0001.js}"));
+        assertTrue(shell.contains("{index.bundles/bundle-0003.js}"));
+
+        File bundle = new File(writer.getBundleFolder(), "bundle-0001.js");
+        String content = new String(Files.readAllBytes(bundle.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content.startsWith("$tw.wiki.addTiddlers(["));
+        assertTrue(content.contains("\"text\":\"text of a1\\nsecond line\""));
+        assertTrue(content.trim().endsWith("]);"));
+    }
+
+    private static Tiddler createTiddler(String title, String path) {
+        Tiddler tiddler = new Tiddler(title);
+        tiddler.setPath(path);
+        tiddler.setText("text of " + title + "\nsecond line");
+        return tiddler;
+    }
+}
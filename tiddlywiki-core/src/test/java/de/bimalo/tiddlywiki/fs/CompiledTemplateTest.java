@@ -0,0 +1,111 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import de.bimalo.tiddlywiki.TiddlyWiki;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>CompiledTemplate</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see CompiledTemplate
+ */
+public class CompiledTemplateTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void CompiledTemplate_split_StaticTextReplaced() {
+        List<String> segments = new ArrayList<String>();
+        String reduced = CompiledTemplate.split(createTemplate(), segments);
+
+        assertEquals(2, segments.size());
+        assertTrue(reduced.length() < 1024);
+        assertTrue(segments.get(0).startsWith("static ${not parsed}"));
+        assertTrue(segments.get(1).startsWith("plain text"));
+    }
+
+    @Test
+    public void CompiledTemplate_split_SquareBracketSyntax() {
+        assertNull(CompiledTemplate.split("[#ftl]\n" + createTemplate(), new ArrayList<String>()));
+    }
+
+    @Test
+    public void CompiledTemplate_load_SameOutputAsTemplate() throws Exception {
+        File template = folder.newFile("template.html");
+        Files.write(template.toPath(), createTemplate().getBytes(StandardCharsets.UTF_8));
+        FileObject templateFile = VFS.getManager().resolveFile(template.getAbsolutePath());
+
+        TiddlyWiki wiki = new TiddlyWiki();
+        wiki.setTitle("Wiki & Co");
+        wiki.addTiddler(new Tiddler("first"));
+        TemplateRenderer renderer = new TemplateRenderer(templateFile);
+        Map<String, Object> model = renderer.createModel(wiki, wiki.listTiddlers());
+        StringWriter expected = new StringWriter();
+        TemplateRenderer.loadTemplate(templateFile).process(model, expected);
+
+        StringWriter split = new StringWriter();
+        renderer.render(model, split);
+        assertEquals(expected.toString(), split.toString());
+        File artifact = new File(folder.getRoot(), "template.html" + CompiledTemplate.ARTIFACT_EXTENSION);
+        assertTrue(artifact.isFile());
+
+        StringWriter loaded = new StringWriter();
+        new TemplateRenderer(templateFile).render(model, loaded);
+        assertEquals(expected.toString(), loaded.toString());
+    }
+
+    @Test
+    public void TemplateRenderer_reload_ChangedTemplate() throws Exception {
+        File template = folder.newFile("changing.html");
+        Files.write(template.toPath(), "<title>${title}</title>".getBytes(StandardCharsets.UTF_8));
+        FileObject templateFile = VFS.getManager().resolveFile(template.getAbsolutePath());
+        TiddlyWiki wiki = new TiddlyWiki();
+        wiki.setTitle("Wiki");
+        TemplateRenderer renderer = new TemplateRenderer(templateFile, new TemplateCache());
+        Map<String, Object> model = renderer.createModel(wiki, wiki.listTiddlers());
+        StringWriter before = new StringWriter();
+        renderer.render(model, before);
+        assertEquals("<title>Wiki</title>", before.toString());
+
+        Files.write(template.toPath(), "<h1>${title}</h1>".getBytes(StandardCharsets.UTF_8));
+        renderer.reload();
+        StringWriter after = new StringWriter();
+        renderer.render(model, after);
+        assertEquals("<h1>Wiki</h1>", after.toString());
+    }
+
+    private static String createTemplate() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<#noparse>\n");
+        for (int i = 0; i < 2000; i++) {
+            sb.append("static ${not parsed} <#if> line ").append(i).append('\n');
+        }
+        sb.append("</#noparse>\n");
+        sb.append("<title>${title}</title>\n");
+        sb.append("  <#list rootTiddlers as t>\n");
+        sb.append("  [${t.title}]\n");
+        sb.append("  </#list>\n");
+        for (int i = 0; i < 2000; i++) {
+            sb.append("plain text & more, line ").append(i).append('\n');
+        }
+        sb.append("  <#if title??>\n");
+        sb.append("end\n");
+        sb.append("  </#if>\n");
+        return sb.toString();
+    }
+}
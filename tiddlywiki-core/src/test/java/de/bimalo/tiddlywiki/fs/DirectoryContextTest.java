@@ -0,0 +1,65 @@
+package de.bimalo.tiddlywiki.fs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static de.bimalo.tiddlywiki.fs.FileFixture.write;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>DirectoryContext</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see DirectoryContext
+ */
+public class DirectoryContextTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileObject root;
+
+    @Before
+    public void setUp() throws Exception {
+        write(folder.getRoot(), "a+b (1)/sub/a/x.md", "x");
+        write(folder.getRoot(), "a+b (1)/.twignore", "*.log\n");
+        root = VFS.getManager().resolveFile(new File(folder.getRoot(), "a+b (1)").getAbsolutePath());
+    }
+
+    @Test
+    public void DirectoryContext_enter_RelativePathAndSharedTags() throws Exception {
+        DirectoryContext rootContext = DirectoryContext.root(root, new FilterChain(root));
+        assertEquals("", rootContext.getPath());
+        assertEquals(0, rootContext.getLevel());
+        assertFalse(rootContext.getChain().accept(root.resolveFile("c.log")));
+
+        FileObject sub = root.resolveFile("sub");
+        DirectoryContext subContext = rootContext.enter(sub);
+        assertEquals("/sub", subContext.getPath());
+        assertEquals(1, subContext.getLevel());
+        assertSame(subContext.getTags(), subContext.getTags());
+        assertEquals(Collections.singletonList("/sub"), subContext.getTags());
+        assertFalse(subContext.getChain().accept(sub.resolveFile("d.log")));
+
+        List<String> names = new ArrayList<String>(rootContext.getAncestorNames());
+        names.add("a+b (1)");
+        assertEquals(names, subContext.getAncestorNames());
+        assertEquals(DirectoryContext.of(root, sub).getAncestorNames(), subContext.getAncestorNames());
+    }
+
+    @Test
+    public void DirectoryContext_of_RootPathRepeatedInPath() throws Exception {
+        FileObject a = root.resolveFile("sub/a");
+        assertEquals("/sub/a", DirectoryContext.of(root, a).getPath());
+        assertEquals(a.getName().getPath(), DirectoryContext.of(null, a).getPath());
+        assertNull(DirectoryContext.of(null, a).getChain());
+    }
+}
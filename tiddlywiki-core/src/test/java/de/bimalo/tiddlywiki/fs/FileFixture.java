@@ -0,0 +1,82 @@
+package de.bimalo.tiddlywiki.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.VFS;
+
+/**
+ * <p>
+ * A fixture to create real files in a temporary folder to use them in unit
+ * tests.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FileObjectFixture
+ */
+public class FileFixture {
+
+    /**
+     * Writes a file with UTF-8 encoded content. Missing parent folders are
+     * created.
+     *
+     * @param file the file
+     * @param content the content of the file
+     * @return the file
+     * @throws IOException if operation fails
+     */
+    public static File write(File file, String content) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Folder " + parent.getPath() + " could not be created.");
+        }
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Writes a file with UTF-8 encoded content below a folder. Missing parent
+     * folders are created.
+     *
+     * @param root the folder, like the root of a TemporaryFolder
+     * @param path the path of the file relative to the folder, like "docs/a.md"
+     * @param content the content of the file
+     * @return the file
+     * @throws IOException if operation fails
+     */
+    public static File write(File root, String path, String content) throws IOException {
+        return write(new File(root, path), content);
+    }
+
+    /**
+     * Resolves a file as FileObject of the local file system.
+     *
+     * @param file the file
+     * @return the FileObject
+     * @throws FileSystemException if operation fails
+     */
+    public static FileObject resolve(File file) throws FileSystemException {
+        return VFS.getManager().resolveFile(file.getAbsolutePath());
+    }
+
+    /**
+     * Writes a file with UTF-8 encoded content below a folder and sets the
+     * time of the last modification.
+     *
+     * @param root the folder, like the root of a TemporaryFolder
+     * @param path the path of the file relative to the folder, like "docs/a.md"
+     * @param content the content of the file
+     * @param lastModified the time of the last modification in milliseconds
+     * @return the file
+     * @throws IOException if operation fails
+     */
+    public static File write(File root, String path, String content, long lastModified) throws IOException {
+        File file = write(root, path, content);
+        if (!file.setLastModified(lastModified)) {
+            throw new IOException("Time of the last modification of " + file.getPath() + " could not be set.");
+        }
+        return file;
+    }
+}
@@ -3,15 +3,20 @@ package de.bimalo.tiddlywiki.fs;
 import de.bimalo.tiddlywiki.Tiddler;
 import de.bimalo.tiddlywiki.TiddlyWiki;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import org.apache.commons.vfs2.FileNotFolderException;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.VFS;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static de.bimalo.tiddlywiki.fs.FileFixture.write;
 import static org.junit.Assert.*;
 
 /**
@@ -23,6 +28,9 @@ import static org.junit.Assert.*;
  */
 public class FilesystemTreeWalkerTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     public FilesystemTreeWalkerTest() {
     }
 
@@ -105,4 +113,65 @@ public class FilesystemTreeWalkerTest {
 
     }
 
+    @Test
+    public void FilesystemTreeWalker_schedule_DefaultAndRecentFirst() throws Exception {
+        FileObject root = createTree();
+        FilesystemTreeWalker walker = new FilesystemTreeWalker(root);
+        walker.setSchedule(FilesystemTreeWalker.SCHEDULE_RECENT);
+        List<FileObject> files = Arrays.asList(root.resolveFile("a.md"), root.resolveFile("b.md"),
+                root.resolveFile("c.md"));
+        List<FileObject> ordered = walker.schedule(files);
+        assertEquals("c.md", ordered.get(0).getName().getBaseName());
+        assertEquals("b.md", ordered.get(1).getName().getBaseName());
+        assertEquals("a.md", ordered.get(2).getName().getBaseName());
+    }
+
+    @Test
+    public void FilesystemTreeWalker_schedule_BudgetExceededNotRead() throws Exception {
+        FileObject root = createTree();
+        FilesystemTreeWalker walker = new FilesystemTreeWalker(root);
+        walker.setSchedule(FilesystemTreeWalker.SCHEDULE_RECENT);
+        List<FileObject> files = Arrays.asList(root.resolveFile("a.md"), root.resolveFile("b.md"),
+                root.resolveFile("c.md"));
+        List<FileObject> ordered = walker.schedule(files, 0);
+        assertEquals("b.md", ordered.get(0).getName().getBaseName());
+        assertEquals("c.md", ordered.get(1).getName().getBaseName());
+        assertEquals("a.md", ordered.get(2).getName().getBaseName());
+    }
+
+    @Test
+    public void FilesystemTreeWalker_walkFileTree_BudgetExceededLinkOnly() throws Exception {
+        FileObject root = createTree();
+        FilesystemTreeWalker walker = new FilesystemTreeWalker(root);
+        walker.setSchedule(FilesystemTreeWalker.SCHEDULE_RECENT);
+        walker.setBudget(0);
+        TiddlyWiki wiki = walker.walkFileTree();
+        List<Tiddler> tiddlers = wiki.listTiddlers();
+        assertEquals(4, tiddlers.size());
+        assertEquals("a.md", tiddlers.get(1).getTitle());
+        assertNull(tiddlers.get(1).getText());
+        assertNull(tiddlers.get(3).getText());
+    }
+
+    @Test
+    public void FilesystemTreeWalker_walkFileTree_ParseThreadsSameOrder() throws Exception {
+        FileObject root = createTree();
+        FilesystemTreeWalker walker = new FilesystemTreeWalker(root);
+        walker.setParseThreads(3);
+        walker.setIoThreads(1);
+        List<Tiddler> tiddlers = walker.walkFileTree().listTiddlers();
+        assertEquals(4, tiddlers.size());
+        assertEquals("a.md", tiddlers.get(1).getTitle());
+        assertEquals("text a", tiddlers.get(1).getText().trim());
+        assertEquals("b.md", tiddlers.get(2).getTitle());
+        assertEquals("text c", tiddlers.get(3).getText().trim());
+    }
+
+    private FileObject createTree() throws Exception {
+        long now = System.currentTimeMillis();
+        write(folder.getRoot(), "a.md", "text a", now - 30000);
+        write(folder.getRoot(), "b.md", "text b", now - 10000);
+        write(folder.getRoot(), "c.md", "---\ndefault: yes\n---\ntext c", now - 20000);
+        return VFS.getManager().resolveFile(folder.getRoot().getAbsolutePath());
+    }
 }
@@ -0,0 +1,104 @@
+package de.bimalo.tiddlywiki.fs;
+
+import java.io.File;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static de.bimalo.tiddlywiki.fs.FileFixture.write;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>FilterChain</code> and <code>FilterRule</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FilterChain
+ */
+public class FilterChainTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileObject root;
+
+    @Before
+    public void setUp() throws Exception {
+        write(folder.getRoot(), "a.md", "a");
+        write(folder.getRoot(), "b.tmp", "b");
+        write(folder.getRoot(), "big.txt", "0123456789");
+        write(folder.getRoot(), "archive/x.md", "x");
+        write(folder.getRoot(), "docs/.twignore", "# comment\n*.log\n!keep.log\nsub/\n");
+        write(folder.getRoot(), "docs/c.log", "c");
+        write(folder.getRoot(), "docs/keep.log", "k");
+        write(folder.getRoot(), "docs/d.md", "d");
+        write(folder.getRoot(), "docs/sub/e.md", "e");
+        write(folder.getRoot(), "docs/other/f.md", "f");
+        root = VFS.getManager().resolveFile(folder.getRoot().getAbsolutePath());
+    }
+
+    @Test
+    public void FilterChain_accept_ExcludedFilesAndFolders() throws Exception {
+        FilterChain chain = new FilterChain(root);
+        chain.addExcludes("*.tmp, archive/");
+        chain = chain.enter(root);
+        assertTrue(chain.accept(root.resolveFile("a.md")));
+        assertFalse(chain.accept(root.resolveFile("b.tmp")));
+        assertFalse(chain.accept(root.resolveFile("archive")));
+        assertTrue(chain.accept(root.resolveFile("docs")));
+    }
+
+    @Test
+    public void FilterChain_enter_IgnoreFileRules() throws Exception {
+        FileObject docs = root.resolveFile("docs");
+        FilterChain chain = new FilterChain(root).enter(root).enter(docs);
+        assertFalse(chain.accept(docs.resolveFile("c.log")));
+        assertTrue(chain.accept(docs.resolveFile("keep.log")));
+        assertFalse(chain.accept(docs.resolveFile("sub")));
+        assertTrue(chain.accept(docs.resolveFile("other")));
+
+        FilterChain none = new FilterChain(root);
+        none.setIgnoreFileNames("");
+        assertTrue(none.enter(docs).accept(docs.resolveFile("c.log")));
+    }
+
+    @Test
+    public void FilterChain_accept_IncludesOnlyFiles() throws Exception {
+        FileObject other = root.resolveFile("docs/other");
+        FilterChain chain = new FilterChain(root);
+        chain.addIncludes("docs/**/f.md,a.*");
+        assertTrue(chain.accept(root.resolveFile("a.md")));
+        assertFalse(chain.accept(root.resolveFile("big.txt")));
+        assertTrue(chain.accept(root.resolveFile("docs")));
+        assertTrue(chain.accept(other.resolveFile("f.md")));
+        assertFalse(chain.accept(root.resolveFile("docs/d.md")));
+    }
+
+    @Test
+    public void FilterChain_accept_SizeAndAge() throws Exception {
+        File old = new File(folder.getRoot(), "a.md");
+        old.setLastModified(System.currentTimeMillis() - 10L * 24 * 3600 * 1000);
+        FilterChain chain = new FilterChain(root);
+        chain.setMaxSize(5);
+        chain.setMaxAge(7);
+        assertFalse(chain.accept(root.resolveFile("big.txt")));
+        assertFalse(chain.accept(root.resolveFile("a.md")));
+        assertTrue(chain.accept(root.resolveFile("b.tmp")));
+    }
+
+    @Test
+    public void FilterRule_parse_Syntax() {
+        assertNull(FilterRule.parse("  ", "/r", true));
+        assertNull(FilterRule.parse("# comment", "/r", true));
+        FilterRule rule = FilterRule.parse("/docs/*.md", "/r", true);
+        assertTrue(rule.matches("/r/docs/a.md", "a.md", false));
+        assertFalse(rule.matches("/r/docs/sub/a.md", "a.md", false));
+        assertFalse(rule.matches("/rx/docs/a.md", "a.md", false));
+        assertTrue(FilterRule.parse("**/sub/*.md", "/r", true).matches("/r/a/b/sub/c.md", "c.md", false));
+        assertTrue(FilterRule.parse("file[0-9].txt", "/r", true).matches("/r/x/file1.txt", "file1.txt", false));
+        assertFalse(FilterRule.parse("!x", "/r", true).isExclude());
+        assertTrue(FilterRule.parse("regex:.*\\.bak", "/r", true).matches("/r/x/y.bak", "y.bak", false));
+    }
+}
@@ -0,0 +1,62 @@
+package de.bimalo.tiddlywiki.fs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>FlightEvents</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FlightEvents
+ */
+public class FlightEventsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void FlightEvents_documentParsed_Recorded() throws Exception {
+        assertTrue(GeneratorEvents.isFlightRecorderAvailable());
+        File file = new File(folder.getRoot(), "run.jfr");
+        Recording recording = new Recording();
+        try {
+            recording.enable("de.bimalo.tiddlywiki.DocumentParsed");
+            recording.enable("de.bimalo.tiddlywiki.OutputWritten");
+            recording.start();
+            GeneratorEvents events = new GeneratorEvents();
+            events.documentParsed("/docs/a.pdf", "application/pdf", 1234, System.nanoTime() - 5000000);
+            events.outputWritten("/out/wiki.html", 99, System.nanoTime());
+            recording.stop();
+            recording.dump(file.toPath());
+        } finally {
+            recording.close();
+        }
+
+        List<RecordedEvent> parsed = new ArrayList<RecordedEvent>();
+        int written = 0;
+        for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+            String name = event.getEventType().getName();
+            if ("de.bimalo.tiddlywiki.DocumentParsed".equals(name)) {
+                parsed.add(event);
+            } else if ("de.bimalo.tiddlywiki.OutputWritten".equals(name)) {
+                written++;
+            }
+        }
+        assertEquals(1, parsed.size());
+        assertEquals(1, written);
+        RecordedEvent event = parsed.get(0);
+        assertEquals("/docs/a.pdf", event.getString("path"));
+        assertEquals("application/pdf", event.getString("mediaType"));
+        assertEquals(1234, event.getLong("bytes"));
+        assertTrue(event.getDuration("parseTime").toMillis() >= 5);
+    }
+}
@@ -0,0 +1,53 @@
+package de.bimalo.tiddlywiki.fs;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>GeneratorStatistics</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see GeneratorStatistics
+ */
+public class GeneratorStatisticsTest {
+
+    @Test
+    public void GeneratorStatistics_register_AttributesVisibleThroughJmx() throws Exception {
+        GeneratorEvents events = GeneratorEvents.register("/out/index.html");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = GeneratorStatistics.createObjectName("/out/index.html");
+        try {
+            for (int i = 0; i < 100 && !server.isRegistered(name); i++) {
+                Thread.sleep(50);
+            }
+            assertTrue(server.isRegistered(name));
+
+            events.documentParsed("/docs/a.md", "text/plain", 42, System.nanoTime());
+            events.phase(GeneratorEvents.PHASE_WRITING);
+            assertEquals(1L, server.getAttribute(name, "DocumentsParsed"));
+            assertEquals(42L, server.getAttribute(name, "BytesParsed"));
+            assertEquals(GeneratorEvents.PHASE_WRITING, server.getAttribute(name, "Phase"));
+        } finally {
+            events.unregister();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void GeneratorStatistics_documentParsed_CountedPerGenerator() throws Exception {
+        GeneratorEvents first = new GeneratorEvents();
+        GeneratorEvents second = new GeneratorEvents();
+        first.documentParsed("/docs/a.md", "text/plain", 42, System.nanoTime());
+        first.phase(GeneratorEvents.PHASE_PARSING);
+        second.phase(GeneratorEvents.PHASE_WRITING);
+
+        assertEquals(1, first.getStatistics().getDocumentsParsed());
+        assertEquals(0, second.getStatistics().getDocumentsParsed());
+        assertEquals(GeneratorEvents.PHASE_PARSING, first.getStatistics().getPhase());
+        assertEquals(GeneratorEvents.PHASE_WRITING, second.getStatistics().getPhase());
+    }
+}
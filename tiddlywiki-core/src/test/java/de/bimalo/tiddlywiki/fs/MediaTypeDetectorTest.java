@@ -0,0 +1,85 @@
+package de.bimalo.tiddlywiki.fs;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MimeTypes;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>MediaTypeDetector</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see MediaTypeDetector
+ */
+public class MediaTypeDetectorTest {
+
+    private int calls = 0;
+
+    private final Detector countingDetector = new Detector() {
+        @Override
+        public MediaType detect(InputStream input, Metadata metadata) throws java.io.IOException {
+            calls++;
+            return MimeTypes.getDefaultMimeTypes().detect(input, metadata);
+        }
+    };
+
+    @Test
+    public void MediaTypeDetector_detect_SameSignatureDetectedOnce() throws Exception {
+        MediaTypeDetector detector = new MediaTypeDetector(countingDetector);
+        assertEquals("application/pdf", detect(detector, "a.pdf", "%PDF-1.4 first").toString());
+        assertEquals("application/pdf", detect(detector, "b.PDF", "%PDF-1.4 second").toString());
+        assertEquals(1, calls);
+
+        detect(detector, "c.pdf", "%PDF-1.7 third");
+        detect(detector, "a.bin", "%PDF-1.4 first");
+        assertEquals(3, calls);
+    }
+
+    @Test
+    public void MediaTypeDetector_detect_ContainersAndMarkupDetectedCompletely() throws Exception {
+        MediaTypeDetector detector = new MediaTypeDetector(countingDetector);
+        assertEquals("image/svg+xml", detect(detector, "a",
+                "<?xml version=\"1.0\"?><svg xmlns=\"http://www.w3.org/2000/svg\"/>").toString());
+        assertEquals("text/html", detect(detector, "b", "<?xml version=\"1.0\"?><html><body/></html>").toString());
+        detect(detector, "c", "PK\u0003\u0004first");
+        detect(detector, "d", "PK\u0003\u0004second");
+        assertEquals(4, calls);
+
+        detect(detector, "e.txt", "plain text first");
+        detect(detector, "f.txt", "plain text second");
+        assertEquals(6, calls);
+    }
+
+    @Test
+    public void MediaTypeDetector_detect_StreamReset() throws Exception {
+        MediaTypeDetector detector = new MediaTypeDetector(countingDetector);
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(
+                "%PDF-1.4 content".getBytes(StandardCharsets.US_ASCII)));
+        Metadata md = new Metadata();
+        md.set(Metadata.RESOURCE_NAME_KEY, "a.pdf");
+        detector.detect(in, md);
+        assertEquals('%', in.read());
+    }
+
+    @Test
+    public void MediaTypeDetector_detect_ContentTypeTrusted() throws Exception {
+        MediaTypeDetector detector = new MediaTypeDetector(countingDetector);
+        Metadata md = new Metadata();
+        md.set(Metadata.CONTENT_TYPE, "application/msword");
+        assertEquals("application/msword", detector.detect(new ByteArrayInputStream(new byte[10]), md).toString());
+        assertEquals(0, calls);
+    }
+
+    private static MediaType detect(MediaTypeDetector detector, String name, String content) throws Exception {
+        Metadata md = new Metadata();
+        md.set(Metadata.RESOURCE_NAME_KEY, name);
+        return detector.detect(new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII)), md);
+    }
+}
@@ -0,0 +1,67 @@
+package de.bimalo.tiddlywiki.fs;
+
+import org.apache.tika.metadata.Metadata;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>ParseCache</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see ParseCache
+ */
+public class ParseCacheTest {
+
+    @Test
+    public void ParseCache_get_TextAndMetadata() {
+        ParseCache cache = new ParseCache();
+        Metadata md = new Metadata();
+        md.add("keywords", "a");
+        md.add("keywords", "b");
+        cache.put("/docs/a.txt", 10, 1000, "text", md);
+
+        Metadata result = new Metadata();
+        assertEquals("text", cache.get("/docs/a.txt", 10, 1000, result));
+        assertArrayEquals(new String[]{"a", "b"}, result.getValues("keywords"));
+    }
+
+    @Test
+    public void ParseCache_get_ChangedFile() {
+        ParseCache cache = new ParseCache();
+        cache.put("/docs/a.txt", 10, 1000, "text", new Metadata());
+
+        assertNull(cache.get("/docs/a.txt", 11, 1000, new Metadata()));
+        assertNull(cache.get("/docs/a.txt", 10, 2000, new Metadata()));
+        assertNull(cache.get("/docs/b.txt", 10, 1000, new Metadata()));
+    }
+
+    @Test
+    public void ParseCache_peek_ValueWithoutCounting() {
+        ParseCache cache = new ParseCache();
+        Metadata md = new Metadata();
+        md.set("default", "yes");
+        cache.put("/docs/a.md", 10, 1000, "text", md);
+        cache.put("/docs/b.md", 10, 1000, "text", new Metadata());
+
+        assertEquals("yes", cache.peek("/docs/a.md", 10, 1000, "default", ""));
+        assertEquals("", cache.peek("/docs/b.md", 10, 1000, "default", ""));
+        assertNull(cache.peek("/docs/a.md", 11, 1000, "default", ""));
+        assertTrue(cache.toString().endsWith(" 0 hits, 0 misses"));
+    }
+
+    @Test
+    public void ParseCache_put_LeastRecentlyUsedRemoved() {
+        ParseCache cache = new ParseCache(10);
+        cache.put("a", 1, 1, "aaaa", new Metadata());
+        cache.put("b", 1, 1, "bbbb", new Metadata());
+        assertNotNull(cache.get("a", 1, 1, new Metadata()));
+        cache.put("c", 1, 1, "cccc", new Metadata());
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a", 1, 1, new Metadata()));
+        assertNull(cache.get("b", 1, 1, new Metadata()));
+        cache.put("d", 1, 1, "more than ten characters", new Metadata());
+        assertEquals(2, cache.size());
+    }
+}
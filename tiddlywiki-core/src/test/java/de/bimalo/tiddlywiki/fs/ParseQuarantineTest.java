@@ -0,0 +1,87 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import de.bimalo.tiddlywiki.TiddlyWiki;
+import java.io.File;
+import java.util.Collections;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static de.bimalo.tiddlywiki.fs.FileFixture.write;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>ParseQuarantine</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see ParseQuarantine
+ */
+public class ParseQuarantineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ParseQuarantine_open_EntriesOfPreviousRun() throws Exception {
+        File file = new File(folder.getRoot(), "index.html.quarantine");
+        ParseQuarantine quarantine = new ParseQuarantine(file);
+        assertEquals(0, quarantine.open());
+        quarantine.add("/docs/a|b.pdf", 17, 1000, 250, "IOException: Missing root object");
+        quarantine.add("/docs/c.pdf", 5, 2000, 90000, "Parsing took 90000 ms.");
+        assertTrue(file.isFile());
+
+        ParseQuarantine loaded = new ParseQuarantine(file);
+        assertEquals(2, loaded.open());
+        ParseQuarantine.Entry entry = loaded.lookup("/docs/a|b.pdf", 17, 1000);
+        assertNotNull(entry);
+        assertEquals(250, entry.getDuration());
+        assertEquals("IOException: Missing root object", entry.getReason());
+        assertNull(loaded.lookup("/docs/a|b.pdf", 18, 1000));
+        assertNull(loaded.lookup("/docs/a|b.pdf", 17, 1001));
+
+        loaded.retain(Collections.singleton("/docs/c.pdf"));
+        loaded.remove("/docs/c.pdf");
+        assertEquals(0, loaded.size());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void ParseQuarantine_walkFileTree_BrokenDocumentLinkedWithoutContent() throws Exception {
+        write(folder.getRoot(), "root/a.md", "# a\n");
+        write(folder.getRoot(), "root/bad.pdf", "%PDF-1.4\ngarbage\n");
+        FileObject root = VFS.getManager().resolveFile(new File(folder.getRoot(), "root").getAbsolutePath());
+        File file = new File(folder.getRoot(), "index.html.quarantine");
+
+        ParseQuarantine quarantine = new ParseQuarantine(file);
+        quarantine.open();
+        walk(root, quarantine, false);
+        assertEquals(1, quarantine.size());
+
+        quarantine = new ParseQuarantine(file);
+        assertEquals(1, quarantine.open());
+        TiddlyWiki wiki = walk(root, quarantine, false);
+        boolean found = false;
+        for (Tiddler tiddler : wiki.listTiddlers()) {
+            if (tiddler.getPath() != null && tiddler.getPath().endsWith("bad.pdf")) {
+                assertNull(tiddler.getText());
+                found = true;
+            }
+        }
+        assertTrue(found);
+
+        write(folder.getRoot(), "root/bad.pdf", "no pdf anymore");
+        walk(root, quarantine, true);
+        assertEquals(0, quarantine.size());
+        assertFalse(file.exists());
+    }
+
+    private static TiddlyWiki walk(FileObject root, ParseQuarantine quarantine, boolean retry) throws Exception {
+        FilesystemTreeWalker walker = new FilesystemTreeWalker(root);
+        walker.setParserRegistry(ParserRegistry.getInstance("all"));
+        walker.setQuarantine(quarantine, 0, retry);
+        return walker.walkFileTree();
+    }
+}
@@ -0,0 +1,47 @@
+package de.bimalo.tiddlywiki.fs;
+
+import java.io.InputStream;
+import org.apache.tika.metadata.Metadata;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>ParserRegistry</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see ParserRegistry
+ */
+public class ParserRegistryTest {
+
+    @Test
+    public void ParserRegistry_getInstance_NormalizedAndShared() {
+        ParserRegistry registry = ParserRegistry.getInstance(" PDF,markdown,");
+        assertEquals("markdown,pdf", registry.getName());
+        assertSame(registry, ParserRegistry.getInstance("markdown,pdf"));
+        assertSame(ParserRegistry.getDefault(), ParserRegistry.getInstance("all"));
+        assertEquals(ParserRegistry.ALL, ParserRegistry.getInstance("").getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ParserRegistry_getInstance_UnknownParser() {
+        ParserRegistry.getInstance("pdf,cad");
+    }
+
+    @Test
+    public void ParserRegistry_getTika_OnlyEnabledParsers() throws Exception {
+        assertTrue(parse("pdf", "/test1.pdf").trim().length() > 0);
+        assertEquals("", parse("image", "/test1.pdf").trim());
+    }
+
+    private String parse(String parsers, String resource) throws Exception {
+        InputStream in = getClass().getResourceAsStream(resource);
+        try {
+            Metadata md = new Metadata();
+            md.set(Metadata.RESOURCE_NAME_KEY, resource.substring(1));
+            return ParserRegistry.getInstance(parsers).getTika("pdf").parseToString(in, md);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package de.bimalo.tiddlywiki.fs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>ProgressMonitor</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see ProgressMonitor
+ */
+public class ProgressMonitorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ProgressMonitor_format_CountsAndInFlight() throws Exception {
+        ProgressMonitor monitor = new ProgressMonitor(0, null, null);
+        monitor.start(4, 400);
+        monitor.resumed(100, true);
+        monitor.started("/docs/a.md");
+        monitor.started("/docs/b.pdf");
+        monitor.finished("/docs/a.md", 100, false);
+
+        String progress = monitor.format();
+        assertTrue(progress, progress.startsWith("2/4 files (50.0%), "));
+        assertTrue(progress, progress.contains(", 1 tiddlers, in flight: /docs/b.pdf"));
+        assertFalse(progress, progress.contains("/docs/a.md"));
+    }
+
+    @Test
+    public void ProgressMonitor_stop_WritesStatusFile() throws Exception {
+        File statusFile = new File(folder.getRoot(), "status.properties");
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        ProgressMonitor monitor = new ProgressMonitor(60000, new PrintStream(console, true, "UTF-8"), statusFile);
+        monitor.start(2, 300);
+        monitor.resumed(100, true);
+        monitor.started("/docs/a.md");
+        monitor.finished("/docs/a.md", 200, true);
+        monitor.stop();
+
+        String output = new String(console.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(output, output.startsWith("Parsed 2/2 files (100.0%), "));
+        assertTrue(output, output.contains("ETA 0:00:00, 2 tiddlers"));
+
+        Properties status = new Properties();
+        InputStream in = new FileInputStream(statusFile);
+        try {
+            status.load(in);
+        } finally {
+            in.close();
+        }
+        assertEquals("2", status.getProperty("files"));
+        assertEquals("2", status.getProperty("totalFiles"));
+        assertEquals("300", status.getProperty("bytes"));
+        assertEquals("300", status.getProperty("totalBytes"));
+        assertEquals("1", status.getProperty("resumedFiles"));
+        assertEquals("2", status.getProperty("tiddlers"));
+        assertEquals("0", status.getProperty("etaSeconds"));
+        assertEquals("", status.getProperty("inFlight"));
+        assertFalse(new File(folder.getRoot(), "status.properties.tmp").exists());
+    }
+}
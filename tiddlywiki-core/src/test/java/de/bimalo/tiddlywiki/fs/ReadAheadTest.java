@@ -0,0 +1,89 @@
+package de.bimalo.tiddlywiki.fs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.vfs2.FileObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static de.bimalo.tiddlywiki.fs.FileFixture.resolve;
+import static de.bimalo.tiddlywiki.fs.FileFixture.write;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>ReadAhead</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see ReadAhead
+ */
+public class ReadAheadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<FileObject> files;
+
+    @Before
+    public void setUp() throws Exception {
+        files = new ArrayList<FileObject>();
+        files.add(resolve(write(folder.getRoot(), "a.md", "aaaa")));
+        files.add(resolve(write(folder.getRoot(), "big.txt", "0123456789012345678901234567890123456789")));
+        files.add(resolve(write(folder.getRoot(), "b.md", "bbbb")));
+        files.add(resolve(write(folder.getRoot(), "c.md", "cccc")));
+    }
+
+    @Test
+    public void ReadAhead_take_ContentInOrder() throws Exception {
+        ReadAhead readAhead = new ReadAhead(files, 2, 16, Long.MAX_VALUE);
+        try {
+            assertEquals("aaaa", read(readAhead.take(files.get(0))));
+            assertNull(readAhead.take(files.get(1)));
+            assertEquals("bbbb", read(readAhead.take(files.get(2))));
+            assertEquals("cccc", read(readAhead.take(files.get(3))));
+            assertNull(readAhead.take(files.get(3)));
+        } finally {
+            readAhead.close();
+        }
+    }
+
+    @Test
+    public void ReadAhead_discard_ContinuesWithNext() throws Exception {
+        ReadAhead readAhead = new ReadAhead(files, 1, 1024, Long.MAX_VALUE);
+        try {
+            readAhead.discard(files.get(0));
+            assertNull(readAhead.take(files.get(0)));
+            assertEquals(40, read(readAhead.take(files.get(1))).length());
+            assertEquals("bbbb", read(readAhead.take(files.get(2))));
+        } finally {
+            readAhead.close();
+        }
+    }
+
+    @Test
+    public void ReadAhead_take_MissedDocumentNotReadAhead() throws Exception {
+        ReadAhead readAhead = new ReadAhead(files, 1, 1024, Long.MAX_VALUE);
+        try {
+            assertNull(readAhead.take(files.get(2)));
+            assertEquals("aaaa", read(readAhead.take(files.get(0))));
+            assertEquals(40, read(readAhead.take(files.get(1))).length());
+            assertEquals("cccc", read(readAhead.take(files.get(3))));
+        } finally {
+            readAhead.close();
+        }
+    }
+
+    private static String read(InputStream is) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = is.read()) != -1) {
+            out.write(b);
+        }
+        is.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
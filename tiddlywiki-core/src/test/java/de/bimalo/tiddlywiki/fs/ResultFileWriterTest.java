@@ -0,0 +1,150 @@
+package de.bimalo.tiddlywiki.fs;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.zip.GZIPInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>ResultFileWriter</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see ResultFileWriter
+ */
+public class ResultFileWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ResultFileWriter_commit_ReplacesResultFile() throws Exception {
+        File resultFile = folder.newFile("index.html");
+        Files.write(resultFile.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+
+        ResultFileWriter out = new ResultFileWriter(resultFile, true);
+        out.write("new content");
+        out.flush();
+        assertEquals("old", read(resultFile));
+        out.commit();
+        out.close();
+
+        assertEquals("new content", read(resultFile));
+        assertEquals(11, out.getBytesWritten());
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void ResultFileWriter_close_WithoutCommit() throws Exception {
+        File resultFile = folder.newFile("index.html");
+        Files.write(resultFile.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+
+        ResultFileWriter out = new ResultFileWriter(resultFile, false);
+        out.write("aborted");
+        out.close();
+
+        assertEquals("old", read(resultFile));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void ResultFileWriter_write_LargeMultiByteContent() throws Exception {
+        File resultFile = new File(folder.getRoot(), "index.html");
+        StringBuilder sb = new StringBuilder();
+        // Surrogate pairs and multi-byte characters crossing the buffer limits.
+        String chunk = "aä€😀";
+        while (sb.length() < ResultFileWriter.BYTE_BUFFER_SIZE * 2) {
+            sb.append(chunk);
+        }
+        String expected = sb.toString();
+
+        ResultFileWriter out = new ResultFileWriter(resultFile, false);
+        for (int i = 0; i < expected.length(); i += 7) {
+            out.write(expected, i, Math.min(7, expected.length() - i));
+        }
+        out.commit();
+        out.close();
+
+        assertEquals(expected, read(resultFile));
+    }
+
+    @Test
+    public void ResultFileWriter_commit_CompressedVariants() throws Exception {
+        File resultFile = new File(folder.getRoot(), "index.html");
+        File staleVariant = folder.newFile("index.html.zst");
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < ResultFileWriter.BYTE_BUFFER_SIZE * 3) {
+            sb.append("<div title=\"Tiddler\">some text äöü</div>\n");
+        }
+        String expected = sb.toString();
+
+        ResultFileWriter out = new ResultFileWriter(resultFile, false, EnumSet.of(Compression.GZIP));
+        out.write(expected);
+        out.commit();
+        out.close();
+
+        File gzipFile = new File(folder.getRoot(), "index.html.gz");
+        assertTrue(gzipFile.length() < resultFile.length());
+        assertEquals(expected, read(new GZIPInputStream(new FileInputStream(gzipFile))));
+        assertFalse(staleVariant.exists());
+        assertEquals(2, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void ResultFileWriter_commit_ZstdVariant() throws Exception {
+        File resultFile = new File(folder.getRoot(), "index.html");
+        String expected = "<html>Zstandard compressed content</html>";
+
+        ResultFileWriter out = new ResultFileWriter(resultFile, true, EnumSet.of(Compression.ZSTD));
+        out.write(expected);
+        out.commit();
+        out.close();
+
+        File zstdFile = new File(folder.getRoot(), "index.html.zst");
+        assertEquals(expected, read(new ZstdInputStream(new FileInputStream(zstdFile))));
+    }
+
+    @Test
+    public void ResultFileWriter_close_CompressedVariantsWithoutCommit() throws Exception {
+        File resultFile = new File(folder.getRoot(), "index.html");
+        ResultFileWriter out = new ResultFileWriter(resultFile, false,
+                EnumSet.of(Compression.GZIP, Compression.ZSTD));
+        out.write("aborted");
+        out.flush();
+        out.close();
+
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void Compression_parse_Unsupported() {
+        Compression.parse("gzip,brotli");
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static String read(InputStream is) throws Exception {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            is.close();
+        }
+    }
+}
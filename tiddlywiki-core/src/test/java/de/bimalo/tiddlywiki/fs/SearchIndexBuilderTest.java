@@ -0,0 +1,134 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>SearchIndexBuilder</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see SearchIndexBuilder
+ */
+public class SearchIndexBuilderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final List<String> TITLES = Arrays.asList("Alpha", "Beta", "Gamma", "Delta");
+
+    private static final String[] TEXTS = {
+        "The quick brown fox",
+        "jumps over the lazy dog",
+        "Über den Fluß springt der Fuchs 2018",
+        "quick quick quicker fox"
+    };
+
+    @Test
+    public void SearchIndexBuilder_tokenize_LettersAndDigits() {
+        Set<String> terms = new LinkedHashSet<String>();
+        SearchIndexBuilder.tokenize("Hello, World! a ÄÖÜber x2 foo_bar", terms);
+        assertEquals(Arrays.asList("hello", "world", "äöüber", "x2", "foo", "bar"),
+                Arrays.asList(terms.toArray()));
+    }
+
+    @Test
+    public void SearchIndexBuilder_build_Postings() throws Exception {
+        SearchIndex index = buildIndex(Integer.MAX_VALUE);
+        TreeMap<String, List<Integer>> postings = decode(index);
+
+        assertEquals(Arrays.asList(0, 3), postings.get("fox"));
+        assertEquals(Arrays.asList(0, 1), postings.get("the"));
+        assertEquals(Arrays.asList(3), postings.get("quicker"));
+        assertEquals(Arrays.asList(2), postings.get("über"));
+        assertEquals(Arrays.asList(1), postings.get("beta"));
+        assertEquals(postings.size(), index.getTermCount());
+    }
+
+    @Test
+    public void SearchIndexBuilder_build_SpilledRunsEqualInMemory() throws Exception {
+        SearchIndex inMemory = buildIndex(Integer.MAX_VALUE);
+        SearchIndex spilled = buildIndex(3);
+
+        assertArrayEquals(Files.readAllBytes(inMemory.getIndexFile().toPath()),
+                Files.readAllBytes(spilled.getIndexFile().toPath()));
+        assertEquals(0, folder.getRoot().listFiles((dir, name) -> name.endsWith(".run")).length);
+    }
+
+    @Test
+    public void SearchIndex_toBase64_DecodesToIndex() throws Exception {
+        SearchIndex index = buildIndex(Integer.MAX_VALUE);
+        byte[] decoded = Base64.getDecoder().decode(index.toBase64());
+        assertArrayEquals(Files.readAllBytes(index.getIndexFile().toPath()), decoded);
+    }
+
+    @Test
+    public void SearchIndex_delete_IndexFileRemoved() throws Exception {
+        SearchIndex index = buildIndex(3);
+        assertTrue(index.getIndexFile().exists());
+        index.delete();
+        assertFalse(index.getIndexFile().exists());
+        assertEquals(0, folder.getRoot().listFiles().length);
+    }
+
+    private SearchIndex buildIndex(int maxBufferedPostings) throws Exception {
+        SearchIndexBuilder builder = new SearchIndexBuilder(folder.getRoot());
+        builder.setMaxBufferedPostings(maxBufferedPostings);
+        for (int i = 0; i < TITLES.size(); i++) {
+            Tiddler tiddler = new Tiddler(TITLES.get(i));
+            tiddler.setText(TEXTS[i]);
+            builder.tiddlerAdded(tiddler, i);
+        }
+        return builder.build(TITLES);
+    }
+
+    private static TreeMap<String, List<Integer>> decode(SearchIndex index) throws Exception {
+        InputStream in = new ByteArrayInputStream(Files.readAllBytes(index.getIndexFile().toPath()));
+        byte[] magic = new byte[4];
+        assertEquals(4, in.read(magic));
+        assertArrayEquals(SearchIndexBuilder.MAGIC, magic);
+        assertEquals(SearchIndexBuilder.VERSION, in.read());
+        int titleCount = SearchIndexBuilder.readVarint(in);
+        assertEquals(TITLES.size(), titleCount);
+        for (int i = 0; i < titleCount; i++) {
+            assertEquals(TITLES.get(i), readString(in));
+        }
+        TreeMap<String, List<Integer>> postings = new TreeMap<String, List<Integer>>();
+        String previous = "";
+        while (in.available() > 0) {
+            int shared = SearchIndexBuilder.readVarint(in);
+            String term = previous.substring(0, shared) + readString(in);
+            assertTrue(term.compareTo(previous) > 0);
+            int count = SearchIndexBuilder.readVarint(in);
+            SearchIndexBuilder.readVarint(in);
+            Integer[] ordinals = new Integer[count];
+            int ordinal = 0;
+            for (int i = 0; i < count; i++) {
+                ordinal += SearchIndexBuilder.readVarint(in);
+                ordinals[i] = ordinal;
+            }
+            postings.put(term, Arrays.asList(ordinals));
+            previous = term;
+        }
+        return postings;
+    }
+
+    private static String readString(InputStream in) throws Exception {
+        byte[] bytes = new byte[SearchIndexBuilder.readVarint(in)];
+        assertEquals(bytes.length, in.read(bytes));
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
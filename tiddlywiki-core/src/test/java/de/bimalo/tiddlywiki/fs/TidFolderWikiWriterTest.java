@@ -0,0 +1,169 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import de.bimalo.tiddlywiki.TiddlyWiki;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>TidFolderWikiWriter</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see TidFolderWikiWriter
+ */
+public class TidFolderWikiWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File wikiFolder;
+
+    private File tiddlersFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        wikiFolder = new File(folder.getRoot(), "wiki");
+        tiddlersFolder = new File(wikiFolder, TidFolderWikiWriter.TIDDLERS_FOLDER);
+    }
+
+    @Test
+    public void TidFolderWikiWriter_createFilename_IllegalCharacters() {
+        Set<String> usedNames = new HashSet<String>();
+        assertEquals("$__SiteTitle.tid", TidFolderWikiWriter.createFilename("$:/SiteTitle", "s", usedNames));
+        assertEquals("a_b_c.tid", TidFolderWikiWriter.createFilename("a/b:c", "/x/a", usedNames));
+        String duplicate = TidFolderWikiWriter.createFilename("A?B*C", "/x/b", usedNames);
+        assertTrue(duplicate.matches("A_B_C_[0-9a-f]{8}\\.tid"));
+        assertEquals("a_b_c_" + duplicate.substring(6, 14) + "_1.tid",
+                TidFolderWikiWriter.createFilename("a_b_c", "/x/b", usedNames));
+    }
+
+    @Test
+    public void TidFolderWikiWriter_write_DuplicateNamesIndependentOfOrder() throws Exception {
+        TiddlyWiki first = createWiki("a", "b", "a");
+        first.listTiddlers().get(0).setPath("/src/1/a.md");
+        first.listTiddlers().get(2).setPath("/src/2/a.md");
+        first.listTiddlers().get(2).setText("second a");
+        new TidFolderWikiWriter(wikiFolder).write(first);
+        Set<String> names = new HashSet<String>(Arrays.asList(tiddlersFolder.list()));
+
+        TiddlyWiki second = new TiddlyWiki();
+        second.setTitle("Wiki");
+        for (int i = 2; i >= 0; i--) {
+            second.addTiddler(first.listTiddlers().get(i));
+        }
+        second.addDefaultTiddler(second.listTiddlers().get(2));
+        TidFolderWikiWriter writer = new TidFolderWikiWriter(wikiFolder);
+        writer.write(second);
+
+        assertEquals(names, new HashSet<String>(Arrays.asList(tiddlersFolder.list())));
+        assertEquals(0, writer.getWrittenCount());
+        assertTrue(read("a.tid").endsWith("text of a"));
+    }
+
+    @Test
+    public void TidFolderWikiWriter_write_Tiddlers() throws Exception {
+        TidFolderWikiWriter writer = new TidFolderWikiWriter(wikiFolder);
+        writer.write(createWiki("a", "b"));
+
+        assertTrue(new File(wikiFolder, "tiddlywiki.info").exists());
+        assertTrue(new File(wikiFolder, TidFolderWikiWriter.MANIFEST_FILENAME).exists());
+        assertTrue(read("$__SiteTitle.tid").contains("Wiki"));
+        String content = read("a.tid");
+        assertTrue(content.startsWith("title: a\n"));
+        assertTrue(content.endsWith("\n\ntext of a"));
+        assertEquals(5, writer.getWrittenCount());
+    }
+
+    @Test
+    public void TidFolderWikiWriter_write_Incremental() throws Exception {
+        TidFolderWikiWriter writer = new TidFolderWikiWriter(wikiFolder);
+        writer.write(createWiki("a", "b"));
+
+        TiddlyWiki wiki = createWiki("a", "c");
+        wiki.listTiddlers().get(0).setText("changed text");
+        writer.write(wiki);
+
+        assertEquals(2, writer.getWrittenCount());
+        assertEquals(3, writer.getUnchangedCount());
+        assertEquals(1, writer.getDeletedCount());
+        assertTrue(read("a.tid").endsWith("changed text"));
+        assertFalse(new File(tiddlersFolder, "b.tid").exists());
+        assertTrue(new File(tiddlersFolder, "c.tid").exists());
+    }
+
+    @Test
+    public void TidFolderWikiWriter_write_ManifestEntriesOutsideFolderIgnored() throws Exception {
+        TidFolderWikiWriter writer = new TidFolderWikiWriter(wikiFolder);
+        writer.write(createWiki("a"));
+        File outside = new File(wikiFolder, "outside.tid");
+        Files.write(outside.toPath(), "keep".getBytes(StandardCharsets.UTF_8));
+        File manifest = new File(wikiFolder, TidFolderWikiWriter.MANIFEST_FILENAME);
+        Files.write(manifest.toPath(), "../outside.tid=0\nmissing.tid=0\n".getBytes(StandardCharsets.ISO_8859_1),
+                StandardOpenOption.APPEND);
+
+        writer.write(createWiki("a"));
+
+        assertTrue(outside.exists());
+        assertEquals(0, writer.getDeletedCount());
+    }
+
+    @Test
+    public void TidFolderWikiWriter_write_NoTemporaryFilesLeft() throws Exception {
+        TidFolderWikiWriter writer = new TidFolderWikiWriter(wikiFolder);
+        writer.write(createWiki("a", "b"));
+        writer.write(createWiki("a", "c"));
+
+        assertArrayEquals(new String[0], wikiFolder.list((dir, name) -> name.endsWith(".tmp")));
+        assertArrayEquals(new String[0], tiddlersFolder.list((dir, name) -> name.startsWith(".")));
+    }
+
+    @Test
+    public void TidFolderWikiWriter_write_FailedWriteKeepsManifest() throws Exception {
+        TidFolderWikiWriter writer = new TidFolderWikiWriter(wikiFolder);
+        writer.write(createWiki("a"));
+        File manifest = new File(wikiFolder, TidFolderWikiWriter.MANIFEST_FILENAME);
+        byte[] before = Files.readAllBytes(manifest.toPath());
+        File blocked = new File(tiddlersFolder, "b.tid");
+        assertTrue(blocked.mkdir());
+        Files.write(new File(blocked, "x").toPath(), "x".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            writer.write(createWiki("a", "b"));
+            fail("IOException expected");
+        } catch (IOException ex) {
+            // expected, b.tid is a folder
+        }
+
+        assertArrayEquals(before, Files.readAllBytes(manifest.toPath()));
+        assertArrayEquals(new String[0], wikiFolder.list((dir, name) -> name.endsWith(".tmp")));
+    }
+
+    private String read(String filename) throws Exception {
+        File file = new File(tiddlersFolder, filename);
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static TiddlyWiki createWiki(String... titles) {
+        TiddlyWiki wiki = new TiddlyWiki();
+        wiki.setTitle("Wiki");
+        for (String title : titles) {
+            Tiddler tiddler = new Tiddler(title);
+            tiddler.setText("text of " + title);
+            wiki.addTiddler(tiddler);
+        }
+        wiki.addDefaultTiddler(wiki.listTiddlers().get(0));
+        return wiki;
+    }
+}
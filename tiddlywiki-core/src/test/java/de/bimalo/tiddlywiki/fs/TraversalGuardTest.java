@@ -0,0 +1,75 @@
+package de.bimalo.tiddlywiki.fs;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>TraversalGuard</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see TraversalGuard
+ */
+public class TraversalGuardTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileObject root;
+
+    @Before
+    public void setUp() throws Exception {
+        Path base = folder.getRoot().toPath();
+        Files.createDirectories(base.resolve("docs/sub"));
+        Files.createFile(base.resolve("docs/a.md"));
+        try {
+            Files.createSymbolicLink(base.resolve("docs/sub/loop"), base.resolve("docs"));
+            Files.createSymbolicLink(base.resolve("alias"), base.resolve("docs"));
+            Files.createSymbolicLink(base.resolve("link.md"), base.resolve("docs/a.md"));
+        } catch (UnsupportedOperationException | java.io.IOException ex) {
+            Assume.assumeNoException(ex);
+        }
+        root = VFS.getManager().resolveFile(folder.getRoot().getAbsolutePath());
+    }
+
+    @Test
+    public void TraversalGuard_accept_FolderOnlyOnce() throws Exception {
+        TraversalGuard guard = new TraversalGuard(root, true, false);
+        assertTrue(guard.accept(root.resolveFile("docs")));
+        assertFalse(guard.accept(root.resolveFile("alias")));
+        assertTrue(guard.accept(root.resolveFile("docs/sub")));
+        assertFalse(guard.accept(root.resolveFile("docs/sub/loop")));
+        assertTrue(guard.accept(root.resolveFile("link.md")));
+    }
+
+    @Test
+    public void TraversalGuard_accept_SymlinksNotFollowed() throws Exception {
+        TraversalGuard guard = new TraversalGuard(root, false, true);
+        assertFalse(guard.accept(root.resolveFile("alias")));
+        assertFalse(guard.accept(root.resolveFile("link.md")));
+        assertTrue(guard.accept(root.resolveFile("docs")));
+        assertTrue(guard.accept(root.resolveFile("docs/a.md")));
+    }
+
+    @Test
+    public void TraversalGuard_accept_SpecialFileSkipped() throws Exception {
+        File fifo = new File(folder.getRoot(), "pipe");
+        try {
+            Process process = new ProcessBuilder("mkfifo", fifo.getAbsolutePath()).start();
+            Assume.assumeTrue(process.waitFor() == 0);
+        } catch (java.io.IOException ex) {
+            Assume.assumeNoException(ex);
+        }
+        TraversalGuard guard = new TraversalGuard(root, true, false);
+        assertFalse(guard.accept(root.resolveFile("pipe")));
+    }
+}
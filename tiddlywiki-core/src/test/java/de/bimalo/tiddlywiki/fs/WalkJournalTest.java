@@ -0,0 +1,106 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Date;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>WalkJournal</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see WalkJournal
+ */
+public class WalkJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "index.html.journal");
+    }
+
+    @Test
+    public void WalkJournal_open_ResumesRecords() throws Exception {
+        WalkJournal journal = new WalkJournal(file, "/docs|all");
+        assertEquals(0, journal.open());
+        journal.append("/docs/a.md", 10, 1000, createTiddler("a"));
+        journal.append("/docs/b.pdf", 20, 2000, createTiddler("b"));
+        journal.close();
+
+        journal = new WalkJournal(file, "/docs|all");
+        assertEquals(2, journal.open());
+        Tiddler tiddler = journal.lookup("/docs/a.md", 10, 1000);
+        assertNotNull(tiddler);
+        assertEquals("a", tiddler.getTitle());
+        assertEquals("Text of a", tiddler.getText());
+        assertEquals("/docs/a", tiddler.getPath());
+        assertEquals("text/x-web-markdown", tiddler.getContentType());
+        assertEquals(new Date(5000), tiddler.getCreateDate());
+        assertEquals(Arrays.asList("docs", "a"), tiddler.getTags());
+        assertTrue(tiddler.isDefault());
+        assertFalse(tiddler.isHidden());
+        assertNull(journal.lookup("/docs/a.md", 11, 1000));
+        assertNull(journal.lookup("/docs/b.pdf", 20, 2001));
+        journal.delete();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void WalkJournal_open_IncompleteRecordIgnored() throws Exception {
+        WalkJournal journal = new WalkJournal(file, "/docs|all");
+        journal.open();
+        journal.append("/docs/a.md", 10, 1000, createTiddler("a"));
+        journal.append("/docs/b.pdf", 20, 2000, createTiddler("b"));
+        journal.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 5);
+        raf.close();
+
+        journal = new WalkJournal(file, "/docs|all");
+        assertEquals(1, journal.open());
+        assertNotNull(journal.lookup("/docs/a.md", 10, 1000));
+        assertNull(journal.lookup("/docs/b.pdf", 20, 2000));
+        journal.append("/docs/c.md", 30, 3000, createTiddler("c"));
+        journal.close();
+
+        journal = new WalkJournal(file, "/docs|all");
+        assertEquals(2, journal.open());
+        assertEquals("c", journal.lookup("/docs/c.md", 30, 3000).getTitle());
+        journal.close();
+    }
+
+    @Test
+    public void WalkJournal_open_OtherWalkDiscarded() throws Exception {
+        WalkJournal journal = new WalkJournal(file, "/docs|all");
+        journal.open();
+        journal.append("/docs/a.md", 10, 1000, createTiddler("a"));
+        journal.close();
+
+        journal = new WalkJournal(file, "/docs|markdown");
+        assertEquals(0, journal.open());
+        assertNull(journal.lookup("/docs/a.md", 10, 1000));
+        journal.close();
+    }
+
+    private static Tiddler createTiddler(String title) {
+        Tiddler tiddler = new Tiddler(title);
+        tiddler.setText("Text of " + title);
+        tiddler.setPath("/docs/" + title);
+        tiddler.setContentType("text/x-web-markdown");
+        tiddler.setCreateDate(new Date(5000));
+        tiddler.addTags(Arrays.asList("docs", title));
+        tiddler.defineDefault();
+        return tiddler;
+    }
+}
@@ -0,0 +1,165 @@
+package de.bimalo.tiddlywiki.fs;
+
+import de.bimalo.tiddlywiki.Tiddler;
+import de.bimalo.tiddlywiki.TiddlyWiki;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>WikiServer</code>.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see WikiServer
+ */
+public class WikiServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private WikiServer server;
+
+    private TiddlyWiki wiki;
+
+    @Before
+    public void setUp() throws Exception {
+        File template = folder.newFile("template.html");
+        Files.write(template.toPath(), "<html>${title}<#list rootTiddlers as t>[${t.title}]</#list></html>"
+                .getBytes(StandardCharsets.UTF_8));
+        FileObject templateFile = VFS.getManager().resolveFile(template.getAbsolutePath());
+        server = new WikiServer(0, new TemplateRenderer(templateFile), EnumSet.of(Compression.GZIP));
+
+        wiki = new TiddlyWiki();
+        wiki.setTitle("Wiki");
+        wiki.addTiddler(new Tiddler("first"));
+        server.update(wiki);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void WikiServer_get_ContentAndStrongETag() throws Exception {
+        HttpURLConnection connection = open("/");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(server.getETag(), connection.getHeaderField("ETag"));
+        assertEquals("<html>Wiki[first]</html>", read(connection.getInputStream()));
+    }
+
+    @Test
+    public void WikiServer_get_IfNoneMatchNotModified() throws Exception {
+        HttpURLConnection connection = open("/index.html");
+        connection.setRequestProperty("If-None-Match", server.getETag());
+        assertEquals(304, connection.getResponseCode());
+    }
+
+    @Test
+    public void WikiServer_get_Range() throws Exception {
+        HttpURLConnection connection = open("/");
+        connection.setRequestProperty("Range", "bytes=6-9");
+        assertEquals(206, connection.getResponseCode());
+        assertEquals("bytes 6-9/24", connection.getHeaderField("Content-Range"));
+        assertEquals("Wiki", read(connection.getInputStream()));
+
+        connection = open("/");
+        connection.setRequestProperty("Range", "bytes=100-");
+        assertEquals(416, connection.getResponseCode());
+    }
+
+    @Test
+    public void WikiServer_get_RangeTooLarge() throws Exception {
+        HttpURLConnection connection = open("/");
+        connection.setRequestProperty("Range", "bytes=99999999999999999999-");
+        assertEquals(416, connection.getResponseCode());
+        assertEquals("bytes */24", connection.getHeaderField("Content-Range"));
+
+        connection = open("/");
+        connection.setRequestProperty("Range", "bytes=0-99999999999999999999");
+        assertEquals(206, connection.getResponseCode());
+        assertEquals("bytes 0-23/24", connection.getHeaderField("Content-Range"));
+    }
+
+    @Test
+    public void WikiServer_get_MalformedQualityNotAccepted() throws Exception {
+        HttpURLConnection connection = open("/");
+        connection.setRequestProperty("Accept-Encoding", "gzip;q=x");
+        assertEquals(200, connection.getResponseCode());
+        assertNull(connection.getHeaderField("Content-Encoding"));
+        assertEquals("<html>Wiki[first]</html>", read(connection.getInputStream()));
+    }
+
+    @Test
+    public void WikiServer_get_Gzip() throws Exception {
+        HttpURLConnection connection = open("/");
+        connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+        assertEquals(server.getETag().replace("\"", "") + "-gz", connection.getHeaderField("ETag").replace("\"", ""));
+        assertEquals("<html>Wiki[first]</html>", read(new GZIPInputStream(connection.getInputStream())));
+    }
+
+    @Test
+    public void WikiServer_update_NewETagOnlyOnChange() throws Exception {
+        String etag = server.getETag();
+        assertFalse(server.update(wiki));
+        assertEquals(etag, server.getETag());
+
+        wiki.addTiddler(new Tiddler("second"));
+        assertTrue(server.update(wiki));
+        assertNotEquals(etag, server.getETag());
+
+        HttpURLConnection connection = open("/");
+        connection.setRequestProperty("If-None-Match", etag);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("<html>Wiki[first][second]</html>", read(connection.getInputStream()));
+    }
+
+    @Test
+    public void WikiServer_construct_LoopbackAddressByDefault() throws Exception {
+        assertTrue(server.getAddress().isLoopbackAddress());
+    }
+
+    @Test
+    public void WikiServer_get_UnknownPath() throws Exception {
+        assertEquals(404, open("/other").getResponseCode());
+    }
+
+    private HttpURLConnection open(String path) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path)
+                .openConnection();
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    private static String read(InputStream in) throws Exception {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
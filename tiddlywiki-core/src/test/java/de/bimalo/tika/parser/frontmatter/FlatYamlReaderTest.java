@@ -0,0 +1,106 @@
+package de.bimalo.tika.parser.frontmatter;
+
+import com.esotericsoftware.yamlbeans.YamlReader;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.apache.tika.metadata.Metadata;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * A test case for <code>FlatYamlReader</code>. Every Front Matter block of the
+ * corpus <code>/frontmatter/corpus.txt</code> is read by yamlbeans and by
+ * <code>FlatYamlReader</code>, both must add the same metadata. A block is
+ * introduced by a line "==== fast" if it must be read by
+ * <code>FlatYamlReader</code> or "==== yaml" if it must be left to
+ * yamlbeans.</p>
+ *
+ * @author <a href="mailto:markus.lohn@bimalo.de">Markus Lohn</a>
+ * @see FlatYamlReader
+ */
+public class FlatYamlReaderTest {
+
+    @Test
+    public void FlatYamlReader_read_Corpus() throws Exception {
+        List<String[]> cases = readCorpus();
+        assertTrue(cases.size() > 50);
+        for (String[] c : cases) {
+            String name = c[1];
+            String block = c[2];
+            Map<String, Object> properties = FlatYamlReader.read(block);
+            if ("yaml".equals(c[0])) {
+                assertNull(name, properties);
+            } else {
+                assertNotNull(name, properties);
+                assertMetadataEquals(name, readWithYamlbeans(block), toMetadata(properties));
+            }
+        }
+    }
+
+    @Test
+    public void FlatYamlReader_read_WindowsLineSeparators() throws Exception {
+        String block = "---\r\ntitle: x\r\ntags:\r\n  - a\r\n  - b\r\nhide: [c, d]\r\n---\r\n";
+        Map<String, Object> properties = FlatYamlReader.read(block);
+        assertNotNull(properties);
+        assertMetadataEquals(block, readWithYamlbeans(block), toMetadata(properties));
+        assertEquals("x", properties.get("title"));
+        assertEquals(Arrays.asList("a", "b"), properties.get("tags"));
+    }
+
+    private static List<String[]> readCorpus() throws Exception {
+        List<String[]> cases = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                FlatYamlReaderTest.class.getResourceAsStream("/frontmatter/corpus.txt"), StandardCharsets.UTF_8));
+        try {
+            String[] current = null;
+            StringBuilder block = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("==== ")) {
+                    if (current != null) {
+                        current[2] = block.toString();
+                        cases.add(current);
+                    }
+                    current = new String[]{line.substring(5, 9), line.substring(10), null};
+                    block.setLength(0);
+                } else {
+                    block.append(line).append('\n');
+                }
+            }
+            if (current != null) {
+                current[2] = block.toString();
+                cases.add(current);
+            }
+        } finally {
+            reader.close();
+        }
+        return cases;
+    }
+
+    private static Metadata readWithYamlbeans(String block) throws Exception {
+        return toMetadata((Map) new YamlReader(block).read());
+    }
+
+    private static Metadata toMetadata(Map properties) {
+        Metadata metadata = new Metadata();
+        FrontMatterParser.addProperties(properties, metadata);
+        return metadata;
+    }
+
+    private static void assertMetadataEquals(String name, Metadata expected, Metadata actual) {
+        String[] names = expected.names();
+        Arrays.sort(names);
+        String[] actualNames = actual.names();
+        Arrays.sort(actualNames);
+        assertArrayEquals(name, names, actualNames);
+        for (String key : names) {
+            assertArrayEquals(name + ": " + key, expected.getValues(key), actual.getValues(key));
+        }
+    }
+}
@@ -3,7 +3,10 @@ package de.bimalo.tika.parser.frontmatter;
 import org.apache.commons.vfs2.FileNotFolderException;
 import org.apache.tika.Tika;
 import org.apache.tika.config.TikaConfig;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.BodyContentHandler;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -13,6 +16,8 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
 
 /**
  * <p>
@@ -105,4 +110,44 @@ public class FrontMatterParserTest {
             ex.printStackTrace();
         }
     }
+
+    @Test
+    public void testParseMappedFile() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\uFEFF---\r\n");
+        sb.append("title: mapped\r\n");
+        sb.append("keywords: [a,b]\r\n");
+        sb.append("...\r\n");
+        for (int i = 0; i < 2000; i++) {
+            sb.append("Line ").append(i).append(" äöü\r");
+        }
+        for (int i = 0; i < 20000; i++) {
+            sb.append('x');
+        }
+        sb.append("\n\nLast Line");
+        byte[] bytes = sb.toString().getBytes("UTF-8");
+        File file = File.createTempFile("frontmatter", ".md");
+        file.deleteOnExit();
+        Files.write(file.toPath(), bytes);
+
+        FrontMatterParser fmp = new FrontMatterParser();
+        Metadata streamMetadata = new Metadata();
+        BodyContentHandler streamHandler = new BodyContentHandler(-1);
+        fmp.parse(new ByteArrayInputStream(bytes), streamHandler, streamMetadata, new ParseContext());
+
+        Metadata mappedMetadata = new Metadata();
+        BodyContentHandler mappedHandler = new BodyContentHandler(-1);
+        TikaInputStream tis = TikaInputStream.get(file.toPath());
+        try {
+            fmp.parse(tis, mappedHandler, mappedMetadata, new ParseContext());
+        } finally {
+            tis.close();
+        }
+
+        assertEquals("mapped", mappedMetadata.get("title"));
+        assertEquals(2, mappedMetadata.getValues("keywords").length);
+        assertEquals(streamMetadata.get(Metadata.CONTENT_TYPE), mappedMetadata.get(Metadata.CONTENT_TYPE));
+        assertEquals(streamHandler.toString(), mappedHandler.toString());
+        assertTrue(mappedHandler.toString().contains("x" + System.lineSeparator() + System.lineSeparator() + "Last Line"));
+    }
 }